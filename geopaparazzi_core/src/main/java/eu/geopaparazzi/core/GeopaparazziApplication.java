@@ -34,6 +34,7 @@ import java.io.IOException;
 
 import eu.geopaparazzi.core.database.DatabaseManager;
 import eu.geopaparazzi.library.GPApplication;
+import eu.geopaparazzi.library.database.GPLog;
 
 /**
  * Application singleton.
@@ -87,6 +88,7 @@ public class GeopaparazziApplication extends GPApplication {
     @Override
     public void closeDatabase() {
         if (database != null && database.isOpen()) {
+            GPLog.flush();
             database.close();
         }
         database = null;
@@ -29,7 +29,9 @@ import org.mapsforge.core.model.GeoPoint;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.core.GeopaparazziApplication;
@@ -73,6 +75,7 @@ public class DaoBookmarks {
             double east ) throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
         sqliteDatabase.beginTransaction();
+        long id = -1;
         try {
             ContentValues values = new ContentValues();
             values.put(COLUMN_LON, lon);
@@ -83,7 +86,7 @@ public class DaoBookmarks {
             values.put(COLUMN_SOUTHBOUND, south);
             values.put(COLUMN_WESTBOUND, west);
             values.put(COLUMN_EASTBOUND, east);
-            sqliteDatabase.insertOrThrow(TABLE_BOOKMARKS, null, values);
+            id = sqliteDatabase.insertOrThrow(TABLE_BOOKMARKS, null, values);
 
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
@@ -91,6 +94,7 @@ public class DaoBookmarks {
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_BOOKMARKS, id);
         }
     }
 
@@ -115,6 +119,7 @@ public class DaoBookmarks {
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_BOOKMARKS, id);
         }
     }
 
@@ -149,6 +154,7 @@ public class DaoBookmarks {
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_BOOKMARKS, id);
         }
     }
 
@@ -230,25 +236,30 @@ public class DaoBookmarks {
 
     /**
      * @param marker the marker to use.
-     * @return the list of {@link OverlayItem}s
+     * @param bookmarkIds the ids of the bookmarks to read, <code>null</code> to read all bookmarks.
+     * @return the map of bookmark ids to their {@link OverlayItem}.
      * @throws IOException  if something goes wrong.
      */
-    public static List<OverlayItem> getBookmarksOverlays( Drawable marker ) throws IOException {
+    public static LinkedHashMap<Long, OverlayItem> getBookmarksOverlaysMap( Drawable marker, Set<Long> bookmarkIds ) throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
-        String query = "SELECT lon, lat, text FROM " + TABLE_BOOKMARKS;
+        String query = "SELECT _id, lon, lat, text FROM " + TABLE_BOOKMARKS;
+        if (bookmarkIds != null) {
+            query = query + " WHERE " + TableRevisions.getRowsWhere(COLUMN_ID, bookmarkIds);
+        }
 
         Cursor c = null;
         try {
             c = sqliteDatabase.rawQuery(query, null);
-            List<OverlayItem> bookmarks = new ArrayList<>();
+            LinkedHashMap<Long, OverlayItem> bookmarks = new LinkedHashMap<>();
             c.moveToFirst();
             while( !c.isAfterLast() ) {
-                double lon = c.getDouble(0);
-                double lat = c.getDouble(1);
-                String text = c.getString(2);
+                long id = c.getLong(0);
+                double lon = c.getDouble(1);
+                double lat = c.getDouble(2);
+                String text = c.getString(3);
                 text = text + "\n";
                 OverlayItem bookmark = new OverlayItem(new GeoPoint(lat, lon), null, text, marker);
-                bookmarks.add(bookmark);
+                bookmarks.put(id, bookmark);
                 c.moveToNext();
             }
             return bookmarks;
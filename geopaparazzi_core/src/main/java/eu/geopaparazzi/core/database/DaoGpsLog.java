@@ -35,8 +35,10 @@ import org.mapsforge.core.model.GeoPoint;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.IGpsLogDbHelper;
@@ -205,7 +207,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
         sqliteDatabase.beginTransaction();
-        long rowId;
+        long rowId = -1;
         try {
             // add new log
             ContentValues values = new ContentValues();
@@ -233,6 +235,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_GPSLOGS, rowId);
         }
         return rowId;
     }
@@ -263,6 +266,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         values.put(GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName(), altim);
         values.put(GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName(), timestamp);
         sqliteDatabase.insertOrThrow(TABLE_GPSLOG_DATA, null, values);
+        TableRevisions.bump(TABLE_GPSLOGS, gpslogId);
     }
 
     /**
@@ -293,12 +297,16 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             sqlUpdate.execute();
             sqlUpdate.close();
 
+            // delete precomputed profile
+            DaoGpsLogProfiles.deleteProfile(sqliteDatabase, id);
+
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DOAGPSLOG", e.getLocalizedMessage(), e);
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_GPSLOGS, id);
         }
     }
 
@@ -335,6 +343,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_GPSLOGS, logId);
         }
     }
 
@@ -364,6 +373,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_GPSLOGS, logid);
         }
     }
 
@@ -374,6 +384,17 @@ public class DaoGpsLog implements IGpsLogDbHelper {
      * @throws IOException if something goes wrong.
      */
     public static List<LogMapItem> getGpslogs() throws IOException {
+        return getGpslogs(null);
+    }
+
+    /**
+     * Get some gps logs.
+     *
+     * @param logIds the ids of the logs to read, <code>null</code> to read all logs.
+     * @return the logs list
+     * @throws IOException if something goes wrong.
+     */
+    public static List<LogMapItem> getGpslogs(Set<Long> logIds) throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
         List<LogMapItem> logsList = new ArrayList<>();
 
@@ -404,6 +425,10 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         sB.append(GpsLogsTableFields.COLUMN_ID.getFieldName());
         sB.append(" = p.");
         sB.append(GpsLogsPropertiesTableFields.COLUMN_LOGID.getFieldName());
+        if (logIds != null) {
+            sB.append(" and ");
+            sB.append(TableRevisions.getRowsWhere("l." + GpsLogsTableFields.COLUMN_ID.getFieldName(), logIds));
+        }
         sB.append(" order by ");
         sB.append(GpsLogsTableFields.COLUMN_ID.getFieldName());
         String query = sB.toString();
@@ -504,22 +529,8 @@ public class DaoGpsLog implements IGpsLogDbHelper {
                     String color = c.getString(1);
                     double width = c.getDouble(2);
 
-                    Paint wayPaintOutline = new Paint(Paint.ANTI_ALIAS_FLAG);
-                    wayPaintOutline.setStyle(Paint.Style.STROKE);
-                    int lineColor = ColorUtilities.toColor(color);
-                    wayPaintOutline.setColor(lineColor);
-                    wayPaintOutline.setAlpha(255);
-                    wayPaintOutline.setStrokeWidth((float) width);
-                    wayPaintOutline.setStrokeJoin(Paint.Join.ROUND);
-
-                    OverlayWay way = new OverlayWay();
-                    List<GeoPoint> gpslogGeoPoints = getGpslogGeoPoints(sqliteDatabase, logid, -1);
-                    if (gpslogGeoPoints.size() > 1) {
-                        way.setPaint(null, wayPaintOutline);
-                        GeoPoint[] geoPoints = gpslogGeoPoints.toArray(new GeoPoint[gpslogGeoPoints.size()]);
-                        way.setWayNodes(new GeoPoint[][]{geoPoints});
-                        // item.setId(logid);
-                        // item.setVisible(visible == 1 ? true : false);
+                    OverlayWay way = getGpslogOverlay(sqliteDatabase, logid, color, width);
+                    if (way != null) {
                         logsList.add(way);
                     }
                 }
@@ -536,6 +547,84 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         return logsList;
     }
 
+    /**
+     * Get a gpslog overlay styled with the given log properties.
+     *
+     * @param logId the log id.
+     * @param color the log color.
+     * @param width the log width.
+     * @return the way overlay or <code>null</code>, if the log has less than two points.
+     * @throws IOException if something goes wrong.
+     */
+    public static OverlayWay getGpslogOverlay(long logId, String color, double width) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        return getGpslogOverlay(sqliteDatabase, logId, color, width);
+    }
+
+    private static OverlayWay getGpslogOverlay(SQLiteDatabase sqliteDatabase, long logId, String color, double width)
+            throws IOException {
+        Paint wayPaintOutline = new Paint(Paint.ANTI_ALIAS_FLAG);
+        wayPaintOutline.setStyle(Paint.Style.STROKE);
+        int lineColor = ColorUtilities.toColor(color);
+        wayPaintOutline.setColor(lineColor);
+        wayPaintOutline.setAlpha(255);
+        wayPaintOutline.setStrokeWidth((float) width);
+        wayPaintOutline.setStrokeJoin(Paint.Join.ROUND);
+
+        List<GeoPoint> gpslogGeoPoints = getGpslogGeoPoints(sqliteDatabase, logId, -1);
+        if (gpslogGeoPoints.size() > 1) {
+            OverlayWay way = new OverlayWay();
+            way.setPaint(null, wayPaintOutline);
+            GeoPoint[] geoPoints = gpslogGeoPoints.toArray(new GeoPoint[gpslogGeoPoints.size()]);
+            way.setWayNodes(new GeoPoint[][]{geoPoints});
+            return way;
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of points of every gps log.
+     *
+     * @return the map of log ids to their points count.
+     * @throws IOException if something goes wrong.
+     */
+    public static HashMap<Long, Integer> getGpslogPointsCount() throws IOException {
+        return getGpslogPointsCount(null);
+    }
+
+    /**
+     * Get the number of points of some gps logs.
+     * <p/>
+     * Logs without points are not in the returned map.
+     *
+     * @param logIds the ids of the logs to count the points of, <code>null</code> for all logs.
+     * @return the map of log ids to their points count.
+     * @throws IOException if something goes wrong.
+     */
+    public static HashMap<Long, Integer> getGpslogPointsCount(Set<Long> logIds) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        String query = "select " + GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + ", count(*) from " + TABLE_GPSLOG_DATA;
+        if (logIds != null) {
+            query = query + " where " + TableRevisions.getRowsWhere(GpsLogsDataTableFields.COLUMN_LOGID.getFieldName(), logIds);
+        }
+        query = query + " group by " + GpsLogsDataTableFields.COLUMN_LOGID.getFieldName();
+
+        HashMap<Long, Integer> countMap = new HashMap<>();
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.rawQuery(query, null);
+            c.moveToFirst();
+            while (!c.isAfterLast()) {
+                countMap.put(c.getLong(0), c.getInt(1));
+                c.moveToNext();
+            }
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        return countMap;
+    }
+
     /**
      * Get a gpslog by id.
      *
@@ -649,6 +738,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_GPSLOGS, logid);
         }
     }
 
@@ -683,6 +773,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_GPSLOGS);
         }
     }
 
@@ -722,6 +813,9 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             sqlUpdate.execute();
             sqlUpdate.close();
 
+            // the destination profile is recomputed on next use, since its points change
+            DaoGpsLogProfiles.deleteProfile(sqliteDatabase, logidToRemove);
+
             sb = new StringBuilder();
             sb.append("UPDATE ");
             sb.append(TABLE_GPSLOG_DATA);
@@ -743,6 +837,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_GPSLOGS, logidToRemove, destinationLogId);
         }
     }
 
@@ -1339,6 +1434,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             sqlUpdate.close();
             sqliteDatabase.setTransactionSuccessful();
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_GPSLOGS, logId);
 
             // send the summed distance back so we don't have to query the table again
             return (summedDistance);
@@ -0,0 +1,341 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.location.Location;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import eu.geopaparazzi.core.GeopaparazziApplication;
+import eu.geopaparazzi.core.database.objects.GpsLogProfile;
+import eu.geopaparazzi.library.database.GPLog;
+
+import static eu.geopaparazzi.core.database.TableDescriptions.GpsLogsDataTableFields;
+import static eu.geopaparazzi.core.database.TableDescriptions.GpsLogsProfilesTableFields;
+import static eu.geopaparazzi.core.database.TableDescriptions.GpsLogsTableFields;
+import static eu.geopaparazzi.core.database.TableDescriptions.TABLE_GPSLOGS;
+import static eu.geopaparazzi.core.database.TableDescriptions.TABLE_GPSLOG_DATA;
+import static eu.geopaparazzi.core.database.TableDescriptions.TABLE_GPSLOG_PROFILES;
+
+/**
+ * Dao for the precomputed gps log profiles.
+ * <p/>
+ * The profile of a log is computed the first time it is asked for and stored
+ * together with the number of points and last timestamp of the log, so that it
+ * is computed again only if the log changed.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class DaoGpsLogProfiles {
+
+    /**
+     * The sliding average window used to smooth elevations and speeds.
+     */
+    private static final int SMOOTHING_LOOKAHEAD = 20;
+
+    /**
+     * Create the profiles table, if it doesn't exist already.
+     *
+     * @throws IOException if something goes wrong.
+     */
+    public static void createTables() throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        createTables(sqliteDatabase);
+    }
+
+    /**
+     * Create the profiles table, if it doesn't exist already.
+     * <p/>
+     * Used also to add the table to projects created before it was introduced, when their
+     * database is upgraded.
+     *
+     * @param sqliteDatabase the database to use.
+     */
+    static void createTables(SQLiteDatabase sqliteDatabase) {
+        StringBuilder sB = new StringBuilder();
+        sB.append("CREATE TABLE IF NOT EXISTS ");
+        sB.append(TABLE_GPSLOG_PROFILES);
+        sB.append(" (");
+        sB.append(GpsLogsProfilesTableFields.COLUMN_ID.getFieldName());
+        sB.append(" INTEGER PRIMARY KEY AUTOINCREMENT, ");
+        sB.append(GpsLogsProfilesTableFields.COLUMN_LOGID.getFieldName());
+        sB.append(" INTEGER NOT NULL UNIQUE ");
+        sB.append("CONSTRAINT " + GpsLogsProfilesTableFields.COLUMN_LOGID.getFieldName() + " REFERENCES ");
+        sB.append(TABLE_GPSLOGS);
+        sB.append("(");
+        sB.append(GpsLogsTableFields.COLUMN_ID.getFieldName());
+        sB.append(") ON DELETE CASCADE,");
+        sB.append(GpsLogsProfilesTableFields.COLUMN_PROFILE_POINTSCOUNT.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsProfilesTableFields.COLUMN_PROFILE_LASTTS.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsProfilesTableFields.COLUMN_PROFILE_LENGTHM.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsProfilesTableFields.COLUMN_PROFILE_ELEVGAIN.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsProfilesTableFields.COLUMN_PROFILE_ELEVMIN.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsProfilesTableFields.COLUMN_PROFILE_ELEVMAX.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsProfilesTableFields.COLUMN_PROFILE_SPEEDMAX.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsProfilesTableFields.COLUMN_PROFILE_SPEEDAVG.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsProfilesTableFields.COLUMN_PROFILE_DISTANCES.getFieldName()).append(" BLOB NOT NULL, ");
+        sB.append(GpsLogsProfilesTableFields.COLUMN_PROFILE_ELEVATIONS.getFieldName()).append(" BLOB NOT NULL, ");
+        sB.append(GpsLogsProfilesTableFields.COLUMN_PROFILE_SPEEDS.getFieldName()).append(" BLOB NOT NULL");
+        sB.append(");");
+        String CREATE_TABLE_GPSLOGS_PROFILES = sB.toString();
+
+        if (GPLog.LOG_ANDROID)
+            Log.i("DAOGPSLOGPROFILES", "Create the gpslogs profiles table with: \n" + CREATE_TABLE_GPSLOGS_PROFILES);
+        sqliteDatabase.execSQL(CREATE_TABLE_GPSLOGS_PROFILES);
+    }
+
+    /**
+     * Get the profile of a log, computing and storing it if necessary.
+     *
+     * @param logId the id of the log.
+     * @return the profile.
+     * @throws IOException if something goes wrong.
+     */
+    public static GpsLogProfile getProfile(long logId) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        try {
+            int pointsCount = 0;
+            long lastTs = 0;
+            String sql = "select count(*), max(" + GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + ") from " +
+                    TABLE_GPSLOG_DATA + " where " + GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
+            Cursor c = null;
+            try {
+                c = sqliteDatabase.rawQuery(sql, null);
+                if (c.moveToFirst()) {
+                    pointsCount = c.getInt(0);
+                    lastTs = c.getLong(1);
+                }
+            } finally {
+                if (c != null)
+                    c.close();
+            }
+
+            GpsLogProfile profile = readProfile(sqliteDatabase, logId);
+            if (profile != null && profile.getPointsCount() == pointsCount && profile.getLastTs() == lastTs) {
+                return profile;
+            }
+
+            profile = computeProfile(sqliteDatabase, logId, pointsCount, lastTs);
+            writeProfile(sqliteDatabase, profile);
+            return profile;
+        } catch (Exception e) {
+            GPLog.error("DAOGPSLOGPROFILES", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Delete the profile of a log.
+     *
+     * @param sqliteDatabase the database to use, possibly inside a transaction.
+     * @param logId          the id of the log.
+     */
+    public static void deleteProfile(SQLiteDatabase sqliteDatabase, long logId) {
+        sqliteDatabase.delete(TABLE_GPSLOG_PROFILES, GpsLogsProfilesTableFields.COLUMN_LOGID.getFieldName() + "=" + logId, null);
+    }
+
+    private static GpsLogProfile readProfile(SQLiteDatabase sqliteDatabase, long logId) {
+        String[] asColumnsToReturn = {//
+                GpsLogsProfilesTableFields.COLUMN_PROFILE_POINTSCOUNT.getFieldName(), //
+                GpsLogsProfilesTableFields.COLUMN_PROFILE_LASTTS.getFieldName(), //
+                GpsLogsProfilesTableFields.COLUMN_PROFILE_LENGTHM.getFieldName(), //
+                GpsLogsProfilesTableFields.COLUMN_PROFILE_ELEVGAIN.getFieldName(), //
+                GpsLogsProfilesTableFields.COLUMN_PROFILE_ELEVMIN.getFieldName(), //
+                GpsLogsProfilesTableFields.COLUMN_PROFILE_ELEVMAX.getFieldName(), //
+                GpsLogsProfilesTableFields.COLUMN_PROFILE_SPEEDMAX.getFieldName(), //
+                GpsLogsProfilesTableFields.COLUMN_PROFILE_SPEEDAVG.getFieldName(), //
+                GpsLogsProfilesTableFields.COLUMN_PROFILE_DISTANCES.getFieldName(), //
+                GpsLogsProfilesTableFields.COLUMN_PROFILE_ELEVATIONS.getFieldName(), //
+                GpsLogsProfilesTableFields.COLUMN_PROFILE_SPEEDS.getFieldName() //
+        };
+        String strWhere = GpsLogsProfilesTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.query(TABLE_GPSLOG_PROFILES, asColumnsToReturn, strWhere, null, null, null, null);
+            if (!c.moveToFirst()) {
+                return null;
+            }
+            return new GpsLogProfile(logId, c.getInt(0), c.getLong(1), c.getDouble(2), c.getDouble(3), c.getDouble(4),
+                    c.getDouble(5), c.getDouble(6), c.getDouble(7), toFloats(c.getBlob(8)), toFloats(c.getBlob(9)),
+                    toFloats(c.getBlob(10)));
+        } finally {
+            if (c != null)
+                c.close();
+        }
+    }
+
+    private static void writeProfile(SQLiteDatabase sqliteDatabase, GpsLogProfile profile) {
+        ContentValues values = new ContentValues();
+        values.put(GpsLogsProfilesTableFields.COLUMN_LOGID.getFieldName(), profile.getLogId());
+        values.put(GpsLogsProfilesTableFields.COLUMN_PROFILE_POINTSCOUNT.getFieldName(), profile.getPointsCount());
+        values.put(GpsLogsProfilesTableFields.COLUMN_PROFILE_LASTTS.getFieldName(), profile.getLastTs());
+        values.put(GpsLogsProfilesTableFields.COLUMN_PROFILE_LENGTHM.getFieldName(), profile.getLengthm());
+        values.put(GpsLogsProfilesTableFields.COLUMN_PROFILE_ELEVGAIN.getFieldName(), profile.getElevationGain());
+        values.put(GpsLogsProfilesTableFields.COLUMN_PROFILE_ELEVMIN.getFieldName(), profile.getMinElevation());
+        values.put(GpsLogsProfilesTableFields.COLUMN_PROFILE_ELEVMAX.getFieldName(), profile.getMaxElevation());
+        values.put(GpsLogsProfilesTableFields.COLUMN_PROFILE_SPEEDMAX.getFieldName(), profile.getMaxSpeed());
+        values.put(GpsLogsProfilesTableFields.COLUMN_PROFILE_SPEEDAVG.getFieldName(), profile.getAverageSpeed());
+        values.put(GpsLogsProfilesTableFields.COLUMN_PROFILE_DISTANCES.getFieldName(), toBytes(profile.getDistances()));
+        values.put(GpsLogsProfilesTableFields.COLUMN_PROFILE_ELEVATIONS.getFieldName(), toBytes(profile.getElevations()));
+        values.put(GpsLogsProfilesTableFields.COLUMN_PROFILE_SPEEDS.getFieldName(), toBytes(profile.getSpeeds()));
+        sqliteDatabase.insertWithOnConflict(TABLE_GPSLOG_PROFILES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Compute the profile in a single pass over the log points.
+     */
+    private static GpsLogProfile computeProfile(SQLiteDatabase sqliteDatabase, long logId, int pointsCount, long lastTs) {
+        float[] distances = new float[pointsCount];
+        float[] elevations = new float[pointsCount];
+        float[] speeds = new float[pointsCount];
+
+        String[] asColumnsToReturn = {//
+                GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), //
+                GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(), //
+                GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName(),//
+                GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName()//
+        };
+        String strSortOrder = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
+        String strWhere = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
+
+        double summedDistance = 0;
+        double minElevation = Double.POSITIVE_INFINITY;
+        double maxElevation = Double.NEGATIVE_INFINITY;
+        long firstTs = 0;
+        long previousTs = 0;
+        double previousLon = 0;
+        double previousLat = 0;
+        float[] distanceResult = new float[1];
+        int count = 0;
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, strWhere, null, null, null, strSortOrder);
+            while (c.moveToNext() && count < pointsCount) {
+                double lon = c.getDouble(0);
+                double lat = c.getDouble(1);
+                double elev = c.getDouble(2);
+                long ts = c.getLong(3);
+
+                double speedKmH = 0;
+                if (count == 0) {
+                    firstTs = ts;
+                } else {
+                    Location.distanceBetween(previousLat, previousLon, lat, lon, distanceResult);
+                    double distance = distanceResult[0];
+                    summedDistance += distance;
+                    long deltaMillis = ts - previousTs;
+                    if (deltaMillis > 0) {
+                        speedKmH = 3600.0 * distance / deltaMillis;
+                    }
+                }
+                minElevation = Math.min(minElevation, elev);
+                maxElevation = Math.max(maxElevation, elev);
+
+                distances[count] = (float) summedDistance;
+                elevations[count] = (float) elev;
+                speeds[count] = (float) speedKmH;
+                count++;
+
+                previousLon = lon;
+                previousLat = lat;
+                previousTs = ts;
+            }
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        if (count == 0) {
+            minElevation = 0;
+            maxElevation = 0;
+        }
+        if (count < pointsCount) {
+            distances = Arrays.copyOf(distances, count);
+            elevations = Arrays.copyOf(elevations, count);
+            speeds = Arrays.copyOf(speeds, count);
+        }
+
+        smooth(elevations, count);
+        smooth(speeds, count);
+
+        double elevationGain = 0;
+        double maxSpeed = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                double diff = elevations[i] - elevations[i - 1];
+                if (diff > 0)
+                    elevationGain += diff;
+            }
+            maxSpeed = Math.max(maxSpeed, speeds[i]);
+        }
+        double averageSpeed = 0;
+        if (previousTs > firstTs) {
+            averageSpeed = 3600.0 * summedDistance / (previousTs - firstTs);
+        }
+
+        return new GpsLogProfile(logId, count, lastTs, summedDistance, elevationGain, minElevation, maxElevation,
+                maxSpeed, averageSpeed, distances, elevations, speeds);
+    }
+
+    /**
+     * Centered sliding average in place, with the same window rules as
+     * {@link eu.geopaparazzi.core.utilities.FeatureSlidingAverage}: the
+     * first and last half window are left untouched.
+     */
+    private static void smooth(float[] values, int n) {
+        int lookAhead = SMOOTHING_LOOKAHEAD;
+        if (n < 4 * lookAhead) {
+            lookAhead = (int) Math.floor(n * 0.2d);
+        }
+        if (lookAhead % 2 == 0) {
+            lookAhead++;
+        }
+        if (lookAhead < 3)
+            return;
+        int halfLookAhead = lookAhead / 2;
+
+        float[] original = new float[n];
+        System.arraycopy(values, 0, original, 0, n);
+        double sum = 0;
+        for (int i = 0; i < lookAhead; i++) {
+            sum += original[i];
+        }
+        for (int i = halfLookAhead; i + halfLookAhead < n - 1; i++) {
+            values[i] = (float) (sum / lookAhead);
+            sum = sum - original[i - halfLookAhead] + original[i + halfLookAhead + 1];
+        }
+    }
+
+    private static byte[] toBytes(float[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        buffer.asFloatBuffer().put(values);
+        return buffer.array();
+    }
+
+    private static float[] toFloats(byte[] bytes) {
+        float[] values = new float[bytes.length / 4];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(values);
+        return values;
+    }
+}
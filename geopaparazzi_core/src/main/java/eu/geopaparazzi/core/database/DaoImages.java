@@ -27,15 +27,17 @@ import android.util.Log;
 import org.mapsforge.android.maps.overlay.OverlayItem;
 import org.mapsforge.core.model.GeoPoint;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.IImagesDbHelper;
 import eu.geopaparazzi.library.database.Image;
-import eu.geopaparazzi.library.images.ImageUtilities;
+import eu.geopaparazzi.library.images.ThumbnailCache;
 import eu.geopaparazzi.core.GeopaparazziApplication;
 
 import static eu.geopaparazzi.core.database.TableDescriptions.ImageDataTableFields;
@@ -154,6 +156,7 @@ public class DaoImages implements IImagesDbHelper {
             throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
         sqliteDatabase.beginTransaction();
+        long imageId = -1;
         try {
             // first insert image data
             ContentValues imageDataValues = new ContentValues();
@@ -172,7 +175,7 @@ public class DaoImages implements IImagesDbHelper {
             values.put(ImageTableFields.COLUMN_AZIM.getFieldName(), azim);
             values.put(ImageTableFields.COLUMN_ISDIRTY.getFieldName(), 1);
             values.put(ImageTableFields.COLUMN_NOTE_ID.getFieldName(), noteId);
-            long imageId = sqliteDatabase.insertOrThrow(TABLE_IMAGES, null, values);
+            imageId = sqliteDatabase.insertOrThrow(TABLE_IMAGES, null, values);
 
             sqliteDatabase.setTransactionSuccessful();
 
@@ -182,6 +185,7 @@ public class DaoImages implements IImagesDbHelper {
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_IMAGES, imageId);
         }
     }
 
@@ -233,11 +237,14 @@ public class DaoImages implements IImagesDbHelper {
             deleteStmt.execute();
 
             sqliteDatabase.setTransactionSuccessful();
+
+            invalidateThumbnails(sqliteDatabase, ids);
         } catch (Exception e) {
             GPLog.error("DAOIMAGES", e.getLocalizedMessage(), e);
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_IMAGES, ids);
         }
     }
 
@@ -250,8 +257,9 @@ public class DaoImages implements IImagesDbHelper {
     public static void deleteImagesForNotes(long... noteIds) throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
         sqliteDatabase.beginTransaction();
+        long[] imageIds = {};
         try {
-            String asColumnsToReturn[] = {ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName()};
+            String asColumnsToReturn[] = {ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName(), ImageTableFields.COLUMN_ID.getFieldName()};
             String notesIdsWhereStr = "";
             int count = 0;
             for (long id : noteIds) {
@@ -264,9 +272,11 @@ public class DaoImages implements IImagesDbHelper {
             Cursor c = sqliteDatabase.query(TABLE_IMAGES, asColumnsToReturn, notesIdsWhereStr, null, null, null, null);
             c.moveToFirst();
             String imageDataIdsWhereStr = "";
+            imageIds = new long[c.getCount()];
             count = 0;
             while (!c.isAfterLast()) {
                 long imageDataId = c.getLong(0);
+                imageIds[count] = c.getLong(1);
                 c.moveToNext();
                 if (count > 0) {
                     imageDataIdsWhereStr = imageDataIdsWhereStr + " || ";
@@ -289,11 +299,27 @@ public class DaoImages implements IImagesDbHelper {
             deleteStmt.execute();
 
             sqliteDatabase.setTransactionSuccessful();
+
+            invalidateThumbnails(sqliteDatabase, imageIds);
         } catch (Exception e) {
             GPLog.error("DAOIMAGES", e.getLocalizedMessage(), e);
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_IMAGES, imageIds);
+        }
+    }
+
+    /**
+     * Remove the thumbnails of deleted images from the thumbnails cache.
+     *
+     * @param sqliteDatabase the database the images belonged to.
+     * @param imageIds       the ids of the deleted images.
+     */
+    private static void invalidateThumbnails(SQLiteDatabase sqliteDatabase, long... imageIds) {
+        ThumbnailCache thumbnailCache = ThumbnailCache.getInstance();
+        for (long imageId : imageIds) {
+            thumbnailCache.invalidate(ThumbnailCache.getImageKey(sqliteDatabase.getPath(), imageId));
         }
     }
 
@@ -442,18 +468,7 @@ public class DaoImages implements IImagesDbHelper {
 
     public byte[] getImageData(long imageId) throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
-        String[] asColumnsToReturn = { //
-                ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName()//
-        };
-        String whereStr = ImageTableFields.COLUMN_ID.getFieldName() + " = " + imageId;
-        Cursor c = sqliteDatabase.query(TABLE_IMAGES, asColumnsToReturn, whereStr, null, null, null, null);
-        c.moveToFirst();
-        long imageDataId = -1;
-        if (!c.isAfterLast()) {
-            imageDataId = c.getLong(0);
-        }
-        c.close();
-
+        long imageDataId = getImageDataId(sqliteDatabase, imageId);
         if (imageDataId != -1) {
             byte[] imageData = getImageDataById(imageDataId, sqliteDatabase);
             return imageData;
@@ -483,43 +498,20 @@ public class DaoImages implements IImagesDbHelper {
             }
         } catch (Exception ex) {
             if (ex.getLocalizedMessage().contains("Couldn't read row")) {
-                String sizeQuery = "SELECT " + ImageDataTableFields.COLUMN_ID.getFieldName() +//
-                        ", length(" + ImageDataTableFields.COLUMN_IMAGE.getFieldName() + ") " +//
-                        "FROM " + TABLE_IMAGE_DATA +//
-                        " WHERE " + whereStr;
-                //"length(" + ImageDataTableFields.COLUMN_IMAGE.getFieldName() + ") > 1000000";
-                Cursor sizeCursor = sqliteDatabase.rawQuery(sizeQuery, null);
-                sizeCursor.moveToFirst();
-                long blobSize = 0;
-                if (!sizeCursor.isAfterLast()) {
-                    blobSize = sizeCursor.getLong(1);
-                }
-                sizeCursor.close();
-
-                ByteArrayOutputStream bout = new ByteArrayOutputStream();
-
-                int maxBlobSize = ImageUtilities.MAXBLOBSIZE;
-                if (blobSize > maxBlobSize) {
-                    for (long i = 1; i <= blobSize; i = i + maxBlobSize) {
-                        long from = i;
-                        long size = maxBlobSize;
-                        if (from + size > blobSize) {
-                            size = blobSize - from + 1;
-                        }
-                        String tmpQuery = "SELECT substr(" + ImageDataTableFields.COLUMN_IMAGE.getFieldName() + //
-                                "," + from + ", " + size + ") FROM " + TABLE_IMAGE_DATA + " WHERE " + whereStr;
-                        if (GPLog.LOG_HEAVY)
-                            GPLog.addLogEntry(this, "ISSUE QUERY: " + tmpQuery);
-                        Cursor imageCunchCursor = sqliteDatabase.rawQuery(tmpQuery, null);
-                        imageCunchCursor.moveToFirst();
-                        if (!imageCunchCursor.isAfterLast()) {
-                            byte[] blobData = imageCunchCursor.getBlob(0);
-                            bout.write(blobData);
+                // too big for the cursor window, read it in chunks straight into the final array
+                SQLiteBlobInputStream blobStream = getImageDataStreamById(imageDataId, sqliteDatabase);
+                try {
+                    imageData = new byte[(int) blobStream.getSize()];
+                    int offset = 0;
+                    while (offset < imageData.length) {
+                        int read = blobStream.read(imageData, offset, imageData.length - offset);
+                        if (read == -1) {
+                            throw new IOException("Unexpected end of image data for id: " + imageDataId);
                         }
-                        imageCunchCursor.close();
+                        offset += read;
                     }
-                    imageData = bout.toByteArray();
-                    bout.close();
+                } finally {
+                    blobStream.close();
                 }
             } else {
                 GPLog.error(this, null, ex);
@@ -531,6 +523,51 @@ public class DaoImages implements IImagesDbHelper {
         return imageData;
     }
 
+    public InputStream getImageDataStream(long imageId) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        long imageDataId = getImageDataId(sqliteDatabase, imageId);
+        if (imageDataId != -1) {
+            return getImageDataStreamById(imageDataId, sqliteDatabase);
+        }
+        return null;
+    }
+
+    /**
+     * Get a stream over the image data by the <b>data</b> id.
+     * <p/>
+     * The data are read in chunks of {@link SQLiteBlobInputStream#DEFAULT_CHUNK_SIZE}.
+     *
+     * @param imageDataId    the image data id.
+     * @param sqliteDatabase the optional db to use.
+     * @return the stream, which has to be closed.
+     * @throws IOException if something goes wrong.
+     */
+    public SQLiteBlobInputStream getImageDataStreamById(long imageDataId, SQLiteDatabase sqliteDatabase) throws IOException {
+        if (sqliteDatabase == null) {
+            sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        }
+        return new SQLiteBlobInputStream(sqliteDatabase, TABLE_IMAGE_DATA, ImageDataTableFields.COLUMN_IMAGE.getFieldName(),
+                ImageDataTableFields.COLUMN_ID.getFieldName(), imageDataId, SQLiteBlobInputStream.DEFAULT_CHUNK_SIZE);
+    }
+
+    private static long getImageDataId(SQLiteDatabase sqliteDatabase, long imageId) {
+        String[] asColumnsToReturn = { //
+                ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName()//
+        };
+        String whereStr = ImageTableFields.COLUMN_ID.getFieldName() + " = " + imageId;
+        Cursor c = sqliteDatabase.query(TABLE_IMAGES, asColumnsToReturn, whereStr, null, null, null, null);
+        try {
+            c.moveToFirst();
+            long imageDataId = -1;
+            if (!c.isAfterLast()) {
+                imageDataId = c.getLong(0);
+            }
+            return imageDataId;
+        } finally {
+            c.close();
+        }
+    }
+
 
     public byte[] getImageThumbnail(long imageId) throws Exception {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
@@ -576,19 +613,21 @@ public class DaoImages implements IImagesDbHelper {
     }
 
     /**
-     * Get all image overlays.
+     * Get the image overlays.
      *
      * @param marker the marker to use.
      * @param onlyStandalone if true, only pure image notes are returned.
      *                       One example of non pure image notes is the image
      *                       that belongs to a form based note.
-     * @return the list of {@link OverlayItem}s.
+     * @param imageIds the ids of the images to read, <code>null</code> to read all images.
+     * @return the map of image ids to their {@link OverlayItem}.
      * @throws IOException if something goes wrong.
      */
-    public static List<OverlayItem> getImagesOverlayList(Drawable marker, boolean onlyStandalone) throws IOException {
+    public static LinkedHashMap<Long, OverlayItem> getImagesOverlayMap(Drawable marker, boolean onlyStandalone, Set<Long> imageIds) throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
-        List<OverlayItem> images = new ArrayList<>();
+        LinkedHashMap<Long, OverlayItem> images = new LinkedHashMap<>();
         String asColumnsToReturn[] = {//
+                ImageTableFields.COLUMN_ID.getFieldName(),//
                 ImageTableFields.COLUMN_LON.getFieldName(),//
                 ImageTableFields.COLUMN_LAT.getFieldName(), //
                 ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName(),//
@@ -599,16 +638,21 @@ public class DaoImages implements IImagesDbHelper {
         if (onlyStandalone) {
             whereString = ImageTableFields.COLUMN_NOTE_ID.getFieldName() + " < 0";
         }
+        if (imageIds != null) {
+            String idsWhere = TableRevisions.getRowsWhere(ImageTableFields.COLUMN_ID.getFieldName(), imageIds);
+            whereString = whereString == null ? idsWhere : whereString + " and " + idsWhere;
+        }
         Cursor c = sqliteDatabase.query(TABLE_IMAGES, asColumnsToReturn, whereString, null, null, null, strSortOrder);
         c.moveToFirst();
         while (!c.isAfterLast()) {
-            double lon = c.getDouble(0);
-            double lat = c.getDouble(1);
-            long imageDataId = c.getLong(2);
-            String text = c.getString(3);
+            long id = c.getLong(0);
+            double lon = c.getDouble(1);
+            double lat = c.getDouble(2);
+            long imageDataId = c.getLong(3);
+            String text = c.getString(4);
 
             OverlayItem image = new OverlayItem(new GeoPoint(lat, lon), text, imageDataId + "", marker);
-            images.add(image);
+            images.put(id, image);
             c.moveToNext();
         }
         c.close();
@@ -20,19 +20,26 @@ package eu.geopaparazzi.core.database;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteStatement;
 import android.graphics.drawable.Drawable;
 import android.util.Log;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.mapsforge.android.maps.overlay.OverlayItem;
 import org.mapsforge.core.model.GeoPoint;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.forms.FormUtilities;
+import eu.geopaparazzi.library.forms.TagsManager;
 import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.PositionUtilities;
 import eu.geopaparazzi.library.util.TimeUtilities;
@@ -40,8 +47,10 @@ import eu.geopaparazzi.core.GeopaparazziApplication;
 import eu.geopaparazzi.core.database.objects.Note;
 import eu.geopaparazzi.core.database.objects.NoteOverlayItem;
 
+import static eu.geopaparazzi.core.database.TableDescriptions.NotesSearchTableFields;
 import static eu.geopaparazzi.core.database.TableDescriptions.NotesTableFields;
 import static eu.geopaparazzi.core.database.TableDescriptions.TABLE_NOTES;
+import static eu.geopaparazzi.core.database.TableDescriptions.TABLE_NOTES_SEARCH;
 
 /**
  * @author Andrea Antonello (www.hydrologis.com)
@@ -49,6 +58,13 @@ import static eu.geopaparazzi.core.database.TableDescriptions.TABLE_NOTES;
 @SuppressWarnings("nls")
 public class DaoNotes {
 
+    /**
+     * The path of the database for which the search table has already been checked.
+     */
+    private static volatile String searchCheckedDatabasePath = null;
+    private static final String UNICODE_TOKENIZER = "unicode61";
+    private static volatile boolean unicodeTokenizerUnsupported = false;
+
     /**
      * Create the notes tables.
      *
@@ -109,6 +125,9 @@ public class DaoNotes {
             sqliteDatabase.execSQL(CREATE_INDEX_NOTES_TS);
             sqliteDatabase.execSQL(CREATE_INDEX_NOTES_X_BY_Y);
             sqliteDatabase.execSQL(CREATE_INDEX_NOTES_ISDIRTY);
+            // a new database might replace one already checked at the same path
+            searchCheckedDatabasePath = null;
+            checkSearchTable(sqliteDatabase);
 
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
@@ -185,6 +204,8 @@ public class DaoNotes {
             values.put(NotesTableFields.COLUMN_STYLE.getFieldName(), style);
         values.put(NotesTableFields.COLUMN_ISDIRTY.getFieldName(), 1);
         long noteId = sqliteDatabase.insertOrThrow(TABLE_NOTES, null, values);
+        indexNote(sqliteDatabase, noteId, text, description, form);
+        TableRevisions.bump(TABLE_NOTES, noteId);
         return noteId;
     }
 
@@ -202,6 +223,7 @@ public class DaoNotes {
             String query = "delete from " + TABLE_NOTES + " where " + NotesTableFields.COLUMN_ID.getFieldName() + " = " + id;
             SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
             sqlUpdate.execute();
+            unindexNote(sqliteDatabase, id);
 
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
@@ -209,6 +231,7 @@ public class DaoNotes {
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_NOTES, id);
         }
     }
 
@@ -226,12 +249,18 @@ public class DaoNotes {
             SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
             sqlUpdate.execute();
 
+            checkSearchTable(sqliteDatabase);
+            query = "delete from " + TABLE_NOTES_SEARCH + " where " + NotesSearchTableFields.COLUMN_DOCID.getFieldName() +
+                    " not in (select " + NotesTableFields.COLUMN_ID.getFieldName() + " from " + TABLE_NOTES + ")";
+            sqliteDatabase.execSQL(query);
+
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAONOTES", e.getLocalizedMessage(), e);
             throw new IOException(e.getLocalizedMessage());
         } finally {
             sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_NOTES);
         }
     }
 
@@ -256,7 +285,276 @@ public class DaoNotes {
 
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
 
-        sqliteDatabase.update(TABLE_NOTES, updatedValues, where, whereArgs);
+        sqliteDatabase.beginTransaction();
+        try {
+            sqliteDatabase.update(TABLE_NOTES, updatedValues, where, whereArgs);
+            Note note = getNoteById(id);
+            if (note != null) {
+                indexNote(sqliteDatabase, id, note.getName(), note.getDescription(), note.getForm());
+            }
+
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("DAONOTES", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+            TableRevisions.bump(TABLE_NOTES, id);
+        }
+    }
+
+    /**
+     * Get the order by clause that sorts the searched notes by name.
+     *
+     * @param doInverse if <code>true</code>, the order is descending.
+     * @return the order by clause.
+     */
+    public static String getSearchOrderByName(boolean doInverse) {
+        return "n." + NotesTableFields.COLUMN_TEXT.getFieldName() + (doInverse ? " DESC" : " ASC");
+    }
+
+    /**
+     * Get the order by clause that sorts the searched notes by distance from a point.
+     *
+     * @param lon       the longitude of the point.
+     * @param lat       the latitude of the point.
+     * @param doInverse if <code>true</code>, the farthest notes come first.
+     * @return the order by clause.
+     */
+    public static String getSearchOrderByDistance(double lon, double lat, boolean doInverse) {
+        String dLon = "(n." + NotesTableFields.COLUMN_LON.getFieldName() + " - (" + lon + "))";
+        String dLat = "(n." + NotesTableFields.COLUMN_LAT.getFieldName() + " - (" + lat + "))";
+        return dLon + " * " + dLon + " + " + dLat + " * " + dLat + (doInverse ? " DESC" : " ASC");
+    }
+
+    /**
+     * Search the notes through the full text index of their text, description and form values.
+     * <p/>
+     * Every word of the filter has to match the beginning of a word of the note. Results are
+     * returned in pages.
+     *
+     * @param filter  the words to search for.
+     * @param orderBy the order by clause, as given by {@link #getSearchOrderByName(boolean)} or
+     *                {@link #getSearchOrderByDistance(double, double, boolean)}, or <code>null</code>
+     *                to order by descending timestamp.
+     * @param limit   the max number of notes to return.
+     * @param offset  the number of matching notes to skip.
+     * @return the list of matching notes.
+     * @throws IOException if something goes wrong.
+     */
+    public static List<Note> searchNotes(String filter, String orderBy, int limit, int offset) throws IOException {
+        List<Note> notes = new ArrayList<>();
+        String match = toMatchExpression(filter);
+        if (match == null) {
+            return notes;
+        }
+
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        try {
+            checkSearchTable(sqliteDatabase);
+        } catch (Exception e) {
+            GPLog.error("DAONOTES", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        }
+
+        String query = "SELECT " +//
+                "n." + NotesTableFields.COLUMN_ID.getFieldName() +
+                ", n." + NotesTableFields.COLUMN_LON.getFieldName() +
+                ", n." + NotesTableFields.COLUMN_LAT.getFieldName() +
+                ", n." + NotesTableFields.COLUMN_ALTIM.getFieldName() +
+                ", n." + NotesTableFields.COLUMN_TEXT.getFieldName() +
+                ", n." + NotesTableFields.COLUMN_TS.getFieldName() +
+                ", n." + NotesTableFields.COLUMN_DESCRIPTION.getFieldName() +
+                ", n." + NotesTableFields.COLUMN_STYLE.getFieldName() +
+                ", n." + NotesTableFields.COLUMN_FORM.getFieldName() +
+                ", n." + NotesTableFields.COLUMN_ISDIRTY.getFieldName() +
+                " FROM " + TABLE_NOTES + " n, " + TABLE_NOTES_SEARCH + " s" +
+                " WHERE s." + NotesSearchTableFields.COLUMN_DOCID.getFieldName() + " = n." + NotesTableFields.COLUMN_ID.getFieldName() +
+                " AND " + TABLE_NOTES_SEARCH + " MATCH ?" +
+                " ORDER BY " + (orderBy != null ? orderBy + ", " : "") +
+                "n." + NotesTableFields.COLUMN_TS.getFieldName() + " DESC" +
+                " LIMIT " + limit + " OFFSET " + offset;
+
+        Cursor c = sqliteDatabase.rawQuery(query, new String[]{match});
+        try {
+            while (c.moveToNext()) {
+                long id = c.getLong(0);
+                double lon = c.getDouble(1);
+                double lat = c.getDouble(2);
+                double altim = c.getDouble(3);
+                String text = c.getString(4);
+                long timestamp = c.getLong(5);
+                String description = c.getString(6);
+                String style = c.getString(7);
+                String form = c.getString(8);
+                int isDirty = c.getInt(9);
+
+                Note note = new Note(id, text, description, timestamp, lon, lat, altim, form, isDirty, style);
+                notes.add(note);
+            }
+        } finally {
+            c.close();
+        }
+        return notes;
+    }
+
+    /**
+     * Create the full text search table of the notes if it doesn't exist yet, indexing the existing notes.
+     * <p/>
+     * Projects created before the search table existed get it the first time it is needed. The
+     * unicode61 tokenizer is used, so that case and accents of non ascii letters are folded, and
+     * tables created with the default tokenizer are rebuilt.
+     *
+     * @param sqliteDatabase the database reference.
+     */
+    private static void checkSearchTable(SQLiteDatabase sqliteDatabase) {
+        String path = sqliteDatabase.getPath();
+        if (path != null && path.equals(searchCheckedDatabasePath)) {
+            return;
+        }
+        synchronized (DaoNotes.class) {
+            Cursor c = sqliteDatabase.rawQuery("SELECT sql FROM sqlite_master WHERE type='table' AND name=?",
+                    new String[]{TABLE_NOTES_SEARCH});
+            String createSql = null;
+            try {
+                if (c.moveToFirst()) {
+                    createSql = c.getString(0);
+                }
+            } finally {
+                c.close();
+            }
+            boolean rebuild = createSql != null && !createSql.contains(UNICODE_TOKENIZER) && !unicodeTokenizerUnsupported;
+            if (createSql == null || rebuild) {
+                if (GPLog.LOG_HEAVY)
+                    Log.i("DAONOTES", "Create the notes search table.");
+                sqliteDatabase.beginTransaction();
+                try {
+                    if (rebuild) {
+                        sqliteDatabase.execSQL("DROP TABLE " + TABLE_NOTES_SEARCH);
+                    }
+                    String columns = NotesSearchTableFields.COLUMN_TEXT.getFieldName() + ", " +
+                            NotesSearchTableFields.COLUMN_DESCRIPTION.getFieldName() + ", " +
+                            NotesSearchTableFields.COLUMN_FORMVALUES.getFieldName();
+                    try {
+                        sqliteDatabase.execSQL("CREATE VIRTUAL TABLE " + TABLE_NOTES_SEARCH + " USING fts4(" + columns +
+                                ", tokenize=" + UNICODE_TOKENIZER + ")");
+                    } catch (SQLiteException e) {
+                        // an sqlite built without the tokenizer, only ascii case is folded
+                        GPLog.error("DAONOTES", "The unicode61 tokenizer is not available.", e);
+                        unicodeTokenizerUnsupported = true;
+                        sqliteDatabase.execSQL("CREATE VIRTUAL TABLE " + TABLE_NOTES_SEARCH + " USING fts4(" + columns + ")");
+                    }
+                    String query = "SELECT " + NotesTableFields.COLUMN_ID.getFieldName() + ", " +
+                            NotesTableFields.COLUMN_TEXT.getFieldName() + ", " +
+                            NotesTableFields.COLUMN_DESCRIPTION.getFieldName() + ", " +
+                            NotesTableFields.COLUMN_FORM.getFieldName() + " FROM " + TABLE_NOTES;
+                    Cursor notesCursor = sqliteDatabase.rawQuery(query, null);
+                    try {
+                        while (notesCursor.moveToNext()) {
+                            insertIndexRow(sqliteDatabase, notesCursor.getLong(0), notesCursor.getString(1),
+                                    notesCursor.getString(2), notesCursor.getString(3));
+                        }
+                    } finally {
+                        notesCursor.close();
+                    }
+                    sqliteDatabase.setTransactionSuccessful();
+                } finally {
+                    sqliteDatabase.endTransaction();
+                }
+            }
+            searchCheckedDatabasePath = path;
+        }
+    }
+
+    private static void indexNote(SQLiteDatabase sqliteDatabase, long id, String text, String description, String form) {
+        checkSearchTable(sqliteDatabase);
+        unindexNote(sqliteDatabase, id);
+        insertIndexRow(sqliteDatabase, id, text, description, form);
+    }
+
+    private static void unindexNote(SQLiteDatabase sqliteDatabase, long id) {
+        checkSearchTable(sqliteDatabase);
+        sqliteDatabase.delete(TABLE_NOTES_SEARCH, NotesSearchTableFields.COLUMN_DOCID.getFieldName() + "=" + id, null);
+    }
+
+    private static void insertIndexRow(SQLiteDatabase sqliteDatabase, long id, String text, String description, String form) {
+        ContentValues values = new ContentValues();
+        values.put(NotesSearchTableFields.COLUMN_DOCID.getFieldName(), id);
+        values.put(NotesSearchTableFields.COLUMN_TEXT.getFieldName(), text);
+        values.put(NotesSearchTableFields.COLUMN_DESCRIPTION.getFieldName(), description);
+        values.put(NotesSearchTableFields.COLUMN_FORMVALUES.getFieldName(), getFormValuesText(form));
+        sqliteDatabase.insertOrThrow(TABLE_NOTES_SEARCH, null, values);
+    }
+
+    /**
+     * Flatten the values of a form to a text to index.
+     * <p/>
+     * Values of image, sketch and map items are ids and are left out.
+     *
+     * @param form the json form.
+     * @return the values separated by spaces.
+     */
+    private static String getFormValuesText(String form) {
+        if (form == null || form.length() == 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        try {
+            JSONObject sectionObject = new JSONObject(form);
+            List<String> formNames = TagsManager.getFormNames4Section(sectionObject);
+            for (String formName : formNames) {
+                JSONObject form4Name = TagsManager.getForm4Name(formName, sectionObject);
+                JSONArray formItems = TagsManager.getFormItems(form4Name);
+                for (int i = 0; i < formItems.length(); i++) {
+                    JSONObject formItem = formItems.getJSONObject(i);
+                    if (!formItem.has(FormUtilities.TAG_VALUE)) {
+                        continue;
+                    }
+                    String type = formItem.optString(FormUtilities.TAG_TYPE);
+                    if (type.equals(FormUtilities.TYPE_PICTURES) || type.equals(FormUtilities.TYPE_MAP)
+                            || type.equals(FormUtilities.TYPE_SKETCH)) {
+                        continue;
+                    }
+                    String value = formItem.getString(FormUtilities.TAG_VALUE).trim();
+                    if (value.length() > 0) {
+                        sb.append(value).append(" ");
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // a broken form only lacks its values in the search
+            GPLog.error("DAONOTES", e.getLocalizedMessage(), e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Convert a user filter into a full text match expression, each word being a prefix.
+     * <p/>
+     * Case is left to the tokenizer, which folds it the same way for the indexed text.
+     *
+     * @param filter the filter.
+     * @return the match expression or <code>null</code> if the filter has no words.
+     */
+    private static String toMatchExpression(String filter) {
+        if (filter == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        String[] words = filter.split("[^\\p{L}\\p{N}]+");
+        for (String word : words) {
+            if (word.length() == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(" ");
+            }
+            sb.append(word).append("*");
+        }
+        if (sb.length() == 0) {
+            return null;
+        }
+        return sb.toString();
     }
 
     /**
@@ -396,35 +694,43 @@ public class DaoNotes {
     }
 
     /**
-     * Get the list of notes from the db as OverlayItems.
+     * Get the notes from the db as OverlayItems.
      *
-     * @param marker the marker to use.
-     * @return list of notes.
+     * @param marker  the marker to use.
+     * @param noteIds the ids of the notes to read, <code>null</code> to read all notes.
+     * @return the map of note ids to their overlay item.
      * @throws IOException if something goes wrong.
      */
-    public static List<OverlayItem> getNoteOverlaysList(Drawable marker) throws IOException {
+    public static LinkedHashMap<Long, OverlayItem> getNoteOverlaysMap(Drawable marker, Set<Long> noteIds) throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
-        List<OverlayItem> notesList = new ArrayList<>();
+        LinkedHashMap<Long, OverlayItem> notesMap = new LinkedHashMap<>();
         String asColumnsToReturn[] = { //
+                NotesTableFields.COLUMN_ID.getFieldName(), //
                 NotesTableFields.COLUMN_LON.getFieldName(), //
                 NotesTableFields.COLUMN_LAT.getFieldName(), //
                 NotesTableFields.COLUMN_TS.getFieldName(), //
                 NotesTableFields.COLUMN_TEXT.getFieldName() //
         };// ,
         String strSortOrder = "_id ASC";
-        Cursor c = sqliteDatabase.query(TABLE_NOTES, asColumnsToReturn, null, null, null, null, strSortOrder);
+        String whereString = null;
+        if (noteIds != null) {
+            whereString = TableRevisions.getRowsWhere(NotesTableFields.COLUMN_ID.getFieldName(), noteIds);
+        }
+        Cursor c = sqliteDatabase.query(TABLE_NOTES, asColumnsToReturn, whereString, null, null, null, strSortOrder);
         c.moveToFirst();
         while (!c.isAfterLast()) {
-            double lon = c.getDouble(0);
-            double lat = c.getDouble(1);
+            long id = c.getLong(0);
+            double lon = c.getDouble(1);
+            double lat = c.getDouble(2);
 
 
             if(!PositionUtilities.isValidCoordinateLL(lon, lat)){
+                c.moveToNext();
                 continue;
             }
 
-            long date = c.getLong(2);
-            String text = c.getString(3);
+            long date = c.getLong(3);
+            String text = c.getString(4);
 
             StringBuilder description = new StringBuilder();
             description.append(text);
@@ -432,13 +738,12 @@ public class DaoNotes {
             description.append(TimeUtilities.INSTANCE.TIME_FORMATTER_LOCAL.format(new Date(date)));
 
             NoteOverlayItem item1 = new NoteOverlayItem(new GeoPoint(lat, lon), text, description.toString(), marker);
-            notesList.add(item1);
+            notesMap.put(id, item1);
 
             c.moveToNext();
         }
         c.close();
-        return notesList;
+        return notesMap;
     }
 
-
 }
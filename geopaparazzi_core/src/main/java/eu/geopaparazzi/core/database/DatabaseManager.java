@@ -18,6 +18,7 @@
 package eu.geopaparazzi.core.database;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
@@ -27,6 +28,7 @@ import java.util.Locale;
 
 import eu.geopaparazzi.library.core.ResourcesManager;
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.images.ThumbnailCache;
 import eu.geopaparazzi.library.util.debug.Debug;
 
 /**
@@ -40,7 +42,7 @@ public class DatabaseManager {
     /**
      * The db version.
      */
-    public static final int DATABASE_VERSION = 9;
+    public static final int DATABASE_VERSION = 10;
 
     private static final String DEBUG_TAG = "DATABASEMANAGER";
 
@@ -122,6 +124,36 @@ public class DatabaseManager {
                 db = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
                 create(context);
             }
+
+            // cached thumbnails of another project at the same path would match the image ids
+            ThumbnailCache.getInstance().checkImagesDatabase(db.getPath(), getDatabaseStamp());
+        }
+
+        /**
+         * @return the creation timestamp of the project, which identifies the database also if
+         * another one is put at the same path.
+         */
+        private String getDatabaseStamp() {
+            String stamp = null;
+            try {
+                Cursor c = db.query(TableDescriptions.TABLE_METADATA, new String[]{TableDescriptions.MetadataTableFields.COLUMN_VALUE.getFieldName()},
+                        TableDescriptions.MetadataTableFields.COLUMN_KEY.getFieldName() + "=?",
+                        new String[]{TableDescriptions.MetadataTableDefaultValues.KEY_CREATIONTS.getFieldName()}, null, null, null);
+                try {
+                    if (c.moveToFirst()) {
+                        stamp = c.getString(0);
+                    }
+                } finally {
+                    c.close();
+                }
+            } catch (Exception e) {
+                // old projects without metadata
+                GPLog.error(DEBUG_TAG, e.getLocalizedMessage(), e);
+            }
+            if (stamp == null) {
+                stamp = String.valueOf(databaseFile.lastModified());
+            }
+            return stamp;
         }
 
         public void close() {
@@ -148,6 +180,7 @@ public class DatabaseManager {
             DaoMetadata.initProjectMetadata(null, null, null, null);
             DaoNotes.createTables();
             DaoGpsLog.createTables();
+            DaoGpsLogProfiles.createTables();
             DaoBookmarks.createTables();
             DaoImages.createTables();
         }
@@ -193,16 +226,20 @@ public class DatabaseManager {
 //                    DaoGpsLog.addFieldGPSTables(db, "gpslogs", "lengthm", "REAL");
 //                }
 //            }
-//            db.beginTransaction();
-//            try {
-//                db.setTransactionSuccessful();
-//                db.setVersion(newDbVersion);
-//            } catch (Exception e) {
-//                Log.e("DATABASEMANAGER", e.getLocalizedMessage(), e);
-//                throw new IOException(e.getLocalizedMessage());
-//            } finally {
-//                db.endTransaction();
-//            }
+            db.beginTransaction();
+            try {
+                if (oldDbVersion <= 9) {
+                    Log.i(DEBUG_TAG, "Db upgrade to 10");
+                    DaoGpsLogProfiles.createTables(db);
+                }
+                db.setVersion(newDbVersion);
+                db.setTransactionSuccessful();
+            } catch (Exception e) {
+                Log.e("DATABASEMANAGER", e.getLocalizedMessage(), e);
+                throw new IOException(e.getLocalizedMessage());
+            } finally {
+                db.endTransaction();
+            }
         }
 
         public SQLiteDatabase getWritableDatabase( Context context ) throws IOException {
@@ -0,0 +1,186 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} over a blob of a table row.
+ * <p/>
+ * The blob is read in fixed size chunks through <code>substr</code> queries, so that
+ * only one chunk is held in memory at a time and blobs larger than the cursor window
+ * can be read.
+ * <p/>
+ * Note that sqlite loads the whole blob to extract a substring of it, so every chunk
+ * costs a read of the whole blob from the database file and reading a blob costs
+ * about <code>size * size / chunkSize</code> bytes of I/O. Chunks should therefore be
+ * as large as the cursor window allows.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class SQLiteBlobInputStream extends InputStream {
+
+    /**
+     * The default chunk size, half of the default cursor window, so that most
+     * images are read in a few chunks.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private final SQLiteDatabase sqliteDatabase;
+    private final String chunkQuery;
+    private final int chunkSize;
+    private final long blobSize;
+
+    /**
+     * The blob position (0 based) of the first byte of the current chunk.
+     */
+    private long chunkStart = 0;
+    private byte[] chunk = new byte[0];
+    private int chunkPosition = 0;
+    private boolean isClosed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param sqliteDatabase the database to read from.
+     * @param table          the table.
+     * @param blobColumn     the blob column.
+     * @param idColumn       the column identifying the row.
+     * @param id             the id of the row.
+     * @param chunkSize      the size of the chunks to read.
+     * @throws IOException if the row doesn't exist.
+     */
+    public SQLiteBlobInputStream(SQLiteDatabase sqliteDatabase, String table, String blobColumn, String idColumn, long id,
+                                 int chunkSize) throws IOException {
+        this.sqliteDatabase = sqliteDatabase;
+        this.chunkSize = chunkSize;
+        String whereStr = " FROM " + table + " WHERE " + idColumn + " = " + id;
+        this.chunkQuery = "SELECT substr(" + blobColumn + ", ?, ?)" + whereStr;
+
+        Cursor c = sqliteDatabase.rawQuery("SELECT length(" + blobColumn + ")" + whereStr, null);
+        try {
+            if (!c.moveToFirst()) {
+                throw new IOException("No blob found for " + idColumn + " = " + id + " in table " + table);
+            }
+            blobSize = c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * @return the total size of the blob in bytes.
+     */
+    public long getSize() {
+        return blobSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureChunk()) {
+            return -1;
+        }
+        return chunk[chunkPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!ensureChunk()) {
+            return -1;
+        }
+        int read = Math.min(length, chunk.length - chunkPosition);
+        System.arraycopy(chunk, chunkPosition, buffer, offset, read);
+        chunkPosition += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long remaining = blobSize - (chunkStart + chunkPosition);
+        long skipped = Math.min(n, remaining);
+        long newPosition = chunkStart + chunkPosition + skipped;
+        if (newPosition < chunkStart + chunk.length) {
+            chunkPosition = (int) (newPosition - chunkStart);
+        } else {
+            // the next read loads the chunk starting at the new position
+            chunkStart = newPosition;
+            chunk = new byte[0];
+            chunkPosition = 0;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return chunk.length - chunkPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        isClosed = true;
+        chunk = new byte[0];
+    }
+
+    /**
+     * Make sure there are bytes to read in the current chunk, loading the next one if necessary.
+     *
+     * @return <code>false</code> if the end of the blob was reached.
+     */
+    private boolean ensureChunk() throws IOException {
+        if (isClosed) {
+            throw new IOException("The stream has been closed.");
+        }
+        if (chunkPosition < chunk.length) {
+            return true;
+        }
+        long nextStart = chunkStart + chunk.length;
+        if (nextStart >= blobSize) {
+            return false;
+        }
+        long size = Math.min(chunkSize, blobSize - nextStart);
+        // substr is 1 based
+        String[] args = {String.valueOf(nextStart + 1), String.valueOf(size)};
+        Cursor c = sqliteDatabase.rawQuery(chunkQuery, args);
+        try {
+            if (!c.moveToFirst()) {
+                throw new IOException("The blob disappeared while reading it.");
+            }
+            byte[] data = c.getBlob(0);
+            if (data == null || data.length == 0) {
+                throw new IOException("The blob was truncated while reading it.");
+            }
+            chunk = data;
+        } finally {
+            c.close();
+        }
+        chunkStart = nextStart;
+        chunkPosition = 0;
+        return true;
+    }
+}
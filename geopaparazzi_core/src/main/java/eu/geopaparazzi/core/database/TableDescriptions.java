@@ -32,6 +32,10 @@ public class TableDescriptions {
      * The notes table name.
      */
     public static final String TABLE_NOTES = "notes";
+    /**
+     * The notes full text search table name.
+     */
+    public static final String TABLE_NOTES_SEARCH = "notessearch";
     /**
      * Image table name.
      */
@@ -52,6 +56,10 @@ public class TableDescriptions {
      * gpslog properties table name.
      */
     public static final String TABLE_GPSLOG_PROPERTIES = "gpslogsproperties";
+    /**
+     * gpslog precomputed profiles table name.
+     */
+    public static final String TABLE_GPSLOG_PROFILES = "gpslogsprofiles";
 
     public enum MetadataTableFields {
         /**
@@ -196,6 +204,41 @@ public class TableDescriptions {
         }
     }
 
+    public static enum NotesSearchTableFields {
+        /**
+         * id of the indexed note, same as the note's id.
+         */
+        COLUMN_DOCID("docid", Long.class),
+        /**
+         * Simple text of the note.
+         */
+        COLUMN_TEXT("text", String.class),
+        /**
+         * Description of the note.
+         */
+        COLUMN_DESCRIPTION("description", String.class),
+        /**
+         * The values of the form of the note, flattened to text.
+         */
+        COLUMN_FORMVALUES("formvalues", String.class);
+
+        private String fieldName;
+        private Class fieldClass;
+
+        NotesSearchTableFields(String fieldName, Class fieldClass) {
+            this.fieldName = fieldName;
+            this.fieldClass = fieldClass;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public Class getFieldClass() {
+            return fieldClass;
+        }
+    }
+
     public static enum ImageTableFields {
         /**
          * id of the note, Generated by the db.
@@ -411,4 +454,75 @@ public class TableDescriptions {
             return fieldClass;
         }
     }
+
+    public static enum GpsLogsProfilesTableFields {
+        /**
+         * id of the profile, Generated by the db.
+         */
+        COLUMN_ID("_id", Long.class),
+        /**
+         * the id of the parent gps log.
+         */
+        COLUMN_LOGID("logid", Long.class),
+        /**
+         * the number of log points the profile was computed on.
+         */
+        COLUMN_PROFILE_POINTSCOUNT("pointscount", Integer.class),
+        /**
+         * the UTC timestamp of the last log point the profile was computed on.
+         */
+        COLUMN_PROFILE_LASTTS("lastts", Long.class),
+        /**
+         * the length of the log in meters.
+         */
+        COLUMN_PROFILE_LENGTHM("lengthm", Double.class),
+        /**
+         * the summed positive elevation difference in meters.
+         */
+        COLUMN_PROFILE_ELEVGAIN("elevgain", Double.class),
+        /**
+         * the min elevation.
+         */
+        COLUMN_PROFILE_ELEVMIN("elevmin", Double.class),
+        /**
+         * the max elevation.
+         */
+        COLUMN_PROFILE_ELEVMAX("elevmax", Double.class),
+        /**
+         * the max (smoothed) speed in km/h.
+         */
+        COLUMN_PROFILE_SPEEDMAX("speedmax", Double.class),
+        /**
+         * the average speed in km/h.
+         */
+        COLUMN_PROFILE_SPEEDAVG("speedavg", Double.class),
+        /**
+         * the progressive distances of the points as float array blob.
+         */
+        COLUMN_PROFILE_DISTANCES("distances", byte[].class),
+        /**
+         * the smoothed elevations of the points as float array blob.
+         */
+        COLUMN_PROFILE_ELEVATIONS("elevations", byte[].class),
+        /**
+         * the smoothed speeds of the points as float array blob.
+         */
+        COLUMN_PROFILE_SPEEDS("speeds", byte[].class);
+
+        private String fieldName;
+        private Class fieldClass;
+
+        GpsLogsProfilesTableFields(String fieldName, Class fieldClass) {
+            this.fieldName = fieldName;
+            this.fieldClass = fieldClass;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public Class getFieldClass() {
+            return fieldClass;
+        }
+    }
 }
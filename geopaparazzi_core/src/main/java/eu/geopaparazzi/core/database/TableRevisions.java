@@ -0,0 +1,174 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per table revision counters of the project database.
+ * <p/>
+ * The data access objects bump the revision of a table every time they write to it, so that
+ * readers can check if anything changed since their last read without querying the database.
+ * <p/>
+ * The ids of the changed rows can be passed along, in which case readers can ask which rows
+ * changed since a revision and read only those. A bump without ids, as for a bulk update,
+ * means that any row might have changed.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TableRevisions {
+
+    /**
+     * The maximum number of bumps remembered per table.
+     */
+    private static final int MAX_JOURNAL_SIZE = 512;
+
+    private static final ConcurrentHashMap<String, Journal> journalsMap = new ConcurrentHashMap<>();
+
+    private TableRevisions() {
+    }
+
+    /**
+     * Increment the revision of a table.
+     *
+     * @param tableName the name of the changed table.
+     * @param rowIds    the ids of the changed rows, none if they are not known.
+     * @return the new revision.
+     */
+    public static long bump(String tableName, long... rowIds) {
+        return getJournal(tableName).bump(rowIds);
+    }
+
+    /**
+     * Get the current revision of a table.
+     *
+     * @param tableName the name of the table.
+     * @return the revision, 0 if the table was never written in this session.
+     */
+    public static long get(String tableName) {
+        return getJournal(tableName).getRevision();
+    }
+
+    /**
+     * Get the ids of the rows changed after a revision.
+     *
+     * @param tableName the name of the table.
+     * @param revision  the revision the reader last read at.
+     * @return the ids of the inserted, updated or deleted rows or <code>null</code>, if they are
+     * not known and the whole table has to be read again.
+     */
+    public static Set<Long> getChangedRows(String tableName, long revision) {
+        return getJournal(tableName).getChangedRows(revision);
+    }
+
+    /**
+     * Build the where clause that restricts a query to a set of rows.
+     *
+     * @param idColumn the name of the id column.
+     * @param rowIds   the ids of the rows.
+     * @return the where clause, without the where keyword.
+     */
+    static String getRowsWhere(String idColumn, Set<Long> rowIds) {
+        StringBuilder sB = new StringBuilder();
+        sB.append(idColumn).append(" in (");
+        boolean first = true;
+        for (Long rowId : rowIds) {
+            if (!first)
+                sB.append(",");
+            sB.append(rowId);
+            first = false;
+        }
+        sB.append(")");
+        return sB.toString();
+    }
+
+    private static Journal getJournal(String tableName) {
+        Journal journal = journalsMap.get(tableName);
+        if (journal == null) {
+            Journal newJournal = new Journal();
+            journal = journalsMap.putIfAbsent(tableName, newJournal);
+            if (journal == null) {
+                journal = newJournal;
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * The revision of a table and the rows changed by its last bumps.
+     */
+    private static class Journal {
+        private long revision = 0;
+        /**
+         * The revision up to which the changed rows are not known anymore.
+         */
+        private long unknownRevision = 0;
+        private final ArrayDeque<long[]> entries = new ArrayDeque<>();
+
+        synchronized long bump(long[] rowIds) {
+            revision++;
+            if (rowIds.length == 0) {
+                entries.clear();
+                unknownRevision = revision;
+            } else if (rowIds.length == 1 && isLastEntryOf(rowIds[0])) {
+                // as while recording a log, the same row changes again and again
+                entries.getLast()[0] = revision;
+            } else {
+                if (entries.size() == MAX_JOURNAL_SIZE) {
+                    unknownRevision = entries.removeFirst()[0];
+                }
+                long[] entry = new long[rowIds.length + 1];
+                entry[0] = revision;
+                System.arraycopy(rowIds, 0, entry, 1, rowIds.length);
+                entries.addLast(entry);
+            }
+            return revision;
+        }
+
+        private boolean isLastEntryOf(long rowId) {
+            long[] lastEntry = entries.peekLast();
+            return lastEntry != null && lastEntry.length == 2 && lastEntry[1] == rowId;
+        }
+
+        synchronized long getRevision() {
+            return revision;
+        }
+
+        synchronized Set<Long> getChangedRows(long sinceRevision) {
+            if (sinceRevision < unknownRevision) {
+                return null;
+            }
+            Set<Long> rowIds = new HashSet<>();
+            Iterator<long[]> iterator = entries.descendingIterator();
+            while (iterator.hasNext()) {
+                long[] entry = iterator.next();
+                if (entry[0] <= sinceRevision) {
+                    break;
+                }
+                for (int i = 1; i < entry.length; i++) {
+                    rowIds.add(entry[i]);
+                }
+            }
+            return rowIds;
+        }
+    }
+}
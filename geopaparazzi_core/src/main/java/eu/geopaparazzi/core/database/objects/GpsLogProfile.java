@@ -0,0 +1,204 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database.objects;
+
+/**
+ * The precomputed elevation and speed profile of a gps log.
+ * <p/>
+ * Elevations and speeds are already smoothed and indexed by the progressive
+ * distance along the log.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GpsLogProfile {
+
+    private final long logId;
+    private final int pointsCount;
+    private final long lastTs;
+    private final double lengthm;
+    private final double elevationGain;
+    private final double minElevation;
+    private final double maxElevation;
+    private final double maxSpeed;
+    private final double averageSpeed;
+    private final float[] distances;
+    private final float[] elevations;
+    private final float[] speeds;
+
+    /**
+     * @param logId         the log id.
+     * @param pointsCount   the number of log points the profile was computed on.
+     * @param lastTs        the timestamp of the last log point.
+     * @param lengthm       the length of the log in meters.
+     * @param elevationGain the summed positive elevation difference.
+     * @param minElevation  the min elevation.
+     * @param maxElevation  the max elevation.
+     * @param maxSpeed      the max speed in km/h.
+     * @param averageSpeed  the average speed in km/h.
+     * @param distances     the progressive distances.
+     * @param elevations    the smoothed elevations.
+     * @param speeds        the smoothed speeds in km/h.
+     */
+    public GpsLogProfile(long logId, int pointsCount, long lastTs, double lengthm, double elevationGain, double minElevation,
+                         double maxElevation, double maxSpeed, double averageSpeed, float[] distances, float[] elevations, float[] speeds) {
+        this.logId = logId;
+        this.pointsCount = pointsCount;
+        this.lastTs = lastTs;
+        this.lengthm = lengthm;
+        this.elevationGain = elevationGain;
+        this.minElevation = minElevation;
+        this.maxElevation = maxElevation;
+        this.maxSpeed = maxSpeed;
+        this.averageSpeed = averageSpeed;
+        this.distances = distances;
+        this.elevations = elevations;
+        this.speeds = speeds;
+    }
+
+    public long getLogId() {
+        return logId;
+    }
+
+    public int getPointsCount() {
+        return pointsCount;
+    }
+
+    public long getLastTs() {
+        return lastTs;
+    }
+
+    public double getLengthm() {
+        return lengthm;
+    }
+
+    public double getElevationGain() {
+        return elevationGain;
+    }
+
+    public double getMinElevation() {
+        return minElevation;
+    }
+
+    public double getMaxElevation() {
+        return maxElevation;
+    }
+
+    public double getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    public double getAverageSpeed() {
+        return averageSpeed;
+    }
+
+    public float[] getDistances() {
+        return distances;
+    }
+
+    public float[] getElevations() {
+        return elevations;
+    }
+
+    public float[] getSpeeds() {
+        return speeds;
+    }
+
+    /**
+     * Get the indexes of the elevation profile points to draw.
+     *
+     * @param threshold the max number of points, usually the chart width in pixels.
+     * @return the indexes of the points to keep.
+     */
+    public int[] downsampleElevations(int threshold) {
+        return largestTriangleThreeBuckets(distances, elevations, threshold);
+    }
+
+    /**
+     * Get the indexes of the speed profile points to draw.
+     *
+     * @param threshold the max number of points, usually the chart width in pixels.
+     * @return the indexes of the points to keep.
+     */
+    public int[] downsampleSpeeds(int threshold) {
+        return largestTriangleThreeBuckets(distances, speeds, threshold);
+    }
+
+    /**
+     * Downsample a series with the Largest-Triangle-Three-Buckets algorithm.
+     * <p/>
+     * First and last points are always kept, the points in between are split into
+     * buckets and from each bucket the point that forms the largest triangle with the
+     * previously selected point and the average of the next bucket is kept. This
+     * preserves the visual peaks of the series.
+     *
+     * @param x         the x values, in ascending order.
+     * @param y         the y values.
+     * @param threshold the max number of points to keep.
+     * @return the indexes of the points to keep, in ascending order.
+     */
+    public static int[] largestTriangleThreeBuckets(float[] x, float[] y, int threshold) {
+        int n = x.length;
+        if (threshold >= n || threshold < 3) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        int[] selected = new int[threshold];
+        int selectedCount = 0;
+        double bucketSize = (double) (n - 2) / (threshold - 2);
+
+        int a = 0;
+        selected[selectedCount++] = a;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // average of the next bucket
+            int nextStart = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) Math.floor((bucket + 2) * bucketSize) + 1, n);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += x[i];
+                avgY += y[i];
+            }
+            int nextLength = nextEnd - nextStart;
+            avgX /= nextLength;
+            avgY /= nextLength;
+
+            // point of the current bucket making the largest triangle
+            int start = (int) Math.floor(bucket * bucketSize) + 1;
+            int end = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            double ax = x[a];
+            double ay = y[a];
+            double maxArea = -1;
+            int maxIndex = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((ax - avgX) * (y[i] - ay) - (ax - x[i]) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxIndex = i;
+                }
+            }
+            selected[selectedCount++] = maxIndex;
+            a = maxIndex;
+        }
+        selected[selectedCount] = n - 1;
+        return selected;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.maptools;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.io.WKBReader;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.features.Feature;
+import eu.geopaparazzi.spatialite.database.spatial.SpatialiteSourcesManager;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.DaoSpatialite;
+import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
+
+/**
+ * An in memory spatial index of the features of the edit layer.
+ * <p/>
+ * The features are read once and kept in an STRtree for the editing session, the index
+ * is rebuilt only when the edit layer changes or its features are edited. Predicates are
+ * run against prepared geometries, so repeated tests against the same selection polygon
+ * or feature are cheap.
+ * <p/>
+ * Layers with more than {@link #MAX_INDEXED_FEATURES} features are not indexed, in which
+ * case {@link #getIndex(SpatialVectorTable, String)} returns <code>null</code> and the
+ * database has to be queried.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class EditLayerIndex {
+
+    /**
+     * Max number of features of a layer to keep in memory.
+     */
+    public static final int MAX_INDEXED_FEATURES = 50000;
+
+    private static EditLayerIndex currentIndex;
+
+    private final String databasePath;
+    private final String tableName;
+    private final String srid;
+    private final long editRevision;
+    private final STRtree tree = new STRtree();
+    private final IdentityHashMap<Feature, IndexedFeature> indexedFeaturesMap = new IdentityHashMap<>();
+
+    private static class IndexedFeature {
+        final Feature feature;
+        final Geometry geometry;
+        PreparedGeometry preparedGeometry;
+
+        IndexedFeature(Feature feature, Geometry geometry) {
+            this.feature = feature;
+            this.geometry = geometry;
+        }
+
+        synchronized PreparedGeometry getPreparedGeometry() {
+            if (preparedGeometry == null) {
+                preparedGeometry = PreparedGeometryFactory.prepare(geometry);
+            }
+            return preparedGeometry;
+        }
+    }
+
+    /**
+     * Get the index of a table, building it if the table changed since the last call.
+     * <p/>
+     * <b>This can read the whole table, so it should not be called on the UI thread.</b>
+     *
+     * @param spatialTable the edit table.
+     * @param srid         the srid of the geometries to index.
+     * @return the index or <code>null</code> if the table has too many features to be indexed.
+     * @throws Exception if something goes wrong.
+     */
+    public static synchronized EditLayerIndex getIndex(SpatialVectorTable spatialTable, String srid) throws Exception {
+        String databasePath = spatialTable.getDatabasePath();
+        String tableName = spatialTable.getTableName();
+        long editRevision = DaoSpatialite.getEditRevision(databasePath, tableName);
+        if (currentIndex != null && currentIndex.databasePath.equals(databasePath)
+                && currentIndex.tableName.equals(tableName) && currentIndex.srid.equals(srid)
+                && currentIndex.editRevision == editRevision) {
+            return currentIndex;
+        }
+        // release the previous one before reading the new features
+        currentIndex = null;
+
+        SpatialiteDatabaseHandler spatialiteDbHandler = SpatialiteSourcesManager.INSTANCE.getExistingDatabaseHandlerByTable(spatialTable);
+        int count = DaoSpatialite.getGeometriesCount(spatialiteDbHandler.getDatabase(), tableName, spatialTable.getGeomName());
+        if (count > MAX_INDEXED_FEATURES) {
+            if (GPLog.LOG)
+                GPLog.addLogEntry("EditLayerIndex", "Not indexing " + tableName + " with " + count + " features.");
+            return null;
+        }
+
+        long start = System.currentTimeMillis();
+        List<Feature> features = FeatureUtilities.buildAllFeatures(srid, spatialTable);
+        currentIndex = new EditLayerIndex(databasePath, tableName, srid, editRevision, features);
+        if (GPLog.LOG)
+            GPLog.addLogEntry("EditLayerIndex", "Indexed " + features.size() + " features of " + tableName + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        return currentIndex;
+    }
+
+    private EditLayerIndex(String databasePath, String tableName, String srid, long editRevision, List<Feature> features)
+            throws Exception {
+        this.databasePath = databasePath;
+        this.tableName = tableName;
+        this.srid = srid;
+        this.editRevision = editRevision;
+
+        WKBReader wkbReader = new WKBReader();
+        for (Feature feature : features) {
+            byte[] geometryBytes = feature.getDefaultGeometry();
+            if (geometryBytes == null) {
+                continue;
+            }
+            Geometry geometry = wkbReader.read(geometryBytes);
+            IndexedFeature indexedFeature = new IndexedFeature(feature, geometry);
+            indexedFeaturesMap.put(feature, indexedFeature);
+            tree.insert(geometry.getEnvelopeInternal(), indexedFeature);
+        }
+        tree.build();
+    }
+
+    /**
+     * Get the features that intersect a geometry.
+     *
+     * @param geometry the geometry to intersect, as for example a selection polygon.
+     * @return the intersecting features.
+     */
+    public List<Feature> getIntersecting(Geometry geometry) {
+        List<Feature> features = new ArrayList<>();
+        PreparedGeometry preparedGeometry = PreparedGeometryFactory.prepare(geometry);
+        for (Object item : tree.query(geometry.getEnvelopeInternal())) {
+            IndexedFeature indexedFeature = (IndexedFeature) item;
+            if (preparedGeometry.intersects(indexedFeature.geometry)) {
+                features.add(indexedFeature.feature);
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Get the first feature that intersects a geometry, usually a point.
+     *
+     * @param geometry the geometry to intersect.
+     * @param exclude  a feature to skip or <code>null</code>.
+     * @return the feature or <code>null</code>.
+     */
+    public Feature getFirstIntersecting(Geometry geometry, Feature exclude) {
+        Envelope envelope = geometry.getEnvelopeInternal();
+        for (Object item : tree.query(envelope)) {
+            IndexedFeature indexedFeature = (IndexedFeature) item;
+            if (indexedFeature.feature == exclude) {
+                continue;
+            }
+            if (indexedFeature.getPreparedGeometry().intersects(geometry)) {
+                return indexedFeature.feature;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the indexed geometry of a feature, parsed once when the index was built.
+     *
+     * @param feature a feature returned by this index.
+     * @return the geometry or <code>null</code> if the feature is not in this index.
+     */
+    public Geometry getGeometry(Feature feature) {
+        IndexedFeature indexedFeature = indexedFeaturesMap.get(feature);
+        if (indexedFeature == null) {
+            return null;
+        }
+        return indexedFeature.geometry;
+    }
+}
@@ -48,6 +48,7 @@ import eu.geopaparazzi.spatialite.database.spatial.core.daos.DaoSpatialite;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryType;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
+import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
 import jsqlite.Database;
 import jsqlite.Exception;
 import jsqlite.Stmt;
@@ -150,43 +151,112 @@ public class FeatureUtilities {
      * @throws Exception is something goes wrong.
      */
     public static List<Feature> buildFeatures(String query, SpatialVectorTable spatialTable) throws Exception {
-        List<Feature> featuresList = new ArrayList<>();
         SpatialiteDatabaseHandler spatialiteDbHandler = SpatialiteSourcesManager.INSTANCE.getExistingDatabaseHandlerByTable(spatialTable);
         Database database = spatialiteDbHandler.getDatabase();
-        String tableName = spatialTable.getTableName();
-        String databasePath = spatialTable.getDatabasePath();
 
+        List<Feature> featuresList;
         Stmt stmt = database.prepare(query);
         try {
-            while (stmt.step()) {
-                int count = stmt.column_count();
-                String id = stmt.column_string(0);
-                byte[] geometryBytes = stmt.column_bytes(count - 1);
-                Feature feature = new Feature(tableName, databasePath, id, geometryBytes);
-                for (int i = 1; i < count - 1; i++) {
-                    String cName = stmt.column_name(i);
-                    String value = stmt.column_string(i);
-                    EDataType type = spatialTable.getTableFieldType(cName);
-                    if (type == null) {
-                        GPLog.addLogEntry("Featureutilities#buildFeatures", "Unexpected type for column "
-                                + cName);
-                        continue;
-                    }
-                    feature.addAttribute(cName, value, type.name());
-                }
-                featuresList.add(feature);
-            }
+            featuresList = readFeatures(stmt, spatialTable);
+        } finally {
+            stmt.close();
+        }
+        setAreaAndLength(featuresList, spatialTable);
+        return featuresList;
+    }
+
+    /**
+     * Build the features of a table that intersect the given bounds.
+     * <p/>
+     * <p>The query is prepared once per table and kept in the statements cache of the database.
+     *
+     * @param boundsSrid   the srid of the bounds, which is also the srid of the resulting geometries.
+     * @param spatialTable the parent Spatialtable.
+     * @param n            north bound.
+     * @param s            south bound.
+     * @param e            east bound.
+     * @param w            west bound.
+     * @return the list of feature from the query.
+     * @throws Exception is something goes wrong.
+     */
+    public static List<Feature> buildFeaturesInBounds(String boundsSrid, SpatialVectorTable spatialTable, double n, double s,
+                                                      double e, double w) throws Exception {
+        SpatialiteDatabaseHandler spatialiteDbHandler = SpatialiteSourcesManager.INSTANCE.getExistingDatabaseHandlerByTable(spatialTable);
+        String query = SpatialiteUtilities.getBboxIntersectingFeaturesStatement(boundsSrid, spatialTable);
+
+        List<Feature> featuresList;
+        Stmt stmt = spatialiteDbHandler.acquireStatement(query);
+        try {
+            SpatialiteUtilities.bindBboxStatement(stmt, n, s, e, w);
+            featuresList = readFeatures(stmt, spatialTable);
+        } finally {
+            spatialiteDbHandler.releaseStatement(query, stmt);
+        }
+        setAreaAndLength(featuresList, spatialTable);
+        return featuresList;
+    }
+
+    /**
+     * Build all the features of a table, without their original area and length.
+     *
+     * @param resultSrid   the srid of the resulting geometries.
+     * @param spatialTable the parent Spatialtable.
+     * @return the list of feature of the table.
+     * @throws Exception is something goes wrong.
+     * @see #setAreaAndLength(List, SpatialVectorTable)
+     */
+    public static List<Feature> buildAllFeatures(String resultSrid, SpatialVectorTable spatialTable) throws Exception {
+        SpatialiteDatabaseHandler spatialiteDbHandler = SpatialiteSourcesManager.INSTANCE.getExistingDatabaseHandlerByTable(spatialTable);
+        Database database = spatialiteDbHandler.getDatabase();
+        String query = SpatialiteUtilities.getAllFeaturesQuery(resultSrid, spatialTable);
+
+        Stmt stmt = database.prepare(query);
+        try {
+            return readFeatures(stmt, spatialTable);
         } finally {
             stmt.close();
         }
+    }
+
+    private static List<Feature> readFeatures(Stmt stmt, SpatialVectorTable spatialTable) throws Exception {
+        List<Feature> featuresList = new ArrayList<>();
+        String tableName = spatialTable.getTableName();
+        String databasePath = spatialTable.getDatabasePath();
+        while (stmt.step()) {
+            int count = stmt.column_count();
+            String id = stmt.column_string(0);
+            byte[] geometryBytes = stmt.column_bytes(count - 1);
+            Feature feature = new Feature(tableName, databasePath, id, geometryBytes);
+            for (int i = 1; i < count - 1; i++) {
+                String cName = stmt.column_name(i);
+                String value = stmt.column_string(i);
+                EDataType type = spatialTable.getTableFieldType(cName);
+                if (type == null) {
+                    GPLog.addLogEntry("Featureutilities#buildFeatures", "Unexpected type for column "
+                            + cName);
+                    continue;
+                }
+                feature.addAttribute(cName, value, type.name());
+            }
+            featuresList.add(feature);
+        }
+        return featuresList;
+    }
+
+    /**
+     * Set the area and length in original units of the features.
+     *
+     * @param featuresList the features to update.
+     * @param spatialTable the parent Spatialtable.
+     * @throws Exception is something goes wrong.
+     */
+    public static void setAreaAndLength(List<Feature> featuresList, SpatialVectorTable spatialTable) throws Exception {
         for (Feature feature : featuresList) {
             String id = feature.getId();
             double[] areaLength = DaoSpatialite.getAreaAndLengthById(id, spatialTable);
             feature.setOriginalArea(areaLength[0]);
             feature.setOriginalLength(areaLength[1]);
         }
-
-        return featuresList;
     }
 
 //    /**
@@ -5,12 +5,14 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import java.util.ArrayList;
 
+import eu.geopaparazzi.library.images.ThumbnailCache;
 import eu.geopaparazzi.spatialite.R;
 
 /**
@@ -47,10 +49,32 @@ public class ImageGridViewAdapter<T> extends ArrayAdapter<T> {
 
         ImageItem item = data.get(position);
         holder.imageTitle.setText(item.getTitle());
-        holder.image.setImageBitmap(item.getImage());
+        if (item.getImage() == null && item.getThumbnailKey() != null) {
+            ThumbnailCache.getInstance().loadInto(item.getThumbnailKey(), item.getThumbnailSource(), holder.image);
+        } else {
+            // the view might be recycled from a cell whose thumbnail is still loading
+            ThumbnailCache.getInstance().cancel(holder.image);
+            holder.image.setImageBitmap(item.getImage());
+        }
         return row;
     }
 
+    /**
+     * Cancel the pending thumbnail loads of the cells shown in a view, as for example
+     * when its activity is destroyed.
+     *
+     * @param view the view that uses this adapter.
+     */
+    public void cancelThumbnails(AbsListView view) {
+        ThumbnailCache thumbnailCache = ThumbnailCache.getInstance();
+        for (int i = 0; i < view.getChildCount(); i++) {
+            Object tag = view.getChildAt(i).getTag();
+            if (tag instanceof ViewHolder) {
+                thumbnailCache.cancel(((ViewHolder) tag).image);
+            }
+        }
+    }
+
     static class ViewHolder {
         TextView imageTitle;
         ImageView image;
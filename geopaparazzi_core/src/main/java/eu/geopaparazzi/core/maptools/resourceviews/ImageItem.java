@@ -2,6 +2,7 @@ package eu.geopaparazzi.core.maptools.resourceviews;
 
 import android.graphics.Bitmap;
 
+import eu.geopaparazzi.library.images.ThumbnailCache;
 import eu.geopaparazzi.spatialite.database.spatial.core.resourcestorage.AbstractResource;
 
 /**
@@ -11,6 +12,8 @@ public class ImageItem {
     private Bitmap image;
     private String title;
     private AbstractResource resource;
+    private String thumbnailKey;
+    private ThumbnailCache.IThumbnailSource thumbnailSource;
 
     public ImageItem(Bitmap image, String title, AbstractResource res) {
         super();
@@ -19,6 +22,20 @@ public class ImageItem {
         this.setResource(res);
     }
 
+    /**
+     * Create an item whose image is loaded through the {@link ThumbnailCache} when shown.
+     *
+     * @param thumbnailKey    the key of the thumbnail in the cache.
+     * @param thumbnailSource the source of the thumbnail if it is not cached.
+     * @param title           the title.
+     * @param res             the resource.
+     */
+    public ImageItem(String thumbnailKey, ThumbnailCache.IThumbnailSource thumbnailSource, String title, AbstractResource res) {
+        this(null, title, res);
+        this.thumbnailKey = thumbnailKey;
+        this.thumbnailSource = thumbnailSource;
+    }
+
     public Bitmap getImage() {
         return image;
     }
@@ -42,4 +59,12 @@ public class ImageItem {
     public void setResource(AbstractResource resource) {
         this.resource = resource;
     }
+
+    public String getThumbnailKey() {
+        return thumbnailKey;
+    }
+
+    public ThumbnailCache.IThumbnailSource getThumbnailSource() {
+        return thumbnailSource;
+    }
 }
@@ -2,17 +2,19 @@ package eu.geopaparazzi.core.maptools.resourceviews;
 
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.support.v7.widget.Toolbar;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.GridView;
 import android.widget.TextView;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
@@ -20,6 +22,7 @@ import java.util.List;
 import eu.geopaparazzi.library.core.ResourcesManager;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.images.ImageUtilities;
+import eu.geopaparazzi.library.images.ThumbnailCache;
 import eu.geopaparazzi.library.util.AppsUtilities;
 import eu.geopaparazzi.library.util.GPDialogs;
 import eu.geopaparazzi.library.util.LibraryConstants;
@@ -35,11 +38,16 @@ import eu.geopaparazzi.core.maptools.FeaturePagerActivity;
  * Activity to manage images associated to a vector feature.
  * Shows existing images on a grid and offers a button to take new
  * pictures.
+ * <p/>
+ * The images are queried one page at a time while the grid is scrolled,
+ * without their data. The thumbnails of the visible cells are read and
+ * decoded in background by the {@link ThumbnailCache}.
  *
  * @author Cesar Martinez Izquierdo (www.scolab.es)
  */
 public class ResourceBrowser extends AppCompatActivity {
     private static final int CAMERA_RETURN_CODE = 667;
+    private static final int PAGE_SIZE = 60;
     private GridView gridView;
     private ImageGridViewAdapter<ImageItem> gridAdapter;
     private ArrayList<ImageItem> imageItems = new ArrayList<ImageItem>();
@@ -47,6 +55,10 @@ public class ResourceBrowser extends AppCompatActivity {
     private long rowId = -1;
     private TextView numImagesView;
     private File imageSaveFolder;
+    private PageTask pageTask;
+    private int pageOffset = 0;
+    private int imagesCount = 0;
+    private boolean hasMoreImages = false;
 
     public final static String TABLEVIEW_EXTRA_MESSAGE = "eu.hydrologis.geopaparazzi.maptools.resourceviews.TABLEVIEW";
 
@@ -79,9 +91,22 @@ public class ResourceBrowser extends AppCompatActivity {
 
         gridView = (GridView) findViewById(R.id.resourcesGridView);
         numImagesView = (TextView) findViewById(R.id.numImages);
-        refreshBlobThumbnails(imageItems);
         gridAdapter = new ImageGridViewAdapter<ImageItem>(this, R.layout.fragment_image_item, imageItems);
         gridView.setAdapter(gridAdapter);
+        gridView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // ignore
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (hasMoreImages && pageTask == null && firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE / 4) {
+                    loadNextPage();
+                }
+            }
+        });
+        refreshBlobThumbnails();
 
         gridView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
             @Override
@@ -116,6 +141,10 @@ public class ResourceBrowser extends AppCompatActivity {
                     public void run() {
                         try {
                             gridAdapter.remove(theItem);
+                            // the next page starts one image before
+                            pageOffset--;
+                            imagesCount--;
+                            updateImagesCount();
                         } catch (Exception e) {
                             GPLog.error(this, null, e);
                         }
@@ -161,42 +190,145 @@ public class ResourceBrowser extends AppCompatActivity {
 
     }
 
-    private ArrayList<ImageItem> refreshExternalImages(ArrayList<ImageItem> imageItems) {
-        imageItems.clear();
-        List<ExternalResource> resources = storage.getExternalResources(rowId, AbstractResource.ResourceType.EXTERNAL_IMAGE);
-        int i=0;
-        for (ExternalResource r: resources) {
-            String imgPath = r.getPath();
-            File imgFile = new File(imgPath);
-            String absPath;
-            if (imgFile.isAbsolute()) {
-                absPath = imgFile.getAbsolutePath();
+    @Override
+    protected void onDestroy() {
+        if (pageTask != null) {
+            pageTask.cancel(true);
+            pageTask = null;
+        }
+        // the thumbnails of the visible cells are not needed anymore
+        gridAdapter.cancelThumbnails(gridView);
+        super.onDestroy();
+    }
+
+    private ImageItem createExternalImageItem(ExternalResource r, int index) {
+        String imgPath = r.getPath();
+        File imgFile = new File(imgPath);
+        final String absPath;
+        if (imgFile.isAbsolute()) {
+            absPath = imgFile.getAbsolutePath();
+        }
+        else {
+            absPath = new File(imageSaveFolder, r.getPath()).getAbsolutePath();
+        }
+
+        // decoding the full image is expensive, the sampled thumbnail is cached
+        ThumbnailCache.IThumbnailSource source = new ThumbnailCache.IThumbnailSource() {
+            @Override
+            public byte[] getThumbnailData() throws Exception {
+                Bitmap bitmap = ImageUtilities.decodeSampledBitmapFromFile(absPath, 100, 100);
+                if (bitmap == null) {
+                    return null;
+                }
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 85, bout);
+                bitmap.recycle();
+                return bout.toByteArray();
             }
-            else {
-                absPath = new File(imageSaveFolder, r.getPath()).getAbsolutePath();
+        };
+        return new ImageItem(storage.getThumbnailKey(r.getId()), source, "Image#" + index, r);
+    }
+
+    private ImageItem createBlobImageItem(final BlobResource r, int index) {
+        // the thumbnail is read from the database only when its cell is shown
+        ThumbnailCache.IThumbnailSource source = new ThumbnailCache.IThumbnailSource() {
+            @Override
+            public byte[] getThumbnailData() throws Exception {
+                return storage.getBlobThumbnail(r.getId());
             }
+        };
+        return new ImageItem(storage.getThumbnailKey(r.getId()), source, "Image#" + index, r);
+    }
 
-            Bitmap bitmap = ImageUtilities.decodeSampledBitmapFromFile(absPath, 100, 100);
-            imageItems.add(new ImageItem(bitmap, "Image#" + i++, r));
+    /**
+     * Get a page of the images stored as paths to external files.
+     *
+     * @param offset the number of images to skip.
+     * @return the image items.
+     */
+    private List<ImageItem> getExternalImagesPage(int offset) {
+        List<ImageItem> items = new ArrayList<ImageItem>();
+        List<ExternalResource> resources = storage.getExternalResources(rowId, AbstractResource.ResourceType.EXTERNAL_IMAGE, offset, PAGE_SIZE);
+        int i = offset;
+        for (ExternalResource r : resources) {
+            items.add(createExternalImageItem(r, i++));
         }
-        String text = getResources().getQuantityString(R.plurals.n_images, imageItems.size(), imageItems.size());
-        numImagesView.setText(text);
+        return items;
+    }
 
-        return imageItems;
+    /**
+     * Get a page of the images stored as blobs, without reading their data.
+     *
+     * @param offset the number of images to skip.
+     * @return the image items.
+     */
+    private List<ImageItem> getBlobImagesPage(int offset) {
+        List<ImageItem> items = new ArrayList<ImageItem>();
+        List<BlobResource> resources = storage.getBlobResourcesPage(rowId, AbstractResource.ResourceType.BLOB_IMAGE, offset, PAGE_SIZE);
+        int i = offset;
+        for (BlobResource r : resources) {
+            items.add(createBlobImageItem(r, i++));
+        }
+        return items;
     }
 
-    private ArrayList<ImageItem> refreshBlobThumbnails(ArrayList<ImageItem> imageItems) {
-        imageItems.clear();
-        List<BlobResource> resources = storage.getBlobThumbnails(rowId, AbstractResource.ResourceType.BLOB_IMAGE);
-        int i=0;
-        for (BlobResource r: resources) {
-            Bitmap bitmap = BitmapFactory.decodeByteArray(r.getThumbnail(), 0, r.getThumbnail().length);
-            imageItems.add(new ImageItem(bitmap, "Image#" + i++, r));
+    /**
+     * Reload the images from the first page.
+     */
+    private void refreshBlobThumbnails() {
+        if (pageTask != null) {
+            pageTask.cancel(true);
         }
-        String text = getResources().getQuantityString(R.plurals.n_images, imageItems.size(), imageItems.size());
+        pageOffset = 0;
+        hasMoreImages = false;
+        pageTask = new PageTask(0);
+        pageTask.execute();
+    }
+
+    private void loadNextPage() {
+        pageTask = new PageTask(pageOffset);
+        pageTask.execute();
+    }
+
+    private void updateImagesCount() {
+        String text = getResources().getQuantityString(R.plurals.n_images, imagesCount, imagesCount);
         numImagesView.setText(text);
+    }
+
+    private class PageTask extends AsyncTask<Void, Void, List<ImageItem>> {
+        private final int offset;
+        private int count = -1;
 
-        return imageItems;
+        PageTask(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        protected List<ImageItem> doInBackground(Void... params) {
+            if (offset == 0) {
+                count = storage.getResourcesCount(rowId, AbstractResource.ResourceType.BLOB_IMAGE);
+            }
+            return getBlobImagesPage(offset);
+        }
+
+        @Override
+        protected void onPostExecute(List<ImageItem> items) {
+            if (pageTask == this) {
+                pageTask = null;
+            }
+            if (isCancelled() || isFinishing()) {
+                return;
+            }
+            hasMoreImages = items.size() == PAGE_SIZE;
+            pageOffset = offset + items.size();
+            if (offset == 0) {
+                imageItems.clear();
+                imagesCount = count;
+                updateImagesCount();
+            }
+            imageItems.addAll(items);
+            gridAdapter.notifyDataSetChanged();
+        }
     }
 
     @Override
@@ -222,8 +354,7 @@ public class ResourceBrowser extends AppCompatActivity {
         if (CAMERA_RETURN_CODE == requestCode) {
             if(resultCode == RESULT_OK){
                 if (data.getBooleanExtra(LibraryConstants.OBJECT_EXISTS, false)) {
-                    refreshBlobThumbnails(imageItems);
-                    gridAdapter.notifyDataSetChanged();
+                    refreshBlobThumbnails();
                 }
             }
         }
@@ -53,8 +53,8 @@ import eu.geopaparazzi.library.util.GPDialogs;
 import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.spatialite.database.spatial.core.layers.SpatialVectorTableLayer;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
-import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
 import eu.geopaparazzi.core.R;
+import eu.geopaparazzi.core.maptools.EditLayerIndex;
 import eu.geopaparazzi.core.maptools.FeatureUtilities;
 import eu.geopaparazzi.core.maptools.MapTool;
 import eu.geopaparazzi.core.mapview.overlays.MapsforgePointTransformation;
@@ -278,21 +278,34 @@ public class PolygonCutExtendTool extends MapTool {
                         west = e - 1;
                     }
 
-                    String query =
-                            SpatialiteUtilities.getBboxIntersectingFeaturesQuery(LibraryConstants.SRID_WGS84_4326,
-                                    spatialVectorTable, north, south, east, west);
-                    List<Feature> features = FeatureUtilities.buildFeatures(query, spatialVectorTable);
                     Geometry startGeometry = null;
                     Geometry endGeometry = null;
-                    for (Feature feature : features) {
-                        if (startGeometry != null && endGeometry != null) break;
-                        Geometry geometry = FeatureUtilities.getGeometry(feature);
-                        if (startGeometry == null && geometry != null && geometry.intersects(startPoint)) {
-                            startGeometry = geometry;
+                    EditLayerIndex index = EditLayerIndex.getIndex(spatialVectorTable, LibraryConstants.SRID_WGS84_4326);
+                    if (index != null) {
+                        // the polygons found are prepared, so they can be tested again cheaply
+                        Feature feature = index.getFirstIntersecting(startPoint, null);
+                        if (feature != null) {
                             startFeature = feature;
-                        } else if (endGeometry == null && geometry != null && geometry.intersects(endPoint)) {
-                            endGeometry = geometry;
-                            endFeature = feature;
+                            startGeometry = index.getGeometry(feature);
+                            feature = index.getFirstIntersecting(endPoint, startFeature);
+                            if (feature != null) {
+                                endFeature = feature;
+                                endGeometry = index.getGeometry(feature);
+                            }
+                        }
+                    } else {
+                        List<Feature> features = FeatureUtilities.buildFeaturesInBounds(LibraryConstants.SRID_WGS84_4326,
+                                spatialVectorTable, north, south, east, west);
+                        for (Feature feature : features) {
+                            if (startGeometry != null && endGeometry != null) break;
+                            Geometry geometry = FeatureUtilities.getGeometry(feature);
+                            if (startGeometry == null && geometry != null && geometry.intersects(startPoint)) {
+                                startGeometry = geometry;
+                                startFeature = feature;
+                            } else if (endGeometry == null && geometry != null && geometry.intersects(endPoint)) {
+                                endGeometry = geometry;
+                                endFeature = feature;
+                            }
                         }
                     }
 
@@ -27,7 +27,9 @@ import android.os.AsyncTask;
 import android.view.MotionEvent;
 import android.widget.Toast;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
 
 import org.mapsforge.android.maps.MapView;
 import org.mapsforge.android.maps.Projection;
@@ -46,8 +48,8 @@ import eu.geopaparazzi.library.util.GPDialogs;
 import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.spatialite.database.spatial.core.layers.SpatialVectorTableLayer;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
-import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
 import eu.geopaparazzi.core.R;
+import eu.geopaparazzi.core.maptools.EditLayerIndex;
 import eu.geopaparazzi.core.maptools.FeatureUtilities;
 import eu.geopaparazzi.core.maptools.MapTool;
 import eu.geopaparazzi.core.mapview.overlays.SliderDrawProjection;
@@ -210,12 +212,18 @@ public class SelectionTool extends MapTool {
                         west = e - 1;
                     }
 
-                    String query = SpatialiteUtilities.getBboxIntersectingFeaturesQuery(LibraryConstants.SRID_WGS84_4326,
-                            spatialVectorTable, north, south, east, west);
-                    features = FeatureUtilities.buildFeatures(query, spatialVectorTable);
+                    EditLayerIndex index = EditLayerIndex.getIndex(spatialVectorTable, LibraryConstants.SRID_WGS84_4326);
+                    if (index != null) {
+                        Geometry bounds = new GeometryFactory().toGeometry(new Envelope(west, east, south, north));
+                        features = index.getIntersecting(bounds);
+                        FeatureUtilities.setAreaAndLength(features, spatialVectorTable);
+                    } else {
+                        features = FeatureUtilities.buildFeaturesInBounds(LibraryConstants.SRID_WGS84_4326,
+                                spatialVectorTable, north, south, east, west);
+                    }
 
                     return "";
-                } catch (Exception e) {
+                } catch (java.lang.Exception e) {
                     GPLog.error(this, null, e); //$NON-NLS-1$
                     return "ERROR: " + e.getLocalizedMessage();
                 }
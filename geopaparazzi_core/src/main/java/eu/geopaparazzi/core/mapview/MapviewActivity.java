@@ -38,6 +38,7 @@ import android.graphics.drawable.Drawable;
 import android.graphics.drawable.ShapeDrawable;
 import android.graphics.drawable.shapes.OvalShape;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.BatteryManager;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
@@ -74,8 +75,6 @@ import org.mapsforge.android.maps.MapViewPosition;
 import org.mapsforge.android.maps.Projection;
 import org.mapsforge.android.maps.mapgenerator.MapGenerator;
 import org.mapsforge.android.maps.overlay.Overlay;
-import org.mapsforge.android.maps.overlay.OverlayItem;
-import org.mapsforge.android.maps.overlay.OverlayWay;
 import org.mapsforge.core.model.GeoPoint;
 
 import java.io.File;
@@ -121,7 +120,6 @@ import eu.geopaparazzi.spatialite.database.spatial.core.tables.AbstractSpatialTa
 import eu.geopaparazzi.core.R;
 import eu.geopaparazzi.core.database.DaoBookmarks;
 import eu.geopaparazzi.core.database.DaoGpsLog;
-import eu.geopaparazzi.core.database.DaoImages;
 import eu.geopaparazzi.core.database.DaoNotes;
 import eu.geopaparazzi.core.database.objects.Bookmark;
 import eu.geopaparazzi.core.database.objects.Note;
@@ -135,6 +133,7 @@ import eu.geopaparazzi.core.maptools.tools.PointMainEditingToolGroup;
 import eu.geopaparazzi.core.maptools.tools.PolygonMainEditingToolGroup;
 import eu.geopaparazzi.core.maptools.tools.TapMeasureTool;
 import eu.geopaparazzi.core.mapview.overlays.ArrayGeopaparazziOverlay;
+import eu.geopaparazzi.core.mapview.overlays.DataOverlayModel;
 import eu.geopaparazzi.core.ui.activities.AddNotesActivity;
 import eu.geopaparazzi.core.ui.activities.BookmarksListActivity;
 import eu.geopaparazzi.core.ui.activities.GpsDataListActivity;
@@ -179,6 +178,7 @@ public class MapviewActivity extends MapActivity implements OnTouchListener, OnC
     private SharedPreferences mPeferences;
 
     private ArrayGeopaparazziOverlay mDataOverlay;
+    private final DataOverlayModel dataOverlayModel = new DataOverlayModel();
 
     private List<String> smsString;
     private Drawable notesDrawable;
@@ -437,7 +437,13 @@ public class MapviewActivity extends MapActivity implements OnTouchListener, OnC
             notesDrawable = Compat.getDrawable(this, R.drawable.ic_place_accent_24dp);
         }
 
+        Drawable imageMarker = ArrayGeopaparazziOverlay.boundCenter(Compat.getDrawable(this, R.drawable.ic_images_48dp));
+        Drawable notesMarker = ArrayGeopaparazziOverlay.boundCenter(notesDrawable);
+        Drawable bookmarkMarker = ArrayGeopaparazziOverlay.boundCenter(Compat.getDrawable(this, R.drawable.ic_bookmarks_48dp));
+        dataOverlayModel.setMarkers(imageMarker, notesMarker, bookmarkMarker);
+
         mDataOverlay = new ArrayGeopaparazziOverlay(this);
+        dataOverlayModel.attach(mDataOverlay);
         List<Overlay> overlays = mMapView.getOverlays();
         overlays.clear();
         overlays.add(mDataOverlay);
@@ -485,50 +491,29 @@ public class MapviewActivity extends MapActivity implements OnTouchListener, OnC
     }
 
     private void readData() {
-        try {
-            mDataOverlay.clearItems();
-            mDataOverlay.clearWays();
-
-            List<OverlayWay> logOverlaysList = DaoGpsLog.getGpslogOverlays();
-            mDataOverlay.addWays(logOverlaysList);
-
-            boolean imagesVisible = mPeferences.getBoolean(Constants.PREFS_KEY_IMAGES_VISIBLE, true);
-            boolean notesVisible = mPeferences.getBoolean(Constants.PREFS_KEY_NOTES_VISIBLE, true);
-
-            /* images */
-            if (imagesVisible) {
-                Drawable imageMarker = Compat.getDrawable(this, R.drawable.ic_images_48dp);
-                Drawable newImageMarker = ArrayGeopaparazziOverlay.boundCenter(imageMarker);
-                List<OverlayItem> imagesOverlaysList = DaoImages.getImagesOverlayList(newImageMarker, true);
-                mDataOverlay.addItems(imagesOverlaysList);
-            }
-
-            /* gps notes */
-            if (notesVisible) {
-                notesDrawable.setBounds(notesDrawable.getIntrinsicWidth(), notesDrawable.getIntrinsicHeight() / -2, notesDrawable.getIntrinsicWidth() / 2,
-                        notesDrawable.getIntrinsicHeight() / 2);
-                Drawable newNotesMarker = ArrayGeopaparazziOverlay.boundCenter(notesDrawable);
-                List<OverlayItem> noteOverlaysList = DaoNotes.getNoteOverlaysList(newNotesMarker);
-                mDataOverlay.addItems(noteOverlaysList);
-            }
+        final boolean imagesVisible = mPeferences.getBoolean(Constants.PREFS_KEY_IMAGES_VISIBLE, true);
+        final boolean notesVisible = mPeferences.getBoolean(Constants.PREFS_KEY_NOTES_VISIBLE, true);
 
-            /* bookmarks */
-            Drawable bookmarkMarker = Compat.getDrawable(this, R.drawable.ic_bookmarks_48dp);
-            Drawable newBookmarkMarker = ArrayGeopaparazziOverlay.boundCenter(bookmarkMarker);
-            List<OverlayItem> bookmarksOverlays = DaoBookmarks.getBookmarksOverlays(newBookmarkMarker);
-            mDataOverlay.addItems(bookmarksOverlays);
-
-            // read last known gps position
-            if (lastGpsPosition != null) {
-                GeoPoint geoPoint = toGeopoint((int) (lastGpsPosition[0] * E6), (int) (lastGpsPosition[1] * E6));
-                if (geoPoint != null) {
-                    mDataOverlay.setGpsPosition(geoPoint, 0f, lastGpsServiceStatus, lastGpsLoggingStatus);
-                    mDataOverlay.requestRedraw();
+        // only changed data are read, off the ui thread
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                try {
+                    dataOverlayModel.refresh(imagesVisible, notesVisible);
+                } catch (Exception e) {
+                    GPLog.error(MapviewActivity.this, null, e); //$NON-NLS-1$
                 }
+                return null;
+            }
+        }.execute();
+
+        // read last known gps position
+        if (lastGpsPosition != null) {
+            GeoPoint geoPoint = toGeopoint((int) (lastGpsPosition[0] * E6), (int) (lastGpsPosition[1] * E6));
+            if (geoPoint != null) {
+                mDataOverlay.setGpsPosition(geoPoint, 0f, lastGpsServiceStatus, lastGpsLoggingStatus);
+                mDataOverlay.requestRedraw();
             }
-            // mDataOverlay.requestRedraw();
-        } catch (Exception e1) {
-            GPLog.error(this, null, e1); //$NON-NLS-1$
         }
     }
 
@@ -1126,6 +1111,9 @@ public class MapviewActivity extends MapActivity implements OnTouchListener, OnC
         float accuracy = 0;
         if (lastGpsPositionExtras != null) {
             accuracy = lastGpsPositionExtras[0];
+            // let the map prefetch the tiles ahead when driving
+            mMapView.getTilePrefetcher().setGpsMotion(lastGpsPosition[0], lastGpsPosition[1], lastGpsPositionExtras[1],
+                    lastGpsPositionExtras[2], System.currentTimeMillis());
         }
 
         if (this.mMapView.getWidth() <= 0 || this.mMapView.getWidth() <= 0) {
@@ -30,6 +30,8 @@ import java.util.List;
  * ArrayGeopaparazziOverlay is a thread-safe implementation of the {@link GeopaparazziOverlay} class using an {@link ArrayList} as
  * internal data structure. Default paints for all {@link OverlayWay OverlayWays} without individual paints can be
  * defined via the constructor.
+ * <p/>
+ * Items are also kept in an {@link ItemsGridIndex}, so that drawing and hit testing only visit the items near the viewport.
  */
 public class ArrayGeopaparazziOverlay extends GeopaparazziOverlay {
     private static final int INITIAL_CAPACITY = 8;
@@ -37,6 +39,7 @@ public class ArrayGeopaparazziOverlay extends GeopaparazziOverlay {
 
     private final List<OverlayWay> overlayWays;
     private final List<OverlayItem> overlayItems;
+    private final ItemsGridIndex itemsIndex = new ItemsGridIndex();
 
     /**
      * @param context  the context to use.
@@ -83,6 +86,19 @@ public class ArrayGeopaparazziOverlay extends GeopaparazziOverlay {
         populate();
     }
 
+    /**
+     * Removes all ways of the given collection from the overlay.
+     *
+     * @param c
+     *            collection whose ways should be removed from the overlay.
+     */
+    public void removeWays( Collection<OverlayWay> c ) {
+        synchronized (this.overlayWays) {
+            this.overlayWays.removeAll(c);
+        }
+        populate();
+    }
+
     @Override
     public String getThreadName() {
         return THREAD_NAME;
@@ -127,6 +143,7 @@ public class ArrayGeopaparazziOverlay extends GeopaparazziOverlay {
     public void addItem( OverlayItem overlayItem ) {
         synchronized (this.overlayItems) {
             this.overlayItems.add(overlayItem);
+            this.itemsIndex.add(overlayItem);
         }
         populate();
     }
@@ -140,6 +157,9 @@ public class ArrayGeopaparazziOverlay extends GeopaparazziOverlay {
     public void addItems( Collection<OverlayItem> c ) {
         synchronized (this.overlayItems) {
             this.overlayItems.addAll(c);
+            for (OverlayItem overlayItem : c) {
+                this.itemsIndex.add(overlayItem);
+            }
         }
         populate();
     }
@@ -150,6 +170,7 @@ public class ArrayGeopaparazziOverlay extends GeopaparazziOverlay {
     public void clearItems() {
         synchronized (this.overlayItems) {
             this.overlayItems.clear();
+            this.itemsIndex.clear();
         }
         populate();
     }
@@ -163,6 +184,21 @@ public class ArrayGeopaparazziOverlay extends GeopaparazziOverlay {
     public void removeItem( OverlayItem overlayItem ) {
         synchronized (this.overlayItems) {
             this.overlayItems.remove(overlayItem);
+            this.itemsIndex.remove(overlayItem);
+        }
+        populate();
+    }
+
+    /**
+     * Removes all items of the given collection from the overlay.
+     *
+     * @param c
+     *            collection whose items should be removed from the overlay.
+     */
+    public void removeItems( Collection<OverlayItem> c ) {
+        synchronized (this.overlayItems) {
+            this.overlayItems.removeAll(c);
+            this.itemsIndex.removeAll(c);
         }
         populate();
     }
@@ -184,4 +220,21 @@ public class ArrayGeopaparazziOverlay extends GeopaparazziOverlay {
         }
     }
 
+    @Override
+    protected void queryItems( double left, double top, double right, double bottom, byte zoomLevel,
+            boolean updateCachedPositions, List<OverlayItem> items ) {
+        this.itemsIndex.query(left, top, right, bottom, zoomLevel, updateCachedPositions, items);
+    }
+
+    @Override
+    protected void queryClusters( double left, double top, double right, double bottom, byte zoomLevel,
+            boolean updateCachedPositions, List<ItemsCluster> clusters ) {
+        this.itemsIndex.queryClusters(left, top, right, bottom, zoomLevel, updateCachedPositions, clusters);
+    }
+
+    @Override
+    protected int getMaxItemMarkerSize() {
+        return this.itemsIndex.getMaxMarkerSize();
+    }
+
 }
@@ -0,0 +1,344 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.mapview.overlays;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.drawable.Drawable;
+
+import org.mapsforge.android.maps.overlay.OverlayItem;
+import org.mapsforge.android.maps.overlay.OverlayWay;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.geopaparazzi.core.GeopaparazziApplication;
+import eu.geopaparazzi.core.database.DaoBookmarks;
+import eu.geopaparazzi.core.database.DaoGpsLog;
+import eu.geopaparazzi.core.database.DaoImages;
+import eu.geopaparazzi.core.database.DaoNotes;
+import eu.geopaparazzi.core.database.TableRevisions;
+import eu.geopaparazzi.core.database.objects.LogMapItem;
+
+import static eu.geopaparazzi.core.database.TableDescriptions.TABLE_GPSLOGS;
+import static eu.geopaparazzi.core.database.TableDescriptions.TABLE_IMAGES;
+import static eu.geopaparazzi.core.database.TableDescriptions.TABLE_NOTES;
+
+/**
+ * Change tracked model of the project data (logs, images, notes and bookmarks) shown in the map.
+ * <p/>
+ * The model keeps the overlay objects across activity resumes and on {@link #refresh(boolean, boolean)}
+ * only reads the tables whose {@link TableRevisions revision} changed. Of those, only the rows changed
+ * since the last read are read, if they are known, and applied to the attached overlay.
+ * <p/>
+ * The refresh is meant to be run off the UI thread.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class DataOverlayModel {
+
+    private SQLiteDatabase lastDatabase;
+    private ArrayGeopaparazziOverlay overlay;
+
+    private Drawable imagesMarker;
+    private Drawable notesMarker;
+    private Drawable bookmarksMarker;
+
+    private final ItemsLayer imagesLayer = new ItemsLayer();
+    private final ItemsLayer notesLayer = new ItemsLayer();
+    private final ItemsLayer bookmarksLayer = new ItemsLayer();
+
+    private long logsRevision = -1;
+    private final LinkedHashMap<Long, OverlayWay> logsMap = new LinkedHashMap<>();
+    private final HashMap<Long, String> logsStateMap = new HashMap<>();
+
+    /**
+     * Attach the overlay the data are shown in.
+     * <p/>
+     * The overlay is cleared and filled with the currently loaded data, no database access is done.
+     *
+     * @param overlay the overlay to use.
+     */
+    public synchronized void attach(ArrayGeopaparazziOverlay overlay) {
+        this.overlay = overlay;
+        overlay.clearWays();
+        overlay.clearItems();
+        overlay.addWays(logsMap.values());
+        overlay.addItems(imagesLayer.itemsMap.values());
+        overlay.addItems(notesLayer.itemsMap.values());
+        overlay.addItems(bookmarksLayer.itemsMap.values());
+    }
+
+    /**
+     * Set the markers to use for the items.
+     * <p/>
+     * Already loaded items get the new marker.
+     *
+     * @param imagesMarker    the images marker.
+     * @param notesMarker     the notes marker.
+     * @param bookmarksMarker the bookmarks marker.
+     */
+    public synchronized void setMarkers(Drawable imagesMarker, Drawable notesMarker, Drawable bookmarksMarker) {
+        this.imagesMarker = imagesMarker;
+        this.notesMarker = notesMarker;
+        this.bookmarksMarker = bookmarksMarker;
+        imagesLayer.setMarker(imagesMarker);
+        notesLayer.setMarker(notesMarker);
+        bookmarksLayer.setMarker(bookmarksMarker);
+    }
+
+    /**
+     * Synchronize the model and the attached overlay with the database.
+     *
+     * @param imagesVisible if <code>false</code>, images are removed from the map.
+     * @param notesVisible  if <code>false</code>, notes are removed from the map.
+     * @return <code>true</code> if anything changed in the overlay.
+     * @throws IOException if something goes wrong.
+     */
+    public synchronized boolean refresh(boolean imagesVisible, boolean notesVisible) throws IOException {
+        if (overlay == null) {
+            return false;
+        }
+
+        boolean changed = false;
+        SQLiteDatabase database = GeopaparazziApplication.getInstance().getDatabase();
+        if (database != lastDatabase) {
+            // the project changed, nothing loaded can be reused
+            changed = clear();
+            lastDatabase = database;
+        }
+
+        changed = refreshLogs() | changed;
+
+        if (imagesVisible) {
+            long revision = TableRevisions.get(TABLE_IMAGES);
+            if (revision != imagesLayer.revision) {
+                Set<Long> changedIds = imagesLayer.getChangedRows(TABLE_IMAGES);
+                LinkedHashMap<Long, OverlayItem> newItems = DaoImages.getImagesOverlayMap(imagesMarker, true, changedIds);
+                changed = imagesLayer.apply(overlay, newItems, changedIds, revision) | changed;
+            }
+        } else {
+            changed = imagesLayer.clear(overlay) | changed;
+        }
+
+        if (notesVisible) {
+            long revision = TableRevisions.get(TABLE_NOTES);
+            if (revision != notesLayer.revision) {
+                Set<Long> changedIds = notesLayer.getChangedRows(TABLE_NOTES);
+                LinkedHashMap<Long, OverlayItem> newItems = DaoNotes.getNoteOverlaysMap(notesMarker, changedIds);
+                changed = notesLayer.apply(overlay, newItems, changedIds, revision) | changed;
+            }
+        } else {
+            changed = notesLayer.clear(overlay) | changed;
+        }
+
+        long revision = TableRevisions.get(DaoBookmarks.TABLE_BOOKMARKS);
+        if (revision != bookmarksLayer.revision) {
+            Set<Long> changedIds = bookmarksLayer.getChangedRows(DaoBookmarks.TABLE_BOOKMARKS);
+            LinkedHashMap<Long, OverlayItem> newItems = DaoBookmarks.getBookmarksOverlaysMap(bookmarksMarker, changedIds);
+            changed = bookmarksLayer.apply(overlay, newItems, changedIds, revision) | changed;
+        }
+        return changed;
+    }
+
+    /**
+     * Read the changed logs.
+     * <p/>
+     * The state of every loaded log, points count included, is kept, so that only the properties and
+     * points count of the changed logs are read and only the ways of the logs whose state changed
+     * are read again.
+     */
+    private boolean refreshLogs() throws IOException {
+        // read the revision before the data, so that changes done during the read are caught next time
+        long revision = TableRevisions.get(TABLE_GPSLOGS);
+        if (revision == logsRevision) {
+            return false;
+        }
+
+        Set<Long> changedIds = null;
+        if (logsRevision >= 0) {
+            changedIds = TableRevisions.getChangedRows(TABLE_GPSLOGS, logsRevision);
+        }
+        List<LogMapItem> logs = DaoGpsLog.getGpslogs(changedIds);
+        HashMap<Long, Integer> pointsCountMap = DaoGpsLog.getGpslogPointsCount(changedIds);
+
+        List<OverlayWay> toRemove = new ArrayList<>();
+        List<OverlayWay> toAdd = new ArrayList<>();
+        Set<Long> readIds = new HashSet<>();
+        for (LogMapItem log : logs) {
+            if (!log.isVisible()) {
+                continue;
+            }
+            long logId = log.getId();
+            readIds.add(logId);
+            Integer pointsCount = pointsCountMap.get(logId);
+            String state = log.getColor() + ";" + log.getWidth() + ";" + log.getEndTime() + ";" + pointsCount;
+            if (state.equals(logsStateMap.get(logId))) {
+                continue;
+            }
+
+            OverlayWay oldWay = logsMap.remove(logId);
+            if (oldWay != null)
+                toRemove.add(oldWay);
+            OverlayWay way = DaoGpsLog.getGpslogOverlay(logId, log.getColor(), log.getWidth());
+            if (way != null) {
+                logsMap.put(logId, way);
+                toAdd.add(way);
+            }
+            logsStateMap.put(logId, state);
+        }
+
+        // the logs that were not read back have been deleted or hidden
+        Collection<Long> checkedIds = changedIds != null ? changedIds : new ArrayList<>(logsStateMap.keySet());
+        for (Long logId : checkedIds) {
+            if (readIds.contains(logId)) {
+                continue;
+            }
+            logsStateMap.remove(logId);
+            OverlayWay oldWay = logsMap.remove(logId);
+            if (oldWay != null)
+                toRemove.add(oldWay);
+        }
+        logsRevision = revision;
+
+        if (toRemove.size() > 0)
+            overlay.removeWays(new HashSet<>(toRemove));
+        if (toAdd.size() > 0)
+            overlay.addWays(toAdd);
+        return toRemove.size() > 0 || toAdd.size() > 0;
+    }
+
+    private boolean clear() {
+        boolean changed = logsMap.size() > 0;
+        overlay.removeWays(new HashSet<>(logsMap.values()));
+        logsMap.clear();
+        logsStateMap.clear();
+        logsRevision = -1;
+
+        changed = imagesLayer.clear(overlay) | changed;
+        changed = notesLayer.clear(overlay) | changed;
+        changed = bookmarksLayer.clear(overlay) | changed;
+        return changed;
+    }
+
+    /**
+     * The loaded items of a table, with the revision they were read at.
+     */
+    private static class ItemsLayer {
+        long revision = -1;
+        LinkedHashMap<Long, OverlayItem> itemsMap = new LinkedHashMap<>();
+
+        /**
+         * @return the ids of the rows of the table changed since the items were read or
+         * <code>null</code>, if the whole table has to be read.
+         */
+        Set<Long> getChangedRows(String tableName) {
+            if (revision < 0) {
+                return null;
+            }
+            return TableRevisions.getChangedRows(tableName, revision);
+        }
+
+        void setMarker(Drawable marker) {
+            for (OverlayItem item : itemsMap.values()) {
+                item.setMarker(marker);
+            }
+        }
+
+        /**
+         * Apply the difference between the loaded and the new items to the overlay.
+         * <p/>
+         * Unchanged items are kept, so that their cached map positions survive.
+         *
+         * @param changedIds the ids of the changed rows the new items were read from or
+         *                   <code>null</code>, if the new items are the whole table.
+         */
+        boolean apply(ArrayGeopaparazziOverlay overlay, LinkedHashMap<Long, OverlayItem> newItemsMap, Set<Long> changedIds,
+                      long newRevision) {
+            List<OverlayItem> toRemove = new ArrayList<>();
+            List<OverlayItem> toAdd = new ArrayList<>();
+
+            if (changedIds == null) {
+                Iterator<Map.Entry<Long, OverlayItem>> iterator = itemsMap.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Long, OverlayItem> entry = iterator.next();
+                    if (!newItemsMap.containsKey(entry.getKey())) {
+                        toRemove.add(entry.getValue());
+                        iterator.remove();
+                    }
+                }
+            } else {
+                for (Long id : changedIds) {
+                    if (!newItemsMap.containsKey(id)) {
+                        OverlayItem oldItem = itemsMap.remove(id);
+                        if (oldItem != null)
+                            toRemove.add(oldItem);
+                    }
+                }
+            }
+            for (Map.Entry<Long, OverlayItem> entry : newItemsMap.entrySet()) {
+                Long id = entry.getKey();
+                OverlayItem newItem = entry.getValue();
+                OverlayItem oldItem = itemsMap.get(id);
+                if (oldItem == null) {
+                    toAdd.add(newItem);
+                    itemsMap.put(id, newItem);
+                } else if (!isSameItem(oldItem, newItem)) {
+                    toRemove.add(oldItem);
+                    toAdd.add(newItem);
+                    itemsMap.put(id, newItem);
+                }
+            }
+            revision = newRevision;
+
+            if (toRemove.size() > 0)
+                overlay.removeItems(new HashSet<>(toRemove));
+            if (toAdd.size() > 0)
+                overlay.addItems(toAdd);
+            return toRemove.size() > 0 || toAdd.size() > 0;
+        }
+
+        boolean clear(ArrayGeopaparazziOverlay overlay) {
+            boolean changed = itemsMap.size() > 0;
+            if (changed)
+                overlay.removeItems(new HashSet<>(itemsMap.values()));
+            itemsMap.clear();
+            revision = -1;
+            return changed;
+        }
+
+        private static boolean isSameItem(OverlayItem item1, OverlayItem item2) {
+            return item1.getPoint().equals(item2.getPoint()) //
+                    && equalsOrNull(item1.getTitle(), item2.getTitle()) //
+                    && equalsOrNull(item1.getSnippet(), item2.getSnippet());
+        }
+
+        private static boolean equalsOrNull(String s1, String s2) {
+            if (s1 == null)
+                return s2 == null;
+            return s1.equals(s2);
+        }
+    }
+}
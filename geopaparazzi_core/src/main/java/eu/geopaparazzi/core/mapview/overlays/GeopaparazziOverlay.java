@@ -31,13 +31,9 @@ import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.preference.PreferenceManager;
 
-import com.vividsolutions.jts.android.PointTransformation;
+import com.vividsolutions.jts.android.PointShapeFactory;
 import com.vividsolutions.jts.android.ShapeWriter;
 import com.vividsolutions.jts.android.geom.DrawableShape;
-import com.vividsolutions.jts.android.geom.PathShape;
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.geom.Geometry;
 
 import org.mapsforge.android.maps.MapView;
 import org.mapsforge.android.maps.Projection;
@@ -46,6 +42,7 @@ import org.mapsforge.android.maps.overlay.Overlay;
 import org.mapsforge.android.maps.overlay.OverlayItem;
 import org.mapsforge.android.maps.overlay.OverlayWay;
 import org.mapsforge.core.model.GeoPoint;
+import org.mapsforge.core.util.MercatorProjection;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -79,7 +76,6 @@ import eu.geopaparazzi.library.util.GPDialogs;
 import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.spatialite.database.spatial.SpatialiteSourcesManager;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
-import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryType;
 import eu.geopaparazzi.spatialite.database.spatial.core.geometry.GeometryIterator;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import jsqlite.Exception;
@@ -117,8 +113,14 @@ public abstract class GeopaparazziOverlay extends Overlay {
     private Path wayPath;
 
     private Point itemPosition;
-    private final List<Integer> visibleItems = new ArrayList<>();
-    private final List<Integer> visibleItemsRedraw = new ArrayList<>();
+    private final WkbScreenDecoder wkbDecoder = new WkbScreenDecoder();
+    private final PointF decodedPoint = new PointF();
+    private final List<OverlayItem> itemsInView = new ArrayList<>();
+    private final List<ItemsCluster> clustersInView = new ArrayList<>();
+    private Paint clusterFillPaint;
+    private Paint clusterOutlinePaint;
+    private Paint clusterTextPaint;
+    private float clusterRadius;
 
     /*
      * gps stuff
@@ -225,6 +227,24 @@ public abstract class GeopaparazziOverlay extends Overlay {
             textHaloPaint.setTextSize(notesTextSize);
         }
 
+        // clusters
+        int decorationsColor = Compat.getColor(context, R.color.main_decorations);
+        clusterFillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        clusterFillPaint.setStyle(Paint.Style.FILL);
+        clusterFillPaint.setColor(decorationsColor);
+        clusterFillPaint.setAlpha(200);
+        clusterOutlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        clusterOutlinePaint.setStyle(Paint.Style.STROKE);
+        clusterOutlinePaint.setColor(Color.WHITE);
+        clusterOutlinePaint.setStrokeWidth(isHighDensity ? 4 : 2);
+        clusterRadius = isHighDensity ? 28 : 16;
+        clusterTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        clusterTextPaint.setStyle(Paint.Style.FILL);
+        clusterTextPaint.setColor(Color.WHITE);
+        clusterTextPaint.setTextAlign(Align.CENTER);
+        clusterTextPaint.setFakeBoldText(true);
+        clusterTextPaint.setTextSize(clusterRadius);
+
         gpsMarker = ItemizedOverlay.boundCenter(gpsMarker);
         gpslogOverlay = new OverlayWay(null, gpsOutline);
 
@@ -259,6 +279,81 @@ public abstract class GeopaparazziOverlay extends Overlay {
      */
     public abstract int itemSize();
 
+    private void drawItem(Canvas canvas, Point drawPosition, OverlayItem overlayItem) {
+        // calculate the relative item position on the canvas
+        this.itemPosition.x = overlayItem.cachedMapPosition.x - drawPosition.x;
+        this.itemPosition.y = overlayItem.cachedMapPosition.y - drawPosition.y;
+
+        // get the correct marker for the item
+        Drawable itemMarker = overlayItem.getMarker();
+        if (itemMarker == null) return;
+
+        // get the position of the marker
+        Rect markerBounds = itemMarker.copyBounds();
+        int intrinsicWidth = itemMarker.getIntrinsicWidth() / 2;
+        int intrinsicHeight = itemMarker.getIntrinsicHeight() / 2;
+
+        // calculate the bounding box of the marker
+        int left;
+        int right;
+        int top;
+        int itemBottom;
+        if (overlayItem instanceof NoteOverlayItem) {
+            left = this.itemPosition.x - intrinsicWidth;
+            right = this.itemPosition.x + intrinsicWidth;
+            top = this.itemPosition.y - intrinsicHeight;
+            itemBottom = this.itemPosition.y + intrinsicHeight;
+        } else {
+            left = this.itemPosition.x + intrinsicWidth / 2 - intrinsicWidth;
+            right = this.itemPosition.x + intrinsicWidth / 2 + intrinsicWidth;
+            top = this.itemPosition.y + intrinsicHeight / 2 - intrinsicHeight;
+            itemBottom = this.itemPosition.y + intrinsicHeight / 2 + intrinsicHeight;
+        }
+
+        // check if the bounding box of the marker intersects with the canvas
+        int canvasWidth = canvas.getWidth();
+        int canvasHeight = canvas.getHeight();
+        if (right >= 0 && left <= canvasWidth && itemBottom >= 0 && top <= canvasHeight) {
+            // set the position of the marker
+            itemMarker.setBounds(left, top, right, itemBottom);
+
+            // draw the item marker on the canvas
+            itemMarker.draw(canvas);
+
+            // restore the position of the marker
+            itemMarker.setBounds(markerBounds);
+
+            if (isNotesTextVisible && overlayItem instanceof NoteOverlayItem) {
+                String title = overlayItem.getTitle();
+                float delta = markerBounds.width() / 4f;
+                float x = right - delta;
+                float y = top + delta;
+                if (doNotesTextHalo)
+                    canvas.drawText(title, x, y, textHaloPaint);
+                canvas.drawText(title, x, y, textPaint);
+            }
+        }
+    }
+
+    private float getClusterRadius(ItemsCluster cluster) {
+        // grow the marker slowly with the number of items
+        return clusterRadius * (1f + (float) Math.log10(cluster.getCount()) / 2f);
+    }
+
+    private void drawCluster(Canvas canvas, Point drawPosition, ItemsCluster cluster) {
+        float x = cluster.getPixelX() - drawPosition.x;
+        float y = cluster.getPixelY() - drawPosition.y;
+        float radius = getClusterRadius(cluster);
+        if (x + radius < 0 || x - radius > canvas.getWidth() || y + radius < 0 || y - radius > canvas.getHeight()) {
+            return;
+        }
+        canvas.drawCircle(x, y, radius, clusterFillPaint);
+        canvas.drawCircle(x, y, radius, clusterOutlinePaint);
+        String countText = String.valueOf(cluster.getCount());
+        float textY = y - (clusterTextPaint.descent() + clusterTextPaint.ascent()) / 2f;
+        canvas.drawText(countText, x, textY, clusterTextPaint);
+    }
+
     private void drawWayPathOnCanvas(Canvas canvas, Point drawPosition, OverlayWay overlayWay) {
         // assemble the ways
         this.wayPath.reset();
@@ -421,101 +516,40 @@ public abstract class GeopaparazziOverlay extends Overlay {
          * ITEMS
          */
 
-        // erase the list of visible items
-        this.visibleItemsRedraw.clear();
-
         int canvasHeight = canvas.getHeight();
         int canvasWidth = canvas.getWidth();
 
-        int numberOfItems = itemSize();
-        for (int itemIndex = 0; itemIndex < numberOfItems; ++itemIndex) {
-            if (stopDrawing()) {
-                // stop working
-                return;
-            }
-
-            // get the current item
-            OverlayItem overlayItem = createItem(itemIndex);
-            if (overlayItem == null) {
-                continue;
-            }
-
-            // make sure that the current item has a position
-            if (overlayItem.getPoint() == null) {
-                continue;
-            }
-
-            // make sure that the cached item position is valid
-            if (drawZoomLevel != overlayItem.cachedZoomLevel) {
-                overlayItem.cachedMapPosition = projection.toPoint(overlayItem.getPoint(), overlayItem.cachedMapPosition,
-                        drawZoomLevel);
-                overlayItem.cachedZoomLevel = drawZoomLevel;
-            }
-
-            // calculate the relative item position on the canvas
-            this.itemPosition.x = overlayItem.cachedMapPosition.x - drawPosition.x;
-            this.itemPosition.y = overlayItem.cachedMapPosition.y - drawPosition.y;
-
-            // get the correct marker for the item
-            Drawable itemMarker = overlayItem.getMarker();
-            if (itemMarker == null) continue;
-
-            // get the position of the marker
-            Rect markerBounds = itemMarker.copyBounds();
-            int intrinsicWidth = itemMarker.getIntrinsicWidth() / 2;
-            int intrinsicHeight = itemMarker.getIntrinsicHeight() / 2;
-
-            // calculate the bounding box of the marker
-            int left;
-            int right;
-            int top;
-            int itemBottom;
-            if (overlayItem instanceof NoteOverlayItem) {
-                left = this.itemPosition.x - intrinsicWidth;
-                right = this.itemPosition.x + intrinsicWidth;
-                top = this.itemPosition.y - intrinsicHeight;
-                itemBottom = this.itemPosition.y + intrinsicHeight;
-            } else {
-                left = this.itemPosition.x + intrinsicWidth / 2 - intrinsicWidth;
-                right = this.itemPosition.x + intrinsicWidth / 2 + intrinsicWidth;
-                top = this.itemPosition.y + intrinsicHeight / 2 - intrinsicHeight;
-                itemBottom = this.itemPosition.y + intrinsicHeight / 2 + intrinsicHeight;
+        // only visit the items near the viewport
+        int margin = Math.max(getMaxItemMarkerSize(), (int) Math.ceil(2 * clusterRadius));
+        if (drawZoomLevel <= ItemsGridIndex.MAX_CLUSTER_ZOOMLEVEL) {
+            // at low zoom levels nearby items are aggregated in a single marker
+            this.clustersInView.clear();
+            queryClusters(drawPosition.x - margin, drawPosition.y - margin, drawPosition.x + canvasWidth + margin,
+                    drawPosition.y + canvasHeight + margin, drawZoomLevel, true, this.clustersInView);
+            for (ItemsCluster cluster : this.clustersInView) {
+                if (stopDrawing()) {
+                    // stop working
+                    return;
+                }
+                if (cluster.getCount() == 1) {
+                    drawItem(canvas, drawPosition, cluster.getFirstItem());
+                } else {
+                    drawCluster(canvas, drawPosition, cluster);
+                }
             }
-
-            // check if the bounding box of the marker intersects with the canvas
-            if (right >= 0 && left <= canvasWidth && itemBottom >= 0 && top <= canvasHeight) {
-                // set the position of the marker
-                itemMarker.setBounds(left, top, right, itemBottom);
-
-                // draw the item marker on the canvas
-                itemMarker.draw(canvas);
-
-                // restore the position of the marker
-                itemMarker.setBounds(markerBounds);
-
-                // add the current item index to the list of visible items
-                this.visibleItemsRedraw.add(itemIndex);
-
-                if (isNotesTextVisible && overlayItem instanceof NoteOverlayItem) {
-                    String title = overlayItem.getTitle();
-                    float delta = markerBounds.width() / 4f;
-                    float x = right - delta;
-                    float y = top + delta;
-                    if (doNotesTextHalo)
-                        canvas.drawText(title, x, y, textHaloPaint);
-                    canvas.drawText(title, x, y, textPaint);
+        } else {
+            this.itemsInView.clear();
+            queryItems(drawPosition.x - margin, drawPosition.y - margin, drawPosition.x + canvasWidth + margin,
+                    drawPosition.y + canvasHeight + margin, drawZoomLevel, true, this.itemsInView);
+            for (OverlayItem overlayItem : this.itemsInView) {
+                if (stopDrawing()) {
+                    // stop working
+                    return;
                 }
+                drawItem(canvas, drawPosition, overlayItem);
             }
         }
 
-        // swap the two visible item lists
-        synchronized (visibleItems) {
-            List<Integer> visibleItemsTemp = new ArrayList<>(visibleItems);
-            visibleItems.clear();
-            visibleItems.addAll(visibleItemsRedraw);
-            visibleItemsRedraw.addAll(visibleItemsTemp);
-        }
-
         /*
          * gps logging track
          */
@@ -627,7 +661,8 @@ public abstract class GeopaparazziOverlay extends Overlay {
         } catch (java.lang.Exception e2) {
             GPLog.error(this, "Problems retrieving viewport bounds", e2); //$NON-NLS-1$
         }
-        Envelope canvasEnvelope = new Envelope(w, e, s, n);
+        int canvasWidth = canvas.getWidth();
+        int canvasHeight = canvas.getHeight();
         try {
             HashMap<SpatialiteMap, SpatialVectorTable> spatialiteMaps2TablesMap = SpatialiteSourcesManager.INSTANCE.getSpatialiteMaps2TablesMap();
             HashMap<SpatialiteMap, SpatialiteDatabaseHandler> spatialiteMaps2DbHandlersMap = SpatialiteSourcesManager.INSTANCE.getSpatialiteMaps2DbHandlersMap();
@@ -661,62 +696,39 @@ public abstract class GeopaparazziOverlay extends Overlay {
                             if (style.strokecolor != null && style.strokecolor.trim().length() > 0)
                                 stroke = spatialTable.getStrokePaint4Style(style);
                         }
-                        PointTransformation pointTransformer = new MapsforgePointTransformation(projection, drawPosition,
-                                drawZoomLevel);
-                        ShapeWriter shapeWriter;
-                        ShapeWriter shape_writer_point = null;
-                        if (spatialTable.isPoint()) {
-                            shapeWriter = new ShapeWriter(pointTransformer, style.shape,
-                                    style.size);
-                            shape_writer_point = new ShapeWriter(pointTransformer, style.shape,
-                                    style.size);
-                        } else {
-                            shapeWriter = new ShapeWriter(pointTransformer);
-                            if (spatialTable.isGeometryCollection()) {
-                                shape_writer_point = new ShapeWriter(pointTransformer, style.shape,
-                                        style.size);
-                            }
-                        }
-                        shapeWriter.setRemoveDuplicatePoints(true);
-                        shapeWriter.setDecimation(style.decimationFactor);
+                        PointShapeFactory pointFactory = ShapeWriter.getShape(style.shape, style.size);
+                        // geometries are decoded straight to screen coordinates, clipped and decimated
+                        wkbDecoder.setViewport(drawPosition, drawZoomLevel, canvasWidth, canvasHeight,
+                                Math.max(style.size, style.width));
+                        wkbDecoder.setDecimation(style.decimationFactor);
                         geometryIterator = spatialDatabaseHandler.getGeometryIteratorInBounds(
                                 LibraryConstants.SRID_WGS84_4326, spatialTable, n, s, e, w);
                         while (geometryIterator.hasNext()) {
-                            Geometry geom = geometryIterator.next();
-                            if (geom != null) {
-                                if (!canvasEnvelope.intersects(geom.getEnvelopeInternal())) {
-                                    continue;
-                                }
-
-                                if (style.themeField != null) {
-                                    // set paint
-                                    String themeFieldValue = geometryIterator.getThemeFieldValue();
-                                    Style themeStyle = style.themeMap.get(themeFieldValue);
-                                    if (themeStyle.fillcolor != null && themeStyle.fillcolor.trim().length() > 0)
-                                        fill = spatialTable.getFillPaint4Theme(themeFieldValue, themeStyle);
-                                    if (themeStyle.strokecolor != null && themeStyle.strokecolor.trim().length() > 0)
-                                        stroke = spatialTable.getStrokePaint4Theme(themeFieldValue, themeStyle);
-                                    if (spatialTable.isPoint())
-                                        shape_writer_point = new ShapeWriter(pointTransformer, themeStyle.shape, themeStyle.size);
-                                }
-                                int geometriesCount = geom.getNumGeometries();
-                                for (int j = 0; j < geometriesCount; j++) {
-                                    Geometry geom_collect = geom.getGeometryN(j);
-                                    if (geom_collect != null) {
-                                        String geometryType = geom_collect.getGeometryType();
-                                        if (geometryType.toUpperCase().contains("POINT")) {
-                                            drawGeometry(geom_collect, canvas, shape_writer_point, fill, stroke);
-                                        } else {
-                                            drawGeometry(geom_collect, canvas, shapeWriter, fill, stroke);
-                                        }
-                                        if (stopDrawing()) { // stop working
-                                            return;
-                                        }
-                                    }
-                                }
-                            } else {
+                            byte[] wkb = geometryIterator.nextWkb();
+                            if (wkb == null) {
                                 GPLog.error(this, "GeopaparazziOverlay.drawFromSpatialite  [geom == null] description["
                                         + spatialTable.getTableName() + "]", new NullPointerException());
+                                continue;
+                            }
+                            if (!wkbDecoder.decode(wkb)) {
+                                // not in the canvas
+                                continue;
+                            }
+
+                            if (style.themeField != null) {
+                                // set paint
+                                String themeFieldValue = geometryIterator.getThemeFieldValue();
+                                Style themeStyle = style.themeMap.get(themeFieldValue);
+                                if (themeStyle.fillcolor != null && themeStyle.fillcolor.trim().length() > 0)
+                                    fill = spatialTable.getFillPaint4Theme(themeFieldValue, themeStyle);
+                                if (themeStyle.strokecolor != null && themeStyle.strokecolor.trim().length() > 0)
+                                    stroke = spatialTable.getStrokePaint4Theme(themeFieldValue, themeStyle);
+                                if (spatialTable.isPoint())
+                                    pointFactory = ShapeWriter.getShape(themeStyle.shape, themeStyle.size);
+                            }
+                            drawDecodedGeometry(canvas, pointFactory, fill, stroke);
+                            if (stopDrawing()) { // stop working
+                                return;
                             }
                         }
                     } finally {
@@ -775,52 +787,32 @@ public abstract class GeopaparazziOverlay extends Overlay {
 
                 GeometryIterator geometryIterator = null;
                 try {
-                    PointTransformation pointTransformer = new MapsforgePointTransformation(projection, drawPosition,
-                            drawZoomLevel);
-                    ShapeWriter linesWriter = null;
-                    if (spatialTable.isLine()) {
-                        linesWriter = new ShapeWriter(pointTransformer, spatialTable.getStyle().shape,
-                                spatialTable.getStyle().size);
+                    boolean isLine = spatialTable.isLine();
+                    if (isLine) {
                         dbTextHaloPaint.setTextAlign(Align.CENTER);
                         dbTextPaint.setTextAlign(Align.CENTER);
                     } else {
                         dbTextHaloPaint.setTextAlign(Align.LEFT);
                         dbTextPaint.setTextAlign(Align.LEFT);
                     }
+                    wkbDecoder.setViewport(drawPosition, drawZoomLevel, canvasWidth, canvasHeight, 0);
+                    wkbDecoder.setDecimation(0);
 
-                    if (spatialDatabaseHandler.isOpen()) {
+                    if (spatialDatabaseHandler.ensureOpen()) {
                         geometryIterator = spatialDatabaseHandler.getGeometryIteratorInBounds(
                                 LibraryConstants.SRID_WGS84_4326, spatialTable, n, s, e, w);
                         while (geometryIterator.hasNext()) {
-                            Geometry geom = geometryIterator.next();
-                            if (geom != null) {
-                                if (!canvasEnvelope.intersects(geom.getEnvelopeInternal())) {
-                                    // TODO check the performance impact of this
-                                    continue;
-                                }
-                                String labelText = geometryIterator.getLabelText();
-                                if (labelText == null || labelText.length() == 0) {
-                                    continue;
-                                }
-                                if (spatialTable.isGeometryCollection()) {
-                                    int geometriesCount = geom.getNumGeometries();
-                                    for (int j = 0; j < geometriesCount; j++) {
-                                        Geometry geom_collect = geom.getGeometryN(j);
-                                        if (geom_collect != null) {
-                                            drawLabel(pointTransformer, geom_collect, labelText, canvas, dbTextPaint,
-                                                    dbTextHaloPaint, delta, linesWriter);
-                                            if (stopDrawing()) { // stop working
-                                                return;
-                                            }
-                                        }
-                                    }
-                                } else {
-                                    drawLabel(pointTransformer, geom, labelText, canvas, dbTextPaint, dbTextHaloPaint, delta,
-                                            linesWriter);
-                                    if (stopDrawing()) { // stop working
-                                        return;
-                                    }
-                                }
+                            byte[] wkb = geometryIterator.nextWkb();
+                            String labelText = geometryIterator.getLabelText();
+                            if (labelText == null || labelText.length() == 0) {
+                                continue;
+                            }
+                            if (!wkbDecoder.decode(wkb)) {
+                                continue;
+                            }
+                            drawLabel(labelText, canvas, dbTextPaint, dbTextHaloPaint, delta, isLine);
+                            if (stopDrawing()) { // stop working
+                                return;
                             }
                         }
                     }
@@ -838,85 +830,54 @@ public abstract class GeopaparazziOverlay extends Overlay {
         return isInterrupted() || sizeHasChanged() || needRedraw();
     }
 
-    private static void drawGeometry(Geometry geom, Canvas canvas, ShapeWriter shape_writer, Paint fill, Paint stroke) {
-        String s_geometry_type = geom.getGeometryType();
-        int i_geometry_type = GeometryType.forValue(s_geometry_type);
-        GeometryType geometry_type = GeometryType.forValue(i_geometry_type);
-        DrawableShape shape = shape_writer.toShape(geom);
-        switch (geometry_type) {
-            case POINT_XY:
-            case POINT_XYM:
-            case POINT_XYZ:
-            case POINT_XYZM:
-            case MULTIPOINT_XY:
-            case MULTIPOINT_XYM:
-            case MULTIPOINT_XYZ:
-            case MULTIPOINT_XYZM: {
-                if (fill != null)
-                    shape.fill(canvas, fill);
-                if (stroke != null)
-                    shape.draw(canvas, stroke);
-                // GPLog.androidLog(-1,"GeopaparazziOverlay.drawGeometry geometry_type["+s_geometry_type+"]: ["+i_geometry_type+"]");
-            }
-            break;
-            case LINESTRING_XY:
-            case LINESTRING_XYM:
-            case LINESTRING_XYZ:
-            case LINESTRING_XYZM:
-            case MULTILINESTRING_XY:
-            case MULTILINESTRING_XYM:
-            case MULTILINESTRING_XYZ:
-            case MULTILINESTRING_XYZM: {
-                if (stroke != null)
-                    shape.draw(canvas, stroke);
-            }
-            break;
-            case POLYGON_XY:
-            case POLYGON_XYM:
-            case POLYGON_XYZ:
-            case POLYGON_XYZM:
-            case MULTIPOLYGON_XY:
-            case MULTIPOLYGON_XYM:
-            case MULTIPOLYGON_XYZ:
-            case MULTIPOLYGON_XYZM: {
-                if (fill != null)
-                    shape.fill(canvas, fill);
-                if (stroke != null)
-                    shape.draw(canvas, stroke);
-            }
-            break;
-            default:
-                break;
+    /**
+     * Draw the geometry last decoded by the {@link WkbScreenDecoder}.
+     */
+    private void drawDecodedGeometry(Canvas canvas, PointShapeFactory pointFactory, Paint fill, Paint stroke) {
+        if (wkbDecoder.hasPolygons()) {
+            Path polygonsPath = wkbDecoder.getPolygonsPath();
+            if (fill != null)
+                canvas.drawPath(polygonsPath, fill);
+            if (stroke != null)
+                canvas.drawPath(polygonsPath, stroke);
+        }
+        if (wkbDecoder.hasLines() && stroke != null) {
+            canvas.drawPath(wkbDecoder.getLinesPath(), stroke);
+        }
+        int pointsCount = wkbDecoder.getPointsCount();
+        for (int i = 0; i < pointsCount; i++) {
+            wkbDecoder.getPoint(i, decodedPoint);
+            DrawableShape shape = pointFactory.createPoint(decodedPoint);
+            if (fill != null)
+                shape.fill(canvas, fill);
+            if (stroke != null)
+                shape.draw(canvas, stroke);
         }
     }
 
-    private static void drawLabel(PointTransformation pointTransformer, Geometry geom, String label, Canvas canvas,
-                                  Paint dbTextPaint, Paint dbTextHaloPaint, float delta, ShapeWriter linesWriter) {
-
-        if (linesWriter == null) {
-            /*
-             * for points and polygons for now just use the centroid
-             */
-            com.vividsolutions.jts.geom.Point centroid = geom.getCentroid();
-            Coordinate coordinate = centroid.getCoordinate();
-            PointF dest = new PointF();
-            pointTransformer.transform(coordinate, dest);
-            float x = dest.x + delta;
-            float y = dest.y - delta;
-            // if (doNotesTextHalo)
-            canvas.drawText(label, x, y, dbTextHaloPaint);
-            canvas.drawText(label, x, y, dbTextPaint);
-        } else {
-            DrawableShape shape = linesWriter.toShape(geom);
-            if (shape instanceof PathShape) {
-                PathShape lineShape = (PathShape) shape;
-                Path linePath = lineShape.getPath();
+    /**
+     * Draw the label of the geometry last decoded by the {@link WkbScreenDecoder}.
+     */
+    private void drawLabel(String label, Canvas canvas, Paint dbTextPaint, Paint dbTextHaloPaint, float delta,
+                           boolean isLine) {
+        if (isLine) {
+            if (wkbDecoder.hasLines()) {
+                Path linePath = wkbDecoder.getLinesPath();
                 // if (doNotesTextHalo)
                 int hOffset = 15;
                 int vOffset = -5;
                 canvas.drawTextOnPath(label, linePath, hOffset, vOffset, dbTextHaloPaint);
                 canvas.drawTextOnPath(label, linePath, hOffset, vOffset, dbTextPaint);
             }
+        } else if (wkbDecoder.getLabelPosition(decodedPoint)) {
+            /*
+             * for points the position, for polygons the centroid
+             */
+            float x = decodedPoint.x + delta;
+            float y = decodedPoint.y - delta;
+            // if (doNotesTextHalo)
+            canvas.drawText(label, x, y, dbTextHaloPaint);
+            canvas.drawText(label, x, y, dbTextPaint);
         }
     }
 
@@ -940,6 +901,39 @@ public abstract class GeopaparazziOverlay extends Overlay {
      */
     protected abstract OverlayItem createItem(int index);
 
+    /**
+     * Collects the items of this overlay that are positioned inside the given pixel bounds.
+     *
+     * @param left                  the left pixel bound at the given zoom level.
+     * @param top                   the top pixel bound at the given zoom level.
+     * @param right                 the right pixel bound at the given zoom level.
+     * @param bottom                the bottom pixel bound at the given zoom level.
+     * @param zoomLevel             the zoom level of the bounds.
+     * @param updateCachedPositions if <code>true</code>, the cached map position of the items is updated to the zoom level.
+     * @param items                 the list to which the found items are added, in drawing order.
+     */
+    protected abstract void queryItems(double left, double top, double right, double bottom, byte zoomLevel,
+                                       boolean updateCachedPositions, List<OverlayItem> items);
+
+    /**
+     * Collects the clusters of items of this overlay whose center is inside the given pixel bounds.
+     *
+     * @param left                  the left pixel bound at the given zoom level.
+     * @param top                   the top pixel bound at the given zoom level.
+     * @param right                 the right pixel bound at the given zoom level.
+     * @param bottom                the bottom pixel bound at the given zoom level.
+     * @param zoomLevel             the zoom level of the bounds, at most {@link ItemsGridIndex#MAX_CLUSTER_ZOOMLEVEL}.
+     * @param updateCachedPositions if <code>true</code>, the cached map position of single items is updated to the zoom level.
+     * @param clusters              the list to which the found clusters are added.
+     */
+    protected abstract void queryClusters(double left, double top, double right, double bottom, byte zoomLevel,
+                                          boolean updateCachedPositions, List<ItemsCluster> clusters);
+
+    /**
+     * @return the largest marker size of the items in this overlay, in pixels.
+     */
+    protected abstract int getMaxItemMarkerSize();
+
     /**
      * Checks whether an item has been hit by an event and calls the appropriate handler.
      *
@@ -950,64 +944,80 @@ public abstract class GeopaparazziOverlay extends Overlay {
      */
     protected boolean checkItemHit(GeoPoint geoPoint, MapView mapView, EventType eventType) {
         Projection projection = mapView.getProjection();
-        Point eventPosition = projection.toPixels(geoPoint, null);
+        byte zoomLevel = mapView.getMapPosition().getZoomLevel();
+        Point eventPosition = projection.toPoint(geoPoint, null, zoomLevel);
         Context context = mapView.getContext();
         // check if the translation to pixel coordinates has failed
         if (eventPosition == null) {
             return false;
         }
 
-        Point checkItemPoint = new Point();
-
-        synchronized (this.visibleItems) {
-            // iterate over all visible items
-            for (int i = this.visibleItems.size() - 1; i >= 0; --i) {
-                Integer itemIndex = this.visibleItems.get(i);
-
-                // get the current item
-                OverlayItem checkOverlayItem = createItem(itemIndex);
-                if (checkOverlayItem == null) {
+        // only check the items near the event position
+        int margin = getMaxItemMarkerSize();
+        List<OverlayItem> hitCandidates = new ArrayList<>();
+        if (zoomLevel <= ItemsGridIndex.MAX_CLUSTER_ZOOMLEVEL) {
+            // only single items are visible, a hit on an aggregated marker zooms in on it
+            List<ItemsCluster> clusters = new ArrayList<>();
+            int radius = Math.max(margin, (int) Math.ceil(2 * clusterRadius));
+            queryClusters(eventPosition.x - radius, eventPosition.y - radius, eventPosition.x + radius,
+                    eventPosition.y + radius, zoomLevel, false, clusters);
+            for (ItemsCluster cluster : clusters) {
+                if (cluster.getCount() == 1) {
+                    hitCandidates.add(cluster.getFirstItem());
                     continue;
                 }
-
-                // make sure that the current item has a position
-                if (checkOverlayItem.getPoint() == null) {
-                    continue;
+                float clusterHitRadius = getClusterRadius(cluster);
+                double dx = cluster.getPixelX() - eventPosition.x;
+                double dy = cluster.getPixelY() - eventPosition.y;
+                if (dx * dx + dy * dy <= clusterHitRadius * clusterHitRadius) {
+                    if (eventType == EventType.TAP) {
+                        double lon = MercatorProjection.pixelXToLongitude(cluster.getPixelX(), zoomLevel);
+                        double lat = MercatorProjection.pixelYToLatitude(cluster.getPixelY(), zoomLevel);
+                        mapView.getController().setCenter(new GeoPoint(lat, lon));
+                        mapView.getController().zoomIn();
+                    }
+                    return true;
                 }
+            }
+        } else {
+            queryItems(eventPosition.x - margin, eventPosition.y - margin, eventPosition.x + margin,
+                    eventPosition.y + margin, zoomLevel, false, hitCandidates);
+        }
 
-                checkItemPoint = projection.toPixels(checkOverlayItem.getPoint(), checkItemPoint);
-                // check if the translation to pixel coordinates has failed
-                if (checkItemPoint == null) {
-                    continue;
-                }
+        Point checkItemPoint = new Point();
 
-                // select the correct marker for the item and get the position
-                Drawable marker = checkOverlayItem.getMarker();
-                if (marker == null) return false;
-                Rect checkMarkerBounds = marker.getBounds();
-
-                // calculate the bounding box of the marker
-                int checkLeft = checkItemPoint.x + checkMarkerBounds.left;
-                int checkRight = checkItemPoint.x + checkMarkerBounds.right;
-                int checkTop = checkItemPoint.y + checkMarkerBounds.top;
-                int checkBottom = checkItemPoint.y + checkMarkerBounds.bottom;
-
-                // check if the event position is within the bounds of the marker
-                if (checkRight >= eventPosition.x && checkLeft <= eventPosition.x && checkBottom >= eventPosition.y
-                        && checkTop <= eventPosition.y) {
-                    switch (eventType) {
-                        case LONG_PRESS:
-                            if (onLongPress(itemIndex)) {
-                                return true;
-                            }
-                            break;
+        // iterate over the candidates, topmost first
+        for (int i = hitCandidates.size() - 1; i >= 0; --i) {
+            OverlayItem checkOverlayItem = hitCandidates.get(i);
 
-                        case TAP:
-                            if (onTap(context, itemIndex)) {
-                                return true;
-                            }
-                            break;
-                    }
+            checkItemPoint = projection.toPoint(checkOverlayItem.getPoint(), checkItemPoint, zoomLevel);
+
+            // select the correct marker for the item and get the position
+            Drawable marker = checkOverlayItem.getMarker();
+            if (marker == null) continue;
+            Rect checkMarkerBounds = marker.getBounds();
+
+            // calculate the bounding box of the marker
+            int checkLeft = checkItemPoint.x + checkMarkerBounds.left;
+            int checkRight = checkItemPoint.x + checkMarkerBounds.right;
+            int checkTop = checkItemPoint.y + checkMarkerBounds.top;
+            int checkBottom = checkItemPoint.y + checkMarkerBounds.bottom;
+
+            // check if the event position is within the bounds of the marker
+            if (checkRight >= eventPosition.x && checkLeft <= eventPosition.x && checkBottom >= eventPosition.y
+                    && checkTop <= eventPosition.y) {
+                switch (eventType) {
+                    case LONG_PRESS:
+                        if (onLongPress(checkOverlayItem)) {
+                            return true;
+                        }
+                        break;
+
+                    case TAP:
+                        if (onTap(context, checkOverlayItem)) {
+                            return true;
+                        }
+                        break;
                 }
             }
         }
@@ -1021,10 +1031,10 @@ public abstract class GeopaparazziOverlay extends Overlay {
      * <p/>
      * The default implementation of this method does nothing and returns false.
      *
-     * @param index the index of the item that has been long pressed.
+     * @param item the item that has been long pressed.
      * @return true if the event was handled, false otherwise.
      */
-    protected boolean onLongPress(int index) {
+    protected boolean onLongPress(OverlayItem item) {
         return false;
     }
 
@@ -1033,11 +1043,10 @@ public abstract class GeopaparazziOverlay extends Overlay {
      * <p/>
      * The default implementation of this method does nothing and returns false.
      *
-     * @param index the index of the item that has been tapped.
+     * @param item the item that has been tapped.
      * @return true if the event was handled, false otherwise.
      */
-    protected boolean onTap(Context context, int index) {
-        OverlayItem item = createItem(index);
+    protected boolean onTap(Context context, OverlayItem item) {
         if (item != null) {
             String title = item.getTitle();
             String snippet = item.getSnippet();
@@ -0,0 +1,75 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.mapview.overlays;
+
+import org.mapsforge.android.maps.overlay.OverlayItem;
+
+/**
+ * A snapshot of a cluster of {@link OverlayItem}s at a given zoom level.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ItemsCluster {
+    private final int count;
+    private final OverlayItem firstItem;
+    private final int pixelX;
+    private final int pixelY;
+
+    /**
+     * Constructor.
+     *
+     * @param count     the number of items in the cluster.
+     * @param firstItem the first item of the cluster.
+     * @param pixelX    the x pixel position of the cluster center at the zoom level of the query.
+     * @param pixelY    the y pixel position of the cluster center at the zoom level of the query.
+     */
+    public ItemsCluster(int count, OverlayItem firstItem, int pixelX, int pixelY) {
+        this.count = count;
+        this.firstItem = firstItem;
+        this.pixelX = pixelX;
+        this.pixelY = pixelY;
+    }
+
+    /**
+     * @return the number of items in the cluster.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the first item of the cluster, the only one if the count is 1.
+     */
+    public OverlayItem getFirstItem() {
+        return firstItem;
+    }
+
+    /**
+     * @return the x pixel position of the cluster center.
+     */
+    public int getPixelX() {
+        return pixelX;
+    }
+
+    /**
+     * @return the y pixel position of the cluster center.
+     */
+    public int getPixelY() {
+        return pixelY;
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.mapview.overlays;
+
+import android.graphics.Point;
+import android.graphics.drawable.Drawable;
+
+import org.mapsforge.android.maps.overlay.OverlayItem;
+import org.mapsforge.core.model.GeoPoint;
+import org.mapsforge.core.util.MercatorProjection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * A multi level grid index of {@link OverlayItem}s.
+ * <p/>
+ * Items are projected once to zoom level 0 pixels and bucketed in the tile grid of a few
+ * zoom levels. A query uses the finest level that covers the requested bounds with a
+ * limited number of cells, so that only items near the viewport are visited.
+ * <p/>
+ * Up to {@link #MAX_CLUSTER_ZOOMLEVEL} the items are also aggregated in grid clusters, one
+ * set per zoom level, which are updated incrementally when items are added or removed.
+ * Cells and clusters keep their items in insertion ordered sets, so that removing an item
+ * doesn't scan the other items of its cells.
+ * <p/>
+ * The class is thread safe.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ItemsGridIndex {
+
+    /**
+     * The zoom levels whose tile grids are used as index cells.
+     */
+    private static final byte[] GRID_ZOOMLEVELS = {4, 8, 12, 16};
+    /**
+     * The max number of cells visited by a query before falling back to a coarser level.
+     */
+    private static final int MAX_QUERY_CELLS = 256;
+    private static final double TILE_SIZE = 256.0;
+
+    /**
+     * The max zoom level at which items are clustered.
+     * <p/>
+     * At this zoom level a cluster cell is a few kilometers wide, closer than that the items are
+     * usually wanted one by one.
+     */
+    public static final byte MAX_CLUSTER_ZOOMLEVEL = 12;
+    /**
+     * The size in pixels of a cluster cell.
+     */
+    private static final double CLUSTER_CELL_SIZE = 64.0;
+
+    private final List<HashMap<Long, LinkedHashSet<Entry>>> levels = new ArrayList<>();
+    private final List<HashMap<Long, Cluster>> clusterLevels = new ArrayList<>();
+    private final IdentityHashMap<OverlayItem, Entry> entriesMap = new IdentityHashMap<>();
+    private long sequence = 0;
+    private int maxMarkerSize = 0;
+
+    private static final Comparator<Entry> SEQUENCE_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return e1.sequence < e2.sequence ? -1 : (e1.sequence == e2.sequence ? 0 : 1);
+        }
+    };
+
+    private static final Comparator<Cluster> CLUSTER_SEQUENCE_COMPARATOR = new Comparator<Cluster>() {
+        @Override
+        public int compare(Cluster c1, Cluster c2) {
+            return SEQUENCE_COMPARATOR.compare(c1.entries.iterator().next(), c2.entries.iterator().next());
+        }
+    };
+
+    /**
+     * An indexed item with its zoom level 0 pixel position.
+     */
+    private static class Entry {
+        OverlayItem item;
+        double x0;
+        double y0;
+        long sequence;
+    }
+
+    /**
+     * The items falling in a cluster cell at a given zoom level.
+     */
+    private static class Cluster {
+        final LinkedHashSet<Entry> entries = new LinkedHashSet<>();
+        double sumX0;
+        double sumY0;
+    }
+
+    public ItemsGridIndex() {
+        for (int i = 0; i < GRID_ZOOMLEVELS.length; i++) {
+            levels.add(new HashMap<Long, LinkedHashSet<Entry>>());
+        }
+        for (int zoom = 0; zoom <= MAX_CLUSTER_ZOOMLEVEL; zoom++) {
+            clusterLevels.add(new HashMap<Long, Cluster>());
+        }
+    }
+
+    /**
+     * Add an item to the index.
+     * <p/>
+     * Items without position are ignored.
+     *
+     * @param item the item to add.
+     */
+    public synchronized void add(OverlayItem item) {
+        GeoPoint point = item.getPoint();
+        if (point == null || entriesMap.containsKey(item)) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.item = item;
+        entry.x0 = MercatorProjection.longitudeToPixelX(point.getLongitude(), (byte) 0);
+        entry.y0 = MercatorProjection.latitudeToPixelY(point.getLatitude(), (byte) 0);
+        entry.sequence = sequence++;
+        entriesMap.put(item, entry);
+
+        for (int i = 0; i < GRID_ZOOMLEVELS.length; i++) {
+            long cellKey = getCellKey(entry, GRID_ZOOMLEVELS[i]);
+            HashMap<Long, LinkedHashSet<Entry>> cellsMap = levels.get(i);
+            LinkedHashSet<Entry> cell = cellsMap.get(cellKey);
+            if (cell == null) {
+                cell = new LinkedHashSet<>();
+                cellsMap.put(cellKey, cell);
+            }
+            cell.add(entry);
+        }
+
+        for (int zoom = 0; zoom <= MAX_CLUSTER_ZOOMLEVEL; zoom++) {
+            long clusterKey = getClusterKey(entry, zoom);
+            HashMap<Long, Cluster> clustersMap = clusterLevels.get(zoom);
+            Cluster cluster = clustersMap.get(clusterKey);
+            if (cluster == null) {
+                cluster = new Cluster();
+                clustersMap.put(clusterKey, cluster);
+            }
+            cluster.entries.add(entry);
+            cluster.sumX0 += entry.x0;
+            cluster.sumY0 += entry.y0;
+        }
+
+        Drawable marker = item.getMarker();
+        if (marker != null) {
+            maxMarkerSize = Math.max(maxMarkerSize, Math.max(marker.getIntrinsicWidth(), marker.getIntrinsicHeight()));
+        }
+    }
+
+    /**
+     * Remove an item from the index.
+     *
+     * @param item the item to remove.
+     */
+    public synchronized void remove(OverlayItem item) {
+        Entry entry = entriesMap.remove(item);
+        if (entry == null) {
+            return;
+        }
+        for (int i = 0; i < GRID_ZOOMLEVELS.length; i++) {
+            long cellKey = getCellKey(entry, GRID_ZOOMLEVELS[i]);
+            HashMap<Long, LinkedHashSet<Entry>> cellsMap = levels.get(i);
+            LinkedHashSet<Entry> cell = cellsMap.get(cellKey);
+            if (cell != null) {
+                cell.remove(entry);
+                if (cell.isEmpty()) {
+                    cellsMap.remove(cellKey);
+                }
+            }
+        }
+
+        for (int zoom = 0; zoom <= MAX_CLUSTER_ZOOMLEVEL; zoom++) {
+            long clusterKey = getClusterKey(entry, zoom);
+            HashMap<Long, Cluster> clustersMap = clusterLevels.get(zoom);
+            Cluster cluster = clustersMap.get(clusterKey);
+            if (cluster != null && cluster.entries.remove(entry)) {
+                if (cluster.entries.isEmpty()) {
+                    clustersMap.remove(clusterKey);
+                } else {
+                    cluster.sumX0 -= entry.x0;
+                    cluster.sumY0 -= entry.y0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove some items from the index.
+     * <p/>
+     * If all the indexed items are removed, the index is just cleared.
+     *
+     * @param items the items to remove.
+     */
+    public synchronized void removeAll(Collection<OverlayItem> items) {
+        if (items.size() >= entriesMap.size()) {
+            boolean all = true;
+            for (OverlayItem item : entriesMap.keySet()) {
+                if (!items.contains(item)) {
+                    all = false;
+                    break;
+                }
+            }
+            if (all) {
+                clear();
+                return;
+            }
+        }
+        for (OverlayItem item : items) {
+            remove(item);
+        }
+    }
+
+    /**
+     * Remove all items from the index.
+     */
+    public synchronized void clear() {
+        for (HashMap<Long, LinkedHashSet<Entry>> cellsMap : levels) {
+            cellsMap.clear();
+        }
+        for (HashMap<Long, Cluster> clustersMap : clusterLevels) {
+            clustersMap.clear();
+        }
+        entriesMap.clear();
+        maxMarkerSize = 0;
+    }
+
+    /**
+     * @return the largest marker size of the indexed items, in pixels.
+     */
+    public synchronized int getMaxMarkerSize() {
+        return maxMarkerSize;
+    }
+
+    /**
+     * Collect the items that are positioned inside the given pixel bounds.
+     * <p/>
+     * The items are returned in the order they were added to the index.
+     *
+     * @param left      the left pixel bound at the given zoom level.
+     * @param top       the top pixel bound at the given zoom level.
+     * @param right     the right pixel bound at the given zoom level.
+     * @param bottom    the bottom pixel bound at the given zoom level.
+     * @param zoomLevel the zoom level of the bounds.
+     * @param updateCachedPositions if <code>true</code>, the cached map position of the found items
+     *                              is set to their position at the given zoom level.
+     * @param items     the list to which the found items are added.
+     */
+    public synchronized void query(double left, double top, double right, double bottom, byte zoomLevel,
+                                   boolean updateCachedPositions, List<OverlayItem> items) {
+        if (entriesMap.isEmpty()) {
+            return;
+        }
+        double scale = (double) (1L << zoomLevel);
+        double left0 = left / scale;
+        double top0 = top / scale;
+        double right0 = right / scale;
+        double bottom0 = bottom / scale;
+
+        List<Entry> found = new ArrayList<>();
+        for (int i = GRID_ZOOMLEVELS.length - 1; i >= 0; i--) {
+            byte gridZoom = GRID_ZOOMLEVELS[i];
+            double cellSize0 = TILE_SIZE / (1L << gridZoom);
+            long minCol = (long) Math.floor(left0 / cellSize0);
+            long maxCol = (long) Math.floor(right0 / cellSize0);
+            long minRow = (long) Math.floor(top0 / cellSize0);
+            long maxRow = (long) Math.floor(bottom0 / cellSize0);
+            long cellsCount = (maxCol - minCol + 1) * (maxRow - minRow + 1);
+            HashMap<Long, LinkedHashSet<Entry>> cellsMap = levels.get(i);
+            if (cellsCount > MAX_QUERY_CELLS && i > 0) {
+                continue;
+            }
+            if (cellsCount > cellsMap.size()) {
+                // cheaper to check the occupied cells
+                for (LinkedHashSet<Entry> cell : cellsMap.values()) {
+                    collect(cell, left0, top0, right0, bottom0, found);
+                }
+            } else {
+                for (long col = minCol; col <= maxCol; col++) {
+                    for (long row = minRow; row <= maxRow; row++) {
+                        LinkedHashSet<Entry> cell = cellsMap.get(toCellKey(col, row));
+                        if (cell != null) {
+                            collect(cell, left0, top0, right0, bottom0, found);
+                        }
+                    }
+                }
+            }
+            break;
+        }
+
+        Collections.sort(found, SEQUENCE_COMPARATOR);
+        for (Entry entry : found) {
+            OverlayItem item = entry.item;
+            if (updateCachedPositions && (item.cachedZoomLevel != zoomLevel || item.cachedMapPosition == null)) {
+                if (item.cachedMapPosition == null) {
+                    item.cachedMapPosition = new Point();
+                }
+                item.cachedMapPosition.x = (int) (entry.x0 * scale);
+                item.cachedMapPosition.y = (int) (entry.y0 * scale);
+                item.cachedZoomLevel = zoomLevel;
+            }
+            items.add(item);
+        }
+    }
+
+    /**
+     * Collect the clusters of items whose center is inside the given pixel bounds.
+     * <p/>
+     * The clusters are returned in the order their first item was added to the index, so that
+     * overlapping markers are always drawn in the same order.
+     * <p/>
+     * For clusters made of a single item, the cached map position of the item can be
+     * updated to the given zoom level.
+     *
+     * @param left                  the left pixel bound at the given zoom level.
+     * @param top                   the top pixel bound at the given zoom level.
+     * @param right                 the right pixel bound at the given zoom level.
+     * @param bottom                the bottom pixel bound at the given zoom level.
+     * @param zoomLevel             the zoom level of the bounds, at most {@link #MAX_CLUSTER_ZOOMLEVEL}.
+     * @param updateCachedPositions if <code>true</code>, the cached map position of single items is updated to the zoom level.
+     * @param clusters              the list to which the found clusters are added.
+     */
+    public synchronized void queryClusters(double left, double top, double right, double bottom, byte zoomLevel,
+                                           boolean updateCachedPositions, List<ItemsCluster> clusters) {
+        if (entriesMap.isEmpty() || zoomLevel < 0 || zoomLevel > MAX_CLUSTER_ZOOMLEVEL) {
+            return;
+        }
+        HashMap<Long, Cluster> clustersMap = clusterLevels.get(zoomLevel);
+        double scale = (double) (1L << zoomLevel);
+
+        long minCol = (long) Math.floor(left / CLUSTER_CELL_SIZE);
+        long maxCol = (long) Math.floor(right / CLUSTER_CELL_SIZE);
+        long minRow = (long) Math.floor(top / CLUSTER_CELL_SIZE);
+        long maxRow = (long) Math.floor(bottom / CLUSTER_CELL_SIZE);
+        long cellsCount = (maxCol - minCol + 1) * (maxRow - minRow + 1);
+        List<Cluster> found = new ArrayList<>();
+        if (cellsCount > clustersMap.size()) {
+            for (Cluster cluster : clustersMap.values()) {
+                collect(cluster, scale, left, top, right, bottom, found);
+            }
+        } else {
+            for (long col = minCol; col <= maxCol; col++) {
+                for (long row = minRow; row <= maxRow; row++) {
+                    Cluster cluster = clustersMap.get(toCellKey(col, row));
+                    if (cluster != null) {
+                        collect(cluster, scale, left, top, right, bottom, found);
+                    }
+                }
+            }
+        }
+
+        Collections.sort(found, CLUSTER_SEQUENCE_COMPARATOR);
+        for (Cluster cluster : found) {
+            addCluster(cluster, scale, zoomLevel, updateCachedPositions, clusters);
+        }
+    }
+
+    private static void collect(Cluster cluster, double scale, double left, double top, double right, double bottom,
+                                List<Cluster> found) {
+        int count = cluster.entries.size();
+        double x = cluster.sumX0 / count * scale;
+        double y = cluster.sumY0 / count * scale;
+        if (x >= left && x <= right && y >= top && y <= bottom) {
+            found.add(cluster);
+        }
+    }
+
+    private static void addCluster(Cluster cluster, double scale, byte zoomLevel, boolean updateCachedPositions,
+                                   List<ItemsCluster> clusters) {
+        int count = cluster.entries.size();
+        double x = cluster.sumX0 / count * scale;
+        double y = cluster.sumY0 / count * scale;
+        OverlayItem firstItem = cluster.entries.iterator().next().item;
+        if (updateCachedPositions && count == 1 && (firstItem.cachedZoomLevel != zoomLevel || firstItem.cachedMapPosition == null)) {
+            if (firstItem.cachedMapPosition == null) {
+                firstItem.cachedMapPosition = new Point();
+            }
+            firstItem.cachedMapPosition.x = (int) x;
+            firstItem.cachedMapPosition.y = (int) y;
+            firstItem.cachedZoomLevel = zoomLevel;
+        }
+        clusters.add(new ItemsCluster(count, firstItem, (int) x, (int) y));
+    }
+
+    private static void collect(LinkedHashSet<Entry> cell, double left0, double top0, double right0, double bottom0,
+                                List<Entry> found) {
+        for (Entry entry : cell) {
+            if (entry.x0 >= left0 && entry.x0 <= right0 && entry.y0 >= top0 && entry.y0 <= bottom0) {
+                found.add(entry);
+            }
+        }
+    }
+
+    private static long getCellKey(Entry entry, byte gridZoom) {
+        double cellSize0 = TILE_SIZE / (1L << gridZoom);
+        long col = (long) Math.floor(entry.x0 / cellSize0);
+        long row = (long) Math.floor(entry.y0 / cellSize0);
+        return toCellKey(col, row);
+    }
+
+    private static long getClusterKey(Entry entry, int zoomLevel) {
+        double cellSize0 = CLUSTER_CELL_SIZE / (1L << zoomLevel);
+        long col = (long) Math.floor(entry.x0 / cellSize0);
+        long row = (long) Math.floor(entry.y0 / cellSize0);
+        return toCellKey(col, row);
+    }
+
+    private static long toCellKey(long col, long row) {
+        return (col << 32) | (row & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,591 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.mapview.overlays;
+
+import android.graphics.Path;
+import android.graphics.Point;
+import android.graphics.PointF;
+
+import org.mapsforge.core.model.Tile;
+import org.mapsforge.core.util.MercatorProjection;
+
+/**
+ * Decoder of WKB geometries in lat/long straight into screen coordinates.
+ * <p/>
+ * The bytes are walked without building any JTS object: the coordinates of each point,
+ * line and ring are projected to canvas pixels into a reused buffer, consecutive vertices
+ * closer than the decimation tolerance are dropped and parts that fall completely outside
+ * of the canvas are skipped. The other lines are clipped segment by segment and the polygon
+ * rings are clipped to the canvas, so that the paths never hold far away coordinates.
+ * The result is appended to reused {@link Path}s, one for lines and one for polygons,
+ * and to a buffer of point positions.
+ * <p/>
+ * Supported are 2D, Z, M and ZM geometries in the OGC (ISO) as well as in the extended
+ * (EWKB) flavour. An instance is meant to be used by a single thread.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class WkbScreenDecoder {
+
+    private static final int POINT = 1;
+    private static final int LINESTRING = 2;
+    private static final int POLYGON = 3;
+    private static final int MULTIPOINT = 4;
+    private static final int MULTILINESTRING = 5;
+    private static final int MULTIPOLYGON = 6;
+    private static final int GEOMETRYCOLLECTION = 7;
+
+    private static final int EWKB_Z_FLAG = 0x80000000;
+    private static final int EWKB_M_FLAG = 0x40000000;
+    private static final int EWKB_SRID_FLAG = 0x20000000;
+
+    private final Path linesPath = new Path();
+    private final Path polygonsPath = new Path();
+    private boolean hasLines;
+    private boolean hasPolygons;
+    private float[] points = new float[64];
+    private int pointsCount;
+
+    private float[] coords = new float[512];
+    private float[] clipCoords = new float[512];
+
+    private double mapSize;
+    private double offsetX;
+    private double offsetY;
+    private float clipLeft;
+    private float clipTop;
+    private float clipRight;
+    private float clipBottom;
+    private float tolerance = 1f;
+    // the visible interval of the segment being clipped
+    private float clipT0;
+    private float clipT1;
+
+    // label position support, area weighted centroid of the polygons
+    private double centroidArea;
+    private double centroidSumX;
+    private double centroidSumY;
+
+    private byte[] wkb;
+    private int position;
+
+    /**
+     * Constructor.
+     */
+    public WkbScreenDecoder() {
+        polygonsPath.setFillType(Path.FillType.EVEN_ODD);
+    }
+
+    /**
+     * Set the viewport geometries are decoded into.
+     *
+     * @param drawPosition the pixel position of the top left canvas corner at the zoom level.
+     * @param zoomLevel    the zoom level.
+     * @param width        the canvas width.
+     * @param height       the canvas height.
+     * @param margin       the pixels around the canvas in which parts are still considered visible, at least
+     *                     the stroke width, since the borders added by the clipping are drawn there.
+     */
+    public void setViewport(Point drawPosition, byte zoomLevel, int width, int height, float margin) {
+        mapSize = (double) ((long) Tile.TILE_SIZE << zoomLevel);
+        offsetX = drawPosition.x;
+        offsetY = drawPosition.y;
+        clipLeft = -margin;
+        clipTop = -margin;
+        clipRight = width + margin;
+        clipBottom = height + margin;
+    }
+
+    /**
+     * Set the decimation tolerance.
+     *
+     * @param decimationDegrees the tolerance in degrees, as used by the styles, 0 to only remove vertices
+     *                          that fall on the same pixel.
+     */
+    public void setDecimation(double decimationDegrees) {
+        float pixels = (float) (decimationDegrees / 360.0 * mapSize);
+        tolerance = Math.max(1f, pixels);
+    }
+
+    /**
+     * Decode a geometry.
+     * <p/>
+     * The previous result is discarded.
+     *
+     * @param wkb the well known binary of the geometry in lat/long.
+     * @return <code>true</code> if any part of the geometry is inside the viewport.
+     */
+    public boolean decode(byte[] wkb) {
+        linesPath.rewind();
+        polygonsPath.rewind();
+        hasLines = false;
+        hasPolygons = false;
+        pointsCount = 0;
+        centroidArea = 0;
+        centroidSumX = 0;
+        centroidSumY = 0;
+        if (wkb == null || wkb.length < 5) {
+            return false;
+        }
+        this.wkb = wkb;
+        this.position = 0;
+        try {
+            readGeometry();
+        } catch (InvalidWkbException e) {
+            // truncated or unsupported geometry, use what was read
+        } finally {
+            this.wkb = null;
+        }
+        return hasLines || hasPolygons || pointsCount > 0;
+    }
+
+    /**
+     * @return <code>true</code> if the last geometry had visible lines.
+     */
+    public boolean hasLines() {
+        return hasLines;
+    }
+
+    /**
+     * @return the path of the lines of the last geometry.
+     */
+    public Path getLinesPath() {
+        return linesPath;
+    }
+
+    /**
+     * @return <code>true</code> if the last geometry had visible polygons.
+     */
+    public boolean hasPolygons() {
+        return hasPolygons;
+    }
+
+    /**
+     * @return the path of the polygons of the last geometry, with even-odd fill for the holes.
+     */
+    public Path getPolygonsPath() {
+        return polygonsPath;
+    }
+
+    /**
+     * @return the number of visible points of the last geometry.
+     */
+    public int getPointsCount() {
+        return pointsCount;
+    }
+
+    /**
+     * Get the screen position of a point of the last geometry.
+     *
+     * @param index the index of the point.
+     * @param point the object to fill.
+     */
+    public void getPoint(int index, PointF point) {
+        point.set(points[index * 2], points[index * 2 + 1]);
+    }
+
+    /**
+     * Get the position at which to place the label of the last geometry.
+     * <p/>
+     * This is the area weighted centroid for polygons and the first point for points.
+     *
+     * @param point the object to fill.
+     * @return <code>false</code> if no position is available.
+     */
+    public boolean getLabelPosition(PointF point) {
+        if (centroidArea > 0) {
+            point.set((float) (centroidSumX / centroidArea), (float) (centroidSumY / centroidArea));
+            return true;
+        }
+        if (pointsCount > 0) {
+            getPoint(0, point);
+            return true;
+        }
+        return false;
+    }
+
+    private void readGeometry() throws InvalidWkbException {
+        boolean bigEndian = wkb[position++] == 0;
+        int typeInt = readInt(bigEndian);
+
+        boolean hasZ = (typeInt & EWKB_Z_FLAG) != 0;
+        boolean hasM = (typeInt & EWKB_M_FLAG) != 0;
+        if ((typeInt & EWKB_SRID_FLAG) != 0) {
+            // skip the srid
+            position += 4;
+        }
+        typeInt = typeInt & 0x0FFFFFFF;
+        int isoDimension = typeInt / 1000;
+        if (isoDimension == 1 || isoDimension == 3)
+            hasZ = true;
+        if (isoDimension == 2 || isoDimension == 3)
+            hasM = true;
+        int geometryType = typeInt % 1000;
+        int dimension = 2 + (hasZ ? 1 : 0) + (hasM ? 1 : 0);
+
+        switch (geometryType) {
+            case POINT:
+                readPoint(bigEndian, dimension);
+                break;
+            case LINESTRING:
+                readLine(bigEndian, dimension);
+                break;
+            case POLYGON:
+                readPolygon(bigEndian, dimension);
+                break;
+            case MULTIPOINT:
+            case MULTILINESTRING:
+            case MULTIPOLYGON:
+            case GEOMETRYCOLLECTION:
+                int count = readInt(bigEndian);
+                for (int i = 0; i < count; i++) {
+                    readGeometry();
+                }
+                break;
+            default:
+                throw new InvalidWkbException("Unsupported geometry type: " + geometryType);
+        }
+    }
+
+    private void readPoint(boolean bigEndian, int dimension) throws InvalidWkbException {
+        double lon = readDouble(bigEndian);
+        double lat = readDouble(bigEndian);
+        position += (dimension - 2) * 8;
+        if (Double.isNaN(lon) || Double.isNaN(lat)) {
+            // empty point
+            return;
+        }
+        float x = toScreenX(lon);
+        float y = toScreenY(lat);
+        if (x < clipLeft || x > clipRight || y < clipTop || y > clipBottom) {
+            return;
+        }
+        if (points.length < (pointsCount + 1) * 2) {
+            float[] newPoints = new float[points.length * 2];
+            System.arraycopy(points, 0, newPoints, 0, points.length);
+            points = newPoints;
+        }
+        points[pointsCount * 2] = x;
+        points[pointsCount * 2 + 1] = y;
+        pointsCount++;
+    }
+
+    private void readLine(boolean bigEndian, int dimension) throws InvalidWkbException {
+        int count = readCoordinates(bigEndian, dimension, false);
+        if (count > 1 && appendClippedLine(count)) {
+            hasLines = true;
+        }
+    }
+
+    private void readPolygon(boolean bigEndian, int dimension) throws InvalidWkbException {
+        int ringsCount = readInt(bigEndian);
+        for (int ring = 0; ring < ringsCount; ring++) {
+            int count = readCoordinates(bigEndian, dimension, true);
+            if (ring == 0 && count == 0) {
+                // the exterior ring is not visible, so neither are the holes
+                for (int hole = 1; hole < ringsCount; hole++) {
+                    int pointsInRing = readInt(bigEndian);
+                    skipCoordinates(pointsInRing, dimension);
+                }
+                return;
+            }
+            if (count > 2) {
+                count = clipRing(count);
+            }
+            if (count > 2) {
+                appendToPath(polygonsPath, count, true);
+                hasPolygons = true;
+                addToCentroid(count, ring == 0);
+            }
+        }
+    }
+
+    /**
+     * Read a sequence of coordinates into the screen coordinates buffer.
+     *
+     * @return the number of kept vertices, 0 if the sequence is outside of the viewport.
+     */
+    private int readCoordinates(boolean bigEndian, int dimension, boolean isRing) throws InvalidWkbException {
+        int count = readInt(bigEndian);
+        checkCoordinatesCount(count, dimension);
+        if (coords.length < count * 2) {
+            coords = new float[count * 2];
+        }
+        int skip = (dimension - 2) * 8;
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        int kept = 0;
+        float lastX = 0;
+        float lastY = 0;
+        for (int i = 0; i < count; i++) {
+            double lon = readDouble(bigEndian);
+            double lat = readDouble(bigEndian);
+            position += skip;
+            float x = toScreenX(lon);
+            float y = toScreenY(lat);
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+
+            // the last vertex is always kept, for rings it closes the shape
+            boolean isLast = i == count - 1;
+            if (kept > 0 && !isLast && Math.abs(x - lastX) < tolerance && Math.abs(y - lastY) < tolerance) {
+                continue;
+            }
+            coords[kept * 2] = x;
+            coords[kept * 2 + 1] = y;
+            lastX = x;
+            lastY = y;
+            kept++;
+        }
+        if (maxX < clipLeft || minX > clipRight || maxY < clipTop || minY > clipBottom) {
+            return 0;
+        }
+        if (isRing && kept > 1 && coords[0] == coords[(kept - 1) * 2] && coords[1] == coords[(kept - 1) * 2 + 1]) {
+            // the ring is closed explicitly on the path
+            kept--;
+        }
+        return kept;
+    }
+
+    private void skipCoordinates(int count, int dimension) throws InvalidWkbException {
+        checkCoordinatesCount(count, dimension);
+        position += count * dimension * 8;
+    }
+
+    /**
+     * A corrupted count must not make the buffers grow past the geometry.
+     */
+    private void checkCoordinatesCount(int count, int dimension) throws InvalidWkbException {
+        if (count < 0 || count > (wkb.length - position) / (dimension * 8)) {
+            throw new InvalidWkbException("Truncated geometry, " + count + " coordinates expected.");
+        }
+    }
+
+    /**
+     * Append the visible parts of the line in the screen coordinates buffer, each segment
+     * clipped to the viewport (Liang-Barsky).
+     *
+     * @return <code>true</code> if any part was appended.
+     */
+    private boolean appendClippedLine(int count) {
+        boolean isAppended = false;
+        // whether the path ends at the start of the current segment
+        boolean isConnected = false;
+        for (int i = 1; i < count; i++) {
+            float x0 = coords[(i - 1) * 2];
+            float y0 = coords[(i - 1) * 2 + 1];
+            float x1 = coords[i * 2];
+            float y1 = coords[i * 2 + 1];
+            float dx = x1 - x0;
+            float dy = y1 - y0;
+            clipT0 = 0f;
+            clipT1 = 1f;
+            if (!clipTest(-dx, x0 - clipLeft) || !clipTest(dx, clipRight - x0)
+                    || !clipTest(-dy, y0 - clipTop) || !clipTest(dy, clipBottom - y0)) {
+                isConnected = false;
+                continue;
+            }
+            if (!isConnected || clipT0 > 0f) {
+                linesPath.moveTo(x0 + clipT0 * dx, y0 + clipT0 * dy);
+            }
+            linesPath.lineTo(x0 + clipT1 * dx, y0 + clipT1 * dy);
+            isConnected = clipT1 == 1f;
+            isAppended = true;
+        }
+        return isAppended;
+    }
+
+    /**
+     * Narrow the visible interval of the segment against one side of the viewport.
+     *
+     * @return <code>false</code> if the segment is outside.
+     */
+    private boolean clipTest(float p, float q) {
+        if (p == 0f) {
+            // parallel to the side
+            return q >= 0f;
+        }
+        float r = q / p;
+        if (p < 0f) {
+            if (r > clipT1) return false;
+            if (r > clipT0) clipT0 = r;
+        } else {
+            if (r < clipT0) return false;
+            if (r < clipT1) clipT1 = r;
+        }
+        return true;
+    }
+
+    /**
+     * Clip the ring in the screen coordinates buffer to the viewport (Sutherland-Hodgman).
+     * <p/>
+     * Clipping every ring on its own keeps the even-odd fill of the holes right.
+     *
+     * @return the number of vertices of the clipped ring.
+     */
+    private int clipRing(int count) {
+        for (int side = 0; side < 4 && count > 0; side++) {
+            count = clipRingSide(count, side);
+        }
+        return count;
+    }
+
+    private int clipRingSide(int count, int side) {
+        if (clipCoords.length < count * 4) {
+            clipCoords = new float[count * 4];
+        }
+        int outCount = 0;
+        float prevX = coords[(count - 1) * 2];
+        float prevY = coords[(count - 1) * 2 + 1];
+        boolean isPrevInside = isInside(prevX, prevY, side);
+        for (int i = 0; i < count; i++) {
+            float x = coords[i * 2];
+            float y = coords[i * 2 + 1];
+            boolean isInside = isInside(x, y, side);
+            if (isInside != isPrevInside) {
+                float t;
+                if (side < 2) {
+                    float sideX = side == 0 ? clipLeft : clipRight;
+                    t = (sideX - prevX) / (x - prevX);
+                } else {
+                    float sideY = side == 2 ? clipTop : clipBottom;
+                    t = (sideY - prevY) / (y - prevY);
+                }
+                clipCoords[outCount * 2] = prevX + t * (x - prevX);
+                clipCoords[outCount * 2 + 1] = prevY + t * (y - prevY);
+                outCount++;
+            }
+            if (isInside) {
+                clipCoords[outCount * 2] = x;
+                clipCoords[outCount * 2 + 1] = y;
+                outCount++;
+            }
+            prevX = x;
+            prevY = y;
+            isPrevInside = isInside;
+        }
+        // the clipped ring becomes the current one
+        float[] tmp = coords;
+        coords = clipCoords;
+        clipCoords = tmp;
+        return outCount;
+    }
+
+    private boolean isInside(float x, float y, int side) {
+        switch (side) {
+            case 0:
+                return x >= clipLeft;
+            case 1:
+                return x <= clipRight;
+            case 2:
+                return y >= clipTop;
+            default:
+                return y <= clipBottom;
+        }
+    }
+
+    private void appendToPath(Path path, int count, boolean close) {
+        path.moveTo(coords[0], coords[1]);
+        for (int i = 1; i < count; i++) {
+            path.lineTo(coords[i * 2], coords[i * 2 + 1]);
+        }
+        if (close) {
+            path.close();
+        }
+    }
+
+    private void addToCentroid(int count, boolean isExterior) {
+        double area = 0;
+        double sumX = 0;
+        double sumY = 0;
+        for (int i = 0; i < count; i++) {
+            int j = (i + 1) % count;
+            double x1 = coords[i * 2];
+            double y1 = coords[i * 2 + 1];
+            double x2 = coords[j * 2];
+            double y2 = coords[j * 2 + 1];
+            double cross = x1 * y2 - x2 * y1;
+            area += cross;
+            sumX += (x1 + x2) * cross;
+            sumY += (y1 + y2) * cross;
+        }
+        // area is twice the signed area, the moments need a 1/6 factor
+        area = area / 2.0;
+        sumX = sumX / 6.0;
+        sumY = sumY / 6.0;
+        if (area < 0) {
+            area = -area;
+            sumX = -sumX;
+            sumY = -sumY;
+        }
+        if (isExterior) {
+            centroidArea += area;
+            centroidSumX += sumX;
+            centroidSumY += sumY;
+        } else {
+            centroidArea -= area;
+            centroidSumX -= sumX;
+            centroidSumY -= sumY;
+        }
+    }
+
+    private float toScreenX(double lon) {
+        return (float) ((lon + 180.0) / 360.0 * mapSize - offsetX);
+    }
+
+    private float toScreenY(double lat) {
+        double sinLatitude = Math.sin(MercatorProjection.limitLatitude(lat) * (Math.PI / 180));
+        return (float) ((0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) / (4 * Math.PI)) * mapSize - offsetY);
+    }
+
+    private int readInt(boolean bigEndian) throws InvalidWkbException {
+        if (position + 4 > wkb.length) {
+            throw new InvalidWkbException("Truncated geometry.");
+        }
+        int b0 = wkb[position] & 0xFF;
+        int b1 = wkb[position + 1] & 0xFF;
+        int b2 = wkb[position + 2] & 0xFF;
+        int b3 = wkb[position + 3] & 0xFF;
+        position += 4;
+        if (bigEndian) {
+            return (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+        } else {
+            return (b3 << 24) | (b2 << 16) | (b1 << 8) | b0;
+        }
+    }
+
+    private double readDouble(boolean bigEndian) throws InvalidWkbException {
+        long high = readInt(bigEndian) & 0xFFFFFFFFL;
+        long low = readInt(bigEndian) & 0xFFFFFFFFL;
+        long bits = bigEndian ? (high << 32) | low : (low << 32) | high;
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Thrown when the geometry can't be decoded any further.
+     */
+    private static class InvalidWkbException extends Exception {
+        InvalidWkbException(String message) {
+            super(message);
+        }
+    }
+}
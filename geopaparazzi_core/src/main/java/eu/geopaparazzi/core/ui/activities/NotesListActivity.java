@@ -24,6 +24,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
@@ -39,6 +40,7 @@ import android.view.WindowManager;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.CheckBox;
+import android.widget.AbsListView;
 import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.ImageButton;
@@ -86,6 +88,14 @@ import eu.geopaparazzi.core.mapview.MapviewActivity;
  */
 public class NotesListActivity extends AppCompatActivity {
     public static final String CURRENT_NOTES_COMPARATOR_INDEX = "CURRENT_NOTES_COMPARATOR_INDEX";
+    /**
+     * Time to wait after the last keystroke before searching.
+     */
+    private static final long FILTER_DELAY_MILLIS = 300;
+    /**
+     * Number of notes loaded at a time while searching.
+     */
+    private static final int SEARCH_PAGE_SIZE = 100;
     private String SHARE_NOTE_WITH = "";
     private List<ANote> allNotesList = new ArrayList<>();
     private List<ANote> visibleNotesList = new ArrayList<>();
@@ -107,10 +117,20 @@ public class NotesListActivity extends AppCompatActivity {
 
     private String[] checkItems;
     private Comparator<ANote>[] comparators;
+    /**
+     * The order by clauses of the search, matching the comparators.
+     */
+    private String[] searchOrderBys;
     private int currentComparatorIndex = 0;
     private SharedPreferences mPreferences;
     private StringAsyncTask deletionTask;
 
+    private final Handler filterHandler = new Handler();
+    private String currentFilter = "";
+    private SearchTask searchTask;
+    private int searchOffset = 0;
+    private boolean hasMoreResults = false;
+
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
 
@@ -144,8 +164,28 @@ public class NotesListActivity extends AppCompatActivity {
                 new ItemComparators.NotesDistanceFromPointComparator(lon, lat),//
                 new ItemComparators.NotesDistanceFromPointComparator(lon, lat, true),//
         };
+        searchOrderBys = new String[]{//
+                null, //
+                DaoNotes.getSearchOrderByName(false),//
+                DaoNotes.getSearchOrderByName(true),//
+                DaoNotes.getSearchOrderByDistance(lon, lat, false),//
+                DaoNotes.getSearchOrderByDistance(lon, lat, true),//
+        };
 
         listView = (ListView) findViewById(R.id.notesList);
+        listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // ignore
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (hasMoreResults && searchTask == null && firstVisibleItem + visibleItemCount >= totalItemCount - SEARCH_PAGE_SIZE / 4) {
+                    searchNextPage();
+                }
+            }
+        });
 
         SHARE_NOTE_WITH = getString(eu.geopaparazzi.library.R.string.share_note_with);
         share = getString(R.string.share);
@@ -173,6 +213,8 @@ public class NotesListActivity extends AppCompatActivity {
 
     protected void onDestroy() {
         if (deletionTask != null) deletionTask.dispose();
+        filterHandler.removeCallbacks(filterRunnable);
+        if (searchTask != null) searchTask.cancel(true);
         filterText.removeTextChangedListener(filterTextWatcher);
         super.onDestroy();
     }
@@ -221,8 +263,12 @@ public class NotesListActivity extends AppCompatActivity {
         if (GPLog.LOG_HEAVY)
             GPLog.addLogEntry(this, "refreshing notes list"); //$NON-NLS-1$
         try {
-            visibleNotesList.clear();
             collectAllNotes();
+            if (currentFilter.length() > 0) {
+                filterList(currentFilter);
+                return;
+            }
+            visibleNotesList.clear();
             visibleNotesList.addAll(allNotesList);
             if (comparators[currentComparatorIndex] != null) {
                 Collections.sort(visibleNotesList, comparators[currentComparatorIndex]);
@@ -243,26 +289,83 @@ public class NotesListActivity extends AppCompatActivity {
         allNotesList.addAll(imagesList);
     }
 
+    /**
+     * Start a new search, the notes are queried through the full text index one page at a time.
+     *
+     * @param filterText the text to search.
+     */
     private void filterList(String filterText) {
         if (GPLog.LOG_HEAVY)
             GPLog.addLogEntry(this, "filter notes list"); //$NON-NLS-1$
-        try {
-            collectAllNotes();
-            visibleNotesList.clear();
-            filterText = filterText.toLowerCase();
-            for (ANote note : allNotesList) {
-                String name = note.getName();
-                String nameLower = name.toLowerCase();
-                if (nameLower.contains(filterText)) {
-                    visibleNotesList.add(note);
-                }
+        if (searchTask != null) {
+            searchTask.cancel(true);
+        }
+        searchOffset = 0;
+        hasMoreResults = false;
+        searchTask = new SearchTask(filterText, 0);
+        searchTask.execute();
+    }
+
+    private void searchNextPage() {
+        searchTask = new SearchTask(currentFilter, searchOffset);
+        searchTask.execute();
+    }
+
+    private class SearchTask extends AsyncTask<Void, Void, List<Note>> {
+        private final String filter;
+        private final int offset;
+        private final String orderBy;
+
+        SearchTask(String filter, int offset) {
+            this.filter = filter;
+            this.offset = offset;
+            // the pages are sorted in the database, the same way the comparator sorts the full list
+            orderBy = searchOrderBys[currentComparatorIndex];
+        }
+
+        @Override
+        protected List<Note> doInBackground(Void... params) {
+            try {
+                return DaoNotes.searchNotes(filter, orderBy, SEARCH_PAGE_SIZE, offset);
+            } catch (IOException e) {
+                GPLog.error(NotesListActivity.this, e.getLocalizedMessage(), e);
+                return null;
             }
-        } catch (IOException e) {
-            GPLog.error(this, e.getLocalizedMessage(), e);
-            e.printStackTrace();
         }
 
-        redoAdapter();
+        @Override
+        protected void onPostExecute(List<Note> notes) {
+            if (searchTask == this) {
+                searchTask = null;
+            }
+            if (isCancelled() || !filter.equals(currentFilter) || isFinishing()) {
+                return;
+            }
+            if (notes == null) {
+                hasMoreResults = false;
+                return;
+            }
+            hasMoreResults = notes.size() == SEARCH_PAGE_SIZE;
+            searchOffset = offset + notes.size();
+            if (offset == 0) {
+                visibleNotesList.clear();
+                // images without note are few and not indexed, they are matched by name
+                String filterLower = filter.toLowerCase();
+                for (ANote note : allNotesList) {
+                    if (note instanceof Image && note.getName().toLowerCase().contains(filterLower)) {
+                        visibleNotesList.add(note);
+                    }
+                }
+                if (comparators[currentComparatorIndex] != null) {
+                    Collections.sort(visibleNotesList, comparators[currentComparatorIndex]);
+                }
+                visibleNotesList.addAll(notes);
+                redoAdapter();
+            } else {
+                visibleNotesList.addAll(notes);
+                arrayAdapter.notifyDataSetChanged();
+            }
+        }
     }
 
     private void redoAdapter() {
@@ -606,7 +709,31 @@ public class NotesListActivity extends AppCompatActivity {
 
         public void onTextChanged(CharSequence s, int start, int before, int count) {
             // arrayAdapter.getFilter().filter(s);
-            filterList(s.toString());
+            currentFilter = s.toString().trim();
+            filterHandler.removeCallbacks(filterRunnable);
+            if (currentFilter.length() == 0) {
+                if (searchTask != null) {
+                    searchTask.cancel(true);
+                    searchTask = null;
+                }
+                hasMoreResults = false;
+                visibleNotesList.clear();
+                visibleNotesList.addAll(allNotesList);
+                if (comparators[currentComparatorIndex] != null) {
+                    Collections.sort(visibleNotesList, comparators[currentComparatorIndex]);
+                }
+                redoAdapter();
+            } else {
+                // wait for the user to stop typing
+                filterHandler.postDelayed(filterRunnable, FILTER_DELAY_MILLIS);
+            }
+        }
+    };
+
+    private final Runnable filterRunnable = new Runnable() {
+        @Override
+        public void run() {
+            filterList(currentFilter);
         }
     };
 
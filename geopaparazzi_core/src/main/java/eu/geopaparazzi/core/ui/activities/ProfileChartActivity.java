@@ -23,7 +23,6 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.PointF;
-import android.location.Location;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
@@ -45,7 +44,6 @@ import com.androidplot.xy.XYGraphWidget;
 import com.androidplot.xy.XYLegendWidget;
 import com.androidplot.xy.XYPlot;
 import com.androidplot.xy.XYSeries;
-import com.vividsolutions.jts.geom.Coordinate;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -53,14 +51,12 @@ import java.util.List;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.util.Compat;
-import eu.geopaparazzi.library.util.DynamicDoubleArray;
 import eu.geopaparazzi.library.util.GPDialogs;
 import eu.geopaparazzi.library.util.StringAsyncTask;
 import eu.geopaparazzi.core.R;
-import eu.geopaparazzi.core.database.DaoGpsLog;
-import eu.geopaparazzi.core.database.objects.Line;
+import eu.geopaparazzi.core.database.DaoGpsLogProfiles;
+import eu.geopaparazzi.core.database.objects.GpsLogProfile;
 import eu.geopaparazzi.core.utilities.Constants;
-import eu.geopaparazzi.core.utilities.FeatureSlidingAverage;
 
 /**
  * The profile chart activity.
@@ -73,7 +69,8 @@ public class ProfileChartActivity extends Activity implements View.OnTouchListen
     private LineAndPointFormatter seriesSpeedFormat, seriesElevFormat;
 
     XYSeries seriesSpeed, seriesElev;
-    private Line line;
+    private long logid;
+    private int chartWidth;
     private PointF minXYSpeed;
     private PointF maxXYSpeed;
     private PointF minXYElevation;
@@ -100,16 +97,7 @@ public class ProfileChartActivity extends Activity implements View.OnTouchListen
 
         Bundle extras = getIntent().getExtras();
         if (extras != null) {
-            try {
-                long logid = extras.getLong(Constants.ID);
-
-                line = DaoGpsLog.getGpslogAsLine(logid, -1);
-
-            } catch (IOException e) {
-                GPLog.error(this, e.getLocalizedMessage(), e);
-                e.printStackTrace();
-            }
-
+            logid = extras.getLong(Constants.ID);
         } else {
             GPDialogs.warningDialog(this, getString(R.string.an_error_occurred_while_creating_the_chart_), new Runnable() {
                 @Override
@@ -294,11 +282,17 @@ public class ProfileChartActivity extends Activity implements View.OnTouchListen
     @Override
     protected void onResume() {
         super.onResume();
-        //$NON-NLS-1$
+        // the plot might not be laid out yet, the screen width is then a good upper bound
+        chartWidth = xyPlotSpeed.getWidth();
+        if (chartWidth <= 0) {
+            chartWidth = getResources().getDisplayMetrics().widthPixels;
+        }
         resumeTask = new StringAsyncTask(this) {
             protected String doBackgroundWork() {
                 try {
-                    createDatasetFromProfile();
+                    if (!createDatasetFromProfile()) {
+                        return getString(R.string.an_error_occurred_while_creating_the_chart_);
+                    }
                 } catch (Exception e) {
                     GPLog.error(this, null, e); //$NON-NLS-1$
                     return "ERROR";
@@ -371,87 +365,37 @@ public class ProfileChartActivity extends Activity implements View.OnTouchListen
     }
 
     /**
-     * Create a dataset based on supplied data that are supposed to be coordinates and elevations for a profile view.
+     * Create the chart series from the precomputed profile of the log.
+     * <p/>
+     * The series are downsampled to the chart width, since more points than
+     * pixels can't be seen anyway.
+     *
+     * @return <code>false</code> if the log has too few points for a chart.
+     * @throws IOException if something goes wrong.
      */
-    public void createDatasetFromProfile() throws Exception {
-        DynamicDoubleArray lonArray = line.getLonList();
-        DynamicDoubleArray latArray = line.getLatList();
-        DynamicDoubleArray elevArray = line.getAltimList();
-        List<String> dates = line.getDateList();
-
-        double previousLat = 0;
-        double previousLon = 0;
-        double summedDistance = 0.0;
-        long previousTime = 0;
-
-        List<Coordinate> elevList = new ArrayList<>(lonArray.size());
-        List<Coordinate> speedList = new ArrayList<>(lonArray.size());
-
-        for (int i = 0; i < lonArray.size(); i++) {
-            double elev = elevArray.get(i);
-            double lat = latArray.get(i);
-            double lon = lonArray.get(i);
-            String dateStr = dates.get(i);
-            long time = Long.parseLong(dateStr);
-
-            double distance = 0.0;
-            double speedKmH = 0.0;
-            if (i > 0) {
-                Location thisLoc = new Location("dummy1"); //$NON-NLS-1$
-                thisLoc.setLongitude(lon);
-                thisLoc.setLatitude(lat);
-                Location thatLoc = new Location("dummy2"); //$NON-NLS-1$
-                thatLoc.setLongitude(previousLon);
-                thatLoc.setLatitude(previousLat);
-                distance = thisLoc.distanceTo(thatLoc);
-
-                double timeSeconds = (time - previousTime) / 1000.0;
-                speedKmH = 3.6 * distance / timeSeconds;
-            }
-
-            previousLat = lat;
-            previousLon = lon;
-            previousTime = time;
-
-            summedDistance = summedDistance + distance;
-
-            elevList.add(new Coordinate(summedDistance, elev));
-            speedList.add(new Coordinate(summedDistance, speedKmH));
+    public boolean createDatasetFromProfile() throws IOException {
+        GpsLogProfile profile = DaoGpsLogProfiles.getProfile(logid);
+        float[] distances = profile.getDistances();
+        if (distances.length < 3) {
+            return false;
         }
+        elevDifference = profile.getElevationGain();
 
-        int lookAhead = 20;
-        double slide = 1;
-        FeatureSlidingAverage fsaElev = new FeatureSlidingAverage(elevList);
-        List<Coordinate> smoothedElev = fsaElev.smooth(lookAhead, false, slide);
-        FeatureSlidingAverage fsaSpeed = new FeatureSlidingAverage(speedList);
-        List<Coordinate> smoothedSpeed = fsaSpeed.smooth(lookAhead, false, slide);
-
-        int size = lonArray.size();
-        List<Double> finalYList1 = new ArrayList<>(size);
-        List<Double> finalYList2 = new ArrayList<>(lonArray.size());
-        List<Double> finalXList1 = new ArrayList<>(lonArray.size());
-
-        elevDifference = 0;
-        double previousElev = 0;
-        for (int i = 0; i < size; i++) {
-            Coordinate elev = smoothedElev.get(i);
-            Coordinate speed = smoothedSpeed.get(i);
-
-            finalXList1.add(elev.x);
-            finalYList1.add(elev.y);
-            finalYList2.add(speed.y);
-
-            if (i > 0) {
-                double diff = elev.y - previousElev;
-                if (diff > 0)
-                    elevDifference = elevDifference + diff;
-            }
-            previousElev = elev.y;
-        }
+        int[] elevIndexes = profile.downsampleElevations(chartWidth);
+        seriesElev = toSeries(distances, profile.getElevations(), elevIndexes, "Elev [m]");
+        int[] speedIndexes = profile.downsampleSpeeds(chartWidth);
+        seriesSpeed = toSeries(distances, profile.getSpeeds(), speedIndexes, "Speed [km/h]");
+        return true;
+    }
 
-        // Setup the Series
-        seriesElev = new SimpleXYSeries(finalXList1, finalYList1, "Elev [m]");
-        seriesSpeed = new SimpleXYSeries(finalXList1, finalYList2, "Speed [km/h]");
+    private static XYSeries toSeries(float[] x, float[] y, int[] indexes, String title) {
+        List<Float> xList = new ArrayList<>(indexes.length);
+        List<Float> yList = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            xList.add(x[index]);
+            yList.add(y[index]);
+        }
+        return new SimpleXYSeries(xList, yList, title);
     }
 
     // Definition of the touch states
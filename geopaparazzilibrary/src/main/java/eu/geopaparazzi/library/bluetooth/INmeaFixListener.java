@@ -0,0 +1,36 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.bluetooth;
+
+/**
+ * A listener for fixes parsed from NMEA sentences.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ *
+ */
+public interface INmeaFixListener {
+
+    /**
+     * Method triggered when a valid GGA, RMC or GSA sentence has been parsed.
+     * 
+     * <p>The fix is recycled when the method returns, use {@link NmeaFix#copy()} to keep it.</p>
+     * 
+     * @param fix the parsed fix.
+     */
+    public void onFixReceived(NmeaFix fix);
+}
@@ -0,0 +1,226 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.bluetooth;
+
+/**
+ * A fix parsed from a GGA, RMC or GSA NMEA sentence.
+ * <p/>
+ * Fixes are taken from a pool through {@link #obtain()} and given back with {@link #recycle()},
+ * so that parsing doesn't create garbage. Fixes passed to listeners are recycled after the
+ * listeners return, so a listener that needs to keep one has to {@link #copy()} it.
+ * <p/>
+ * Fields that are not part of the sentence type or are empty in the sentence are
+ * {@link Double#NaN} or -1.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class NmeaFix {
+
+    /**
+     * Global positioning system fix data.
+     */
+    public static final int TYPE_GGA = 1;
+    /**
+     * Recommended minimum specific GNSS data.
+     */
+    public static final int TYPE_RMC = 2;
+    /**
+     * GNSS DOP and active satellites.
+     */
+    public static final int TYPE_GSA = 3;
+
+    private static final double KNOTS_TO_METERS_PER_SECOND = 0.514444;
+    private static final int MAX_POOL_SIZE = 16;
+    private static final Object poolLock = new Object();
+    private static NmeaFix pool;
+    private static int poolSize = 0;
+
+    private NmeaFix next;
+
+    /**
+     * The sentence type, one of {@link #TYPE_GGA}, {@link #TYPE_RMC} and {@link #TYPE_GSA}.
+     */
+    public int type;
+    /**
+     * The two chars of the talker id (GP, GN, GL...), the first in the high byte.
+     */
+    public int talkerId;
+    /**
+     * The system time at which the sentence was received.
+     */
+    public long timestamp;
+    /**
+     * <code>true</code> if the receiver reports the fix as valid.
+     */
+    public boolean valid;
+    /**
+     * The utc time of day of the fix in milliseconds.
+     */
+    public int utcTimeMillis;
+    /**
+     * The utc date as ddmmyy (RMC).
+     */
+    public int utcDate;
+    /**
+     * Latitude in degrees (GGA, RMC).
+     */
+    public double latitude;
+    /**
+     * Longitude in degrees (GGA, RMC).
+     */
+    public double longitude;
+    /**
+     * Altitude above the mean sea level in meters (GGA).
+     */
+    public double altitude;
+    /**
+     * The fix quality (GGA), 0 being invalid.
+     */
+    public int quality;
+    /**
+     * The number of satellites used (GGA, GSA).
+     */
+    public int satellitesUsed;
+    /**
+     * The fix mode (GSA): 1 no fix, 2 2D, 3 3D.
+     */
+    public int fixMode;
+    /**
+     * Speed over ground in m/s (RMC).
+     */
+    public double speed;
+    /**
+     * Course over ground in degrees (RMC).
+     */
+    public double bearing;
+    /**
+     * Position dilution of precision (GSA).
+     */
+    public double pdop;
+    /**
+     * Horizontal dilution of precision (GGA, GSA).
+     */
+    public double hdop;
+    /**
+     * Vertical dilution of precision (GSA).
+     */
+    public double vdop;
+
+    private NmeaFix() {
+        reset();
+    }
+
+    /**
+     * @return a fix from the pool or a new one, with all fields reset.
+     */
+    public static NmeaFix obtain() {
+        synchronized (poolLock) {
+            if (pool != null) {
+                NmeaFix fix = pool;
+                pool = fix.next;
+                fix.next = null;
+                poolSize--;
+                return fix;
+            }
+        }
+        return new NmeaFix();
+    }
+
+    /**
+     * Give the fix back to the pool. It must not be used afterwards.
+     */
+    public void recycle() {
+        reset();
+        synchronized (poolLock) {
+            if (poolSize < MAX_POOL_SIZE) {
+                next = pool;
+                pool = this;
+                poolSize++;
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the fix that is not part of the pool.
+     */
+    public NmeaFix copy() {
+        NmeaFix copy = new NmeaFix();
+        copy.type = type;
+        copy.talkerId = talkerId;
+        copy.timestamp = timestamp;
+        copy.valid = valid;
+        copy.utcTimeMillis = utcTimeMillis;
+        copy.utcDate = utcDate;
+        copy.latitude = latitude;
+        copy.longitude = longitude;
+        copy.altitude = altitude;
+        copy.quality = quality;
+        copy.satellitesUsed = satellitesUsed;
+        copy.fixMode = fixMode;
+        copy.speed = speed;
+        copy.bearing = bearing;
+        copy.pdop = pdop;
+        copy.hdop = hdop;
+        copy.vdop = vdop;
+        return copy;
+    }
+
+    /**
+     * @return the talker id as string, as for example GP.
+     */
+    public String getTalker() {
+        return new String(new char[]{(char) (talkerId >> 8), (char) (talkerId & 0xFF)});
+    }
+
+    /**
+     * Set the speed from knots.
+     *
+     * @param knots the speed in knots.
+     */
+    void setSpeedFromKnots(double knots) {
+        speed = knots * KNOTS_TO_METERS_PER_SECOND;
+    }
+
+    private void reset() {
+        type = 0;
+        talkerId = 0;
+        timestamp = 0;
+        valid = false;
+        utcTimeMillis = -1;
+        utcDate = -1;
+        latitude = Double.NaN;
+        longitude = Double.NaN;
+        altitude = Double.NaN;
+        quality = -1;
+        satellitesUsed = -1;
+        fixMode = -1;
+        speed = Double.NaN;
+        bearing = Double.NaN;
+        pdop = Double.NaN;
+        hdop = Double.NaN;
+        vdop = Double.NaN;
+    }
+
+    @Override
+    public String toString() {
+        return "NmeaFix{type=" + type + ", talker=" + getTalker() + ", valid=" + valid + ", time=" + utcTimeMillis
+                + ", lat=" + latitude + ", lon=" + longitude + ", alt=" + altitude + ", sats=" + satellitesUsed
+                + ", hdop=" + hdop + "}";
+    }
+}
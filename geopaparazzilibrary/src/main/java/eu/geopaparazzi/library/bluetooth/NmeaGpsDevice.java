@@ -34,14 +34,15 @@
  */
 package eu.geopaparazzi.library.bluetooth;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
-import java.util.ArrayList;
+import java.nio.charset.Charset;
 import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import android.bluetooth.BluetoothSocket;
 import android.os.SystemClock;
@@ -57,6 +58,13 @@ import eu.geopaparazzi.library.database.GPLog;
  */
 @SuppressWarnings("nls")
 public class NmeaGpsDevice implements IBluetoothIOHandler {
+    private static final int READ_BUFFER_SIZE = 4096;
+    /**
+     * If no data arrive for this time, the device is considered lost and the connection is closed.
+     */
+    private static final long NO_DATA_TIMEOUT_MILLIS = 5000;
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
     /**
      * GPS bluetooth socket used for communication. 
      */
@@ -78,10 +86,13 @@ public class NmeaGpsDevice implements IBluetoothIOHandler {
      * A boolean which indicates if the GPS is ready to receive data. 
      * In fact we consider that the GPS is ready when it begins to sends data...
      */
-    private boolean ready = false;
-    private boolean enabled;
+    private volatile boolean ready = false;
+    private volatile boolean enabled;
+    private volatile long lastReadTime;
+    private volatile boolean timedOut;
 
-    private List<IBluetoothListener> bluetoothListeners = new ArrayList<>();
+    private List<IBluetoothListener> bluetoothListeners = new CopyOnWriteArrayList<>();
+    private final NmeaParser nmeaParser = new NmeaParser();
 
     /* (non-Javadoc)
      * @see eu.geopaparazzi.library.bluetooth_tmp.IBluetoothDevice#prepare(android.bluetooth.BluetoothSocket, eu.geopaparazzi.library.bluetooth_tmp.BluetoothEnablementHandler)
@@ -139,50 +150,66 @@ public class NmeaGpsDevice implements IBluetoothIOHandler {
     }
 
     public void run() {
+        NmeaParser parser = nmeaParser;
+        // strings are only built if someone still listens to the raw sentences
+        parser.setSentenceListener(new NmeaParser.ISentenceListener(){
+            @Override
+            public void onSentence( long timestamp, byte[] buffer, int length ) {
+                if (enabled && bluetoothListeners.size() > 0) {
+                    String sentence = new String(buffer, 0, length, US_ASCII) + "\r\n";
+                    for( IBluetoothListener listener : bluetoothListeners ) {
+                        listener.onDataReceived(timestamp, sentence);
+                    }
+                }
+            }
+        });
+        // the read can't time out, so a watchdog closes the socket if the device goes silent
+        timedOut = false;
+        lastReadTime = SystemClock.uptimeMillis();
+        Timer watchdog = new Timer("NMEA read watchdog", true);
+        watchdog.schedule(new TimerTask(){
+            @Override
+            public void run() {
+                if (SystemClock.uptimeMillis() - lastReadTime > NO_DATA_TIMEOUT_MILLIS) {
+                    timedOut = true;
+                    cancel();
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        error("error while closing the silent GPS socket", e);
+                    }
+                }
+            }
+        }, NO_DATA_TIMEOUT_MILLIS / 5, NO_DATA_TIMEOUT_MILLIS / 5);
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
-            String s;
-            long now = SystemClock.uptimeMillis();
-            long lastRead = now;
-            while( (enabled) && (now < lastRead + 5000) ) {
-                if (reader.ready()) {
-                    s = reader.readLine();
-                    // if (Debug.D)
-                    // Logger.i(LOG_TAG, "data: " + System.currentTimeMillis() + " " + s);
-                    notifySentence(s + "\r\n");
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int read;
+            // blocks until data arrive, ends when the stream is closed, the device disconnects or goes silent
+            while( enabled && (read = in.read(buffer)) != -1 ) {
+                if (read > 0) {
+                    lastReadTime = SystemClock.uptimeMillis();
                     ready = true;
-                    lastRead = SystemClock.uptimeMillis();
-                } else {
-                    // if (Debug.D)
-                    // Logger.d(LOG_TAG, "data: not ready " + System.currentTimeMillis());
-                    SystemClock.sleep(50);
+                    if (enabled) {
+                        parser.feed(buffer, 0, read, System.currentTimeMillis());
+                    }
                 }
-                now = SystemClock.uptimeMillis();
             }
         } catch (IOException e) {
-            error("error while getting data", e);
+            if (timedOut) {
+                log("no data from the GPS for " + NO_DATA_TIMEOUT_MILLIS + "ms, closing the connection");
+            } else if (enabled) {
+                error("error while getting data", e);
+            }
         } finally {
+            watchdog.cancel();
+            log("NMEA sentences: " + parser.getSentencesCount() + ", invalid: " + parser.getInvalidSentencesCount()
+                    + ", fixes: " + parser.getFixesCount());
+            parser.setSentenceListener(null);
             // cleanly closing everything...
             this.close();
         }
     }
 
-    /**
-     * Notifies the reception of a string from the bluetooth device to registered {@link IBluetoothListener}s.
-     * 
-     * @param sentence  the complete NMEA sentence received from the bluetooth GPS (i.e. $....*XY where XY is the checksum)
-     */
-    private void notifySentence( final String sentence ) {
-        if (enabled) {
-            final long timestamp = System.currentTimeMillis();
-            if (sentence != null) {
-                for( final IBluetoothListener listener : bluetoothListeners ) {
-                    listener.onDataReceived(timestamp, sentence);
-                }
-            }
-        }
-    }
-
     /**
      * Write to the connected OutStream.
      * 
@@ -248,6 +275,7 @@ public class NmeaGpsDevice implements IBluetoothIOHandler {
                 }
             }
             bluetoothListeners.clear();
+            nmeaParser.setSentenceListener(null);
         }
     }
 
@@ -271,6 +299,27 @@ public class NmeaGpsDevice implements IBluetoothIOHandler {
         bluetoothListeners.remove(listener);
     }
 
+    /**
+     * Add a listener of the parsed GGA, RMC and GSA fixes.
+     *
+     * <p>This is cheaper than listening to the sentences through {@link #addListener(IBluetoothListener)},
+     * since no string is created for the data.</p>
+     * 
+     * @param listener the listener to add.
+     */
+    public void addFixListener( INmeaFixListener listener ) {
+        nmeaParser.addFixListener(listener);
+    }
+
+    /**
+     * Remove a listener of the parsed fixes.
+     * 
+     * @param listener the listener to remove.
+     */
+    public void removeFixListener( INmeaFixListener listener ) {
+        nmeaParser.removeFixListener(listener);
+    }
+
     @Override
     public String checkRequirements() {
         return null;
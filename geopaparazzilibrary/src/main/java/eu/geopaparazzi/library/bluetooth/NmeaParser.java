@@ -0,0 +1,435 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.bluetooth;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A byte level NMEA 0183 parser.
+ * <p/>
+ * Raw bytes, in chunks of any size, are framed into sentences, the checksum is validated
+ * on the bytes and GGA, RMC and GSA sentences of any talker are parsed into pooled
+ * {@link NmeaFix}es without creating strings. Sentences without a valid checksum are dropped.
+ * <p/>
+ * The parser is meant to be fed by a single thread and notifies its listeners on that thread.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class NmeaParser {
+
+    /**
+     * Listener of the raw valid sentences.
+     */
+    public interface ISentenceListener {
+        /**
+         * @param timestamp the reception time.
+         * @param buffer    the buffer holding the sentence, valid only during the call.
+         * @param length    the length of the sentence, from the '$' to the checksum.
+         */
+        void onSentence(long timestamp, byte[] buffer, int length);
+    }
+
+    /**
+     * Max length of a sentence, larger than the standard 82 chars, which some receivers exceed.
+     */
+    private static final int MAX_SENTENCE_LENGTH = 256;
+    private static final int MAX_FIELDS = 32;
+
+    private final byte[] sentence = new byte[MAX_SENTENCE_LENGTH];
+    private int sentenceLength = -1;
+    private final int[] fieldStarts = new int[MAX_FIELDS];
+    private final int[] fieldEnds = new int[MAX_FIELDS];
+    private int fieldsCount;
+
+    private final List<INmeaFixListener> fixListeners = new CopyOnWriteArrayList<>();
+    private ISentenceListener sentenceListener;
+
+    private long sentencesCount = 0;
+    private long invalidSentencesCount = 0;
+    private long fixesCount = 0;
+
+    /**
+     * @param listener the listener to add.
+     */
+    public void addFixListener(INmeaFixListener listener) {
+        if (!fixListeners.contains(listener)) {
+            fixListeners.add(listener);
+        }
+    }
+
+    /**
+     * @param listener the listener to remove.
+     */
+    public void removeFixListener(INmeaFixListener listener) {
+        fixListeners.remove(listener);
+    }
+
+    /**
+     * @param sentenceListener a listener of all valid sentences or <code>null</code>.
+     */
+    public void setSentenceListener(ISentenceListener sentenceListener) {
+        this.sentenceListener = sentenceListener;
+    }
+
+    /**
+     * @return the number of valid sentences parsed.
+     */
+    public long getSentencesCount() {
+        return sentencesCount;
+    }
+
+    /**
+     * @return the number of sentences dropped because of a bad checksum or format.
+     */
+    public long getInvalidSentencesCount() {
+        return invalidSentencesCount;
+    }
+
+    /**
+     * @return the number of fixes passed to the listeners.
+     */
+    public long getFixesCount() {
+        return fixesCount;
+    }
+
+    /**
+     * Feed raw bytes as they come from the device.
+     *
+     * @param buffer    the buffer.
+     * @param offset    the offset of the data.
+     * @param length    the length of the data.
+     * @param timestamp the reception time.
+     */
+    public void feed(byte[] buffer, int offset, int length, long timestamp) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = buffer[i];
+            if (b == '$') {
+                if (sentenceLength > 0) {
+                    // a sentence that never ended
+                    invalidSentencesCount++;
+                }
+                sentence[0] = b;
+                sentenceLength = 1;
+            } else if (sentenceLength < 0) {
+                // outside of a sentence
+            } else if (b == '\r' || b == '\n') {
+                processSentence(timestamp);
+                sentenceLength = -1;
+            } else if (sentenceLength < MAX_SENTENCE_LENGTH) {
+                sentence[sentenceLength++] = b;
+            } else {
+                invalidSentencesCount++;
+                sentenceLength = -1;
+            }
+        }
+    }
+
+    private void processSentence(long timestamp) {
+        int length = sentenceLength;
+        int star = -1;
+        for (int i = length - 1; i > 0; i--) {
+            if (sentence[i] == '*') {
+                star = i;
+                break;
+            }
+        }
+        if (star < 0 || star + 3 > length) {
+            // no checksum
+            invalidSentencesCount++;
+            return;
+        }
+        int checksum = 0;
+        for (int i = 1; i < star; i++) {
+            checksum ^= sentence[i];
+        }
+        int high = hexValue(sentence[star + 1]);
+        int low = hexValue(sentence[star + 2]);
+        if (high < 0 || low < 0 || ((high << 4) | low) != (checksum & 0xFF)) {
+            invalidSentencesCount++;
+            return;
+        }
+        sentencesCount++;
+
+        if (sentenceListener != null) {
+            sentenceListener.onSentence(timestamp, sentence, star + 3);
+        }
+        if (fixListeners.isEmpty()) {
+            return;
+        }
+
+        splitFields(star);
+        // address field: 2 chars talker and 3 chars type, proprietary sentences start with P
+        if (fieldEnds[0] - fieldStarts[0] != 5 || sentence[1] == 'P') {
+            return;
+        }
+        int typeStart = fieldStarts[0] + 2;
+        int type;
+        if (matches(typeStart, 'G', 'G', 'A')) {
+            type = NmeaFix.TYPE_GGA;
+        } else if (matches(typeStart, 'R', 'M', 'C')) {
+            type = NmeaFix.TYPE_RMC;
+        } else if (matches(typeStart, 'G', 'S', 'A')) {
+            type = NmeaFix.TYPE_GSA;
+        } else {
+            return;
+        }
+
+        NmeaFix fix = NmeaFix.obtain();
+        try {
+            fix.type = type;
+            fix.talkerId = (sentence[1] << 8) | sentence[2];
+            fix.timestamp = timestamp;
+            boolean parsed;
+            switch (type) {
+                case NmeaFix.TYPE_GGA:
+                    parsed = parseGga(fix);
+                    break;
+                case NmeaFix.TYPE_RMC:
+                    parsed = parseRmc(fix);
+                    break;
+                default:
+                    parsed = parseGsa(fix);
+                    break;
+            }
+            if (!parsed) {
+                invalidSentencesCount++;
+                return;
+            }
+            fixesCount++;
+            for (INmeaFixListener fixListener : fixListeners) {
+                fixListener.onFixReceived(fix);
+            }
+        } finally {
+            fix.recycle();
+        }
+    }
+
+    private void splitFields(int end) {
+        fieldsCount = 0;
+        int start = 1;
+        for (int i = 1; i <= end && fieldsCount < MAX_FIELDS; i++) {
+            if (i == end || sentence[i] == ',') {
+                fieldStarts[fieldsCount] = start;
+                fieldEnds[fieldsCount] = i;
+                fieldsCount++;
+                start = i + 1;
+            }
+        }
+    }
+
+    /*
+     * $GPGGA,hhmmss.ss,llll.ll,a,yyyyy.yy,a,x,xx,x.x,x.x,M,x.x,M,x.x,xxxx*hh
+     */
+    private boolean parseGga(NmeaFix fix) {
+        if (fieldsCount < 10) {
+            return false;
+        }
+        fix.utcTimeMillis = parseTime(1);
+        fix.latitude = parseCoordinate(2, 2, 'S');
+        fix.longitude = parseCoordinate(4, 3, 'W');
+        fix.quality = parseInt(6);
+        fix.satellitesUsed = parseInt(7);
+        fix.hdop = parseDouble(8);
+        fix.altitude = parseDouble(9);
+        fix.valid = fix.quality > 0 && !Double.isNaN(fix.latitude) && !Double.isNaN(fix.longitude);
+        return true;
+    }
+
+    /*
+     * $GPRMC,hhmmss.ss,A,llll.ll,a,yyyyy.yy,a,x.x,x.x,ddmmyy,x.x,a*hh
+     */
+    private boolean parseRmc(NmeaFix fix) {
+        if (fieldsCount < 10) {
+            return false;
+        }
+        fix.utcTimeMillis = parseTime(1);
+        boolean active = fieldEnds[2] > fieldStarts[2] && sentence[fieldStarts[2]] == 'A';
+        fix.latitude = parseCoordinate(3, 2, 'S');
+        fix.longitude = parseCoordinate(5, 3, 'W');
+        double knots = parseDouble(7);
+        if (!Double.isNaN(knots)) {
+            fix.setSpeedFromKnots(knots);
+        }
+        fix.bearing = parseDouble(8);
+        fix.utcDate = parseInt(9);
+        fix.valid = active && !Double.isNaN(fix.latitude) && !Double.isNaN(fix.longitude);
+        return true;
+    }
+
+    /*
+     * $GPGSA,a,x,xx,xx,xx,xx,xx,xx,xx,xx,xx,xx,xx,xx,x.x,x.x,x.x*hh
+     */
+    private boolean parseGsa(NmeaFix fix) {
+        if (fieldsCount < 18) {
+            return false;
+        }
+        fix.fixMode = parseInt(2);
+        int satellites = 0;
+        for (int i = 3; i < 15; i++) {
+            if (fieldEnds[i] > fieldStarts[i]) {
+                satellites++;
+            }
+        }
+        fix.satellitesUsed = satellites;
+        fix.pdop = parseDouble(15);
+        fix.hdop = parseDouble(16);
+        fix.vdop = parseDouble(17);
+        fix.valid = fix.fixMode > 1;
+        return true;
+    }
+
+    private boolean matches(int start, char c1, char c2, char c3) {
+        return sentence[start] == c1 && sentence[start + 1] == c2 && sentence[start + 2] == c3;
+    }
+
+    /**
+     * @return the time of day in milliseconds of a hhmmss.ss field or -1.
+     */
+    private int parseTime(int field) {
+        int start = fieldStarts[field];
+        if (fieldEnds[field] - start < 6) {
+            return -1;
+        }
+        // every digit is checked on its own, a bad tens digit must not be hidden by the units
+        int hoursTens = digit(start);
+        int hoursUnits = digit(start + 1);
+        int minutesTens = digit(start + 2);
+        int minutesUnits = digit(start + 3);
+        if (hoursTens < 0 || hoursUnits < 0 || minutesTens < 0 || minutesUnits < 0) {
+            return -1;
+        }
+        int hours = hoursTens * 10 + hoursUnits;
+        int minutes = minutesTens * 10 + minutesUnits;
+        double seconds = parseDouble(start + 4, fieldEnds[field]);
+        if (hours > 23 || minutes > 59 || Double.isNaN(seconds) || seconds < 0 || seconds >= 61) {
+            return -1;
+        }
+        return (int) Math.round((hours * 3600 + minutes * 60 + seconds) * 1000);
+    }
+
+    /**
+     * @return the degrees of a (d)ddmm.mmmm field followed by the hemisphere field.
+     */
+    private double parseCoordinate(int field, int degreesDigits, char negativeHemisphere) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (end - start <= degreesDigits || field + 1 >= fieldsCount) {
+            return Double.NaN;
+        }
+        double degrees = parseDouble(start, start + degreesDigits);
+        double minutes = parseDouble(start + degreesDigits, end);
+        if (Double.isNaN(degrees) || Double.isNaN(minutes)) {
+            return Double.NaN;
+        }
+        double value = degrees + minutes / 60.0;
+        int hemisphereStart = fieldStarts[field + 1];
+        if (fieldEnds[field + 1] > hemisphereStart && sentence[hemisphereStart] == negativeHemisphere) {
+            value = -value;
+        }
+        return value;
+    }
+
+    private int parseInt(int field) {
+        double value = parseDouble(fieldStarts[field], fieldEnds[field]);
+        if (Double.isNaN(value)) {
+            return -1;
+        }
+        return (int) value;
+    }
+
+    private double parseDouble(int field) {
+        return parseDouble(fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * Parse a plain decimal number from a range of the sentence.
+     *
+     * @return the number or {@link Double#NaN} if the range is empty or not a number.
+     */
+    private double parseDouble(int start, int end) {
+        if (start >= end) {
+            return Double.NaN;
+        }
+        boolean negative = false;
+        int i = start;
+        if (sentence[i] == '-' || sentence[i] == '+') {
+            negative = sentence[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int decimals = -1;
+        int digits = 0;
+        for (; i < end; i++) {
+            byte b = sentence[i];
+            if (b >= '0' && b <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if (decimals >= 0) {
+                        decimals++;
+                    }
+                }
+            } else if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        double value = mantissa;
+        if (decimals > 0) {
+            value = value / POWERS_OF_TEN[decimals];
+        }
+        return negative ? -value : value;
+    }
+
+    private static final double[] POWERS_OF_TEN = new double[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private int digit(int index) {
+        byte b = sentence[index];
+        if (b < '0' || b > '9') {
+            return -1;
+        }
+        return b - '0';
+    }
+
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.geopaparazzi.library.GPApplication;
+import eu.geopaparazzi.library.util.TimeUtilities;
+
+/**
+ * The background writer of the log.
+ * <p/>
+ * Log records are put in a bounded queue by any thread and a single background
+ * thread, blocked on the queue while there is nothing to do, writes them to the log table
+ * in batches, one transaction per batch, and to the android log. When the queue is full,
+ * records are dropped and counted, so that logging never blocks the caller. The log table
+ * is trimmed to {@link #MAX_LOG_ROWS} rows.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+class AsyncLogWriter implements Runnable {
+
+    /**
+     * Max number of rows kept in the log table.
+     */
+    static final int MAX_LOG_ROWS = 20000;
+
+    private static final int CAPACITY = 1024;
+    private static final int TRIM_EVERY_ROWS = 1000;
+
+    private static class LogRecord {
+        final long time;
+        final String message;
+        final boolean isError;
+
+        LogRecord(long time, String message, boolean isError) {
+            this.time = time;
+            this.message = message;
+            this.isError = isError;
+        }
+    }
+
+    private final BlockingQueue<LogRecord> queue = new ArrayBlockingQueue<>(CAPACITY);
+    /**
+     * The records offered and not yet written or dropped, a flush waits for it to get to zero.
+     */
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final Object flushMonitor = new Object();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private long reportedDroppedCount = 0;
+    private int rowsSinceTrim = TRIM_EVERY_ROWS;
+
+    private volatile Thread writerThread;
+
+    /**
+     * Add a record to the queue.
+     *
+     * @param message the message.
+     * @param isError if <code>true</code>, the record is an error.
+     * @return <code>false</code> if the queue is full and the record has been dropped.
+     */
+    boolean offer(String message, boolean isError) {
+        if (message == null || message.length() == 0) {
+            message = "no message passed to the log";
+        }
+        if (writerThread == null) {
+            start();
+        }
+        pendingCount.incrementAndGet();
+        if (!queue.offer(new LogRecord(System.currentTimeMillis(), message, isError))) {
+            droppedCount.incrementAndGet();
+            done(1);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the records offered so far to be written, as before closing the database.
+     *
+     * @param timeoutMillis the max time to wait.
+     * @return <code>true</code> if all the records have been written.
+     */
+    boolean flush(long timeoutMillis) {
+        if (writerThread == null) {
+            return true;
+        }
+        if (Thread.currentThread() == writerThread) {
+            // the writer can't wait for itself
+            return pendingCount.get() == 0;
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (flushMonitor) {
+            while (pendingCount.get() > 0) {
+                long waitMillis = deadline - System.currentTimeMillis();
+                if (waitMillis <= 0) {
+                    return false;
+                }
+                try {
+                    flushMonitor.wait(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of records dropped since the start because the queue was full.
+     */
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private synchronized void start() {
+        if (writerThread == null) {
+            Thread thread = new Thread(this, "GPLog writer");
+            thread.setDaemon(true);
+            thread.start();
+            writerThread = thread;
+        }
+    }
+
+    private void done(int count) {
+        if (pendingCount.addAndGet(-count) == 0) {
+            synchronized (flushMonitor) {
+                flushMonitor.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        List<LogRecord> batch = new ArrayList<>(CAPACITY);
+        while (true) {
+            int count = 0;
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, CAPACITY - 1);
+                count = batch.size();
+                addDroppedReport(batch);
+                write(batch);
+            } catch (InterruptedException e) {
+                // nothing was taken, keep on waiting
+            } catch (Throwable t) {
+                Log.e(GPLog.ERROR_TAG, "Error writing the log.", t);
+            } finally {
+                batch.clear();
+                if (count > 0) {
+                    done(count);
+                }
+            }
+        }
+    }
+
+    private void addDroppedReport(List<LogRecord> batch) {
+        long dropped = droppedCount.get();
+        if (dropped > reportedDroppedCount) {
+            batch.add(new LogRecord(System.currentTimeMillis(), "UU;" + GPLog.ERROR_TAG + ";GPLOG: "
+                    + (dropped - reportedDroppedCount) + " log messages dropped, the log was too busy.", true));
+            reportedDroppedCount = dropped;
+        }
+    }
+
+    private void write(List<LogRecord> batch) {
+        boolean inDatabase = false;
+        try {
+            inDatabase = writeToDatabase(batch);
+        } catch (Throwable t) {
+            Log.e(GPLog.ERROR_TAG, "Error writing " + batch.size() + " entries to the log table, they are only in the android log.", t);
+        }
+
+        if (GPLog.LOG_ANDROID || !inDatabase) {
+            // records that didn't make it to the database are kept at least in the android log
+            for (LogRecord record : batch) {
+                if (record.isError) {
+                    Log.i("GPLOG_ERROR", record.message);
+                } else {
+                    String isoDate = TimeUtilities.INSTANCE.iso8601Format.format(new Date(record.time));
+                    Log.i(GPLog.GLOBAL_LOG_TAG, isoDate + ": " + record.message);
+                }
+            }
+        }
+    }
+
+    private boolean writeToDatabase(List<LogRecord> batch) throws Exception {
+        SQLiteDatabase sqliteDatabase = GPApplication.getInstance().getDatabase();
+        if (sqliteDatabase == null || !sqliteDatabase.isOpen()) {
+            return false;
+        }
+        sqliteDatabase.beginTransaction();
+        try {
+            SQLiteStatement insertStatement = sqliteDatabase.compileStatement("insert into " + GPLog.TABLE_LOG + " ("
+                    + GPLog.COLUMN_DATAORA + ", " + GPLog.COLUMN_LOGMSG + ") values (?, ?)");
+            try {
+                for (LogRecord record : batch) {
+                    insertStatement.bindLong(1, record.time);
+                    insertStatement.bindString(2, record.message);
+                    insertStatement.executeInsert();
+                }
+            } finally {
+                insertStatement.close();
+            }
+
+            rowsSinceTrim += batch.size();
+            if (rowsSinceTrim >= TRIM_EVERY_ROWS) {
+                trim(sqliteDatabase);
+                rowsSinceTrim = 0;
+            }
+            sqliteDatabase.setTransactionSuccessful();
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+        return true;
+    }
+
+    private void trim(SQLiteDatabase sqliteDatabase) {
+        // ids are autoincrement, so the oldest rows have the lowest ids
+        SQLiteStatement maxIdStatement = sqliteDatabase.compileStatement("select max(" + GPLog.COLUMN_ID + ") from "
+                + GPLog.TABLE_LOG);
+        long maxId;
+        try {
+            maxId = maxIdStatement.simpleQueryForLong();
+        } finally {
+            maxIdStatement.close();
+        }
+        long lastIdToDelete = maxId - MAX_LOG_ROWS;
+        if (lastIdToDelete > 0) {
+            sqliteDatabase.delete(GPLog.TABLE_LOG, GPLog.COLUMN_ID + " <= ?", new String[]{String.valueOf(lastIdToDelete)});
+        }
+    }
+}
@@ -18,18 +18,17 @@
 package eu.geopaparazzi.library.database;
 
 import java.io.IOException;
-import java.util.Date;
-import java.util.Map.Entry;
-import java.util.Set;
 
-import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
-import eu.geopaparazzi.library.GPApplication;
-import eu.geopaparazzi.library.util.TimeUtilities;
 
 /**
  * The class that handles logging to the database.
+ * <p/>
+ * Entries are written asynchronously and in batches by a background thread, so
+ * logging doesn't compete for the database with the calling thread. If entries come
+ * faster than they can be written, they are dropped and counted, see {@link #getDroppedCount()}.
+ * Call {@link #flush()} before closing the database, not to lose the pending entries.
  *
  * @author Andrea Antonello (www.hydrologis.com)
  */
@@ -86,6 +85,13 @@ public class GPLog {
      */
     public static int GLOBAL_LOG_LEVEL = 0;
 
+    /**
+     * The max time {@link #flush()} waits for the pending log entries.
+     */
+    public static final long FLUSH_TIMEOUT_MILLIS = 2000;
+
+    private static final AsyncLogWriter logWriter = new AsyncLogWriter();
+
     /**
      * Create the default log table.
      *
@@ -135,39 +141,32 @@ public class GPLog {
 
     /**
      * Add a new log entry.
+     * <p/>
+     * <p>The entry is written to the database and the android log in background.
      *
      * @param logMessage the message to insert in the log.
      */
     public static void addLogEntry( String logMessage ) {
-        try {
-            Date date = new Date();
-            SQLiteDatabase sqliteDatabase = GPApplication.getInstance().getDatabase();
-            if (sqliteDatabase != null && sqliteDatabase.isOpen()) {
-                ContentValues values = new ContentValues();
-                long time = date.getTime();
-                values.put(COLUMN_DATAORA, time);
-                values.put(COLUMN_LOGMSG, logMessage);
-                insertOrThrow(sqliteDatabase, TABLE_LOG, values);
-            }
+        logWriter.offer(logMessage, false);
+    }
 
-            if (LOG_ANDROID) {
-                StringBuilder sb = new StringBuilder();
-                sb.append(TimeUtilities.INSTANCE.iso8601Format.format(date));
-                sb.append(": ");
-                sb.append(logMessage);
-                String string = sb.toString();
-                log(GLOBAL_LOG_TAG, string);
-            }
-        } catch (Exception e) {
-            Log.e(GLOBAL_LOG_TAG, logMessage, e);
+    /**
+     * Wait for the pending log entries to be written, to be called before closing the database.
+     * <p/>
+     * <p>Waits at most {@link #FLUSH_TIMEOUT_MILLIS}, the entries not written by then only
+     * go to the android log.
+     */
+    public static void flush() {
+        if (!logWriter.flush(FLUSH_TIMEOUT_MILLIS)) {
+            Log.w(ERROR_TAG, "The log could not be flushed in time.");
         }
     }
 
-    private static int log( String tag, String string ) {
-        if (string == null || string.length() == 0) {
-            string = "no message passed to the log";
-        }
-        return Log.i(tag, string);
+    /**
+     * @return the number of log entries dropped since the start because the log was too busy.
+     */
+    public static long getDroppedCount() {
+        return logWriter.getDroppedCount();
     }
 
     /**
@@ -184,7 +183,7 @@ public class GPLog {
             String user, //
             String tag,//
             String logMessage ) {
-
+        boolean isError = ERROR_TAG.equals(tag);
         StringBuilder sb = new StringBuilder();
         if (user == null || user.length() == 0) {
             user = "UU";
@@ -201,11 +200,7 @@ public class GPLog {
                 sb.append(name).append(": ");
         }
         sb.append(logMessage);
-        try {
-            addLogEntry(sb.toString());
-        } catch (Exception e) {
-            Log.e(ERROR_TAG, "Error inserting in log.", e);
-        }
+        logWriter.offer(sb.toString(), isError);
     }
 
     /**
@@ -221,55 +216,23 @@ public class GPLog {
 
     /**
      * Error log.
+     * <p/>
+     * <p>The message and the stack trace are written as a single entry.
      * 
      * @param caller caller object.
      * @param msg message or <code>null</code>.
      * @param t a throwable.
      */
     public static void error( Object caller, String msg, Throwable t ) {
-        String localizedMessage = t.getLocalizedMessage();
+        StringBuilder sb = new StringBuilder();
         if (msg != null) {
-            StringBuilder sb = new StringBuilder();
             sb.append(msg);
             sb.append(": ");
-            sb.append(localizedMessage);
-            localizedMessage = sb.toString();
-        }
-        addLogEntry(caller, null, ERROR_TAG, localizedMessage);
-        if (LOG_ANDROID) {
-            log("GPLOG_ERROR", localizedMessage);
-        }
-        String stackTrace = Log.getStackTraceString(t);
-        addLogEntry(caller, null, ERROR_TAG, stackTrace);
-        if (LOG_ANDROID) {
-            log("GPLOG_ERROR", stackTrace);
-        }
-    }
-    /**
-     * Do an insert or throw with the proper error handling.
-     * @param table
-     * @param values
-     *
-     * @return
-     * @throws IOException
-     */
-    private static long insertOrThrow( SQLiteDatabase sqliteDatabase, String table, ContentValues values ) throws Exception {
-        if (sqliteDatabase == null || !sqliteDatabase.isOpen()) {
-            throw new Exception("Database not ready!");
-        }
-        long id = sqliteDatabase.insertOrThrow(table, null, values);
-        if (id == -1) {
-            Set<Entry<String, Object>> valueSet = values.valueSet();
-            StringBuilder sb = new StringBuilder();
-            sb.append("Insert failed with: \n");
-            for( Entry<String, Object> entry : valueSet ) {
-                sb.append("(").append(entry.getKey()).append(",");
-                sb.append(entry.getValue()).append(")\n");
-            }
-            String message = sb.toString();
-            throw new IOException(message);
         }
-        return id;
+        sb.append(t.getLocalizedMessage());
+        sb.append("\n");
+        sb.append(Log.getStackTraceString(t));
+        addLogEntry(caller, null, ERROR_TAG, sb.toString());
     }
 
     /**
@@ -20,6 +20,7 @@ package eu.geopaparazzi.library.database;
 import android.database.sqlite.SQLiteDatabase;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Interface that helps handling images in the database.
@@ -64,6 +65,19 @@ public interface IImagesDbHelper {
      */
     public byte[] getImageData(long imageId) throws Exception;
 
+    /**
+     * Get a stream over the image data by image id.
+     * <p/>
+     * Contrary to {@link #getImageData(long)} the data are read in chunks while
+     * the stream is consumed, so that they can be written to a file or zip entry
+     * without being held in memory.
+     *
+     * @param imageId the image id.
+     * @return the stream, which has to be closed, or null.
+     * @throws IOException if something goes wrong.
+     */
+    public InputStream getImageDataStream(long imageId) throws IOException;
+
     /**
      * Get an image from the db by its <b>data</b> id.
      *
@@ -24,7 +24,6 @@ import java.io.File;
 
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.util.AttributeSet;
 import android.view.View;
@@ -39,6 +38,7 @@ import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.IImagesDbHelper;
 import eu.geopaparazzi.library.database.Image;
 import eu.geopaparazzi.library.images.ImageUtilities;
+import eu.geopaparazzi.library.images.ThumbnailCache;
 import eu.geopaparazzi.library.core.ResourcesManager;
 import eu.geopaparazzi.library.util.Compat;
 
@@ -102,15 +102,13 @@ public class GMapView extends View implements GView {
 
             final IImagesDbHelper imagesDbHelper = DefaultHelperClasses.getDefaulfImageHelper();
 
-            byte[] imageThumbnail = imagesDbHelper.getImageThumbnail(imageId);
-            Bitmap thumbnail = ImageUtilities.getImageFromImageData(imageThumbnail);
 
             ImageView imageView = new ImageView(context);
             LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(150,150);
             lp.setMargins(10, 10, 10, 10);
             imageView.setLayoutParams(lp);
             imageView.setPadding(5, 5, 5, 5);
-            imageView.setImageBitmap(thumbnail);
+            ThumbnailCache.getInstance().loadImageInto(imagesDbHelper, imageId, imageView);
             imageView.setBackground(Compat.getDrawable(context, R.drawable.border_black_1px));
             imageView.setOnClickListener(new OnClickListener() {
                 public void onClick(View v) {
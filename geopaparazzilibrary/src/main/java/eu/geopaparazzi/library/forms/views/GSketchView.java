@@ -29,7 +29,6 @@ import java.util.List;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.support.v4.app.FragmentActivity;
@@ -49,6 +48,7 @@ import eu.geopaparazzi.library.database.IImagesDbHelper;
 import eu.geopaparazzi.library.database.Image;
 import eu.geopaparazzi.library.forms.FormDetailFragment;
 import eu.geopaparazzi.library.images.ImageUtilities;
+import eu.geopaparazzi.library.images.ThumbnailCache;
 import eu.geopaparazzi.library.plugin.style.StyleHelper;
 import eu.geopaparazzi.library.sketch.SketchUtilities;
 import eu.geopaparazzi.library.util.AppsUtilities;
@@ -198,15 +198,13 @@ public class GSketchView extends View implements GView {
                     continue;
                 }
 
-                byte[] imageThumbnail = imagesDbHelper.getImageThumbnail(imageIdLong);
-                Bitmap thumbnail = ImageUtilities.getImageFromImageData(imageThumbnail);
 
                 ImageView imageView = new ImageView(context);
                 LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(150,150);
                 lp.setMargins(10, 10, 10, 10);
                 imageView.setLayoutParams(lp);
                 imageView.setPadding(5, 5, 5, 5);
-                imageView.setImageBitmap(thumbnail);
+                ThumbnailCache.getInstance().loadImageInto(imagesDbHelper, imageIdLong, imageView);
                 imageView.setBackground(Compat.getDrawable(context, R.drawable.border_black_1px));
                 imageView.setOnClickListener(new OnClickListener() {
                     public void onClick(View v) {
@@ -0,0 +1,544 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.images;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import eu.geopaparazzi.library.GPApplication;
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.IImagesDbHelper;
+
+/**
+ * A two tier cache of thumbnails, shared by all the views that show them.
+ * <p/>
+ * Decoded thumbnails are kept in memory in a least recently used cache bounded
+ * by bytes. The compressed thumbnail data are also kept in the application cache
+ * folder, bounded in size too, so that they don't have to be read again from their
+ * source, which might be a database or a full size image.
+ * <p/>
+ * Thumbnails are read and decoded in background, subsampled to at most
+ * {@link #MAX_THUMBNAIL_SIZE} pixels, so that large thumbnails don't exhaust the memory
+ * budget. Concurrent requests of the same thumbnail are served by a single load.
+ * Listeners are always notified on the main thread. The loads of views that have been
+ * recycled or cancelled are dropped if they have not started yet.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ThumbnailCache {
+
+    private static final String DISK_FOLDER_NAME = "thumbnails";
+    private static final long MAX_DISK_BYTES = 20 * 1024 * 1024;
+    /**
+     * The prefix of the files holding the stamps of the databases the image thumbnails were made from.
+     */
+    private static final String STAMP_PREFIX = "stamp_";
+    private static final int LOADER_THREADS = 2;
+    /**
+     * The maximum width and height of the decoded thumbnails.
+     */
+    public static final int MAX_THUMBNAIL_SIZE = 256;
+
+    /**
+     * Source of the compressed data of a thumbnail, used when the thumbnail is not cached.
+     */
+    public interface IThumbnailSource {
+        /**
+         * Called in background.
+         *
+         * @return the compressed (png or jpeg) thumbnail data or <code>null</code> if there is none.
+         * @throws Exception if something goes wrong.
+         */
+        byte[] getThumbnailData() throws Exception;
+    }
+
+    /**
+     * Listener for loaded thumbnails.
+     */
+    public interface IThumbnailListener {
+        /**
+         * Called on the main thread.
+         *
+         * @param key       the thumbnail key.
+         * @param thumbnail the thumbnail or <code>null</code> if it could not be loaded.
+         */
+        void onThumbnailLoaded(String key, Bitmap thumbnail);
+    }
+
+    private static ThumbnailCache instance;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final File diskFolder;
+    private long diskBytes = -1;
+    private final ExecutorService loaders = Executors.newFixedThreadPool(LOADER_THREADS);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, LoadRequest> pendingRequests = new HashMap<>();
+    /**
+     * The key last requested for every image view, to not set thumbnails on recycled views.
+     */
+    private final Map<ImageView, String> imageViewKeys = new WeakHashMap<>();
+    /**
+     * The listener of the pending load of every image view, to cancel it.
+     */
+    private final Map<ImageView, IThumbnailListener> imageViewListeners = new WeakHashMap<>();
+
+    private ThumbnailCache(File diskFolder) {
+        this.diskFolder = diskFolder;
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE);
+        memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * @return the singleton instance.
+     */
+    public static synchronized ThumbnailCache getInstance() {
+        if (instance == null) {
+            File diskFolder = new File(GPApplication.getInstance().getCacheDir(), DISK_FOLDER_NAME);
+            if (!diskFolder.exists() && !diskFolder.mkdirs()) {
+                GPLog.addLogEntry("THUMBNAILCACHE", "Unable to create the thumbnails folder: " + diskFolder);
+            }
+            instance = new ThumbnailCache(diskFolder);
+        }
+        return instance;
+    }
+
+    /**
+     * Create the key of the thumbnail of an image of a database.
+     *
+     * @param databasePath the path of the database.
+     * @param imageId      the id of the image.
+     * @return the key.
+     */
+    public static String getImageKey(String databasePath, long imageId) {
+        return getImagesKeyPrefix(databasePath) + imageId;
+    }
+
+    private static String getImagesKeyPrefix(String databasePath) {
+        return "image_" + Integer.toHexString(String.valueOf(databasePath).hashCode()) + "_";
+    }
+
+    private static String getStampFileName(String databasePath) {
+        return STAMP_PREFIX + Integer.toHexString(String.valueOf(databasePath).hashCode());
+    }
+
+    /**
+     * Create the key of the thumbnail of a resource of a table.
+     * <p/>
+     * The key contains the size and modification time of the database file, so that the
+     * thumbnails of a changed or replaced database are not used.
+     *
+     * @param databasePath the path of the database.
+     * @param tableName    the table the resource belongs to.
+     * @param resourceId   the id of the resource.
+     * @return the key.
+     */
+    public static String getResourceKey(String databasePath, String tableName, long resourceId) {
+        File databaseFile = new File(databasePath);
+        String databaseId = databasePath + "#" + databaseFile.length() + "#" + databaseFile.lastModified() + "#" + tableName;
+        return "resource_" + Integer.toHexString(databaseId.hashCode()) + "_" + resourceId;
+    }
+
+    /**
+     * Check that the cached thumbnails of the images of a database were made from that database.
+     * <p/>
+     * A database replaced by another one at the same path, as a restored or copied project, has
+     * other images with the same ids. If the stamp of the database differs from the one the
+     * thumbnails were cached with, they are removed.
+     *
+     * @param databasePath  the path of the database.
+     * @param databaseStamp a value identifying the database, which doesn't change when the database is written.
+     */
+    public void checkImagesDatabase(String databasePath, String databaseStamp) {
+        File stampFile = new File(diskFolder, getStampFileName(databasePath));
+        try {
+            byte[] stampData = readFromDisk(stampFile.getName());
+            if (stampData != null && new String(stampData, "UTF-8").equals(databaseStamp)) {
+                return;
+            }
+            invalidateImages(databasePath);
+            writeToDisk(stampFile.getName(), databaseStamp.getBytes("UTF-8"));
+        } catch (IOException e) {
+            GPLog.error("THUMBNAILCACHE", "Unable to check the thumbnails of: " + databasePath, e);
+            invalidateImages(databasePath);
+        }
+    }
+
+    /**
+     * Get a thumbnail only if it is in memory.
+     *
+     * @param key the thumbnail key.
+     * @return the thumbnail or <code>null</code>.
+     */
+    public Bitmap get(String key) {
+        return memoryCache.get(key);
+    }
+
+    /**
+     * Load a thumbnail.
+     * <p/>
+     * If the thumbnail is in memory, the listener is notified right away.
+     * Must be called from the main thread.
+     *
+     * @param key      the thumbnail key.
+     * @param source   the source of the thumbnail data if it is not cached.
+     * @param listener the listener to notify.
+     */
+    public void load(String key, IThumbnailSource source, IThumbnailListener listener) {
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null) {
+            listener.onThumbnailLoaded(key, bitmap);
+            return;
+        }
+        synchronized (pendingRequests) {
+            LoadRequest request = pendingRequests.get(key);
+            if (request == null) {
+                request = new LoadRequest(key, source);
+                pendingRequests.put(key, request);
+                request.listeners.add(listener);
+                loaders.execute(request);
+            } else {
+                request.listeners.add(listener);
+            }
+        }
+    }
+
+    /**
+     * Load a thumbnail into an image view, which can be recycled meanwhile.
+     * <p/>
+     * Must be called from the main thread.
+     *
+     * @param key       the thumbnail key.
+     * @param source    the source of the thumbnail data if it is not cached.
+     * @param imageView the view to set the thumbnail in.
+     */
+    public void loadInto(String key, IThumbnailSource source, final ImageView imageView) {
+        cancel(imageView);
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null) {
+            imageView.setImageBitmap(bitmap);
+            return;
+        }
+        imageViewKeys.put(imageView, key);
+        imageView.setImageBitmap(null);
+        IThumbnailListener listener = new IThumbnailListener() {
+            @Override
+            public void onThumbnailLoaded(String key, Bitmap thumbnail) {
+                if (key.equals(imageViewKeys.get(imageView))) {
+                    imageViewKeys.remove(imageView);
+                    imageViewListeners.remove(imageView);
+                    imageView.setImageBitmap(thumbnail);
+                }
+            }
+        };
+        imageViewListeners.put(imageView, listener);
+        load(key, source, listener);
+    }
+
+    /**
+     * Cancel the pending load of an image view, as for example when the view is recycled
+     * or its activity is destroyed.
+     * <p/>
+     * The load is dropped if no other listener waits for it and it has not started yet.
+     * Must be called from the main thread.
+     *
+     * @param imageView the view.
+     */
+    public void cancel(ImageView imageView) {
+        String key = imageViewKeys.remove(imageView);
+        IThumbnailListener listener = imageViewListeners.remove(imageView);
+        if (key == null || listener == null) {
+            return;
+        }
+        synchronized (pendingRequests) {
+            LoadRequest request = pendingRequests.get(key);
+            if (request != null) {
+                request.listeners.remove(listener);
+                if (request.listeners.isEmpty() && !request.started) {
+                    pendingRequests.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Load the thumbnail of an image of the current project into an image view.
+     *
+     * @param imagesDbHelper the helper to read the thumbnail with if it is not cached.
+     * @param imageId        the id of the image.
+     * @param imageView      the view to set the thumbnail in.
+     * @throws IOException if the project database is not available.
+     */
+    public void loadImageInto(final IImagesDbHelper imagesDbHelper, final long imageId, ImageView imageView) throws IOException {
+        String key = getImageKey(GPApplication.getInstance().getDatabase().getPath(), imageId);
+        loadInto(key, new IThumbnailSource() {
+            @Override
+            public byte[] getThumbnailData() throws Exception {
+                return imagesDbHelper.getImageThumbnail(imageId);
+            }
+        }, imageView);
+    }
+
+    /**
+     * Remove a thumbnail from the cache, for example because its image has been deleted.
+     *
+     * @param key the thumbnail key.
+     */
+    public void invalidate(String key) {
+        synchronized (pendingRequests) {
+            // a load in progress will not cache its result
+            pendingRequests.remove(key);
+        }
+        memoryCache.remove(key);
+        deleteDiskFile(new File(diskFolder, key));
+    }
+
+    /**
+     * Remove all the thumbnails of the images of a database, for example because a new
+     * database has been created in place of an old one, with the same image ids.
+     *
+     * @param databasePath the path of the database.
+     */
+    public void invalidateImages(String databasePath) {
+        String prefix = getImagesKeyPrefix(databasePath);
+        synchronized (pendingRequests) {
+            pendingRequests.keySet().removeAll(filterKeys(pendingRequests.keySet(), prefix));
+        }
+        for (String key : filterKeys(memoryCache.snapshot().keySet(), prefix)) {
+            memoryCache.remove(key);
+        }
+        File[] files = diskFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(prefix)) {
+                    deleteDiskFile(file);
+                }
+            }
+        }
+    }
+
+    private static List<String> filterKeys(Collection<String> keys, String prefix) {
+        List<String> filtered = new ArrayList<>();
+        for (String key : keys) {
+            if (key.startsWith(prefix)) {
+                filtered.add(key);
+            }
+        }
+        return filtered;
+    }
+
+    private void deleteDiskFile(File file) {
+        synchronized (diskFolder) {
+            long length = file.length();
+            if (file.delete() && diskBytes >= 0) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private byte[] readFromDisk(String key) throws IOException {
+        File file = new File(diskFolder, key);
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] data = new byte[(int) file.length()];
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = inputStream.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    return null;
+                }
+                offset += read;
+            }
+        } finally {
+            inputStream.close();
+        }
+        // the disk tier is trimmed by last modification, keep used thumbnails
+        file.setLastModified(System.currentTimeMillis());
+        return data;
+    }
+
+    private void writeToDisk(String key, byte[] data) throws IOException {
+        File file = new File(diskFolder, key);
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+        synchronized (diskFolder) {
+            if (diskBytes < 0) {
+                diskBytes = 0;
+                File[] files = diskFolder.listFiles();
+                if (files != null) {
+                    for (File f : files) {
+                        diskBytes += f.length();
+                    }
+                }
+            } else {
+                diskBytes += data.length;
+            }
+            if (diskBytes > MAX_DISK_BYTES) {
+                trimDisk();
+            }
+        }
+    }
+
+    /**
+     * Remove the least recently used files until the disk tier is back to 3/4 of its size.
+     */
+    private void trimDisk() {
+        File[] files = diskFolder.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        long target = MAX_DISK_BYTES * 3 / 4;
+        for (File file : files) {
+            if (diskBytes <= target) {
+                break;
+            }
+            if (file.getName().startsWith(STAMP_PREFIX)) {
+                // without the stamp the thumbnails would be dropped at the next check
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private class LoadRequest implements Runnable {
+        private final String key;
+        private final IThumbnailSource source;
+        private final List<IThumbnailListener> listeners = new ArrayList<>();
+        private boolean started = false;
+
+        LoadRequest(String key, IThumbnailSource source) {
+            this.key = key;
+            this.source = source;
+        }
+
+        @Override
+        public void run() {
+            synchronized (pendingRequests) {
+                if (pendingRequests.get(key) != this) {
+                    // cancelled or invalidated before it started
+                    return;
+                }
+                started = true;
+            }
+            Bitmap bitmap = null;
+            try {
+                byte[] data = readFromDisk(key);
+                if (data == null) {
+                    data = source.getThumbnailData();
+                    if (data != null && isCurrent()) {
+                        writeToDisk(key, data);
+                        if (!isCurrent()) {
+                            // invalidated while writing
+                            deleteDiskFile(new File(diskFolder, key));
+                        }
+                    }
+                }
+                if (data != null) {
+                    bitmap = decodeSampled(data);
+                }
+            } catch (Exception e) {
+                GPLog.error("THUMBNAILCACHE", "Unable to load thumbnail: " + key, e);
+            }
+
+            final Bitmap thumbnail = bitmap;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(thumbnail);
+                }
+            });
+        }
+
+        private Bitmap decodeSampled(byte[] data) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            options.inSampleSize = ImageUtilities.calculateInSampleSize(options, MAX_THUMBNAIL_SIZE, MAX_THUMBNAIL_SIZE);
+            options.inJustDecodeBounds = false;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+
+        private boolean isCurrent() {
+            synchronized (pendingRequests) {
+                return pendingRequests.get(key) == this;
+            }
+        }
+
+        private void deliver(Bitmap thumbnail) {
+            List<IThumbnailListener> toNotify;
+            synchronized (pendingRequests) {
+                if (pendingRequests.get(key) != this) {
+                    // invalidated, the thumbnail is not valid anymore
+                    return;
+                }
+                pendingRequests.remove(key);
+                toNotify = new ArrayList<>(listeners);
+            }
+            if (thumbnail != null) {
+                memoryCache.put(key, thumbnail);
+            }
+            for (IThumbnailListener listener : toNotify) {
+                listener.onThumbnailLoaded(key, thumbnail);
+            }
+        }
+    }
+}
@@ -17,15 +17,13 @@
  */
 package eu.geopaparazzi.library.kml;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.TreeSet;
-import java.util.zip.CRC32;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import android.content.Context;
 
@@ -33,6 +31,7 @@ import eu.geopaparazzi.library.database.DefaultHelperClasses;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.IImagesDbHelper;
 import eu.geopaparazzi.library.database.Image;
+import eu.geopaparazzi.library.util.ParallelZipWriter;
 
 /**
  * A kmz exporter for notes, logs and pics.
@@ -99,53 +98,45 @@ public class KmzExport {
         byte[] kmlBytes = stringBuilder.toString().getBytes(Charset.forName("UTF-8"));
 
         /*
-         * start adding the kml part
+         * start adding the kml part, text that deflates well
          */
-        FileOutputStream fos = new FileOutputStream(outputFile);
-        ZipOutputStream zos = new ZipOutputStream(fos);
-        CRC32 crc = new CRC32();
-        String kmlName = "kml.kml";
-        crc.update(kmlBytes);
-        ZipEntry entry = new ZipEntry(kmlName);
-        entry.setMethod(ZipEntry.STORED);
-        entry.setCompressedSize(kmlBytes.length);
-        entry.setSize(kmlBytes.length);
-        entry.setCrc(crc.getValue());
-        zos.putNextEntry(entry);
-        zos.write(kmlBytes);
+        ParallelZipWriter zipWriter = new ParallelZipWriter(outputFile);
+        try {
+            zipWriter.addEntry("kml.kml", new ByteArrayInputStream(kmlBytes), kmlBytes.length, true);
 
-        /*
-         * now add all images
-         */
-        IImagesDbHelper imagesDbHelper = DefaultHelperClasses.getDefaulfImageHelper();
-        TreeSet<String> addedImages = new TreeSet<String>();
-        for (KmlRepresenter kmlRepresenter : kmlRepresenters) {
-            if (kmlRepresenter.hasImages()) {
-                List<String> imageIds = kmlRepresenter.getImageIds();
-                for (String imageId : imageIds) {
-                    long id = Long.parseLong(imageId);
-                    Image image = imagesDbHelper.getImage(id);
-                    String imageName = image.getName();
+            /*
+             * now add all images, streamed from the database. Jpeg and png images
+             * are already compressed, so they are stored.
+             */
+            IImagesDbHelper imagesDbHelper = DefaultHelperClasses.getDefaulfImageHelper();
+            TreeSet<String> addedImages = new TreeSet<String>();
+            for (KmlRepresenter kmlRepresenter : kmlRepresenters) {
+                if (kmlRepresenter.hasImages()) {
+                    List<String> imageIds = kmlRepresenter.getImageIds();
+                    for (String imageId : imageIds) {
+                        long id = Long.parseLong(imageId);
+                        Image image = imagesDbHelper.getImage(id);
+                        String imageName = image.getName();
 
-                    if (!addedImages.add(imageName)){
-                        // don't add double images
-                        continue;
+                        if (!addedImages.add(imageName)) {
+                            // don't add double images
+                            continue;
+                        }
+                        InputStream imageStream = imagesDbHelper.getImageDataStream(id);
+                        if (imageStream == null) {
+                            continue;
+                        }
+                        try {
+                            zipWriter.addEntry(imageName, imageStream, -1, !ParallelZipWriter.isCompressedContent(imageName));
+                        } finally {
+                            imageStream.close();
+                        }
                     }
-                    byte[] imageData = imagesDbHelper.getImageData(id);
-
-                    crc.reset();
-                    crc.update(imageData);
-                    ZipEntry imageEntry = new ZipEntry(imageName);
-                    imageEntry.setMethod(ZipEntry.STORED);
-                    imageEntry.setCompressedSize(imageData.length);
-                    imageEntry.setSize(imageData.length);
-                    imageEntry.setCrc(crc.getValue());
-                    zos.putNextEntry(imageEntry);
-                    zos.write(imageData);
                 }
             }
+        } finally {
+            zipWriter.close();
         }
-        zos.close();
     }
 
     private void addMarker(StringBuilder sb, String alias, String url, int x, int y) throws IOException {
@@ -0,0 +1,371 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.network;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import eu.geopaparazzi.library.R;
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * Uploader of big files in chunks, able to resume and to send only what changed.
+ * <p/>
+ * The protocol, relative to the upload url, is:
+ * <ol>
+ * <li><b>url_init?name=</b>: POST of a json manifest with the file size, the chunk size
+ * and the SHA-1 of every chunk. The server answers with an upload id and the indexes of the
+ * chunks it is missing, comparing the hashes with those of the last upload of the same
+ * file, be it completed or interrupted.</li>
+ * <li><b>url_chunk?uploadid=&index=&sha1=&size=</b>: POST of every missing chunk, deflated if
+ * that makes it smaller (in which case the <code>Content-Encoding</code> is <code>deflate</code>).
+ * Failed chunks are retried.</li>
+ * <li><b>url_commit?uploadid=</b>: POST that makes the server assemble the file.</li>
+ * </ol>
+ * Since SQLite writes whole pages and the chunk size is a multiple of the page size, only
+ * the chunks holding pages changed since the last upload are sent again.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ChunkedFileUploader {
+    private static final String TAG = "CHUNKEDFILEUPLOADER";
+
+    /**
+     * Default chunk size, a multiple of every SQLite page size.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    public static final String INIT_SUFFIX = "_init";
+    public static final String CHUNK_SUFFIX = "_chunk";
+    public static final String COMMIT_SUFFIX = "_commit";
+
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long RETRY_DELAY_MILLIS = 2000;
+
+    /**
+     * Listener for the upload progress.
+     */
+    public interface IProgressListener {
+        /**
+         * @param sentChunks  the chunks sent so far.
+         * @param totalChunks the chunks to send in this upload.
+         */
+        void onProgress(int sentChunks, int totalChunks);
+    }
+
+    private final String uploadUrl;
+    private final String user;
+    private final String password;
+    private final int chunkSize;
+    private IProgressListener progressListener;
+
+    /**
+     * Constructor.
+     *
+     * @param uploadUrl the base upload url, to which the protocol suffixes are appended.
+     * @param user      the user or <code>null</code>.
+     * @param password  the password or <code>null</code>.
+     * @param chunkSize the chunk size.
+     */
+    public ChunkedFileUploader(String uploadUrl, String user, String password, int chunkSize) {
+        this.uploadUrl = uploadUrl;
+        this.user = user;
+        this.password = password;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param progressListener an optional progress listener.
+     */
+    public void setProgressListener(IProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Upload a file.
+     *
+     * @param context the context to use.
+     * @param file    the file to upload.
+     * @return the return message or <code>null</code> if the server doesn't support chunked uploads, that is
+     * if it answers the upload init with a client error or with something that is not the expected json.
+     * @throws Exception if something goes wrong.
+     */
+    public String upload(Context context, File file) throws Exception {
+        long fileSize = file.length();
+        List<String> hashes = hashChunks(file);
+
+        JSONObject manifest = new JSONObject();
+        manifest.put("name", file.getName());
+        manifest.put("size", fileSize);
+        manifest.put("chunksize", chunkSize);
+        manifest.put("hashes", new JSONArray(hashes));
+
+        String initUrl = uploadUrl + INIT_SUFFIX + "?name=" + URLEncoder.encode(file.getName(), "UTF-8");
+        HttpURLConnection conn = openPost(initUrl, "application/json");
+        JSONObject initResponse;
+        try {
+            byte[] manifestBytes = manifest.toString().getBytes("UTF-8");
+            conn.setFixedLengthStreamingMode(manifestBytes.length);
+            OutputStream out = conn.getOutputStream();
+            out.write(manifestBytes);
+            out.close();
+
+            int responseCode = conn.getResponseCode();
+            if (responseCode >= 400 && responseCode < 500) {
+                // servers without chunked uploads may answer any client error to the unknown url
+                return null;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                return NetworkUtilities.getMessageForCode(context, responseCode, null);
+            }
+            initResponse = new JSONObject(readResponse(conn));
+        } catch (JSONException e) {
+            // a server answering something else, as an html page, doesn't support chunked uploads
+            GPLog.error(TAG, "Unexpected response to the chunked upload init.", e);
+            return null;
+        } finally {
+            conn.disconnect();
+        }
+
+        String uploadId = initResponse.optString("uploadid", null);
+        JSONArray missingArray = initResponse.optJSONArray("missing");
+        if (uploadId == null || missingArray == null) {
+            return null;
+        }
+        int[] missing = getMissingIndexes(missingArray, hashes.size());
+        if (GPLog.LOG)
+            GPLog.addLogEntry(TAG, "Upload " + uploadId + ": sending " + missing.length + " of " + hashes.size() + " chunks.");
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] buffer = new byte[chunkSize];
+            for (int i = 0; i < missing.length; i++) {
+                int index = missing[i];
+                long offset = (long) index * chunkSize;
+                int length = (int) Math.min(chunkSize, fileSize - offset);
+                raf.seek(offset);
+                raf.readFully(buffer, 0, length);
+                String sha1 = toHex(sha1(buffer, length));
+                if (!sha1.equals(hashes.get(index))) {
+                    throw new IOException("The file changed while uploading it, please upload again.");
+                }
+                sendChunk(uploadId, index, sha1, buffer, length);
+                if (progressListener != null) {
+                    progressListener.onProgress(i + 1, missing.length);
+                }
+            }
+        } finally {
+            raf.close();
+        }
+
+        String commitUrl = uploadUrl + COMMIT_SUFFIX + "?uploadid=" + URLEncoder.encode(uploadId, "UTF-8");
+        conn = openPost(commitUrl, "application/json");
+        try {
+            conn.setFixedLengthStreamingMode(0);
+            int responseCode = conn.getResponseCode();
+            return NetworkUtilities.getMessageForCode(context, responseCode,
+                    context.getResources().getString(R.string.file_upload_completed_properly));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Check the chunk indexes asked for by the server, before anything is sent.
+     *
+     * @param missingArray the indexes as answered by the server.
+     * @param chunksCount  the number of chunks of the file.
+     * @return the indexes.
+     * @throws IOException if an index is not a number or is not the one of a chunk of the file.
+     */
+    private static int[] getMissingIndexes(JSONArray missingArray, int chunksCount) throws IOException {
+        int[] missing = new int[missingArray.length()];
+        for (int i = 0; i < missing.length; i++) {
+            Object value = missingArray.opt(i);
+            if (!(value instanceof Integer)) {
+                throw new IOException("The server asked for an invalid chunk: " + value);
+            }
+            int index = (Integer) value;
+            if (index < 0 || index >= chunksCount) {
+                throw new IOException("The server asked for chunk " + index + ", but the file has " + chunksCount + " chunks.");
+            }
+            missing[i] = index;
+        }
+        return missing;
+    }
+
+    private void sendChunk(String uploadId, int index, String sha1, byte[] buffer, int length) throws Exception {
+        byte[] body = buffer;
+        int bodyLength = length;
+        boolean deflated = false;
+        byte[] compressed = deflate(buffer, length);
+        if (compressed.length < length) {
+            body = compressed;
+            bodyLength = compressed.length;
+            deflated = true;
+        }
+
+        String chunkUrl = uploadUrl + CHUNK_SUFFIX + "?uploadid=" + URLEncoder.encode(uploadId, "UTF-8") +
+                "&index=" + index + "&sha1=" + sha1 + "&size=" + length;
+        for (int attempt = 1; ; attempt++) {
+            int responseCode;
+            HttpURLConnection conn = openPost(chunkUrl, "application/octet-stream");
+            try {
+                if (deflated) {
+                    conn.setRequestProperty("Content-Encoding", "deflate");
+                }
+                conn.setFixedLengthStreamingMode(bodyLength);
+                OutputStream out = conn.getOutputStream();
+                out.write(body, 0, bodyLength);
+                out.close();
+                responseCode = conn.getResponseCode();
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                GPLog.error(TAG, "Retrying chunk " + index + " after error.", e);
+                responseCode = -1;
+            } finally {
+                conn.disconnect();
+            }
+
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                return;
+            }
+            if (responseCode > 0 && responseCode < 500) {
+                // not a temporary problem, retrying doesn't help
+                throw new IOException("Chunk " + index + " refused by the server with code " + responseCode);
+            }
+            if (attempt >= MAX_ATTEMPTS) {
+                throw new IOException("Chunk " + index + " failed with code " + responseCode);
+            }
+            Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+        }
+    }
+
+    private HttpURLConnection openPost(String urlStr, String contentType) throws Exception {
+        HttpURLConnection conn = NetworkUtilities.makeNewConnection(urlStr);
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setDoInput(true);
+        conn.setUseCaches(false);
+        conn.setRequestProperty("Content-Type", contentType);
+        if (user != null && password != null && user.trim().length() > 0 && password.trim().length() > 0) {
+            conn.setRequestProperty("Authorization", NetworkUtilities.getB64Auth(user, password));
+        }
+        return conn;
+    }
+
+    private List<String> hashChunks(File file) throws Exception {
+        List<String> hashes = new ArrayList<>();
+        byte[] buffer = new byte[chunkSize];
+        InputStream in = new FileInputStream(file);
+        try {
+            while (true) {
+                int length = 0;
+                while (length < chunkSize) {
+                    int read = in.read(buffer, length, chunkSize - length);
+                    if (read < 0) {
+                        break;
+                    }
+                    length += read;
+                }
+                if (length == 0) {
+                    break;
+                }
+                hashes.add(toHex(sha1(buffer, length)));
+                if (length < chunkSize) {
+                    break;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return hashes;
+    }
+
+    private static byte[] sha1(byte[] buffer, int length) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        digest.update(buffer, 0, length);
+        return digest.digest();
+    }
+
+    private static byte[] deflate(byte[] buffer, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(buffer, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream bout = new ByteArrayOutputStream(length / 2);
+            byte[] tmp = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(tmp);
+                bout.write(tmp, 0, count);
+                if (bout.size() >= length) {
+                    // not compressible, it will be sent as is
+                    break;
+                }
+            }
+            return bout.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static String readResponse(HttpURLConnection conn) throws IOException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), "utf-8"));
+        try {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = br.readLine()) != null) {
+                sb.append(line).append("\n");
+            }
+            return sb.toString();
+        } finally {
+            br.close();
+        }
+    }
+}
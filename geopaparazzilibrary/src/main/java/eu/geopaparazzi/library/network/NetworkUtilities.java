@@ -503,6 +503,8 @@ public class NetworkUtilities {
             // conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
             conn.setRequestProperty("Content-Type", "application/octet-stream");
             conn.setRequestProperty("Content-Length", "" + fileSize);
+            // stream the file instead of buffering it all in memory
+            conn.setFixedLengthStreamingMode(fileSize);
             // conn.setRequestProperty("Connection", "Keep-Alive");
 
             if (user != null && password != null && user.trim().length() > 0 && password.trim().length() > 0) {
@@ -25,9 +25,6 @@ import java.io.IOException;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.os.Handler;
-import android.os.Message;
 import android.util.AttributeSet;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -40,17 +37,24 @@ import eu.geopaparazzi.library.sketch.commands.DrawingPath;
  * 
  * <p>Adapted for geopaparazzi.</p>
  * 
+ * <p>The committed strokes are rasterized once into a {@link StrokesLayer}, so a
+ * frame only blits that and draws the preview path of the stroke in progress.
+ * Frames are drawn only when something changed, see {@link #requestRender()}.</p>
+ * 
  * @author almondmendoza (http://www.tutorialforandroid.com/)
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public class DrawingSurface extends SurfaceView implements SurfaceHolder.Callback {
-    private Boolean _run = false;
+    private volatile boolean _run = false;
     protected DrawThread thread;
-    private Bitmap mBitmap;
+    private StrokesLayer strokesLayer;
+    private final Object layerLock = new Object();
+    private final Object renderLock = new Object();
     /**
-     * 
+     * If <code>true</code>, the surface needs to be redrawn, set it through {@link #requestRender()}
+     * so that the drawing thread wakes up.
      */
-    public static boolean isDrawing = true;
+    public static volatile boolean isDrawing = true;
     /**
      * 
      */
@@ -74,14 +78,8 @@ public class DrawingSurface extends SurfaceView implements SurfaceHolder.Callbac
         thread = new DrawThread(getHolder());
     }
 
-    private static Handler previewDoneHandler = new Handler(){
-        @Override
-        public void handleMessage( Message msg ) {
-            isDrawing = false;
-        }
-    };
     private File imageFile;
-    private boolean dumpToImage;
+    private volatile boolean dumpToImage;
 
     class DrawThread extends Thread {
         private SurfaceHolder mSurfaceHolder;
@@ -94,71 +92,91 @@ public class DrawingSurface extends SurfaceView implements SurfaceHolder.Callbac
         public void setRunning( boolean run ) {
             isDisposed = false;
             _run = run;
+            requestRender();
         }
 
         @Override
         public void run() {
-            Canvas canvas = null;
             while( _run ) {
-                if (isDrawing == true) {
-                    try {
-                        canvas = mSurfaceHolder.lockCanvas(null);
-                        if (mBitmap == null) {
-                            // Logger.i(this, "Canvas not ready yet...");
-                            continue;
-                        }
-                        if (isDisposed) {
-                            break;
+                synchronized (renderLock) {
+                    while( !isDrawing && _run && !isDisposed ) {
+                        try {
+                            renderLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
                         }
-                        final Canvas c = new Canvas(mBitmap);
+                    }
+                    isDrawing = false;
+                }
+                if (!_run || isDisposed) {
+                    break;
+                }
+                render();
+            }
+        }
 
-                        c.drawColor(Color.WHITE);
-                        // c.drawColor(0, PorterDuff.Mode.CLEAR);
-                        if (canvas == null || mBitmap.isRecycled()) {
-                            break;
-                        }
-                        canvas.drawColor(Color.WHITE);
-                        // canvas.drawColor(0, PorterDuff.Mode.CLEAR);
-
-                        commandManager.executeAll(c, previewDoneHandler);
-
-                        // if (Debug.D) {
-                        // if (!previewPath.path.isEmpty()) {
-                        // Logger.i(this,
-                        // "Style: " + previewPath.paint.getStrokeWidth() + "/" + previewPath.paint.getColor()); //$NON-NLS-1$//$NON-NLS-2$
-                        // }
-                        // }
-                        previewPath.draw(c);
-
-                        canvas.drawBitmap(mBitmap, 0, 0, null);
-
-                        if (dumpToImage) {
-                            FileOutputStream out = null;
-                            try {
-                                out = new FileOutputStream(imageFile);
-                                mBitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
-                                out.flush();
-                            } catch (Exception e) {
-                                GPLog.error(this, null, e);
-                                if (out != null)
-                                    try {
-                                        out.close();
-                                    } catch (IOException e1) {
-                                        e1.printStackTrace();
-                                    }
-                            }
-                            dumpToImage = false;
+        private void render() {
+            Canvas canvas = null;
+            try {
+                synchronized (layerLock) {
+                    if (strokesLayer == null) {
+                        // Logger.i(this, "Canvas not ready yet...");
+                        return;
+                    }
+                    strokesLayer.update(commandManager);
+
+                    canvas = mSurfaceHolder.lockCanvas(null);
+                    if (canvas == null) {
+                        return;
+                    }
+                    Bitmap strokesBitmap = strokesLayer.getBitmap();
+                    canvas.drawBitmap(strokesBitmap, 0, 0, null);
+                    boolean hasPreview = previewPath != null && previewPath.path != null && !previewPath.path.isEmpty();
+                    if (hasPreview) {
+                        previewPath.draw(canvas);
+                    }
+
+                    if (dumpToImage) {
+                        dumpToImage = false;
+                        Bitmap image = strokesBitmap;
+                        if (hasPreview) {
+                            image = strokesBitmap.copy(Bitmap.Config.ARGB_8888, true);
+                            previewPath.draw(new Canvas(image));
                         }
-                    } finally {
-                        if (canvas != null) {
-                            mSurfaceHolder.unlockCanvasAndPost(canvas);
+                        FileOutputStream out = null;
+                        try {
+                            out = new FileOutputStream(imageFile);
+                            image.compress(Bitmap.CompressFormat.PNG, 100, out);
+                            out.flush();
+                        } catch (Exception e) {
+                            GPLog.error(this, null, e);
+                        } finally {
+                            if (out != null)
+                                try {
+                                    out.close();
+                                } catch (IOException e1) {
+                                    e1.printStackTrace();
+                                }
+                            if (image != strokesBitmap)
+                                image.recycle();
                         }
                     }
-
                 }
-
+            } finally {
+                if (canvas != null) {
+                    mSurfaceHolder.unlockCanvasAndPost(canvas);
+                }
             }
+        }
+    }
 
+    /**
+     * Ask for the surface to be redrawn.
+     */
+    public void requestRender() {
+        synchronized (renderLock) {
+            isDrawing = true;
+            renderLock.notifyAll();
         }
     }
 
@@ -167,6 +185,7 @@ public class DrawingSurface extends SurfaceView implements SurfaceHolder.Callbac
      */
     public void addDrawingPath( DrawingPath drawingPath ) {
         commandManager.addCommand(drawingPath);
+        requestRender();
     }
 
     /**
@@ -180,17 +199,16 @@ public class DrawingSurface extends SurfaceView implements SurfaceHolder.Callbac
      * 
      */
     public void redo() {
-        isDrawing = true;
         commandManager.redo();
-
+        requestRender();
     }
 
     /**
      * 
      */
     public void undo() {
-        isDrawing = true;
         commandManager.undo();
+        requestRender();
     }
 
     /**
@@ -201,7 +219,14 @@ public class DrawingSurface extends SurfaceView implements SurfaceHolder.Callbac
     }
 
     public void surfaceChanged( SurfaceHolder holder, int format, int width, int height ) {
-        mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        synchronized (layerLock) {
+            if (strokesLayer != null) {
+                strokesLayer.recycle();
+            }
+            // the new layer rasterizes all the strokes at the next frame
+            strokesLayer = new StrokesLayer(width, height);
+        }
+        requestRender();
         if (GPLog.LOG)
             GPLog.addLogEntry(this, "Recreating bitmap");
     }
@@ -230,11 +255,15 @@ public class DrawingSurface extends SurfaceView implements SurfaceHolder.Callbac
      * 
      */
     public void dispose() {
-        if (mBitmap != null) {
-            isDisposed = true;
-            mBitmap.recycle();
-            mBitmap = null;
+        isDisposed = true;
+        synchronized (layerLock) {
+            if (strokesLayer != null) {
+                strokesLayer.recycle();
+                strokesLayer = null;
+            }
         }
+        // wake the drawing thread, so that it ends
+        requestRender();
     }
 
     /**
@@ -246,6 +275,7 @@ public class DrawingSurface extends SurfaceView implements SurfaceHolder.Callbac
     public void dumpImage( File imageFile ) throws IOException {
         this.imageFile = imageFile;
         dumpToImage = true;
+        requestRender();
     }
 
 }
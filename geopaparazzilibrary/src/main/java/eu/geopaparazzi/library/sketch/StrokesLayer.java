@@ -0,0 +1,147 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.sketch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.sketch.commands.CommandManager;
+
+/**
+ * The bitmap into which the committed strokes are rasterized.
+ * <p/>
+ * New strokes are drawn on top of the bitmap once. Every {@link #SNAPSHOT_INTERVAL} strokes
+ * a snapshot of the bitmap is kept, so that an undo restores the nearest snapshot and
+ * replays only the strokes after it.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+class StrokesLayer {
+
+    /**
+     * The number of strokes between snapshots.
+     */
+    static final int SNAPSHOT_INTERVAL = 20;
+    private static final int MAX_SNAPSHOTS = 3;
+
+    private final Bitmap bitmap;
+    private final Canvas canvas;
+    private int rasterizedCount = 0;
+
+    private final List<Integer> snapshotCounts = new ArrayList<>();
+    private final List<Bitmap> snapshots = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param width  the width of the layer.
+     * @param height the height of the layer.
+     */
+    StrokesLayer(int width, int height) {
+        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+    }
+
+    /**
+     * @return the bitmap with the rasterized strokes.
+     */
+    Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    /**
+     * Bring the layer in line with the strokes of the command manager.
+     *
+     * @param commandManager the command manager.
+     */
+    void update(CommandManager commandManager) {
+        int lowWaterMark = commandManager.getAndResetLowWaterMark();
+        if (lowWaterMark < rasterizedCount) {
+            restore(lowWaterMark);
+        }
+
+        int count = commandManager.currentStackLength();
+        while (rasterizedCount < count) {
+            // draw up to the next snapshot
+            int to = Math.min(count, (rasterizedCount / SNAPSHOT_INTERVAL + 1) * SNAPSHOT_INTERVAL);
+            int drawn = commandManager.execute(canvas, rasterizedCount, to);
+            if (drawn <= rasterizedCount) {
+                // the stack shrank meanwhile, the next update restores
+                break;
+            }
+            rasterizedCount = drawn;
+            if (rasterizedCount % SNAPSHOT_INTERVAL == 0) {
+                takeSnapshot();
+            }
+        }
+    }
+
+    /**
+     * Free the memory of the layer.
+     */
+    void recycle() {
+        for (Bitmap snapshot : snapshots) {
+            snapshot.recycle();
+        }
+        snapshots.clear();
+        snapshotCounts.clear();
+        bitmap.recycle();
+    }
+
+    private void restore(int count) {
+        // snapshots beyond the count contain strokes that are gone
+        for (int i = snapshotCounts.size() - 1; i >= 0; i--) {
+            if (snapshotCounts.get(i) > count) {
+                snapshotCounts.remove(i);
+                snapshots.remove(i).recycle();
+            }
+        }
+        if (snapshots.size() > 0) {
+            int last = snapshots.size() - 1;
+            canvas.drawBitmap(snapshots.get(last), 0, 0, null);
+            rasterizedCount = snapshotCounts.get(last);
+        } else {
+            canvas.drawColor(Color.WHITE);
+            rasterizedCount = 0;
+        }
+    }
+
+    private void takeSnapshot() {
+        if (snapshotCounts.contains(rasterizedCount)) {
+            return;
+        }
+        try {
+            snapshots.add(bitmap.copy(Bitmap.Config.ARGB_8888, false));
+            snapshotCounts.add(rasterizedCount);
+        } catch (OutOfMemoryError e) {
+            // undo will just replay more
+            GPLog.error(this, "Unable to take a sketch snapshot", e);
+        }
+        if (snapshots.size() > MAX_SNAPSHOTS) {
+            // the most recent ones are the most useful for undo
+            snapshotCounts.remove(0);
+            snapshots.remove(0).recycle();
+        }
+    }
+}
@@ -36,6 +36,10 @@ import android.os.Handler;
 public class CommandManager {
     private List<DrawingPath> currentStack;
     private List<DrawingPath> redoStack;
+    /**
+     * The smallest size the current stack had since the last call to {@link #getAndResetLowWaterMark()}.
+     */
+    private int lowWaterMark = 0;
 
     /**
      * 
@@ -49,21 +53,42 @@ public class CommandManager {
      * @param command command
      */
     public void addCommand( DrawingPath command ) {
-        redoStack.clear();
-        currentStack.add(command);
+        synchronized (currentStack) {
+            redoStack.clear();
+            currentStack.add(command);
+        }
     }
 
     /**
      * 
      */
     public void undo() {
-        final int length = currentStackLength();
+        synchronized (currentStack) {
+            final int length = currentStack.size();
 
-        if (length > 0) {
-            final DrawingPath undoCommand = currentStack.get(length - 1);
-            currentStack.remove(length - 1);
-            undoCommand.undo();
-            redoStack.add(undoCommand);
+            if (length > 0) {
+                final DrawingPath undoCommand = currentStack.get(length - 1);
+                currentStack.remove(length - 1);
+                undoCommand.undo();
+                redoStack.add(undoCommand);
+                lowWaterMark = Math.min(lowWaterMark, length - 1);
+            }
+        }
+    }
+
+    /**
+     * Get the smallest size the stack had since the last call and reset it to the current size.
+     * 
+     * <p>Commands below the returned index have not changed since the last call, so
+     * whatever was drawn from them is still valid.</p>
+     * 
+     * @return the smallest stack size since the last call.
+     */
+    public int getAndResetLowWaterMark() {
+        synchronized (currentStack) {
+            int mark = lowWaterMark;
+            lowWaterMark = currentStack.size();
+            return mark;
         }
     }
 
@@ -93,6 +118,24 @@ public class CommandManager {
         }
     }
 
+    /**
+     * Draw a range of the current commands.
+     * 
+     * @param canvas the canvas to draw on.
+     * @param from the index of the first command to draw.
+     * @param to the index after the last command to draw.
+     * @return the index after the last command drawn, which is smaller than <code>to</code> if the stack shrank.
+     */
+    public int execute( Canvas canvas, int from, int to ) {
+        synchronized (currentStack) {
+            to = Math.min(to, currentStack.size());
+            for( int i = from; i < to; i++ ) {
+                currentStack.get(i).draw(canvas);
+            }
+            return to;
+        }
+    }
+
     /**
      * @return has more read.
      */
@@ -111,11 +154,12 @@ public class CommandManager {
      * 
      */
     public void redo() {
-        final int length = redoStack.toArray().length;
-        if (length > 0) {
-            final DrawingPath redoCommand = redoStack.get(length - 1);
-            redoStack.remove(length - 1);
-            currentStack.add(redoCommand);
+        synchronized (currentStack) {
+            final int length = redoStack.size();
+            if (length > 0) {
+                final DrawingPath redoCommand = redoStack.remove(length - 1);
+                currentStack.add(redoCommand);
+            }
         }
     }
 }
@@ -19,6 +19,7 @@ package eu.geopaparazzi.library.style;
 
 import android.graphics.DashPathEffect;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.HashMap;
 
@@ -30,7 +31,8 @@ import eu.geopaparazzi.library.database.GPLog;
  * @author Andrea Antonello (www.hydrologis.com)
  */
 @SuppressWarnings("nls")
-public class Style {
+public class Style implements Serializable {
+    private static final long serialVersionUID = 1L;
     /**
      *
      */
@@ -52,6 +52,8 @@ public class CompressionUtilities {
     /**
      * Compress a folder and its contents.
      * 
+     * <p>Files are compressed in parallel, already compressed formats are stored.</p>
+     * 
      * @param srcFolder path to the folder to be compressed.
      * @param destZipFile path to the final output zip file.
      * @param excludeNames names of files to exclude.
@@ -59,19 +61,11 @@ public class CompressionUtilities {
      */
     static public void zipFolder( String srcFolder, String destZipFile, String... excludeNames ) throws IOException {
         if (new File(srcFolder).isDirectory()) {
-            ZipOutputStream zip = null;
-            FileOutputStream fileWriter = null;
+            ParallelZipWriter zip = new ParallelZipWriter(new File(destZipFile));
             try {
-                fileWriter = new FileOutputStream(destZipFile);
-                zip = new ZipOutputStream(fileWriter);
                 addFolderToZip("", srcFolder, zip, excludeNames); //$NON-NLS-1$
             } finally {
-                if (zip != null) {
-                    zip.flush();
-                    zip.close();
-                }
-                if (fileWriter != null)
-                    fileWriter.close();
+                zip.close();
             }
         } else {
             throw new IOException(THE_BASE_FILE_IS_SUPPOSED_TO_BE_A_DIRECTORY); //$NON-NLS-1$
@@ -145,7 +139,7 @@ public class CompressionUtilities {
         return newFirstName;
     }
 
-    static private void addToZip( String path, String srcFile, ZipOutputStream zip, String... excludeNames ) throws IOException {
+    static private void addToZip( String path, String srcFile, ParallelZipWriter zip, String... excludeNames ) throws IOException {
         File file = new File(srcFile);
         if (file.isDirectory()) {
             addFolderToZip(path, srcFile, zip, excludeNames);
@@ -154,23 +148,11 @@ public class CompressionUtilities {
                 // jump if excluded
                 return;
             }
-            byte[] buf = new byte[1024];
-            int len;
-            FileInputStream in = null;
-            try {
-                in = new FileInputStream(srcFile);
-                zip.putNextEntry(new ZipEntry(path + File.separator + file.getName()));
-                while( (len = in.read(buf)) > 0 ) {
-                    zip.write(buf, 0, len);
-                }
-            } finally {
-                if (in != null)
-                    in.close();
-            }
+            zip.addFile(path + File.separator + file.getName(), file);
         }
     }
 
-    static private void addFolderToZip( String path, String srcFolder, ZipOutputStream zip, String... excludeNames )
+    static private void addFolderToZip( String path, String srcFolder, ParallelZipWriter zip, String... excludeNames )
             throws IOException {
         if (isInArray(srcFolder, excludeNames)) {
             // jump folder if excluded
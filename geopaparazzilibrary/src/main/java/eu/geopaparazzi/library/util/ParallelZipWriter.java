@@ -0,0 +1,535 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A zip file writer that compresses on a pool of threads.
+ * <p/>
+ * Entries are read on the calling thread, so they can be streamed from database cursors,
+ * and split in blocks that are deflated in parallel, each primed with the end of the previous
+ * block as dictionary, in the way of pigz. Blocks are written in order as soon as they are
+ * ready, with a bounded number of blocks in memory.
+ * <p/>
+ * Entries are deflated or stored depending on their content: already compressed formats,
+ * like jpeg or png images, are stored. Sizes and crc are patched into the local headers once
+ * an entry is written, so also stored entries are streamed in a single pass.
+ * Zip64 records are used when sizes or offsets need them.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ParallelZipWriter implements Closeable {
+
+    /**
+     * The size of the blocks entries are compressed in.
+     */
+    public static final int BLOCK_SIZE = 256 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    /**
+     * Entries declared larger than this get zip64 local headers, leaving room for the deflate overhead.
+     */
+    private static final long ZIP64_SIZE_HINT = ZIP64_LIMIT - 16 * 1024 * 1024;
+    /**
+     * The final empty block that terminates a raw deflate stream made of sync flushed blocks.
+     */
+    private static final byte[] DEFLATE_END = {0x03, 0x00};
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String[] STORED_EXTENSIONS = {".jpg", ".jpeg", ".png", ".gif", ".webp", ".zip", ".kmz", ".gz",
+            ".mp3", ".mp4", ".3gp", ".m4a", ".ogg"};
+
+    private final FileOutputStream fileOutputStream;
+    private final FileChannel channel;
+    private final OutputStream out;
+    private long position = 0;
+    private final int level;
+    private final ExecutorService workers;
+    private final int maxPendingBlocks;
+
+    private final LinkedList<PendingWrite> pendingWrites = new LinkedList<>();
+    private final List<EntryRecord> entries = new ArrayList<>();
+    private final CRC32 crc = new CRC32();
+    private boolean failed = false;
+
+    private static class EntryRecord {
+        byte[] name;
+        boolean deflated;
+        boolean zip64Local;
+        int dosTime;
+        long localHeaderOffset;
+        long crc;
+        long size;
+        long compressedSize;
+    }
+
+    private static class PendingWrite {
+        EntryRecord entry;
+        byte[] data;
+        Future<byte[]> compressedData;
+        boolean isHeader;
+        boolean isEnd;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param zipFile the zip file to create.
+     * @param threads the number of compression threads.
+     * @param level   the deflate level.
+     * @throws IOException if the file can't be created.
+     */
+    public ParallelZipWriter(File zipFile, int threads, int level) throws IOException {
+        fileOutputStream = new FileOutputStream(zipFile);
+        channel = fileOutputStream.getChannel();
+        out = new BufferedOutputStream(fileOutputStream, 64 * 1024);
+        this.level = level;
+        threads = Math.max(1, threads);
+        workers = Executors.newFixedThreadPool(threads);
+        maxPendingBlocks = threads * 2;
+    }
+
+    /**
+     * Constructor using a thread per processor and the default compression.
+     *
+     * @param zipFile the zip file to create.
+     * @throws IOException if the file can't be created.
+     */
+    public ParallelZipWriter(File zipFile) throws IOException {
+        this(zipFile, Runtime.getRuntime().availableProcessors(), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Check if content should be stored rather than deflated.
+     *
+     * @param name the entry name.
+     * @return <code>true</code> if the name is of an already compressed format.
+     */
+    public static boolean isCompressedContent(String name) {
+        String lowerName = name.toLowerCase(Locale.US);
+        for (String extension : STORED_EXTENSIONS) {
+            if (lowerName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add an entry from a file, choosing the method from the name.
+     *
+     * @param name the entry name.
+     * @param file the file.
+     * @throws IOException if something goes wrong.
+     */
+    public void addFile(String name, File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            addEntry(name, in, file.length(), !isCompressedContent(name));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Add an entry from data in memory, choosing the method from the name.
+     *
+     * @param name the entry name.
+     * @param data the data.
+     * @throws IOException if something goes wrong.
+     */
+    public void addEntry(String name, byte[] data) throws IOException {
+        addEntry(name, new ByteArrayInputStream(data), data.length, !isCompressedContent(name));
+    }
+
+    /**
+     * Add an entry read from a stream on the calling thread. The stream is not closed.
+     *
+     * @param name     the entry name.
+     * @param in       the stream to read.
+     * @param sizeHint the expected size or -1 if unknown, in which case it is expected below 4GB.
+     * @param deflate  if <code>true</code> the entry is deflated, else stored.
+     * @throws IOException if something goes wrong.
+     */
+    public void addEntry(String name, InputStream in, long sizeHint, boolean deflate) throws IOException {
+        checkNotFailed();
+        EntryRecord entry = new EntryRecord();
+        entry.name = name.getBytes(UTF8);
+        entry.deflated = deflate;
+        entry.zip64Local = sizeHint >= ZIP64_SIZE_HINT;
+        entry.dosTime = toDosTime(System.currentTimeMillis());
+        entries.add(entry);
+
+        PendingWrite header = new PendingWrite();
+        header.entry = entry;
+        header.isHeader = true;
+        enqueue(header);
+
+        try {
+            crc.reset();
+            byte[] dictionary = null;
+            while (true) {
+                final byte[] block = readBlock(in);
+                if (block == null) {
+                    break;
+                }
+                crc.update(block);
+                entry.size += block.length;
+
+                PendingWrite write = new PendingWrite();
+                write.entry = entry;
+                if (deflate) {
+                    final byte[] blockDictionary = dictionary;
+                    write.compressedData = workers.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws Exception {
+                            return deflateBlock(block, blockDictionary, level);
+                        }
+                    });
+                    dictionary = getDictionary(block, dictionary);
+                } else {
+                    write.data = block;
+                }
+                enqueue(write);
+            }
+            entry.crc = crc.getValue();
+            if (deflate) {
+                PendingWrite end = new PendingWrite();
+                end.entry = entry;
+                end.data = DEFLATE_END;
+                enqueue(end);
+            }
+            PendingWrite end = new PendingWrite();
+            end.entry = entry;
+            end.isEnd = true;
+            enqueue(end);
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!failed) {
+                while (!pendingWrites.isEmpty()) {
+                    writeNext();
+                }
+                writeCentralDirectory();
+            }
+            out.flush();
+        } finally {
+            workers.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void checkNotFailed() throws IOException {
+        if (failed) {
+            throw new IOException("The zip writer failed on a previous entry.");
+        }
+    }
+
+    private void enqueue(PendingWrite write) throws IOException {
+        pendingWrites.add(write);
+        int pendingBlocks = 0;
+        for (PendingWrite pendingWrite : pendingWrites) {
+            if (pendingWrite.compressedData != null || pendingWrite.data != null) {
+                pendingBlocks++;
+            }
+        }
+        // write what is ready, and wait when too many blocks are in memory
+        while (!pendingWrites.isEmpty()) {
+            PendingWrite first = pendingWrites.getFirst();
+            boolean ready = first.compressedData == null || first.compressedData.isDone();
+            if (!ready && pendingBlocks <= maxPendingBlocks) {
+                break;
+            }
+            if (first.compressedData != null || first.data != null) {
+                pendingBlocks--;
+            }
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        PendingWrite write = pendingWrites.removeFirst();
+        EntryRecord entry = write.entry;
+        if (write.isHeader) {
+            entry.localHeaderOffset = position;
+            writeLocalHeader(entry);
+        } else if (write.isEnd) {
+            patchLocalHeader(entry);
+        } else {
+            byte[] data = write.data;
+            if (write.compressedData != null) {
+                try {
+                    data = write.compressedData.get();
+                } catch (InterruptedException e) {
+                    failed = true;
+                    throw new IOException("Interrupted while compressing " + new String(entry.name, UTF8));
+                } catch (ExecutionException e) {
+                    failed = true;
+                    throw new IOException("Unable to compress " + new String(entry.name, UTF8) + ": " + e.getCause());
+                }
+            }
+            write(data);
+            entry.compressedSize += data.length;
+        }
+    }
+
+    private byte[] readBlock(InputStream in) throws IOException {
+        byte[] buffer = new byte[BLOCK_SIZE];
+        int length = 0;
+        while (length < BLOCK_SIZE) {
+            int read = in.read(buffer, length, BLOCK_SIZE - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        if (length == 0) {
+            return null;
+        }
+        if (length < BLOCK_SIZE) {
+            byte[] block = new byte[length];
+            System.arraycopy(buffer, 0, block, 0, length);
+            return block;
+        }
+        return buffer;
+    }
+
+    /**
+     * Get the last 32KB of data, from the block and if it is shorter from the previous dictionary.
+     */
+    private static byte[] getDictionary(byte[] block, byte[] previousDictionary) {
+        if (block.length >= DICTIONARY_SIZE || previousDictionary == null) {
+            int length = Math.min(block.length, DICTIONARY_SIZE);
+            byte[] dictionary = new byte[length];
+            System.arraycopy(block, block.length - length, dictionary, 0, length);
+            return dictionary;
+        }
+        int fromPrevious = Math.min(previousDictionary.length, DICTIONARY_SIZE - block.length);
+        byte[] dictionary = new byte[fromPrevious + block.length];
+        System.arraycopy(previousDictionary, previousDictionary.length - fromPrevious, dictionary, 0, fromPrevious);
+        System.arraycopy(block, 0, dictionary, fromPrevious, block.length);
+        return dictionary;
+    }
+
+    /**
+     * Deflate a block as raw deflate data ending on a byte boundary, so that blocks can be concatenated.
+     */
+    private static byte[] deflateBlock(byte[] block, byte[] dictionary, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(block);
+            ByteArrayOutputStream bout = new ByteArrayOutputStream(block.length / 2 + 64);
+            byte[] tmp = new byte[64 * 1024];
+            while (true) {
+                int count = deflater.deflate(tmp, 0, tmp.length, Deflater.SYNC_FLUSH);
+                bout.write(tmp, 0, count);
+                if (count < tmp.length && deflater.needsInput()) {
+                    break;
+                }
+            }
+            return bout.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeLocalHeader(EntryRecord entry) throws IOException {
+        int extraLength = entry.zip64Local ? 20 : 0;
+        ByteBuffer bb = newBuffer(30 + entry.name.length + extraLength);
+        bb.putInt(0x04034b50);
+        bb.putShort((short) (entry.zip64Local ? 45 : 20));
+        bb.putShort((short) 0x0800); // utf-8 names
+        bb.putShort((short) (entry.deflated ? 8 : 0));
+        bb.putInt(entry.dosTime);
+        // crc and sizes are patched when the entry is done
+        bb.putInt(0);
+        bb.putInt(entry.zip64Local ? (int) ZIP64_LIMIT : 0);
+        bb.putInt(entry.zip64Local ? (int) ZIP64_LIMIT : 0);
+        bb.putShort((short) entry.name.length);
+        bb.putShort((short) extraLength);
+        bb.put(entry.name);
+        if (entry.zip64Local) {
+            bb.putShort((short) 0x0001);
+            bb.putShort((short) 16);
+            bb.putLong(0);
+            bb.putLong(0);
+        }
+        write(bb.array());
+    }
+
+    private void patchLocalHeader(EntryRecord entry) throws IOException {
+        if (!entry.zip64Local && (entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT)) {
+            failed = true;
+            throw new IOException("Entry too large without zip64 header: " + new String(entry.name, UTF8));
+        }
+        out.flush();
+        ByteBuffer bb = newBuffer(12);
+        bb.putInt((int) entry.crc);
+        if (entry.zip64Local) {
+            bb.putInt((int) ZIP64_LIMIT);
+            bb.putInt((int) ZIP64_LIMIT);
+        } else {
+            bb.putInt((int) entry.compressedSize);
+            bb.putInt((int) entry.size);
+        }
+        bb.flip();
+        channel.write(bb, entry.localHeaderOffset + 14);
+        if (entry.zip64Local) {
+            ByteBuffer extra = newBuffer(16);
+            extra.putLong(entry.size);
+            extra.putLong(entry.compressedSize);
+            extra.flip();
+            channel.write(extra, entry.localHeaderOffset + 30 + entry.name.length + 4);
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long centralDirectoryOffset = position;
+        for (EntryRecord entry : entries) {
+            boolean sizeZip64 = entry.size >= ZIP64_LIMIT;
+            boolean compressedSizeZip64 = entry.compressedSize >= ZIP64_LIMIT;
+            boolean offsetZip64 = entry.localHeaderOffset >= ZIP64_LIMIT;
+            int extraDataLength = (sizeZip64 ? 8 : 0) + (compressedSizeZip64 ? 8 : 0) + (offsetZip64 ? 8 : 0);
+            int extraLength = extraDataLength > 0 ? extraDataLength + 4 : 0;
+            boolean zip64 = extraLength > 0 || entry.zip64Local;
+
+            ByteBuffer bb = newBuffer(46 + entry.name.length + extraLength);
+            bb.putInt(0x02014b50);
+            bb.putShort((short) (zip64 ? 45 : 20));
+            bb.putShort((short) (zip64 ? 45 : 20));
+            bb.putShort((short) 0x0800);
+            bb.putShort((short) (entry.deflated ? 8 : 0));
+            bb.putInt(entry.dosTime);
+            bb.putInt((int) entry.crc);
+            bb.putInt((int) (compressedSizeZip64 ? ZIP64_LIMIT : entry.compressedSize));
+            bb.putInt((int) (sizeZip64 ? ZIP64_LIMIT : entry.size));
+            bb.putShort((short) entry.name.length);
+            bb.putShort((short) extraLength);
+            bb.putShort((short) 0); // comment
+            bb.putShort((short) 0); // disk
+            bb.putShort((short) 0); // internal attributes
+            bb.putInt(0); // external attributes
+            bb.putInt((int) (offsetZip64 ? ZIP64_LIMIT : entry.localHeaderOffset));
+            bb.put(entry.name);
+            if (extraLength > 0) {
+                bb.putShort((short) 0x0001);
+                bb.putShort((short) extraDataLength);
+                if (sizeZip64)
+                    bb.putLong(entry.size);
+                if (compressedSizeZip64)
+                    bb.putLong(entry.compressedSize);
+                if (offsetZip64)
+                    bb.putLong(entry.localHeaderOffset);
+            }
+            write(bb.array());
+        }
+        long centralDirectorySize = position - centralDirectoryOffset;
+
+        boolean zip64End = entries.size() >= 0xFFFF || centralDirectoryOffset >= ZIP64_LIMIT
+                || centralDirectorySize >= ZIP64_LIMIT;
+        if (zip64End) {
+            long zip64EndOffset = position;
+            ByteBuffer bb = newBuffer(56 + 20);
+            bb.putInt(0x06064b50);
+            bb.putLong(44);
+            bb.putShort((short) 45);
+            bb.putShort((short) 45);
+            bb.putInt(0);
+            bb.putInt(0);
+            bb.putLong(entries.size());
+            bb.putLong(entries.size());
+            bb.putLong(centralDirectorySize);
+            bb.putLong(centralDirectoryOffset);
+            // locator
+            bb.putInt(0x07064b50);
+            bb.putInt(0);
+            bb.putLong(zip64EndOffset);
+            bb.putInt(1);
+            write(bb.array());
+        }
+
+        ByteBuffer bb = newBuffer(22);
+        bb.putInt(0x06054b50);
+        bb.putShort((short) 0);
+        bb.putShort((short) 0);
+        bb.putShort((short) Math.min(entries.size(), 0xFFFF));
+        bb.putShort((short) Math.min(entries.size(), 0xFFFF));
+        bb.putInt((int) Math.min(centralDirectorySize, ZIP64_LIMIT));
+        bb.putInt((int) Math.min(centralDirectoryOffset, ZIP64_LIMIT));
+        bb.putShort((short) 0);
+        write(bb.array());
+    }
+
+    private void write(byte[] data) throws IOException {
+        out.write(data);
+        position += data.length;
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int toDosTime(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16) | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.util.debug;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import eu.geopaparazzi.library.bluetooth.INmeaFixListener;
+import eu.geopaparazzi.library.bluetooth.NmeaFix;
+import eu.geopaparazzi.library.bluetooth.NmeaParser;
+
+/**
+ * A replay harness for the {@link NmeaParser}.
+ * <p/>
+ * The records of a {@link IFakeGpsLog} are converted to GGA, RMC and GSA sentences, which
+ * are then fed to a parser in chunks of the size a bluetooth socket usually delivers, to
+ * measure the parsing throughput without a device.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class NmeaReplay {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final double METERS_PER_SECOND_TO_KNOTS = 1.0 / 0.514444;
+
+    private final byte[] data;
+    private final int sentencesCount;
+
+    /**
+     * The result of a replay.
+     */
+    public static class Result {
+        /**
+         * The number of valid sentences parsed.
+         */
+        public long sentences;
+        /**
+         * The number of invalid sentences.
+         */
+        public long invalidSentences;
+        /**
+         * The number of fixes delivered to the listener.
+         */
+        public long fixes;
+        /**
+         * The number of valid fixes delivered to the listener.
+         */
+        public long validFixes;
+        /**
+         * The time taken in nanoseconds.
+         */
+        public long elapsedNanos;
+
+        /**
+         * @return the number of sentences parsed per second.
+         */
+        public double getSentencesPerSecond() {
+            if (elapsedNanos == 0) {
+                return 0;
+            }
+            return sentences * 1000000000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "sentences: " + sentences + ", invalid: " + invalidSentences + ", fixes: " + fixes + " (valid: "
+                    + validFixes + ") in " + (elapsedNanos / 1000000) + " ms, " + Math.round(getSentencesPerSecond())
+                    + " sentences/s";
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fakeGpsLog the log to convert, as for example {@link DefaultFakeGpsLog}.
+     */
+    public NmeaReplay(IFakeGpsLog fakeGpsLog) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = 0;
+        fakeGpsLog.reset();
+        while (fakeGpsLog.hasNext()) {
+            String line = fakeGpsLog.next();
+            String[] lineSplit = line.split(",");
+            if (lineSplit.length < 6) {
+                continue;
+            }
+            long time = Long.parseLong(lineSplit[0].trim());
+            double lon = Double.parseDouble(lineSplit[1]);
+            double lat = Double.parseDouble(lineSplit[2]);
+            double alt = Double.parseDouble(lineSplit[3]);
+            double speed = Double.parseDouble(lineSplit[4]);
+            double accuracy = Double.parseDouble(lineSplit[5]);
+            for (String sentence : toSentences(time, lon, lat, alt, speed, accuracy)) {
+                byte[] bytes = sentence.getBytes(US_ASCII);
+                out.write(bytes, 0, bytes.length);
+                count++;
+            }
+        }
+        fakeGpsLog.reset();
+        data = out.toByteArray();
+        sentencesCount = count;
+    }
+
+    /**
+     * @return the number of sentences of a single pass over the log.
+     */
+    public int getSentencesCount() {
+        return sentencesCount;
+    }
+
+    /**
+     * Replay the log into a new parser.
+     *
+     * @param passes    the number of times the whole log is fed.
+     * @param chunkSize the number of bytes fed at a time.
+     * @param listener  an optional listener of the fixes or <code>null</code>.
+     * @return the result.
+     */
+    public Result replay(int passes, int chunkSize, final INmeaFixListener listener) {
+        final Result result = new Result();
+        NmeaParser parser = new NmeaParser();
+        parser.addFixListener(new INmeaFixListener() {
+            @Override
+            public void onFixReceived(NmeaFix fix) {
+                if (fix.valid) {
+                    result.validFixes++;
+                }
+                if (listener != null) {
+                    listener.onFixReceived(fix);
+                }
+            }
+        });
+
+        long start = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            for (int offset = 0; offset < data.length; offset += chunkSize) {
+                int length = Math.min(chunkSize, data.length - offset);
+                parser.feed(data, offset, length, start);
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        result.sentences = parser.getSentencesCount();
+        result.invalidSentences = parser.getInvalidSentencesCount();
+        result.fixes = parser.getFixesCount();
+        return result;
+    }
+
+    private static String[] toSentences(long time, double lon, double lat, double alt, double speed, double accuracy) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(time);
+        String utcTime = String.format(Locale.US, "%02d%02d%02d.%02d", calendar.get(Calendar.HOUR_OF_DAY),
+                calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND), calendar.get(Calendar.MILLISECOND) / 10);
+        String utcDate = String.format(Locale.US, "%02d%02d%02d", calendar.get(Calendar.DAY_OF_MONTH),
+                calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.YEAR) % 100);
+        String latitude = toNmeaCoordinate(Math.abs(lat), 2) + "," + (lat < 0 ? "S" : "N");
+        String longitude = toNmeaCoordinate(Math.abs(lon), 3) + "," + (lon < 0 ? "W" : "E");
+        // a rough hdop out of the accuracy, assuming a 5 meters user range error
+        double hdop = Math.max(0.5, accuracy / 5.0);
+
+        String gga = String.format(Locale.US, "GPGGA,%s,%s,%s,1,08,%.1f,%.1f,M,0.0,M,,", utcTime, latitude, longitude, hdop,
+                alt);
+        String rmc = String.format(Locale.US, "GPRMC,%s,A,%s,%s,%.2f,0.0,%s,,,A", utcTime, latitude, longitude, speed
+                * METERS_PER_SECOND_TO_KNOTS, utcDate);
+        String gsa = String.format(Locale.US, "GPGSA,A,3,04,05,09,12,17,24,25,29,,,,,%.1f,%.1f,%.1f", hdop * 1.2, hdop,
+                hdop * 0.8);
+        return new String[]{withChecksum(gga), withChecksum(rmc), withChecksum(gsa)};
+    }
+
+    private static String toNmeaCoordinate(double degrees, int degreesDigits) {
+        int wholeDegrees = (int) degrees;
+        double minutes = (degrees - wholeDegrees) * 60.0;
+        return String.format(Locale.US, "%0" + degreesDigits + "d%07.4f", wholeDegrees, minutes);
+    }
+
+    private static String withChecksum(String body) {
+        int checksum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            checksum ^= body.charAt(i);
+        }
+        return String.format(Locale.US, "$%s*%02X\r\n", body, checksum);
+    }
+}
@@ -32,6 +32,7 @@ import android.content.res.AssetManager;
 
 import eu.geopaparazzi.library.R;
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.network.ChunkedFileUploader;
 import eu.geopaparazzi.library.network.NetworkUtilities;
 import eu.geopaparazzi.library.util.CompressionUtilities;
 import eu.geopaparazzi.library.core.ResourcesManager;
@@ -66,7 +67,11 @@ public enum WebProjectManager {
     public static String ID = "id";
 
     /**
-     * Uploads a project folder as zip to the given server via POST.
+     * Uploads the project database to the given server via POST.
+     * <p/>
+     * The upload is done in chunks, sending only those the server doesn't have yet, so that
+     * an interrupted upload resumes and an unchanged part of the project is not sent again.
+     * Servers that don't support it get the whole database in one request.
      *
      * @param context the {@link Context} to use.
      * @param server  the server to which to upload.
@@ -80,7 +85,12 @@ public enum WebProjectManager {
             File databaseFile = resourcesManager.getDatabaseFile();
 
             server = addActionPath(server, UPLOADPATH);
-            String result = NetworkUtilities.sendFilePost(context, server, databaseFile, user, passwd);
+            ChunkedFileUploader uploader = new ChunkedFileUploader(server, user, passwd, ChunkedFileUploader.DEFAULT_CHUNK_SIZE);
+            String result = uploader.upload(context, databaseFile);
+            if (result == null) {
+                // the server doesn't support chunked uploads
+                result = NetworkUtilities.sendFilePost(context, server, databaseFile, user, passwd);
+            }
             if (GPLog.LOG) {
                 GPLog.addLogEntry(this, result);
             }
@@ -0,0 +1,216 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.bluetooth;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the byte level NMEA parser.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class NmeaParserTest {
+    private static final double DELTA = 0.000001;
+    private static final String GGA = "GPGGA,123519.00,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,";
+    private static final String RMC = "GPRMC,123519,A,4807.038,N,01131.000,W,022.4,084.4,230394,003.1,W";
+
+    private NmeaParser parser;
+    private final List<NmeaFix> fixes = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        parser = new NmeaParser();
+        fixes.clear();
+        parser.addFixListener(new INmeaFixListener() {
+            @Override
+            public void onFixReceived(NmeaFix fix) {
+                // the fix is recycled after the call
+                fixes.add(fix.copy());
+            }
+        });
+    }
+
+    @Test
+    public void testValidGga() throws Exception {
+        feed(sentence(GGA));
+
+        assertEquals(1, parser.getSentencesCount());
+        assertEquals(0, parser.getInvalidSentencesCount());
+        assertEquals(1, fixes.size());
+        NmeaFix fix = fixes.get(0);
+        assertEquals(NmeaFix.TYPE_GGA, fix.type);
+        assertEquals("GP", fix.getTalker());
+        assertTrue(fix.valid);
+        assertEquals((12 * 3600 + 35 * 60 + 19) * 1000, fix.utcTimeMillis);
+        assertEquals(48 + 7.038 / 60.0, fix.latitude, DELTA);
+        assertEquals(11 + 31.0 / 60.0, fix.longitude, DELTA);
+        assertEquals(1, fix.quality);
+        assertEquals(8, fix.satellitesUsed);
+        assertEquals(0.9, fix.hdop, DELTA);
+        assertEquals(545.4, fix.altitude, DELTA);
+    }
+
+    @Test
+    public void testValidRmc() throws Exception {
+        feed(sentence(RMC));
+
+        assertEquals(1, fixes.size());
+        NmeaFix fix = fixes.get(0);
+        assertEquals(NmeaFix.TYPE_RMC, fix.type);
+        assertTrue(fix.valid);
+        assertEquals(-(11 + 31.0 / 60.0), fix.longitude, DELTA);
+        assertEquals(22.4 * 0.514444, fix.speed, DELTA);
+        assertEquals(84.4, fix.bearing, DELTA);
+        assertEquals(230394, fix.utcDate);
+    }
+
+    @Test
+    public void testCorruptChecksum() throws Exception {
+        String valid = sentence(GGA);
+        int star = valid.indexOf('*');
+        char wrong = valid.charAt(star + 2) == '0' ? '1' : '0';
+        String corrupt = valid.substring(0, star + 2) + wrong + valid.substring(star + 3);
+        feed(corrupt);
+
+        assertEquals(0, parser.getSentencesCount());
+        assertEquals(1, parser.getInvalidSentencesCount());
+        assertTrue(fixes.isEmpty());
+    }
+
+    @Test
+    public void testCorruptPayload() throws Exception {
+        // a changed byte with the original checksum
+        String corrupt = sentence(GGA).replace("4807.038", "4807.039");
+        feed(corrupt);
+
+        assertEquals(1, parser.getInvalidSentencesCount());
+        assertTrue(fixes.isEmpty());
+    }
+
+    @Test
+    public void testMissingChecksum() throws Exception {
+        feed("$" + GGA + "\r\n");
+
+        assertEquals(1, parser.getInvalidSentencesCount());
+        assertTrue(fixes.isEmpty());
+    }
+
+    @Test
+    public void testTruncatedSentence() throws Exception {
+        // the receiver restarts in the middle of a sentence
+        feed("$GPGGA,123519.00,48" + sentence(GGA));
+
+        assertEquals(1, parser.getInvalidSentencesCount());
+        assertEquals(1, parser.getSentencesCount());
+        assertEquals(1, fixes.size());
+    }
+
+    @Test
+    public void testTooFewFields() throws Exception {
+        feed(sentence("GPGGA,123519.00,4807.038,N"));
+
+        assertEquals(1, parser.getSentencesCount());
+        assertEquals(1, parser.getInvalidSentencesCount());
+        assertTrue(fixes.isEmpty());
+    }
+
+    @Test
+    public void testSentenceSplitAcrossFeeds() throws Exception {
+        byte[] bytes = (sentence(GGA) + sentence(RMC)).getBytes("US-ASCII");
+        // chunks that end in the middle of sentences and checksums
+        int[] cuts = {0, 3, 40, bytes.length - 60, bytes.length - 4, bytes.length - 1, bytes.length};
+        for (int i = 1; i < cuts.length; i++) {
+            parser.feed(bytes, cuts[i - 1], cuts[i] - cuts[i - 1], 1000L);
+        }
+
+        assertEquals(0, parser.getInvalidSentencesCount());
+        assertEquals(2, fixes.size());
+        assertEquals(NmeaFix.TYPE_GGA, fixes.get(0).type);
+        assertEquals(NmeaFix.TYPE_RMC, fixes.get(1).type);
+    }
+
+    @Test
+    public void testSentenceFedByteByByte() throws Exception {
+        byte[] bytes = sentence(GGA).getBytes("US-ASCII");
+        for (int i = 0; i < bytes.length; i++) {
+            parser.feed(bytes, i, 1, 1000L);
+        }
+
+        assertEquals(1, fixes.size());
+        assertEquals(48 + 7.038 / 60.0, fixes.get(0).latitude, DELTA);
+    }
+
+    @Test
+    public void testTimeDigits() throws Exception {
+        assertEquals((23 * 3600 + 59 * 60) * 1000 + 59500, parseTime("235959.50"));
+        assertEquals(0, parseTime("000000"));
+        // every digit is checked
+        assertEquals(-1, parseTime("a23519"));
+        assertEquals(-1, parseTime("1a3519"));
+        assertEquals(-1, parseTime("12a519"));
+        assertEquals(-1, parseTime("123a19"));
+        assertEquals(-1, parseTime("12351a"));
+        // out of range
+        assertEquals(-1, parseTime("240000"));
+        assertEquals(-1, parseTime("126000"));
+        assertEquals(-1, parseTime("125961"));
+        // too short
+        assertEquals(-1, parseTime("1235"));
+    }
+
+    @Test
+    public void testBadTimeKeepsTheFix() throws Exception {
+        feed(sentence(GGA.replace("123519.00", "1x3519.00")));
+
+        assertEquals(1, fixes.size());
+        assertEquals(-1, fixes.get(0).utcTimeMillis);
+        assertFalse(Double.isNaN(fixes.get(0).latitude));
+    }
+
+    private int parseTime(String time) throws Exception {
+        fixes.clear();
+        feed(sentence(GGA.replace("123519.00", time)));
+        assertEquals(1, fixes.size());
+        return fixes.get(0).utcTimeMillis;
+    }
+
+    private void feed(String data) throws Exception {
+        byte[] bytes = data.getBytes("US-ASCII");
+        parser.feed(bytes, 0, bytes.length, 1000L);
+    }
+
+    /**
+     * @return the sentence with its '$', checksum and line end.
+     */
+    private static String sentence(String body) {
+        int checksum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            checksum ^= body.charAt(i);
+        }
+        return String.format("$%s*%02X\r\n", body, checksum);
+    }
+}
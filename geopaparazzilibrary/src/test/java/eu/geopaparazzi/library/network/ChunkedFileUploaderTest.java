@@ -0,0 +1,181 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.network;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the chunked upload protocol against a stub server.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ChunkedFileUploaderTest {
+    private static final int CHUNK_SIZE = 1024;
+
+    private HttpServer server;
+    private String uploadUrl;
+    private File file;
+
+    private volatile int initCode;
+    private volatile String initResponse;
+    private final List<String> chunkQueries = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/upload" + ChunkedFileUploader.INIT_SUFFIX, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                consume(exchange.getRequestBody());
+                respond(exchange, initCode, initResponse);
+            }
+        });
+        server.createContext("/upload" + ChunkedFileUploader.CHUNK_SUFFIX, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                consume(exchange.getRequestBody());
+                chunkQueries.add(exchange.getRequestURI().getQuery());
+                // refused, so that the upload stops before the commit
+                respond(exchange, 403, "");
+            }
+        });
+        server.start();
+        uploadUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/upload";
+
+        // two chunks
+        file = File.createTempFile("chunked", ".bin");
+        byte[] data = new byte[CHUNK_SIZE + CHUNK_SIZE / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+        file.delete();
+    }
+
+    @Test
+    public void testServerWithoutChunkedUploads() throws Exception {
+        initCode = 404;
+        initResponse = "not found";
+
+        assertNull(newUploader().upload(null, file));
+        assertTrue(chunkQueries.isEmpty());
+    }
+
+    @Test
+    public void testMissingIndexOutOfRange() throws Exception {
+        initCode = 200;
+        initResponse = "{\"uploadid\":\"u1\",\"missing\":[0,2]}";
+
+        assertUploadFails();
+        assertTrue(chunkQueries.isEmpty());
+    }
+
+    @Test
+    public void testNegativeMissingIndex() throws Exception {
+        initCode = 200;
+        initResponse = "{\"uploadid\":\"u1\",\"missing\":[-1]}";
+
+        assertUploadFails();
+        assertTrue(chunkQueries.isEmpty());
+    }
+
+    @Test
+    public void testMissingIndexNotANumber() throws Exception {
+        initCode = 200;
+        initResponse = "{\"uploadid\":\"u1\",\"missing\":[\"one\"]}";
+
+        assertUploadFails();
+        assertTrue(chunkQueries.isEmpty());
+    }
+
+    @Test
+    public void testOnlyTheMissingChunkIsSent() throws Exception {
+        initCode = 200;
+        initResponse = "{\"uploadid\":\"u1\",\"missing\":[1]}";
+
+        assertUploadFails();
+        assertEquals(1, chunkQueries.size());
+        String query = chunkQueries.get(0);
+        assertTrue(query, query.contains("index=1&"));
+        assertTrue(query, query.endsWith("&size=" + (CHUNK_SIZE / 2)));
+    }
+
+    private ChunkedFileUploader newUploader() {
+        return new ChunkedFileUploader(uploadUrl, null, null, CHUNK_SIZE);
+    }
+
+    private void assertUploadFails() throws Exception {
+        try {
+            newUploader().upload(null, file);
+            fail("The upload should fail.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void consume(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) >= 0) {
+            // discard
+        }
+        in.close();
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -30,9 +30,15 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import eu.geopaparazzi.library.GPApplication;
 import eu.geopaparazzi.library.core.ResourcesManager;
@@ -61,6 +67,10 @@ import jsqlite.Exception;
 
 /**
  * The base maps sources manager.
+ * <p/>
+ * <p>The basemaps list comes from the preferences or the active profile. Only the tables of the
+ * selected basemap are read synchronously, the other sources are read and validated on a
+ * background pool, so that the selected map can show without waiting for all of them.</p>
  *
  * @author Andrea Antonello (www.hydrologis.com)
  */
@@ -75,7 +85,20 @@ public enum BaseMapSourcesManager {
     private String selectedTableTitle = "";
     private AbstractSpatialTable selectedBaseMapTable = null;
 
-    private HashMap<BaseMap, AbstractSpatialTable> mBaseMaps2TablesMap = new HashMap<>();
+    private final ConcurrentHashMap<BaseMap, AbstractSpatialTable> mBaseMaps2TablesMap = new ConcurrentHashMap<>();
+    /**
+     * The reading of the tables of each source file, so that each file is read only once per re-read.
+     * <p/>
+     * <p>The tasks are keyed by generation and path, see {@link #getCollectKey(int, String)}, so that
+     * a late task of a previous re-read can't stand in for the reading of the current one.</p>
+     */
+    private final ConcurrentHashMap<String, FutureTask<Void>> mCollectTasks = new ConcurrentHashMap<>();
+    /**
+     * Incremented at every re-read, to discard tables of sources read for a previous list.
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final ExecutorService mValidationExecutor = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
 
     private File mMapnikFile;
 
@@ -120,14 +143,14 @@ public enum BaseMapSourcesManager {
                         selectedTileSourceType = baseMap.mapType;
 
                         setTileSource(selectedTileSourceType, selectedTableDatabasePath, selectedTableTitle);
-                        selectedBaseMapTable = mBaseMaps2TablesMap.get(baseMap);
+                        selectedBaseMapTable = getTable(baseMap);
                         break;
                     }
                 }
             } else {
                 for (BaseMap baseMap : baseMaps) {
                     if (baseMap.databasePath.equals(selectedTableDatabasePath)) {
-                        selectedBaseMapTable = mBaseMaps2TablesMap.get(baseMap);
+                        selectedBaseMapTable = getTable(baseMap);
                         break;
                     }
                 }
@@ -173,7 +196,9 @@ public enum BaseMapSourcesManager {
      * @throws java.lang.Exception
      */
     private List<BaseMap> getBaseMapsFromPreferences() throws java.lang.Exception {
+        final int generation = mGeneration.incrementAndGet();
         mBaseMaps2TablesMap.clear();
+        mCollectTasks.clear();
 
         List<BaseMap> baseMaps;
         if (ProfilesHandler.INSTANCE.getActiveProfile() == null) {
@@ -183,18 +208,98 @@ public enum BaseMapSourcesManager {
             baseMaps = ProfilesHandler.INSTANCE.getBaseMaps();
         }
 
-        // TODO this is ugly right now, needs to be changed
+        // the selected source is needed right away, the others are validated in background
+        File selectedFile = new File(selectedTableDatabasePath);
+        if (selectedTableDatabasePath.length() > 0 && selectedFile.exists()) {
+            collectTables(selectedFile, generation);
+        }
         for (BaseMap baseMap : baseMaps) {
-            List<AbstractSpatialTable> tables = collectTablesFromFile(new File(baseMap.databasePath));
-            for (AbstractSpatialTable table : tables) {
-                BaseMap tmpBaseMap = table2BaseMap(table);
-                if (!mBaseMaps2TablesMap.containsKey(tmpBaseMap))
-                    mBaseMaps2TablesMap.put(tmpBaseMap, table);
+            final File file = new File(baseMap.databasePath);
+            if (mCollectTasks.containsKey(getCollectKey(generation, file.getAbsolutePath()))) {
+                continue;
             }
+            mValidationExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    collectTables(file, generation);
+                }
+            });
         }
         return baseMaps;
     }
 
+    /**
+     * Read the tables of a source file into the tables map, if not done yet.
+     * <p/>
+     * <p>If the file is being read by another thread, this waits for it to finish.</p>
+     *
+     * @param file       the source file.
+     * @param generation the re-read the tables belong to.
+     */
+    private void collectTables(final File file, final int generation) {
+        if (generation != mGeneration.get()) {
+            // queued before the basemaps have been re-read
+            return;
+        }
+        String key = getCollectKey(generation, file.getAbsolutePath());
+        FutureTask<Void> task = mCollectTasks.get(key);
+        if (task == null) {
+            FutureTask<Void> newTask = new FutureTask<>(new Callable<Void>() {
+                @Override
+                public Void call() throws java.lang.Exception {
+                    List<AbstractSpatialTable> tables = collectTablesFromFile(file);
+                    if (tables.size() == 0) {
+                        if (GPLog.LOG)
+                            GPLog.addLogEntry(BaseMapSourcesManager.this, "No supported basemap tables found in: " + file);
+                    }
+                    if (generation != mGeneration.get()) {
+                        // the basemaps have been re-read meanwhile
+                        return null;
+                    }
+                    for (AbstractSpatialTable table : tables) {
+                        BaseMap tmpBaseMap = table2BaseMap(table);
+                        if (!mBaseMaps2TablesMap.containsKey(tmpBaseMap))
+                            mBaseMaps2TablesMap.put(tmpBaseMap, table);
+                    }
+                    return null;
+                }
+            });
+            task = mCollectTasks.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+                if (generation != mGeneration.get()) {
+                    // re-read meanwhile, the task is of no use to the new generation
+                    mCollectTasks.remove(key, task);
+                }
+            }
+        }
+        try {
+            task.get();
+        } catch (InterruptedException | ExecutionException e) {
+            GPLog.error(this, "error reading file: " + file, e);
+        }
+    }
+
+    private static String getCollectKey(int generation, String path) {
+        return generation + ":" + path;
+    }
+
+    /**
+     * Get the table of a basemap, reading its source if it has not been read yet.
+     *
+     * @param baseMap the basemap.
+     * @return the table or <code>null</code> if the source is not valid.
+     */
+    private AbstractSpatialTable getTable(BaseMap baseMap) {
+        AbstractSpatialTable table = mBaseMaps2TablesMap.get(baseMap);
+        if (table == null) {
+            collectTables(new File(baseMap.databasePath), mGeneration.get());
+            table = mBaseMaps2TablesMap.get(baseMap);
+        }
+        return table;
+    }
+
     public void saveBaseMapsToPreferences(List<BaseMap> baseMaps) throws JSONException {
         if (ProfilesHandler.INSTANCE.getActiveProfile() != null) {
             // if profiles are active, the dataset configs are readonly
@@ -232,6 +337,7 @@ public enum BaseMapSourcesManager {
         try {
             mBaseMaps.remove(baseMap);
             mBaseMaps2TablesMap.remove(baseMap);
+            mCollectTasks.remove(getCollectKey(mGeneration.get(), new File(baseMap.databasePath).getAbsolutePath()));
             saveBaseMapsToPreferences(mBaseMaps);
         } catch (java.lang.Exception e) {
             GPLog.error(this, "Unable to remove basemap " + baseMap, e);
@@ -372,6 +478,15 @@ public enum BaseMapSourcesManager {
                 if (mBaseMaps2TablesMap.size() > 0) {
                     baseMap = mBaseMaps2TablesMap.keySet().iterator().next();
                 } else {
+                    // the first valid one, the background validation might not be done yet
+                    for (BaseMap candidate : getBaseMaps()) {
+                        if (getTable(candidate) != null) {
+                            baseMap = candidate;
+                            break;
+                        }
+                    }
+                }
+                if (baseMap == null) {
                     List<BaseMap> baseMaps = addBaseMapsFromFile(mMapnikFile);
                     if (baseMaps != null && baseMaps.size() > 0)
                         baseMap = baseMaps.get(0);
@@ -411,7 +526,7 @@ public enum BaseMapSourcesManager {
             selectedTileSourceType = baseMap.mapType;
             selectedTableDatabasePath = baseMap.databasePath;
             selectedTableTitle = baseMap.title;
-            selectedBaseMapTable = mBaseMaps2TablesMap.get(baseMap);
+            selectedBaseMapTable = getTable(baseMap);
         } catch (java.lang.Exception e) {
             GPLog.error(this, null, e);
             // fallback on mapnik
@@ -421,7 +536,7 @@ public enum BaseMapSourcesManager {
                 selectedTileSourceType = setBaseMap.mapType;
                 selectedTableDatabasePath = setBaseMap.databasePath;
                 selectedTableTitle = setBaseMap.title;
-                selectedBaseMapTable = mBaseMaps2TablesMap.get(setBaseMap);
+                selectedBaseMapTable = getTable(setBaseMap);
             } else {
                 // give up
                 return;
@@ -455,6 +570,7 @@ public enum BaseMapSourcesManager {
     public void loadSelectedBaseMap(MapView mapView) {
         AbstractSpatialTable selectedSpatialTable = getSelectedBaseMapTable();
         if (selectedSpatialTable != null) {
+            MapGenerator previousMapGenerator = mapView.getMapGenerator();
             int selectedSpatialDataTypeCode = ESpatialDataSources.getCode4Name(selectedTileSourceType);
             MapGenerator selectedMapGenerator = null;
             try {
@@ -506,6 +622,10 @@ public enum BaseMapSourcesManager {
                 mapView.setMapGenerator(selectedMapGenerator);
                 GPLog.error(this, "ERROR", e);
             }
+            if (previousMapGenerator instanceof GeopackageTileDownloader && mapView.getMapGenerator() != previousMapGenerator) {
+                // its database and decoded tiles are not needed anymore
+                previousMapGenerator.cleanup();
+            }
         }
     }
 
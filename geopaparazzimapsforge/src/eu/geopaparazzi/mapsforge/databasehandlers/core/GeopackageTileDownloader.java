@@ -18,26 +18,25 @@
 package eu.geopaparazzi.mapsforge.databasehandlers.core;
 
 import org.mapsforge.android.maps.mapgenerator.MapGeneratorJob;
+import org.mapsforge.android.maps.mapgenerator.TileBitmap;
 import org.mapsforge.android.maps.mapgenerator.tiledownloader.TileDownloader;
 import org.mapsforge.core.model.GeoPoint;
 import org.mapsforge.core.model.Tile;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Color;
 
-import eu.geopaparazzi.library.util.MercatorUtils;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.mapsforge.BaseMapSourcesManager;
-import eu.geopaparazzi.spatialite.database.spatial.core.daos.SPL_Rasterlite;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.AbstractSpatialDatabaseHandler;
-import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
 import eu.geopaparazzi.library.util.types.ESpatialDataSources;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialRasterTable;
-import jsqlite.Database;
 
 /**
  * A MapGenerator that downloads tiles from geopackage databases.
+ * <p/>
+ * The tiles are read and decoded by a {@link RasterTileReader}.
  */
 @SuppressWarnings("nls")
 public class GeopackageTileDownloader extends TileDownloader {
@@ -50,7 +49,7 @@ public class GeopackageTileDownloader extends TileDownloader {
 
     private String tilePart;
     private AbstractSpatialDatabaseHandler spatialDatabaseHandler;
-    private Database spatialiteDatabase;
+    private RasterTileReader rasterTileReader;
 
     public GeopackageTileDownloader(SpatialRasterTable table) throws Exception {
         super();
@@ -58,10 +57,7 @@ public class GeopackageTileDownloader extends TileDownloader {
         spatialDatabaseHandler = BaseMapSourcesManager.INSTANCE.getRasterHandlerForFile(rasterTable.getDatabaseFile());
         String mapTypeString = rasterTable.getMapType();
         mapType = ESpatialDataSources.getType4Name(mapTypeString);
-        if (mapType == ESpatialDataSources.RASTERLITE2) {
-            SpatialiteDatabaseHandler databaseHandler = (SpatialiteDatabaseHandler) spatialDatabaseHandler;
-            spatialiteDatabase = databaseHandler.getDatabase();
-        }
+        rasterTileReader = new RasterTileReader(rasterTable, spatialDatabaseHandler);
 
         ZOOM_MAX = (byte) rasterTable.getMaxZoom();
         ZOOM_MIN = (byte) rasterTable.getMinZoom();
@@ -102,43 +98,20 @@ public class GeopackageTileDownloader extends TileDownloader {
     @Override
     public boolean executeJob(MapGeneratorJob mapGeneratorJob, Bitmap bitmap) {
         try {
-            Tile tile = mapGeneratorJob.tile;
-            int tileSize = Tile.TILE_SIZE;
-            byte[] rasterBytes = null;
-            String tileQuery;
-            if (mapType == ESpatialDataSources.RASTERLITE2) {
-                tileQuery = mapType.name();
-                int zoomLevel = tile.zoomLevel;
-                int tileX = (int) tile.tileX;
-                int tileY = (int) tile.tileY;
-                double[] tileBounds = MercatorUtils.tileLatLonBounds(tileX, tileY, zoomLevel, Tile.TILE_SIZE);
-                rasterBytes = SPL_Rasterlite.getRasterTileInBounds(spatialiteDatabase, rasterTable, tileBounds, tileSize);
-            } else {
-                tileQuery = getTilePath(tile);
-                rasterBytes = spatialDatabaseHandler.getRasterTile(tileQuery);
+            TileBitmap tileBitmap = rasterTileReader.getTile(mapGeneratorJob.tile);
+            if (tileBitmap == null && rasterTileReader.isClosed()) {
+                // the source has been closed, no blank tile is cached in its place
+                return false;
             }
-            Bitmap decodedBitmap = null;
-            if(rasterBytes!=null) {
+            if (tileBitmap != null) {
                 try {
-                    decodedBitmap = BitmapFactory.decodeByteArray(rasterBytes, 0, rasterBytes.length);
-                } catch (Exception e) {
-                    // ignore and set the image as empty
-                    GPLog.error(this, "Could not find image: " + tileQuery, e); //$NON-NLS-1$
+                    new Canvas(bitmap).drawBitmap(tileBitmap.getBitmap(), 0, 0, null);
+                } finally {
+                    tileBitmap.release();
                 }
-            }
-            // check if the input stream could be decoded into a bitmap
-            if (decodedBitmap != null) {
-                // copy all pixels from the decoded bitmap to the color array
-                decodedBitmap.getPixels(this.pixels, 0, tileSize, 0, 0, tileSize, tileSize);
-                decodedBitmap.recycle();
             } else {
-                for (int i = 0; i < pixels.length; i++) {
-                    pixels[i] = Color.WHITE;
-                }
+                bitmap.eraseColor(Color.WHITE);
             }
-
-            // copy all pixels from the color array to the tile bitmap
-            bitmap.setPixels(this.pixels, 0, tileSize, 0, 0, tileSize, tileSize);
             return true;
         } catch (Exception e) {
             GPLog.error(this, "GeopackageTileDownloader.executeJob]", e);
@@ -149,4 +122,13 @@ public class GeopackageTileDownloader extends TileDownloader {
     public byte getZoomLevelMax() {
         return ZOOM_MAX;
     }
+
+    /**
+     * Removes the cached tiles of the table and closes the database.
+     */
+    @Override
+    public void cleanup() {
+        // a job still running on the map worker is done before, the later ones get no tile
+        rasterTileReader.close();
+    }
 }
@@ -0,0 +1,299 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.mapsforge.databasehandlers.core;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+
+import org.mapsforge.android.maps.mapgenerator.RasterTileCache;
+import org.mapsforge.android.maps.mapgenerator.TileBitmap;
+import org.mapsforge.android.maps.mapgenerator.TileMemoryManager;
+import org.mapsforge.core.model.Tile;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.MercatorUtils;
+import eu.geopaparazzi.library.util.types.ESpatialDataSources;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.SPL_Rasterlite;
+import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.AbstractSpatialDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialRasterTable;
+import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
+
+/**
+ * Reads and decodes the tiles of a raster table.
+ * <p/>
+ * <p>The tiles are read through prepared statements of the table, kept in the statements cache of the
+ * database. A missing tile of a standard tile table is read together with the aligned block of tiles
+ * around it, in a single query, since the tiles next to a visible tile are usually needed next. The
+ * images of the block are kept encoded until they are asked for.</p>
+ * <p>The decoded tiles are kept in the shared {@link RasterTileCache}, so that panning again over the same
+ * area doesn't touch the database.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class RasterTileReader {
+    /**
+     * The side of the blocks of tiles read at once.
+     */
+    private static final int BLOCK_SIZE = 4;
+    /**
+     * The maximum size of the read but not yet decoded tile images.
+     */
+    private static final long MAX_ENCODED_BYTES = 2 * 1024 * 1024;
+    /**
+     * Marks the tiles that are not in the table.
+     */
+    private static final byte[] NO_TILE = new byte[0];
+    /**
+     * The estimated memory used by an entry of the encoded tiles besides the image.
+     */
+    private static final int ENTRY_BYTES = 64;
+
+    private final SpatialRasterTable rasterTable;
+    private final AbstractSpatialDatabaseHandler databaseHandler;
+    private final boolean isRasterlite;
+    private final String tileQuery;
+    private final String rangeQuery;
+    private final String keyPrefix;
+    private final RasterTileCache rasterTileCache;
+    private final TileMemoryManager tileMemoryManager;
+
+    private final LinkedHashMap<String, byte[]> encodedTiles = new LinkedHashMap<String, byte[]>(64, 0.75f, true);
+    private long encodedBytes = 0;
+    private boolean isClosed = false;
+    private final byte[][] blockTiles = new byte[BLOCK_SIZE * BLOCK_SIZE][];
+    private final BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+    private final Rect tileRect = new Rect(0, 0, Tile.TILE_SIZE, Tile.TILE_SIZE);
+
+    /**
+     * Constructor.
+     *
+     * @param rasterTable     the table to read.
+     * @param databaseHandler the handler of the database of the table.
+     */
+    public RasterTileReader(SpatialRasterTable rasterTable, AbstractSpatialDatabaseHandler databaseHandler) {
+        this.rasterTable = rasterTable;
+        this.databaseHandler = databaseHandler;
+        isRasterlite = ESpatialDataSources.getType4Name(rasterTable.getMapType()) == ESpatialDataSources.RASTERLITE2;
+        if (isRasterlite) {
+            tileQuery = SPL_Rasterlite.buildRasterTileInBoundsStatement(rasterTable, Tile.TILE_SIZE);
+            rangeQuery = null;
+        } else {
+            tileQuery = rasterTable.getTileQuery();
+            if (databaseHandler instanceof SpatialiteDatabaseHandler) {
+                rangeQuery = SpatialiteUtilities.buildRasterTilesInRangeQuery(tileQuery);
+            } else {
+                rangeQuery = null;
+            }
+        }
+        keyPrefix = rasterTable.getDatabasePath() + SpatialiteUtilities.UNIQUENAME_SEPARATOR + tileQuery
+                + SpatialiteUtilities.UNIQUENAME_SEPARATOR;
+        rasterTileCache = RasterTileCache.getInstance();
+        tileMemoryManager = TileMemoryManager.getInstance();
+        // the pooled tile bitmaps are RGB_565, decoding in the same config allows the reuse
+        decodeOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+    }
+
+    /**
+     * Get the decoded image of a tile.
+     *
+     * @param tile the tile.
+     * @return the tile image, with one reference owned by the caller, or <code>null</code> if the tile
+     * is not in the table, can't be decoded or the reader has been closed.
+     */
+    public synchronized TileBitmap getTile(Tile tile) {
+        if (isClosed) {
+            // a late job must not fill the cache again
+            return null;
+        }
+        int zoom = tile.zoomLevel;
+        int column = (int) tile.tileX;
+        int row = (int) tile.tileY;
+        String key = getKey(zoom, column, row);
+
+        TileBitmap tileBitmap = rasterTileCache.get(key);
+        if (tileBitmap != null) {
+            return tileBitmap;
+        }
+
+        byte[] tileBytes = encodedTiles.get(key);
+        if (tileBytes == null && rangeQuery != null) {
+            readBlock(zoom, column, row);
+            tileBytes = encodedTiles.get(key);
+        }
+        if (tileBytes == null) {
+            tileBytes = readTile(zoom, column, row);
+            putEncoded(key, tileBytes != null ? tileBytes : NO_TILE);
+        }
+        if (tileBytes == null || tileBytes == NO_TILE) {
+            return null;
+        }
+
+        // the decoded image replaces the encoded one
+        removeEncoded(key);
+        tileBitmap = decode(tileBytes);
+        if (tileBitmap != null) {
+            rasterTileCache.put(key, tileBitmap);
+        }
+        return tileBitmap;
+    }
+
+    /**
+     * Removes the cached tiles of the table and closes the database.
+     * <p/>
+     * <p>This is done holding the reader lock, so that no tile is being read meanwhile. Tiles asked for
+     * afterwards are not read.</p>
+     */
+    public synchronized void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        encodedTiles.clear();
+        encodedBytes = 0;
+        rasterTileCache.removeAll(keyPrefix);
+        try {
+            databaseHandler.close();
+        } catch (Exception e) {
+            GPLog.error(this, "Error closing the database of: " + rasterTable.getTableName(), e); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the reader has been closed.
+     */
+    public synchronized boolean isClosed() {
+        return isClosed;
+    }
+
+    private String getKey(int zoom, int column, int row) {
+        return keyPrefix + zoom + "/" + column + "/" + row;
+    }
+
+    private byte[] readTile(int zoom, int column, int row) {
+        if (isRasterlite) {
+            double[] tileBounds = MercatorUtils.tileLatLonBounds(column, row, zoom, Tile.TILE_SIZE);
+            return SPL_Rasterlite.getRasterTileInBounds((SpatialiteDatabaseHandler) databaseHandler, tileQuery, tileBounds);
+        } else if (databaseHandler instanceof SpatialiteDatabaseHandler) {
+            return ((SpatialiteDatabaseHandler) databaseHandler).getRasterTile(tileQuery, zoom, column, row);
+        }
+        String query = tileQuery.replaceFirst("\\?", String.valueOf(zoom));
+        query = query.replaceFirst("\\?", String.valueOf(column));
+        query = query.replaceFirst("\\?", String.valueOf(row));
+        return databaseHandler.getRasterTile(query);
+    }
+
+    /**
+     * Read the aligned block of tiles that contains the given tile, the missing tiles are marked as such.
+     * If the block can't be read, nothing is marked.
+     */
+    private void readBlock(int zoom, int column, int row) {
+        int maxTile = (1 << zoom) - 1;
+        int minColumn = column - column % BLOCK_SIZE;
+        int minRow = row - row % BLOCK_SIZE;
+        int maxColumn = Math.min(minColumn + BLOCK_SIZE - 1, maxTile);
+        int maxRow = Math.min(minRow + BLOCK_SIZE - 1, maxTile);
+
+        int count = ((SpatialiteDatabaseHandler) databaseHandler).getRasterTilesInRange(rangeQuery, zoom, minColumn, minRow,
+                maxColumn, maxRow, blockTiles);
+        if (count < 0) {
+            // the tiles are read one by one
+            return;
+        }
+        int width = maxColumn - minColumn + 1;
+        for (int r = minRow; r <= maxRow; r++) {
+            for (int c = minColumn; c <= maxColumn; c++) {
+                String key = getKey(zoom, c, r);
+                if (rasterTileCache.containsKey(key)) {
+                    continue;
+                }
+                byte[] tileBytes = blockTiles[(r - minRow) * width + c - minColumn];
+                putEncoded(key, tileBytes != null ? tileBytes : NO_TILE);
+            }
+        }
+    }
+
+    private void putEncoded(String key, byte[] tileBytes) {
+        byte[] previous = encodedTiles.put(key, tileBytes);
+        encodedBytes += ENTRY_BYTES + tileBytes.length;
+        if (previous != null) {
+            encodedBytes -= ENTRY_BYTES + previous.length;
+        }
+        Iterator<byte[]> iterator = encodedTiles.values().iterator();
+        while (encodedBytes > MAX_ENCODED_BYTES && iterator.hasNext()) {
+            // the eldest entries come first
+            encodedBytes -= ENTRY_BYTES + iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+    private void removeEncoded(String key) {
+        byte[] removed = encodedTiles.remove(key);
+        if (removed != null) {
+            encodedBytes -= ENTRY_BYTES + removed.length;
+        }
+    }
+
+    /**
+     * Decode a tile image into a pooled bitmap.
+     * <p/>
+     * Images of the tile size are decoded in place, the others are scaled.
+     */
+    private TileBitmap decode(byte[] tileBytes) {
+        TileBitmap tileBitmap = tileMemoryManager.obtain();
+        try {
+            decodeOptions.inJustDecodeBounds = true;
+            decodeOptions.inBitmap = null;
+            BitmapFactory.decodeByteArray(tileBytes, 0, tileBytes.length, decodeOptions);
+            decodeOptions.inJustDecodeBounds = false;
+            if (decodeOptions.outWidth == Tile.TILE_SIZE && decodeOptions.outHeight == Tile.TILE_SIZE) {
+                decodeOptions.inMutable = true;
+                decodeOptions.inBitmap = tileBitmap.getBitmap();
+                try {
+                    if (BitmapFactory.decodeByteArray(tileBytes, 0, tileBytes.length, decodeOptions) != null) {
+                        return tileBitmap;
+                    }
+                } catch (IllegalArgumentException e) {
+                    // the image can't be decoded in the pooled bitmap, decode it on its own
+                } finally {
+                    decodeOptions.inBitmap = null;
+                    decodeOptions.inMutable = false;
+                }
+            }
+            Bitmap decodedBitmap = BitmapFactory.decodeByteArray(tileBytes, 0, tileBytes.length, decodeOptions);
+            if (decodedBitmap != null) {
+                // the pooled bitmap has the content of its previous tile, which would show through transparent pixels
+                tileBitmap.getBitmap().eraseColor(Color.WHITE);
+                new Canvas(tileBitmap.getBitmap()).drawBitmap(decodedBitmap, null, tileRect, null);
+                decodedBitmap.recycle();
+                return tileBitmap;
+            }
+        } catch (Exception e) {
+            GPLog.error(this, "Could not decode tile of table: " + rasterTable.getTableName(), e); //$NON-NLS-1$
+        }
+        tileBitmap.release();
+        return null;
+    }
+}
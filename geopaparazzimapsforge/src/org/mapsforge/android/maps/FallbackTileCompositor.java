@@ -0,0 +1,129 @@
+/*
+ * Copyright 2010, 2011, 2012 mapsforge.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mapsforge.android.maps;
+
+import org.mapsforge.android.maps.mapgenerator.MapGeneratorJob;
+import org.mapsforge.android.maps.mapgenerator.TileBitmap;
+import org.mapsforge.android.maps.mapgenerator.InMemoryTileCache;
+import org.mapsforge.core.model.Tile;
+
+import android.graphics.Rect;
+
+/**
+ * Fills the tiles which are not yet rendered with scaled images of the parent or child tiles found in the in-memory
+ * cache, so that the map does not flash empty while zooming.
+ * <p/>
+ * The placeholders are only drawn into the {@link FrameBuffer}, they are never cached. The job of the missing tile
+ * is still queued and its bitmap replaces the placeholder as soon as it is rendered.
+ */
+class FallbackTileCompositor {
+	/**
+	 * How many zoom levels above a missing tile are searched for a parent tile.
+	 */
+	private static final int MAX_PARENT_LEVELS = 3;
+
+	private final FrameBuffer frameBuffer;
+	private final Rect destination;
+	private final Rect source;
+
+	FallbackTileCompositor(FrameBuffer frameBuffer) {
+		this.frameBuffer = frameBuffer;
+		this.destination = new Rect();
+		this.source = new Rect();
+	}
+
+	/**
+	 * Draws a placeholder for a missing tile.
+	 *
+	 * @param mapGeneratorJob
+	 *            the job of the missing tile.
+	 * @param mapGeneratorId
+	 *            the id of the map generator of the job, as used for the cache keys.
+	 * @param tileCache
+	 *            the cache to take the parent and child tiles from, they are only peeked at, so that the lookups don't
+	 *            count as hits or misses and don't keep the tiles of other zoom levels in the cache.
+	 * @param zoomLevelMax
+	 *            the maximum zoom level of the map generator.
+	 * @return true if a placeholder was drawn, false otherwise.
+	 */
+	synchronized boolean drawFallback(MapGeneratorJob mapGeneratorJob, Object mapGeneratorId, InMemoryTileCache tileCache,
+			byte zoomLevelMax) {
+		Tile tile = mapGeneratorJob.tile;
+		if (drawParent(tile, mapGeneratorId, mapGeneratorJob, tileCache)) {
+			return true;
+		}
+		if (tile.zoomLevel < zoomLevelMax) {
+			return drawChildren(tile, mapGeneratorId, mapGeneratorJob, tileCache);
+		}
+		return false;
+	}
+
+	/**
+	 * Zooming in: the closest cached ancestor is cropped to the area of the tile and scaled up.
+	 */
+	private boolean drawParent(Tile tile, Object mapGeneratorId, MapGeneratorJob mapGeneratorJob, InMemoryTileCache tileCache) {
+		for (int levels = 1; levels <= MAX_PARENT_LEVELS && tile.zoomLevel - levels >= 0; ++levels) {
+			Tile parent = new Tile(tile.tileX >> levels, tile.tileY >> levels, (byte) (tile.zoomLevel - levels));
+			TileBitmap tileBitmap = tileCache.peekTileBitmap(new MapGeneratorJob(parent, mapGeneratorId,
+					mapGeneratorJob.jobParameters, mapGeneratorJob.debugSettings));
+			if (tileBitmap == null) {
+				continue;
+			}
+
+			try {
+				int size = Tile.TILE_SIZE >> levels;
+				int mask = (1 << levels) - 1;
+				int left = (int) (tile.tileX & mask) * size;
+				int top = (int) (tile.tileY & mask) * size;
+				this.source.set(left, top, left + size, top + size);
+				this.destination.set(0, 0, Tile.TILE_SIZE, Tile.TILE_SIZE);
+				return this.frameBuffer.drawScaledBitmap(tile, tileBitmap.getBitmap(), this.source, this.destination);
+			} finally {
+				tileBitmap.release();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Zooming out: each cached child is scaled down into its quarter of the tile, the others stay as they are.
+	 */
+	private boolean drawChildren(Tile tile, Object mapGeneratorId, MapGeneratorJob mapGeneratorJob,
+			InMemoryTileCache tileCache) {
+		int half = Tile.TILE_SIZE >> 1;
+		byte childZoomLevel = (byte) (tile.zoomLevel + 1);
+		boolean drawn = false;
+		for (int dy = 0; dy < 2; ++dy) {
+			for (int dx = 0; dx < 2; ++dx) {
+				Tile child = new Tile((tile.tileX << 1) + dx, (tile.tileY << 1) + dy, childZoomLevel);
+				TileBitmap tileBitmap = tileCache.peekTileBitmap(new MapGeneratorJob(child, mapGeneratorId,
+						mapGeneratorJob.jobParameters, mapGeneratorJob.debugSettings));
+				if (tileBitmap == null) {
+					continue;
+				}
+
+				try {
+					this.source.set(0, 0, Tile.TILE_SIZE, Tile.TILE_SIZE);
+					this.destination.set(dx * half, dy * half, (dx + 1) * half, (dy + 1) * half);
+					drawn |= this.frameBuffer.drawScaledBitmap(tile, tileBitmap.getBitmap(), this.source,
+							this.destination);
+				} finally {
+					tileBitmap.release();
+				}
+			}
+		}
+		return drawn;
+	}
+}
@@ -26,6 +26,9 @@ import android.graphics.Bitmap.CompressFormat;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.util.Log;
 
 /**
@@ -40,12 +43,18 @@ public class FrameBuffer {
 	private Bitmap mapViewBitmap2;
 	private final Canvas mapViewCanvas;
 	private final Matrix matrix;
+	private final RectF destinationRect;
+	private final Paint scalePaint;
+	private float tileLeft;
+	private float tileTop;
 	private int width;
 
 	FrameBuffer(MapView mapView) {
 		this.mapView = mapView;
 		this.mapViewCanvas = new Canvas();
 		this.matrix = new Matrix();
+		this.destinationRect = new RectF();
+		this.scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
 	}
 
 	/**
@@ -58,6 +67,53 @@ public class FrameBuffer {
 	 * @return true if the tile is visible and the bitmap was drawn, false otherwise.
 	 */
 	public synchronized boolean drawBitmap(Tile tile, Bitmap bitmap) {
+		if (bitmap == null || !prepareTile(tile)) {
+			return false;
+		}
+
+		// draw the tile bitmap at the correct position
+		try {
+			this.mapViewCanvas.drawBitmap(bitmap, this.tileLeft, this.tileTop, null);
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Draws a part of a bitmap of another zoom level, scaled into a part of a tile, as a placeholder until the bitmap
+	 * of the tile itself is drawn.
+	 * 
+	 * @param tile
+	 *            the tile in which the bitmap is drawn.
+	 * @param bitmap
+	 *            the bitmap to be drawn.
+	 * @param source
+	 *            the part of the bitmap to draw.
+	 * @param destination
+	 *            the part of the tile to draw into, relative to the upper left corner of the tile.
+	 * @return true if the tile is visible and the bitmap was drawn, false otherwise.
+	 */
+	public synchronized boolean drawScaledBitmap(Tile tile, Bitmap bitmap, Rect source, Rect destination) {
+		if (bitmap == null || !prepareTile(tile)) {
+			return false;
+		}
+
+		this.destinationRect.set(this.tileLeft + destination.left, this.tileTop + destination.top, this.tileLeft
+				+ destination.right, this.tileTop + destination.bottom);
+		try {
+			this.mapViewCanvas.drawBitmap(bitmap, source, this.destinationRect, this.scalePaint);
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Checks that a tile is visible, applies the pending matrix to the MapView bitmap and computes the position of the
+	 * tile on it.
+	 */
+	private boolean prepareTile(Tile tile) {
 		MapPosition mapPosition = this.mapView.getMapPosition().getMapPosition();
 		if (tile.zoomLevel != mapPosition.zoomLevel) {
 			// the tile doesn't fit to the current zoom level
@@ -81,6 +137,10 @@ public class FrameBuffer {
 			return false;
 		}
 
+		if (this.mapViewCanvas == null || this.mapViewBitmap1 == null) {
+			return false;
+		}
+
 		if (!this.matrix.isIdentity()) {
 			// change the current MapView bitmap
 			this.mapViewBitmap2.eraseColor(MAP_VIEW_BACKGROUND);
@@ -96,18 +156,9 @@ public class FrameBuffer {
 			this.mapViewBitmap2 = mapViewBitmapSwap;
 		}
 
-		// draw the tile bitmap at the correct position
-		float left = (float) (tile.getPixelX() - pixelLeft);
-		float top = (float) (tile.getPixelY() - pixelTop);
-		if (bitmap == null || this.mapViewCanvas == null) {
-			return false;
-		}
-		try {
-			this.mapViewCanvas.drawBitmap(bitmap, left, top, null);
-			return true;
-		} catch (Exception e) {
-			return false;
-		}
+		this.tileLeft = (float) (tile.getPixelX() - pixelLeft);
+		this.tileTop = (float) (tile.getPixelY() - pixelTop);
+		return true;
 	}
 
 	/**
@@ -18,10 +18,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.graphics.Canvas;
 import android.util.AttributeSet;
@@ -42,7 +42,10 @@ import org.mapsforge.android.maps.mapgenerator.MapGenerator;
 import org.mapsforge.android.maps.mapgenerator.MapGeneratorFactory;
 import org.mapsforge.android.maps.mapgenerator.MapGeneratorJob;
 import org.mapsforge.android.maps.mapgenerator.MapWorker;
+import org.mapsforge.android.maps.mapgenerator.TileBitmap;
 import org.mapsforge.android.maps.mapgenerator.TileCache;
+import org.mapsforge.android.maps.mapgenerator.TileMemoryManager;
+import org.mapsforge.android.maps.mapgenerator.TilePrefetcher;
 import org.mapsforge.android.maps.mapgenerator.databaserenderer.DatabaseRenderer;
 import org.mapsforge.android.maps.mapgenerator.databaserenderer.ExternalRenderTheme;
 import org.mapsforge.android.maps.mapgenerator.tiledownloader.TileDownloader;
@@ -82,13 +85,17 @@ public class MapView extends ViewGroup {
 
     private static final float DEFAULT_TEXT_SCALE = 1;
     private static final int DEFAULT_TILE_CACHE_SIZE_FILE_SYSTEM = 100;
-    private static final int DEFAULT_TILE_CACHE_SIZE_IN_MEMORY = 20;
+    /**
+     * The part of the in-memory cache which can be filled by prefetched tiles (1/n).
+     */
+    private static final int PREFETCH_CACHE_FRACTION = 4;
 
     private DebugSettings debugSettings;
+    private final FallbackTileCompositor fallbackTileCompositor;
     private TileCache fileSystemTileCache;
     private final FpsCounter fpsCounter;
     private final FrameBuffer frameBuffer;
-    private TileCache inMemoryTileCache;
+    private InMemoryTileCache inMemoryTileCache;
     private JobParameters jobParameters;
     private final JobQueue jobQueue;
     private final MapController mapController;
@@ -102,6 +109,7 @@ public class MapView extends ViewGroup {
     private final MapZoomControls mapZoomControls;
     private final List<Overlay> overlays;
     private final Projection projection;
+    private final TilePrefetcher tilePrefetcher;
     private final TouchEventHandler touchEventHandler;
     private final ZoomAnimator zoomAnimator;
 
@@ -150,11 +158,14 @@ public class MapView extends ViewGroup {
         } catch (Exception e) {
             GPLog.error(this, "ERROR:", e);
         }
-        this.inMemoryTileCache = new InMemoryTileCache(DEFAULT_TILE_CACHE_SIZE_IN_MEMORY);
+        // sized on the memory of the device
+        this.inMemoryTileCache = new InMemoryTileCache();
         this.fpsCounter = new FpsCounter();
         this.frameBuffer = new FrameBuffer(this);
+        this.fallbackTileCompositor = new FallbackTileCompositor(this.frameBuffer);
         this.jobParameters = new JobParameters(DEFAULT_RENDER_THEME, DEFAULT_TEXT_SCALE);
         this.jobQueue = new JobQueue(this);
+        this.tilePrefetcher = new TilePrefetcher();
         this.mapController = new MapController(this);
         this.mapDatabase = new MapDatabase();
         this.mapViewPosition = new MapViewPosition(this);
@@ -319,6 +330,13 @@ public class MapView extends ViewGroup {
         return this.projection;
     }
 
+    /**
+     * @return the predictor of the map motion, to which the GPS motion can be supplied.
+     */
+    public TilePrefetcher getTilePrefetcher() {
+        return this.tilePrefetcher;
+    }
+
     /**
      * Calls either {@link #invalidate()} or {@link #postInvalidate()}, depending on the current thread.
      */
@@ -402,26 +420,38 @@ public class MapView extends ViewGroup {
                 MapGeneratorJob mapGeneratorJob = new MapGeneratorJob(tile, cacheId, this.jobParameters,
                         this.debugSettings);
 
-                if (this.inMemoryTileCache.containsKey(mapGeneratorJob)) {
-                    Bitmap bitmap = this.inMemoryTileCache.get(mapGeneratorJob);
-                    this.frameBuffer.drawBitmap(mapGeneratorJob.tile, bitmap);
+                TileBitmap tileBitmap = this.inMemoryTileCache.getTileBitmap(mapGeneratorJob);
+                if (tileBitmap != null) {
+                    try {
+                        this.frameBuffer.drawBitmap(mapGeneratorJob.tile, tileBitmap.getBitmap());
+                    } finally {
+                        tileBitmap.release();
+                    }
                 } else if (this.fileSystemTileCache != null && this.fileSystemTileCache.containsKey(mapGeneratorJob)) {
-                    Bitmap bitmap = this.fileSystemTileCache.get(mapGeneratorJob);
-
-                    if (bitmap != null) {
-                        this.frameBuffer.drawBitmap(mapGeneratorJob.tile, bitmap);
-                        this.inMemoryTileCache.put(mapGeneratorJob, bitmap);
+                    tileBitmap = this.fileSystemTileCache.getTileBitmap(mapGeneratorJob);
+
+                    if (tileBitmap != null) {
+                        try {
+                            this.frameBuffer.drawBitmap(mapGeneratorJob.tile, tileBitmap.getBitmap());
+                            this.inMemoryTileCache.put(mapGeneratorJob, tileBitmap);
+                        } finally {
+                            tileBitmap.release();
+                        }
                     } else {
                         // the image data could not be read from the cache
+                        drawFallbackTile(mapGeneratorJob, cacheId);
                         this.jobQueue.addJob(mapGeneratorJob);
                     }
                 } else {
-                    // cache miss
+                    // cache miss, show the scaled neighbour levels until the tile is rendered
+                    drawFallbackTile(mapGeneratorJob, cacheId);
                     this.jobQueue.addJob(mapGeneratorJob);
                 }
             }
         }
 
+        prefetchTiles(pixelLeft, pixelTop, mapPosition.zoomLevel, cacheId);
+
         if (this.mapScaleBar.isShowMapScaleBar()) {
             this.mapScaleBar.redrawScaleBar();
         }
@@ -721,11 +751,45 @@ public class MapView extends ViewGroup {
         this.touchEventHandler.destroy();
         this.mapScaleBar.destroy();
         this.inMemoryTileCache.destroy();
-        this.fileSystemTileCache.destroy();
+        if (this.fileSystemTileCache != null) {
+            this.fileSystemTileCache.destroy();
+        }
+        // the pooled bitmaps are not needed until a map view is used again
+        TileMemoryManager.getInstance().trim();
 
         this.mapDatabase.closeFile();
     }
 
+    /**
+     * Queues the tiles along the predicted motion of the map, replacing the previous prediction.
+     */
+    private void prefetchTiles(double pixelLeft, double pixelTop, byte zoomLevel, Object cacheId) {
+        long time = System.currentTimeMillis();
+        this.tilePrefetcher.onMapPosition(pixelLeft + (getWidth() >> 1), pixelTop + (getHeight() >> 1), zoomLevel,
+                time);
+
+        // keep most of this view's share of the in-memory cache for the visible tiles
+        int budget = TileMemoryManager.getInstance().getSharedTileCapacity() / PREFETCH_CACHE_FRACTION;
+        List<Tile> tiles = this.tilePrefetcher.predictTiles(pixelLeft, pixelTop, getWidth(), getHeight(), zoomLevel,
+                time, budget);
+        List<MapGeneratorJob> prefetchJobs = new ArrayList<>(tiles.size());
+        for (Tile tile : tiles) {
+            MapGeneratorJob mapGeneratorJob = new MapGeneratorJob(tile, cacheId, this.jobParameters, this.debugSettings);
+            if (this.inMemoryTileCache.containsKey(mapGeneratorJob)) {
+                continue;
+            } else if (this.fileSystemTileCache != null && this.fileSystemTileCache.containsKey(mapGeneratorJob)) {
+                continue;
+            }
+            prefetchJobs.add(mapGeneratorJob);
+        }
+        this.jobQueue.setPrefetchJobs(prefetchJobs);
+    }
+
+    private void drawFallbackTile(MapGeneratorJob mapGeneratorJob, Object cacheId) {
+        this.fallbackTileCompositor.drawFallback(mapGeneratorJob, cacheId, this.inMemoryTileCache,
+                getMaximumPossibleZoomLevel());
+    }
+
     /**
      * @return the maximum possible zoom level.
      */
@@ -33,7 +33,6 @@ import org.mapsforge.core.model.Tile;
 import org.mapsforge.core.util.IOUtils;
 
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
 import android.os.Environment;
 
 /**
@@ -187,7 +186,6 @@ public class FileSystemTileCache implements TileCache {
 		}
 	}
 
-	private final Bitmap bitmapGet;
 	private final ByteBuffer byteBuffer;
 	private final File cacheDirectory;
 	private long cacheId;
@@ -217,7 +215,6 @@ public class FileSystemTileCache implements TileCache {
 			this.map = deserializedMap;
 		}
 		this.byteBuffer = ByteBuffer.allocate(Tile.TILE_SIZE_IN_BYTES);
-		this.bitmapGet = Bitmap.createBitmap(Tile.TILE_SIZE, Tile.TILE_SIZE, Config.RGB_565);
 	}
 
 	@Override
@@ -250,8 +247,22 @@ public class FileSystemTileCache implements TileCache {
 		}
 	}
 
+	/**
+	 * The returned bitmap belongs to the caller, use {@link #getTileBitmap(MapGeneratorJob)} to read into a pooled
+	 * bitmap instead.
+	 */
+	@Override
+	public Bitmap get(MapGeneratorJob mapGeneratorJob) {
+		TileBitmap tileBitmap = getTileBitmap(mapGeneratorJob);
+		if (tileBitmap == null) {
+			return null;
+		}
+		// the reference is never released, so the bitmap doesn't go back to the pool
+		return tileBitmap.getBitmap();
+	}
+
 	@Override
-	public synchronized Bitmap get(MapGeneratorJob mapGeneratorJob) {
+	public synchronized TileBitmap getTileBitmap(MapGeneratorJob mapGeneratorJob) {
 		if (this.capacity == 0) {
 			return null;
 		}
@@ -259,20 +270,20 @@ public class FileSystemTileCache implements TileCache {
 		FileInputStream fileInputStream = null;
 		try {
 			File inputFile = this.map.get(mapGeneratorJob);
-            if (inputFile !=null) {
-                fileInputStream = new FileInputStream(inputFile);
-                byte[] array = this.byteBuffer.array();
-                int bytesRead = fileInputStream.read(array);
-
-                if (bytesRead == array.length) {
-                    this.byteBuffer.rewind();
-                    this.bitmapGet.copyPixelsFromBuffer(this.byteBuffer);
-                    return this.bitmapGet;
-                }
-            }else{
-                this.map.remove(mapGeneratorJob);
-                return null;
-            }
+			if (inputFile == null) {
+				this.map.remove(mapGeneratorJob);
+				return null;
+			}
+			fileInputStream = new FileInputStream(inputFile);
+			byte[] array = this.byteBuffer.array();
+			int bytesRead = fileInputStream.read(array);
+
+			if (bytesRead == array.length) {
+				this.byteBuffer.rewind();
+				TileBitmap tileBitmap = TileMemoryManager.getInstance().obtain();
+				tileBitmap.getBitmap().copyPixelsFromBuffer(this.byteBuffer);
+				return tileBitmap;
+			}
 			return null;
 		} catch (FileNotFoundException e) {
 			this.map.remove(mapGeneratorJob);
@@ -344,6 +355,11 @@ public class FileSystemTileCache implements TileCache {
 		}
 	}
 
+	@Override
+	public void put(MapGeneratorJob mapGeneratorJob, TileBitmap tileBitmap) {
+		put(mapGeneratorJob, tileBitmap.getBitmap());
+	}
+
 	@Override
 	public synchronized void setCapacity(int capacity) {
 		if (this.capacity == capacity) {
@@ -14,20 +14,24 @@
  */
 package org.mapsforge.android.maps.mapgenerator;
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.mapsforge.core.model.Tile;
-
-//import sun.security.krb5.Config;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
 
 /**
  * A thread-safe cache for tile images with a fixed size and LRU policy.
+ * <p/>
+ * The tile images are {@link TileBitmap}s of the shared {@link TileMemoryManager} pool. They are kept by reference,
+ * without copying their pixels, and go back to the pool when evicted and no longer used.
+ * <p/>
+ * A cache sized on the byte budget of the {@link TileMemoryManager} shares it with the other live caches of the same
+ * kind, so that more map views don't multiply the memory used. When caches are added, the others shrink at their next
+ * put.
  */
 public class InMemoryTileCache implements TileCache {
 	/**
@@ -35,34 +39,6 @@ public class InMemoryTileCache implements TileCache {
 	 */
 	private static final float LOAD_FACTOR = 0.6f;
 
-	private static List<Bitmap> createBitmapPool(int poolSize) {
-		List<Bitmap> bitmaps = new ArrayList<>();
-
-		for (int i = 0; i < poolSize; ++i) {
-			Bitmap bitmap = Bitmap.createBitmap(Tile.TILE_SIZE, Tile.TILE_SIZE, Config.RGB_565);
-			bitmaps.add(bitmap);
-		}
-
-		return bitmaps;
-	}
-
-	private static Map<MapGeneratorJob, Bitmap> createMap(final int mapCapacity, final List<Bitmap> bitmapPool) {
-		int initialCapacity = (int) (mapCapacity / LOAD_FACTOR) + 2;
-
-		return new LinkedHashMap<MapGeneratorJob, Bitmap>(initialCapacity, LOAD_FACTOR, true) {
-			private static final long serialVersionUID = 1L;
-
-			@Override
-			protected boolean removeEldestEntry(Map.Entry<MapGeneratorJob, Bitmap> eldestEntry) {
-				if (size() > mapCapacity) {
-					remove(eldestEntry.getKey());
-					bitmapPool.add(eldestEntry.getValue());
-				}
-				return false;
-			}
-		};
-	}
-
 	private static int getCapacity(int capacity) {
 		if (capacity < 0) {
 			throw new IllegalArgumentException("capacity must not be negative: " + capacity);
@@ -70,10 +46,24 @@ public class InMemoryTileCache implements TileCache {
 		return capacity;
 	}
 
-	private final List<Bitmap> bitmapPool;
-	private final ByteBuffer byteBuffer;
 	private final int capacity;
-	private final Map<MapGeneratorJob, Bitmap> map;
+	private final Map<MapGeneratorJob, TileBitmap> map;
+	private final TileMemoryManager tileMemoryManager;
+	/**
+	 * If true, the capacity is the share of the byte budget of the {@link TileMemoryManager}.
+	 */
+	private final boolean shared;
+	/**
+	 * If true, the cache is counted among the caches sharing the budget, guarded by the map.
+	 */
+	private boolean registered;
+
+	/**
+	 * Creates a cache sized on its share of the byte budget of the {@link TileMemoryManager}.
+	 */
+	public InMemoryTileCache() {
+		this(TileMemoryManager.getInstance().getTileCapacity(), true);
+	}
 
 	/**
 	 * @param capacity
@@ -82,10 +72,20 @@ public class InMemoryTileCache implements TileCache {
 	 *             if the capacity is negative.
 	 */
 	public InMemoryTileCache(int capacity) {
+		this(capacity, false);
+	}
+
+	private InMemoryTileCache(int capacity, boolean shared) {
 		this.capacity = getCapacity(capacity);
-		this.bitmapPool = createBitmapPool(this.capacity + 1);
-		this.map = createMap(this.capacity, this.bitmapPool);
-		this.byteBuffer = ByteBuffer.allocate(Tile.TILE_SIZE_IN_BYTES);
+		this.shared = shared;
+		this.tileMemoryManager = TileMemoryManager.getInstance();
+		int initialCapacity = (int) (this.capacity / LOAD_FACTOR) + 2;
+		// insertion order, the used entries are moved to the end by hand, so that they can be peeked at
+		this.map = new LinkedHashMap<>(initialCapacity, LOAD_FACTOR, false);
+		if (shared) {
+			this.tileMemoryManager.addSharedCache();
+			this.registered = true;
+		}
 	}
 
 	@Override
@@ -95,30 +95,78 @@ public class InMemoryTileCache implements TileCache {
 		}
 	}
 
+	/**
+	 * Removes all tile images and gives back the share of the memory budget. The cache can still be used afterwards.
+	 */
 	@Override
 	public void destroy() {
+		List<TileBitmap> removed;
 		synchronized (this.map) {
-			for (Bitmap bitmap : this.map.values()) {
-				bitmap.recycle();
-			}
+			removed = new ArrayList<>(this.map.values());
 			this.map.clear();
-
-			for (Bitmap bitmap : this.bitmapPool) {
-				bitmap.recycle();
+			if (this.registered) {
+				this.tileMemoryManager.removeSharedCache();
+				this.registered = false;
 			}
-			this.bitmapPool.clear();
+		}
+		for (TileBitmap tileBitmap : removed) {
+			tileBitmap.release();
 		}
 	}
 
+	/**
+	 * The returned bitmap is only valid until the tile is evicted, use {@link #getTileBitmap(MapGeneratorJob)} to
+	 * hold it safely.
+	 */
 	@Override
 	public Bitmap get(MapGeneratorJob mapGeneratorJob) {
 		synchronized (this.map) {
-			return this.map.get(mapGeneratorJob);
+			TileBitmap tileBitmap = touch(mapGeneratorJob);
+			if (tileBitmap == null) {
+				this.tileMemoryManager.recordMiss();
+				return null;
+			}
+			this.tileMemoryManager.recordHit();
+			return tileBitmap.getBitmap();
+		}
+	}
+
+	@Override
+	public TileBitmap getTileBitmap(MapGeneratorJob mapGeneratorJob) {
+		synchronized (this.map) {
+			TileBitmap tileBitmap = touch(mapGeneratorJob);
+			if (tileBitmap == null) {
+				this.tileMemoryManager.recordMiss();
+				return null;
+			}
+			this.tileMemoryManager.recordHit();
+			return tileBitmap.acquire();
+		}
+	}
+
+	/**
+	 * Gets a tile image as {@link #getTileBitmap(MapGeneratorJob)} does, but without counting a hit or a miss and
+	 * without making it the most recently used, as for the lookups of placeholder tiles.
+	 *
+	 * @param mapGeneratorJob
+	 *            the key of the tile image.
+	 * @return the tile image, with one reference owned by the caller, or null if the tile is not cached.
+	 */
+	public TileBitmap peekTileBitmap(MapGeneratorJob mapGeneratorJob) {
+		synchronized (this.map) {
+			TileBitmap tileBitmap = this.map.get(mapGeneratorJob);
+			if (tileBitmap == null) {
+				return null;
+			}
+			return tileBitmap.acquire();
 		}
 	}
 
 	@Override
 	public int getCapacity() {
+		if (this.shared) {
+			return this.tileMemoryManager.getSharedTileCapacity();
+		}
 		return this.capacity;
 	}
 
@@ -127,26 +175,64 @@ public class InMemoryTileCache implements TileCache {
 		return false;
 	}
 
+	/**
+	 * Copies the given bitmap into a pooled one, prefer {@link #put(MapGeneratorJob, TileBitmap)} to avoid the copy.
+	 */
 	@Override
 	public void put(MapGeneratorJob mapGeneratorJob, Bitmap bitmap) {
-		if (this.capacity == 0) {
+		if (getCapacity() == 0) {
 			return;
 		}
 
+		TileBitmap tileBitmap = this.tileMemoryManager.obtain();
+		try {
+			new Canvas(tileBitmap.getBitmap()).drawBitmap(bitmap, 0, 0, null);
+			put(mapGeneratorJob, tileBitmap);
+		} finally {
+			tileBitmap.release();
+		}
+	}
+
+	@Override
+	public void put(MapGeneratorJob mapGeneratorJob, TileBitmap tileBitmap) {
+		List<TileBitmap> removed = new ArrayList<>(1);
 		synchronized (this.map) {
-			if (this.bitmapPool.isEmpty()) {
+			if (this.shared && !this.registered) {
+				// used again after a destroy
+				this.tileMemoryManager.addSharedCache();
+				this.registered = true;
+			}
+			int currentCapacity = getCapacity();
+			if (currentCapacity == 0) {
 				return;
 			}
+			TileBitmap previous = this.map.remove(mapGeneratorJob);
+			this.map.put(mapGeneratorJob, tileBitmap.acquire());
+			if (previous != null) {
+				removed.add(previous);
+			}
+			Iterator<TileBitmap> iterator = this.map.values().iterator();
+			while (this.map.size() > currentCapacity && iterator.hasNext()) {
+				// the eldest entries come first
+				removed.add(iterator.next());
+				iterator.remove();
+				this.tileMemoryManager.recordEviction();
+			}
+		}
+		for (TileBitmap removedTileBitmap : removed) {
+			removedTileBitmap.release();
+		}
+	}
 
-			Bitmap pooledBitmap = this.bitmapPool.remove(this.bitmapPool.size() - 1);
-
-			this.byteBuffer.rewind();
-			bitmap.copyPixelsToBuffer(this.byteBuffer);
-			this.byteBuffer.rewind();
-			pooledBitmap.copyPixelsFromBuffer(this.byteBuffer);
-
-			this.map.put(mapGeneratorJob, pooledBitmap);
+	/**
+	 * Makes a tile the most recently used one, must be called holding the map lock.
+	 */
+	private TileBitmap touch(MapGeneratorJob mapGeneratorJob) {
+		TileBitmap tileBitmap = this.map.remove(mapGeneratorJob);
+		if (tileBitmap != null) {
+			this.map.put(mapGeneratorJob, tileBitmap);
 		}
+		return tileBitmap;
 	}
 
 	@Override
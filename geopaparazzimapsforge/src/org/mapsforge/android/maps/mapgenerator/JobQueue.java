@@ -14,7 +14,10 @@
  */
 package org.mapsforge.android.maps.mapgenerator;
 
+import java.util.HashSet;
+import java.util.List;
 import java.util.PriorityQueue;
+import java.util.Set;
 
 import org.mapsforge.android.maps.MapView;
 
@@ -25,6 +28,7 @@ public class JobQueue {
 	private static final int INITIAL_CAPACITY = 128;
 
 	private final MapView mapView;
+	private final Set<MapGeneratorJob> prefetchJobs;
 	private PriorityQueue<MapGeneratorJob> priorityQueue;
 	private boolean scheduleNeeded;
 
@@ -34,26 +38,62 @@ public class JobQueue {
 	 */
 	public JobQueue(MapView mapView) {
 		this.mapView = mapView;
+		this.prefetchJobs = new HashSet<>();
 		this.priorityQueue = new PriorityQueue<>(INITIAL_CAPACITY);
 	}
 
 	/**
-	 * Adds the given job to this queue. Does nothing if the given job is already in this queue.
+	 * Adds the given job to this queue. Does nothing if the given job is already in this queue, except promoting it if
+	 * it was queued as a prefetch job.
 	 * 
 	 * @param mapGeneratorJob
 	 *            the job to be added to this queue.
 	 */
 	public synchronized void addJob(MapGeneratorJob mapGeneratorJob) {
+		if (this.prefetchJobs.remove(mapGeneratorJob)) {
+			// the tile became visible before being prefetched
+			this.priorityQueue.remove(mapGeneratorJob);
+		}
 		if (!this.priorityQueue.contains(mapGeneratorJob)) {
 			this.priorityQueue.offer(mapGeneratorJob);
 		}
 	}
 
+	/**
+	 * Replaces the prefetch jobs of this queue. Prefetch jobs render tiles which are not visible yet, along the
+	 * predicted motion of the map, and come after all the other jobs. The previous prefetch jobs which are not in the
+	 * given list are cancelled.
+	 * 
+	 * @param mapGeneratorJobs
+	 *            the new prefetch jobs, already limited to the prefetch budget.
+	 */
+	public synchronized void setPrefetchJobs(List<MapGeneratorJob> mapGeneratorJobs) {
+		Set<MapGeneratorJob> newPrefetchJobs = new HashSet<>(mapGeneratorJobs);
+		for (MapGeneratorJob mapGeneratorJob : this.prefetchJobs) {
+			if (!newPrefetchJobs.contains(mapGeneratorJob)) {
+				// the prediction changed
+				this.priorityQueue.remove(mapGeneratorJob);
+			}
+		}
+		this.prefetchJobs.retainAll(newPrefetchJobs);
+
+		for (MapGeneratorJob mapGeneratorJob : mapGeneratorJobs) {
+			if (this.prefetchJobs.contains(mapGeneratorJob) || this.priorityQueue.contains(mapGeneratorJob)) {
+				continue;
+			}
+			mapGeneratorJob.setPrefetch(true);
+			mapGeneratorJob.setPriority(TileScheduler.getPriority(mapGeneratorJob.tile, this.mapView, true));
+			this.priorityQueue.offer(mapGeneratorJob);
+			this.prefetchJobs.add(mapGeneratorJob);
+		}
+	}
+
 	/**
 	 * Removes all jobs from this queue.
 	 */
 	public synchronized void clear() {
 		this.priorityQueue.clear();
+		this.prefetchJobs.clear();
 	}
 
 	/**
@@ -71,7 +111,11 @@ public class JobQueue {
 			this.scheduleNeeded = false;
 			schedule();
 		}
-		return this.priorityQueue.poll();
+		MapGeneratorJob mapGeneratorJob = this.priorityQueue.poll();
+		if (mapGeneratorJob != null && mapGeneratorJob.isPrefetch()) {
+			this.prefetchJobs.remove(mapGeneratorJob);
+		}
+		return mapGeneratorJob;
 	}
 
 	/**
@@ -89,7 +133,8 @@ public class JobQueue {
 
 		while (!this.priorityQueue.isEmpty()) {
 			MapGeneratorJob mapGeneratorJob = this.priorityQueue.poll();
-			double priority = TileScheduler.getPriority(mapGeneratorJob.tile, this.mapView);
+			double priority = TileScheduler.getPriority(mapGeneratorJob.tile, this.mapView,
+					mapGeneratorJob.isPrefetch());
 			mapGeneratorJob.setPriority(priority);
 			tempJobQueue.offer(mapGeneratorJob);
 		}
@@ -45,6 +45,7 @@ public class MapGeneratorJob implements Comparable<MapGeneratorJob>, Serializabl
 
 	private transient int hashCodeValue;
 	private final Object mapGeneratorId;
+	private transient boolean prefetch;
 	private transient double priority;
 
 	/**
@@ -146,6 +147,17 @@ public class MapGeneratorJob implements Comparable<MapGeneratorJob>, Serializabl
 		calculateTransientValues();
 	}
 
+	/**
+	 * @return true if this job renders a tile ahead of the map motion, which is not visible yet.
+	 */
+	public boolean isPrefetch() {
+		return this.prefetch;
+	}
+
+	void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
+
 	void setPriority(double priority) {
 		this.priority = priority;
 	}
@@ -16,9 +16,7 @@ package org.mapsforge.android.maps.mapgenerator;
 
 import org.mapsforge.android.maps.MapView;
 import org.mapsforge.android.maps.PausableThread;
-import org.mapsforge.core.model.Tile;
 
-import android.graphics.Bitmap;
 import android.util.Log;
 
 /**
@@ -33,7 +31,7 @@ public class MapWorker extends PausableThread {
     private JobQueue jobQueue;
     private MapGenerator mapGenerator;
     private MapView mapView;
-    private Bitmap tileBitmap;
+    private TileMemoryManager tileMemoryManager;
 
     /**
      * @param mapView the MapView for which this MapWorker generates map tiles.
@@ -44,7 +42,7 @@ public class MapWorker extends PausableThread {
         this.jobQueue = mapView.getJobQueue();
         this.inMemoryTileCache = mapView.getInMemoryTileCache();
         this.fileSystemTileCache = mapView.getFileSystemTileCache();
-        this.tileBitmap = Bitmap.createBitmap(Tile.TILE_SIZE, Tile.TILE_SIZE, Bitmap.Config.RGB_565);
+        this.tileMemoryManager = TileMemoryManager.getInstance();
     }
 
     /**
@@ -61,8 +59,7 @@ public class MapWorker extends PausableThread {
         this.fileSystemTileCache = null;
         this.inMemoryTileCache = null;
         this.jobQueue = null;
-        this.tileBitmap.recycle();
-        this.tileBitmap = null;
+        this.tileMemoryManager = null;
     }
 
     @Override
@@ -78,20 +75,30 @@ public class MapWorker extends PausableThread {
             return;
         }
 
-        boolean success;
+        // a pooled bitmap, handed to the caches by reference
+        TileBitmap tileBitmap = this.tileMemoryManager.obtain();
         try {
-            success = this.mapGenerator.executeJob(mapGeneratorJob, this.tileBitmap);
-        } catch (Exception e) {
-            Log.e(THREAD_NAME, "Error with tile: " + this.tileBitmap + ": " + e.getLocalizedMessage());
-            success = false;
-        }
+            boolean success;
+            try {
+                success = this.mapGenerator.executeJob(mapGeneratorJob, tileBitmap.getBitmap());
+            } catch (Exception e) {
+                Log.e(THREAD_NAME, "Error with tile: " + mapGeneratorJob.tile + ": " + e.getLocalizedMessage());
+                success = false;
+            }
 
-        if (!isInterrupted() && success) {
-            if (this.mapView.getFrameBuffer().drawBitmap(mapGeneratorJob.tile, this.tileBitmap)) {
-                this.inMemoryTileCache.put(mapGeneratorJob, this.tileBitmap);
+            if (!isInterrupted() && success) {
+                if (this.mapView.getFrameBuffer().drawBitmap(mapGeneratorJob.tile, tileBitmap.getBitmap())
+                        || mapGeneratorJob.isPrefetch()) {
+                    // prefetched tiles are kept for when the map gets there
+                    this.inMemoryTileCache.put(mapGeneratorJob, tileBitmap);
+                }
+                this.mapView.postInvalidate();
+                if (this.fileSystemTileCache != null) {
+                    this.fileSystemTileCache.put(mapGeneratorJob, tileBitmap);
+                }
             }
-            this.mapView.postInvalidate();
-            this.fileSystemTileCache.put(mapGeneratorJob, this.tileBitmap);
+        } finally {
+            tileBitmap.release();
         }
     }
 
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2010, 2011, 2012 mapsforge.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mapsforge.android.maps.mapgenerator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A thread-safe LRU cache of the decoded tile images read from tile databases, bounded in bytes.
+ * <p/>
+ * Decoding a database tile costs more than copying it, so the decoded images are kept here, independently of the map
+ * view they are shown in, and survive the eviction from the {@link InMemoryTileCache}. The images are
+ * {@link TileBitmap}s of the shared {@link TileMemoryManager} pool and the cache uses its part of the byte budget of
+ * the manager, see {@link TileMemoryManager#getRasterCacheBudgetBytes()}.
+ */
+public final class RasterTileCache {
+	private static RasterTileCache instance;
+
+	/**
+	 * @return the shared cache of the decoded database tiles.
+	 */
+	public static synchronized RasterTileCache getInstance() {
+		if (instance == null) {
+			TileMemoryManager tileMemoryManager = TileMemoryManager.getInstance();
+			instance = new RasterTileCache(tileMemoryManager, tileMemoryManager.getRasterCacheBudgetBytes());
+		}
+		return instance;
+	}
+
+	private final long capacityBytes;
+	private final Map<String, TileBitmap> map;
+	private long sizeBytes;
+	private final TileMemoryManager tileMemoryManager;
+
+	private RasterTileCache(TileMemoryManager tileMemoryManager, long capacityBytes) {
+		this.tileMemoryManager = tileMemoryManager;
+		this.capacityBytes = capacityBytes;
+		this.map = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	/**
+	 * @param key
+	 *            the key of the tile.
+	 * @return true if the tile is cached, false otherwise.
+	 */
+	public boolean containsKey(String key) {
+		synchronized (this.map) {
+			return this.map.containsKey(key);
+		}
+	}
+
+	/**
+	 * @param key
+	 *            the key of the tile.
+	 * @return the tile image, with one reference owned by the caller, or null if the tile is not cached.
+	 */
+	public TileBitmap get(String key) {
+		synchronized (this.map) {
+			TileBitmap tileBitmap = this.map.get(key);
+			if (tileBitmap == null) {
+				this.tileMemoryManager.recordMiss();
+				return null;
+			}
+			this.tileMemoryManager.recordHit();
+			return tileBitmap.acquire();
+		}
+	}
+
+	/**
+	 * Adds a tile image, the least recently used images are evicted to stay within the byte budget.
+	 *
+	 * @param key
+	 *            the key of the tile.
+	 * @param tileBitmap
+	 *            the tile image, the cache takes its own reference.
+	 */
+	public void put(String key, TileBitmap tileBitmap) {
+		if (this.capacityBytes <= 0) {
+			return;
+		}
+
+		List<TileBitmap> removed = new ArrayList<>(1);
+		synchronized (this.map) {
+			TileBitmap previous = this.map.put(key, tileBitmap.acquire());
+			this.sizeBytes += getSizeBytes(tileBitmap);
+			if (previous != null) {
+				this.sizeBytes -= getSizeBytes(previous);
+				removed.add(previous);
+			}
+			Iterator<TileBitmap> iterator = this.map.values().iterator();
+			while (this.sizeBytes > this.capacityBytes && iterator.hasNext()) {
+				// the eldest entries come first
+				TileBitmap eldest = iterator.next();
+				this.sizeBytes -= getSizeBytes(eldest);
+				removed.add(eldest);
+				iterator.remove();
+				this.tileMemoryManager.recordEviction();
+			}
+		}
+		for (TileBitmap removedTileBitmap : removed) {
+			removedTileBitmap.release();
+		}
+	}
+
+	/**
+	 * Removes the tile images whose key starts with the given prefix, as for example the tiles of a closed database.
+	 *
+	 * @param keyPrefix
+	 *            the prefix of the keys.
+	 */
+	public void removeAll(String keyPrefix) {
+		List<TileBitmap> removed = new ArrayList<>();
+		synchronized (this.map) {
+			Iterator<Map.Entry<String, TileBitmap>> iterator = this.map.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, TileBitmap> entry = iterator.next();
+				if (entry.getKey().startsWith(keyPrefix)) {
+					this.sizeBytes -= getSizeBytes(entry.getValue());
+					removed.add(entry.getValue());
+					iterator.remove();
+				}
+			}
+		}
+		for (TileBitmap tileBitmap : removed) {
+			tileBitmap.release();
+		}
+	}
+
+	/**
+	 * @return the size of the cached tile images in bytes.
+	 */
+	public long getSizeBytes() {
+		synchronized (this.map) {
+			return this.sizeBytes;
+		}
+	}
+
+	private static long getSizeBytes(TileBitmap tileBitmap) {
+		return tileBitmap.getBitmap().getAllocationByteCount();
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010, 2011, 2012 mapsforge.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mapsforge.android.maps.mapgenerator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+
+/**
+ * A reference counted tile image from the {@link TileMemoryManager} pool.
+ * <p/>
+ * Every holder of a tile bitmap owns one reference, taken with {@link #acquire()} or when the bitmap is obtained from
+ * the manager, and gives it back with {@link #release()}. When the last reference is released, the bitmap goes back to
+ * the pool. This allows to hand the same pixels from the worker to the caches without copying them.
+ */
+public final class TileBitmap {
+	private final Bitmap bitmap;
+	private final AtomicInteger referenceCount = new AtomicInteger(1);
+	private final TileMemoryManager tileMemoryManager;
+
+	TileBitmap(Bitmap bitmap, TileMemoryManager tileMemoryManager) {
+		this.bitmap = bitmap;
+		this.tileMemoryManager = tileMemoryManager;
+	}
+
+	/**
+	 * Takes an additional reference to this tile bitmap.
+	 *
+	 * @return this tile bitmap.
+	 * @throws IllegalStateException
+	 *             if the tile bitmap has already been released.
+	 */
+	public TileBitmap acquire() {
+		while (true) {
+			int count = this.referenceCount.get();
+			if (count <= 0) {
+				throw new IllegalStateException("tile bitmap already released");
+			}
+			if (this.referenceCount.compareAndSet(count, count + 1)) {
+				return this;
+			}
+		}
+	}
+
+	/**
+	 * @return the bitmap, valid as long as a reference is held.
+	 */
+	public Bitmap getBitmap() {
+		return this.bitmap;
+	}
+
+	/**
+	 * Gives back a reference to this tile bitmap.
+	 */
+	public void release() {
+		int count = this.referenceCount.decrementAndGet();
+		if (count == 0) {
+			this.tileMemoryManager.recycle(this.bitmap);
+		} else if (count < 0) {
+			throw new IllegalStateException("tile bitmap released too often");
+		}
+	}
+}
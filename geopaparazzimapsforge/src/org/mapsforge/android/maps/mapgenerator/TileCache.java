@@ -39,6 +39,16 @@ public interface TileCache {
 	 */
 	Bitmap get(MapGeneratorJob mapGeneratorJob);
 
+	/**
+	 * Gets a tile image without copying it. The returned tile bitmap holds a reference that has to be released by the
+	 * caller.
+	 * 
+	 * @param mapGeneratorJob
+	 *            the key of the tile image.
+	 * @return the tile image for the given key or null, if this cache contains no tile image for the key.
+	 */
+	TileBitmap getTileBitmap(MapGeneratorJob mapGeneratorJob);
+
 	/**
 	 * @return the current capacity of this cache.
 	 */
@@ -59,6 +69,17 @@ public interface TileCache {
 	 */
 	void put(MapGeneratorJob mapGeneratorJob, Bitmap bitmap);
 
+	/**
+	 * Adds another tile image to this cache. The cache takes its own reference to the tile bitmap if it keeps it, the
+	 * reference of the caller is not consumed.
+	 * 
+	 * @param mapGeneratorJob
+	 *            the key of the tile image.
+	 * @param tileBitmap
+	 *            the tile image.
+	 */
+	void put(MapGeneratorJob mapGeneratorJob, TileBitmap tileBitmap);
+
 	/**
 	 * Sets the new size of this cache. If this cache already contains more items than the new capacity allows, items
 	 * are discarded based on the cache policy.
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2010, 2011, 2012 mapsforge.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mapsforge.android.maps.mapgenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mapsforge.core.model.Tile;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+/**
+ * The memory manager of the tile images, shared by all map views and tile sources.
+ * <p/>
+ * It owns a pool of reusable tile bitmaps, handed out as reference counted {@link TileBitmap}s, and defines the byte
+ * budget of the in-memory tile caches as a fraction of the maximum heap size of the application. The budget is shared
+ * by the {@link InMemoryTileCache}s and the {@link RasterTileCache} of the decoded database tiles, the tiles part is
+ * divided among the live in-memory caches sized on the budget. Hits, misses and evictions of the in-memory caches are
+ * counted here.
+ */
+public final class TileMemoryManager {
+	/**
+	 * The part of the maximum heap size used for the cached tiles (1/n).
+	 */
+	private static final int HEAP_FRACTION = 8;
+
+	/**
+	 * The part of the budget given to the decoded database tiles (1/n).
+	 */
+	private static final int RASTER_CACHE_FRACTION = 4;
+
+	/**
+	 * Minimum byte budget of the in-memory caches.
+	 */
+	private static final long MIN_BUDGET_BYTES = 4 * 1024 * 1024;
+
+	/**
+	 * Maximum number of unused bitmaps kept for reuse.
+	 */
+	private static final int MAX_POOL_SIZE = 16;
+
+	private static TileMemoryManager instance;
+
+	/**
+	 * @return the shared tile memory manager.
+	 */
+	public static synchronized TileMemoryManager getInstance() {
+		if (instance == null) {
+			instance = new TileMemoryManager(Math.max(MIN_BUDGET_BYTES, Runtime.getRuntime().maxMemory()
+					/ HEAP_FRACTION));
+		}
+		return instance;
+	}
+
+	private final long budgetBytes;
+	private final List<Bitmap> pool = new ArrayList<>();
+	private final AtomicLong allocationCount = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicInteger sharedCacheCount = new AtomicInteger();
+
+	private TileMemoryManager(long budgetBytes) {
+		this.budgetBytes = budgetBytes;
+	}
+
+	/**
+	 * @return the byte budget of the in-memory tile caches.
+	 */
+	public long getBudgetBytes() {
+		return this.budgetBytes;
+	}
+
+	/**
+	 * @return the number of tiles that fit in the byte budget of the in-memory tile caches.
+	 */
+	public int getTileCapacity() {
+		return (int) ((this.budgetBytes - getRasterCacheBudgetBytes()) / Tile.TILE_SIZE_IN_BYTES);
+	}
+
+	/**
+	 * @return the number of tiles each of the live in-memory caches sized on the budget may keep.
+	 */
+	public int getSharedTileCapacity() {
+		return getTileCapacity() / Math.max(1, this.sharedCacheCount.get());
+	}
+
+	/**
+	 * @return the part of the byte budget used for the decoded database tiles, see {@link RasterTileCache}.
+	 */
+	public long getRasterCacheBudgetBytes() {
+		return this.budgetBytes / RASTER_CACHE_FRACTION;
+	}
+
+	/**
+	 * Gets a tile bitmap from the pool, or a new one if the pool is empty. The content of a reused bitmap is
+	 * undefined.
+	 *
+	 * @return the tile bitmap, with one reference owned by the caller.
+	 */
+	public TileBitmap obtain() {
+		Bitmap bitmap = null;
+		synchronized (this.pool) {
+			while (bitmap == null && !this.pool.isEmpty()) {
+				bitmap = this.pool.remove(this.pool.size() - 1);
+				if (bitmap.isRecycled()) {
+					bitmap = null;
+				}
+			}
+		}
+		if (bitmap == null) {
+			bitmap = Bitmap.createBitmap(Tile.TILE_SIZE, Tile.TILE_SIZE, Config.RGB_565);
+			this.allocationCount.incrementAndGet();
+		}
+		return new TileBitmap(bitmap, this);
+	}
+
+	/**
+	 * Frees the unused bitmaps of the pool, as for example when the system is low on memory.
+	 */
+	public void trim() {
+		synchronized (this.pool) {
+			for (Bitmap bitmap : this.pool) {
+				bitmap.recycle();
+			}
+			this.pool.clear();
+		}
+	}
+
+	/**
+	 * @return the number of bitmaps allocated since the start.
+	 */
+	public long getAllocationCount() {
+		return this.allocationCount.get();
+	}
+
+	/**
+	 * @return the number of in-memory cache hits.
+	 */
+	public long getHitCount() {
+		return this.hitCount.get();
+	}
+
+	/**
+	 * @return the number of in-memory cache misses.
+	 */
+	public long getMissCount() {
+		return this.missCount.get();
+	}
+
+	/**
+	 * @return the number of tiles evicted from the in-memory caches.
+	 */
+	public long getEvictionCount() {
+		return this.evictionCount.get();
+	}
+
+	/**
+	 * @return the number of unused bitmaps in the pool.
+	 */
+	public int getPoolSize() {
+		synchronized (this.pool) {
+			return this.pool.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TileMemoryManager [budgetBytes=" + this.budgetBytes + ", hits=" + this.hitCount + ", misses="
+				+ this.missCount + ", evictions=" + this.evictionCount + ", allocations=" + this.allocationCount
+				+ ", pooled=" + getPoolSize() + "]";
+	}
+
+	void addSharedCache() {
+		this.sharedCacheCount.incrementAndGet();
+	}
+
+	void removeSharedCache() {
+		this.sharedCacheCount.decrementAndGet();
+	}
+
+	void recordHit() {
+		this.hitCount.incrementAndGet();
+	}
+
+	void recordMiss() {
+		this.missCount.incrementAndGet();
+	}
+
+	void recordEviction() {
+		this.evictionCount.incrementAndGet();
+	}
+
+	void recycle(Bitmap bitmap) {
+		if (bitmap.isRecycled()) {
+			return;
+		}
+		synchronized (this.pool) {
+			if (this.pool.size() < MAX_POOL_SIZE) {
+				this.pool.add(bitmap);
+				return;
+			}
+		}
+		bitmap.recycle();
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2010, 2011, 2012 mapsforge.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mapsforge.android.maps.mapgenerator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.mapsforge.core.model.Tile;
+import org.mapsforge.core.util.MercatorProjection;
+
+/**
+ * Predicts where the map is going and lists the tiles that will become visible along the way.
+ * <p/>
+ * The motion of the map is estimated from the pan velocity, as measured from the successive map positions, or, when
+ * the map is not panned, from the speed and the bearing of the last GPS fix. The visible area is shifted along the
+ * predicted path and the tiles it uncovers are returned in the order they will be needed, up to a budget. These tiles
+ * are queued as low priority prefetch jobs, see {@link JobQueue#setPrefetchJobs(List)}.
+ */
+public class TilePrefetcher {
+	/**
+	 * The maximum number of tiles predicted at a time.
+	 */
+	private static final int MAX_PREFETCH_TILES = 24;
+
+	/**
+	 * How far ahead a pan is extrapolated, in milliseconds.
+	 */
+	private static final long PAN_LOOKAHEAD = 1000;
+
+	/**
+	 * A pan is considered finished when the map has not moved for this time, in milliseconds.
+	 */
+	private static final long PAN_TIMEOUT = 300;
+
+	/**
+	 * The weight of a new sample in the smoothed pan velocity.
+	 */
+	private static final double PAN_SMOOTHING = 0.3;
+
+	/**
+	 * How far ahead the GPS motion is extrapolated, in milliseconds.
+	 */
+	private static final long GPS_LOOKAHEAD = 30000;
+
+	/**
+	 * GPS fixes older than this are ignored, in milliseconds.
+	 */
+	private static final long GPS_TIMEOUT = 10000;
+
+	/**
+	 * The minimum GPS speed in m/s, below which the bearing is considered noise.
+	 */
+	private static final float GPS_MIN_SPEED = 1.5f;
+
+	/**
+	 * The maximum extrapolated distance, in screen sizes.
+	 */
+	private static final int MAX_SCREENS_AHEAD = 2;
+
+	private double gpsBearing;
+	private double gpsLatitude;
+	private double gpsLongitude;
+	private double gpsSpeed;
+	private long gpsTime;
+	private double panPixelX;
+	private double panPixelY;
+	private long panTime;
+	private double panVelocityX;
+	private double panVelocityY;
+	private byte panZoomLevel = -1;
+
+	/**
+	 * Records the position of the map center, to measure the pan velocity.
+	 *
+	 * @param centerPixelX
+	 *            the horizontal pixel coordinate of the map center.
+	 * @param centerPixelY
+	 *            the vertical pixel coordinate of the map center.
+	 * @param zoomLevel
+	 *            the zoom level of the pixel coordinates.
+	 * @param time
+	 *            the time of the position, in milliseconds.
+	 */
+	public synchronized void onMapPosition(double centerPixelX, double centerPixelY, byte zoomLevel, long time) {
+		long timeElapsed = time - this.panTime;
+		if (zoomLevel != this.panZoomLevel || timeElapsed > PAN_TIMEOUT) {
+			// a new pan starts
+			this.panVelocityX = 0;
+			this.panVelocityY = 0;
+		} else if (timeElapsed > 0) {
+			double velocityX = (centerPixelX - this.panPixelX) / timeElapsed;
+			double velocityY = (centerPixelY - this.panPixelY) / timeElapsed;
+			this.panVelocityX += PAN_SMOOTHING * (velocityX - this.panVelocityX);
+			this.panVelocityY += PAN_SMOOTHING * (velocityY - this.panVelocityY);
+		} else {
+			return;
+		}
+		this.panPixelX = centerPixelX;
+		this.panPixelY = centerPixelY;
+		this.panTime = time;
+		this.panZoomLevel = zoomLevel;
+	}
+
+	/**
+	 * Sets the motion of the last GPS fix.
+	 *
+	 * @param longitude
+	 *            the longitude of the fix.
+	 * @param latitude
+	 *            the latitude of the fix.
+	 * @param speed
+	 *            the speed in m/s.
+	 * @param bearing
+	 *            the bearing in degrees clockwise from north.
+	 * @param time
+	 *            the time the fix was received, in milliseconds on the same clock as {@link #onMapPosition}.
+	 */
+	public synchronized void setGpsMotion(double longitude, double latitude, float speed, float bearing, long time) {
+		this.gpsLongitude = longitude;
+		this.gpsLatitude = latitude;
+		this.gpsSpeed = speed;
+		this.gpsBearing = bearing;
+		this.gpsTime = time;
+	}
+
+	/**
+	 * Lists the tiles that will be uncovered along the predicted path of the map.
+	 *
+	 * @param pixelLeft
+	 *            the left pixel coordinate of the visible area.
+	 * @param pixelTop
+	 *            the top pixel coordinate of the visible area.
+	 * @param width
+	 *            the width of the visible area.
+	 * @param height
+	 *            the height of the visible area.
+	 * @param zoomLevel
+	 *            the current zoom level.
+	 * @param time
+	 *            the current time, in milliseconds.
+	 * @param budget
+	 *            the maximum number of tiles to return.
+	 * @return the predicted tiles, sorted by the time they will be needed, maybe empty if the map doesn't move.
+	 */
+	public synchronized List<Tile> predictTiles(double pixelLeft, double pixelTop, int width, int height,
+			byte zoomLevel, long time, int budget) {
+		List<Tile> tiles = new ArrayList<>();
+		budget = Math.min(budget, MAX_PREFETCH_TILES);
+		if (budget <= 0) {
+			return tiles;
+		}
+
+		double moveX;
+		double moveY;
+		if (zoomLevel == this.panZoomLevel && time - this.panTime <= PAN_TIMEOUT
+				&& (this.panVelocityX != 0 || this.panVelocityY != 0)) {
+			moveX = this.panVelocityX * PAN_LOOKAHEAD;
+			moveY = this.panVelocityY * PAN_LOOKAHEAD;
+		} else if (this.gpsSpeed >= GPS_MIN_SPEED && time - this.gpsTime <= GPS_TIMEOUT) {
+			// only follow the GPS if it is on the screen, else the map is browsed elsewhere
+			double gpsPixelX = MercatorProjection.longitudeToPixelX(this.gpsLongitude, zoomLevel);
+			double gpsPixelY = MercatorProjection.latitudeToPixelY(this.gpsLatitude, zoomLevel);
+			if (gpsPixelX < pixelLeft || gpsPixelX > pixelLeft + width || gpsPixelY < pixelTop
+					|| gpsPixelY > pixelTop + height) {
+				return tiles;
+			}
+			double meters = this.gpsSpeed * GPS_LOOKAHEAD / 1000.0;
+			double pixels = meters / MercatorProjection.calculateGroundResolution(this.gpsLatitude, zoomLevel);
+			double bearing = Math.toRadians(this.gpsBearing);
+			moveX = Math.sin(bearing) * pixels;
+			moveY = -Math.cos(bearing) * pixels;
+		} else {
+			return tiles;
+		}
+
+		// limit the extrapolation to some screens
+		double distance = Math.sqrt(moveX * moveX + moveY * moveY);
+		double maxDistance = MAX_SCREENS_AHEAD * Math.max(width, height);
+		if (distance > maxDistance) {
+			moveX *= maxDistance / distance;
+			moveY *= maxDistance / distance;
+			distance = maxDistance;
+		}
+		if (distance < 1) {
+			return tiles;
+		}
+
+		long visibleLeft = MercatorProjection.pixelXToTileX(pixelLeft, zoomLevel);
+		long visibleTop = MercatorProjection.pixelYToTileY(pixelTop, zoomLevel);
+		long visibleRight = MercatorProjection.pixelXToTileX(pixelLeft + width, zoomLevel);
+		long visibleBottom = MercatorProjection.pixelYToTileY(pixelTop + height, zoomLevel);
+
+		long tileMax = (1L << zoomLevel) - 1;
+
+		// shift the visible area along the path in steps of half a tile
+		int steps = (int) Math.ceil(distance / (Tile.TILE_SIZE >> 1));
+		Set<Tile> added = new HashSet<>();
+		for (int step = 1; step <= steps; ++step) {
+			double left = pixelLeft + moveX * step / steps;
+			double top = pixelTop + moveY * step / steps;
+			long tileLeft = Math.max(0, MercatorProjection.pixelXToTileX(left, zoomLevel));
+			long tileTop = Math.max(0, MercatorProjection.pixelYToTileY(top, zoomLevel));
+			long tileRight = Math.min(tileMax, MercatorProjection.pixelXToTileX(left + width, zoomLevel));
+			long tileBottom = Math.min(tileMax, MercatorProjection.pixelYToTileY(top + height, zoomLevel));
+
+			for (long tileY = tileTop; tileY <= tileBottom; ++tileY) {
+				for (long tileX = tileLeft; tileX <= tileRight; ++tileX) {
+					if (tileX >= visibleLeft && tileX <= visibleRight && tileY >= visibleTop
+							&& tileY <= visibleBottom) {
+						// already requested by the MapView
+						continue;
+					}
+					Tile tile = new Tile(tileX, tileY, zoomLevel);
+					if (added.add(tile)) {
+						tiles.add(tile);
+						if (tiles.size() >= budget) {
+							return tiles;
+						}
+					}
+				}
+			}
+		}
+		return tiles;
+	}
+}
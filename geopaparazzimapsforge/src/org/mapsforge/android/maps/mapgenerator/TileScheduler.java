@@ -21,8 +21,32 @@ import org.mapsforge.core.model.Tile;
 import org.mapsforge.core.util.MercatorProjection;
 
 final class TileScheduler {
+	/**
+	 * Added to the priority of prefetch jobs, larger than the distance of any visible tile.
+	 */
+	private static final double PREFETCH_PENALTY = 1000;
 	private static final int ZOOM_LEVEL_PENALTY = 5;
 
+	/**
+	 * Calculates the priority for the given tile like {@link #getPriority(Tile, MapView)}, ranking prefetch jobs
+	 * after all the other jobs, in order of their distance.
+	 * 
+	 * @param tile
+	 *            the tile whose priority should be calculated.
+	 * @param mapView
+	 *            the MapView whose current position and zoom level define the priority of the tile.
+	 * @param prefetch
+	 *            true if the tile is not visible yet but prefetched along the predicted motion of the map.
+	 * @return the current priority of the tile. A smaller number means a higher priority.
+	 */
+	static double getPriority(Tile tile, MapView mapView, boolean prefetch) {
+		double priority = getPriority(tile, mapView);
+		if (prefetch) {
+			return PREFETCH_PENALTY + priority;
+		}
+		return priority;
+	}
+
 	/**
 	 * Calculates the priority for the given tile based on the current position and zoom level of the supplied MapView.
 	 * The smaller the distance from the tile center to the MapView center, the higher its priority. If the zoom level
@@ -132,7 +132,14 @@ public class ShapeWriter {
         this(pointTransformer, getShape(shapeName, size));
     }
 
-    private static PointShapeFactory getShape( String shapeName, float size ) {
+    /**
+     * Get the point shape factory for a style shape name.
+     *
+     * @param shapeName the name of the shape (circle, cross, square, star, triangle, X).
+     * @param size the size of the shape.
+     * @return the factory, the default one for unknown names.
+     */
+    public static PointShapeFactory getShape( String shapeName, float size ) {
         if (shapeName.equals("circle")) {
             return new PointShapeFactory.Circle(size);
         } else if (shapeName.equals("cross")) {
@@ -0,0 +1,250 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialiteDatabaseType;
+import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialRasterTable;
+import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
+
+/**
+ * A persistent catalog of the tables and styles of the spatialite databases.
+ * <p/>
+ * <p>Entries are keyed by the database path and are valid as long as the size and the
+ * modification time of the file don't change. Handlers of unchanged databases are created
+ * from the catalog and open their connection only on first use, while new and changed
+ * databases are scanned in parallel.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+class SpatialiteCatalog {
+
+    private static final int CATALOG_VERSION = 1;
+
+    private static class CatalogEntry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        long size;
+        long lastModified;
+        SpatialiteDatabaseType databaseType;
+        ArrayList<SpatialVectorTable> vectorTables;
+        ArrayList<SpatialRasterTable> rasterTables;
+    }
+
+    private final File catalogFile;
+    private HashMap<String, CatalogEntry> entries;
+    private boolean isDirty = false;
+
+    /**
+     * Constructor.
+     *
+     * @param catalogFile the file in which the catalog is kept.
+     */
+    SpatialiteCatalog(File catalogFile) {
+        this.catalogFile = catalogFile;
+    }
+
+    /**
+     * Get the handlers for a list of database files.
+     * <p/>
+     * <p>Files that are not supported databases are skipped.</p>
+     *
+     * @param files the database files.
+     * @return the map of file paths to handlers, in the order of the files.
+     */
+    synchronized LinkedHashMap<String, SpatialiteDatabaseHandler> getDatabaseHandlers(List<File> files) {
+        if (entries == null) {
+            entries = read();
+        }
+        LinkedHashMap<String, SpatialiteDatabaseHandler> handlers = new LinkedHashMap<>();
+        List<File> toScan = new ArrayList<>();
+        for (File file : files) {
+            String path = file.getAbsolutePath();
+            if (handlers.containsKey(path)) {
+                continue;
+            }
+            // reserve the position
+            handlers.put(path, null);
+            CatalogEntry entry = entries.get(path);
+            if (entry != null && entry.size == file.length() && entry.lastModified == file.lastModified()) {
+                try {
+                    handlers.put(path, new SpatialiteDatabaseHandler(path, entry.databaseType, entry.vectorTables,
+                            entry.rasterTables));
+                    continue;
+                } catch (java.lang.Exception e) {
+                    GPLog.error(this, null, e);
+                }
+            }
+            toScan.add(file);
+        }
+
+        if (toScan.size() > 0) {
+            scan(toScan, handlers);
+        }
+
+        // forget databases that have been deleted
+        Iterator<String> pathsIterator = entries.keySet().iterator();
+        while (pathsIterator.hasNext()) {
+            if (!new File(pathsIterator.next()).exists()) {
+                pathsIterator.remove();
+                isDirty = true;
+            }
+        }
+
+        // remove unsupported files
+        for (Map.Entry<String, SpatialiteDatabaseHandler> entry : new ArrayList<>(handlers.entrySet())) {
+            if (entry.getValue() == null) {
+                handlers.remove(entry.getKey());
+            }
+        }
+        write();
+        return handlers;
+    }
+
+    /**
+     * Add or replace the entry of a database that was opened and scanned.
+     *
+     * @param file    the database file.
+     * @param handler the handler of the database.
+     */
+    synchronized void put(File file, SpatialiteDatabaseHandler handler) {
+        if (entries == null) {
+            entries = read();
+        }
+        try {
+            CatalogEntry entry = new CatalogEntry();
+            entry.size = file.length();
+            entry.lastModified = file.lastModified();
+            entry.databaseType = handler.getDatabaseType();
+            entry.vectorTables = new ArrayList<>(handler.getSpatialVectorTables(false));
+            entry.rasterTables = new ArrayList<>(handler.getSpatialRasterTables(false));
+            entries.put(file.getAbsolutePath(), entry);
+            isDirty = true;
+        } catch (java.lang.Exception e) {
+            GPLog.error(this, null, e);
+        }
+    }
+
+    /**
+     * Flush the catalog to disk if it changed.
+     */
+    synchronized void write() {
+        if (!isDirty) {
+            return;
+        }
+        File tmpFile = new File(catalogFile.getAbsolutePath() + ".tmp");
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(CATALOG_VERSION);
+                out.writeObject(entries);
+            } finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(catalogFile)) {
+                throw new IOException("Unable to rename " + tmpFile + " to " + catalogFile);
+            }
+            isDirty = false;
+        } catch (java.lang.Exception e) {
+            GPLog.error(this, "Unable to write the spatialite catalog.", e);
+            tmpFile.delete();
+        }
+    }
+
+    private void scan(List<File> files, LinkedHashMap<String, SpatialiteDatabaseHandler> handlers) {
+        long start = System.currentTimeMillis();
+        int threads = Math.max(1, Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<SpatialiteDatabaseHandler>> futures = new ArrayList<>();
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<SpatialiteDatabaseHandler>() {
+                    @Override
+                    public SpatialiteDatabaseHandler call() throws java.lang.Exception {
+                        SpatialiteDatabaseHandler handler = SpatialiteSourcesManager.INSTANCE.getDatabaseHandlerForFile(file);
+                        if (handler != null) {
+                            // collect tables and styles while still in the worker
+                            handler.getSpatialVectorTables(false);
+                            handler.getSpatialRasterTables(false);
+                        }
+                        return handler;
+                    }
+                }));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                File file = files.get(i);
+                try {
+                    SpatialiteDatabaseHandler handler = futures.get(i).get();
+                    if (handler != null) {
+                        handlers.put(file.getAbsolutePath(), handler);
+                        put(file, handler);
+                    }
+                } catch (java.lang.Exception e) {
+                    GPLog.error(this, "Unable to scan " + file, e);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        if (GPLog.LOG)
+            GPLog.addLogEntry(this, "Scanned " + files.size() + " spatialite databases in "
+                    + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    @SuppressWarnings("unchecked")
+    private HashMap<String, CatalogEntry> read() {
+        if (catalogFile.exists()) {
+            try {
+                ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(catalogFile)));
+                try {
+                    if (in.readInt() == CATALOG_VERSION) {
+                        return (HashMap<String, CatalogEntry>) in.readObject();
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (java.lang.Exception e) {
+                // an old or broken catalog, everything is scanned again
+                GPLog.error(this, "Unable to read the spatialite catalog, rebuilding it.", e);
+            }
+        }
+        return new HashMap<>();
+    }
+}
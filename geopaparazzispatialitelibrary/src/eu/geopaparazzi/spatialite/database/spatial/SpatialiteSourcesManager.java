@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -64,10 +65,13 @@ public enum SpatialiteSourcesManager {
 
     private boolean mReReadBasemaps = true;
 
+    private SpatialiteCatalog mCatalog;
+
     SpatialiteSourcesManager() {
         try {
             GPApplication gpApplication = GPApplication.getInstance();
             mPreferences = PreferenceManager.getDefaultSharedPreferences(gpApplication);
+            mCatalog = new SpatialiteCatalog(new File(gpApplication.getFilesDir(), "spatialite_catalog.ser"));
 
             boolean doSpatialiteRecoveryMode = mPreferences.getBoolean(SpatialiteLibraryConstants.PREFS_KEY_SPATIALITE_RECOVERY_MODE,
                     false);
@@ -128,9 +132,13 @@ public enum SpatialiteSourcesManager {
             if (mSpatialiteMaps != null)
                 mSpatialiteMaps.clear();
             List<String> dbPaths = ProfilesHandler.INSTANCE.getActiveProfile().spatialiteList;
+            List<File> files = new ArrayList<>();
             for (String path : dbPaths) {
                 File file = new File(path);
-                if (file.exists()) collectTablesFromFile(file);
+                if (file.exists()) files.add(file);
+            }
+            for (SpatialiteDatabaseHandler sdbHandler : mCatalog.getDatabaseHandlers(files).values()) {
+                collectTablesFromHandler(sdbHandler);
             }
             spatialiteMaps = new ArrayList<>();
             if (mSpatialiteMaps != null)
@@ -250,12 +258,20 @@ public enum SpatialiteSourcesManager {
      * @throws Exception
      */
     private boolean collectTablesFromFile(File file) throws java.lang.Exception {
+        SpatialiteDatabaseHandler sdbHandler = getDatabaseHandlerForFile(file);
+        if (sdbHandler != null) {
+            mCatalog.put(file, sdbHandler);
+            mCatalog.write();
+        }
+        return collectTablesFromHandler(sdbHandler);
+    }
+
+    private boolean collectTablesFromHandler(SpatialiteDatabaseHandler sdbHandler) throws java.lang.Exception {
         if (mSpatialiteMaps == null) mSpatialiteMaps = new ArrayList<>();
         /*
          * SPATIALITE TABLES
          */
         boolean foundTables = false;
-        SpatialiteDatabaseHandler sdbHandler = getDatabaseHandlerForFile(file);
         if (sdbHandler != null) {
             List<SpatialVectorTable> tables = sdbHandler.getSpatialVectorTables(false);
             for (SpatialVectorTable table : tables) {
@@ -286,11 +302,18 @@ public enum SpatialiteSourcesManager {
     private boolean connectSpatialiteMaps(List<SpatialiteMap> spatialiteMaps) throws java.lang.Exception {
 
         HashMap<String, HashMap<String, SpatialiteMap>> db2Title2Maps = new HashMap<>();
+        List<File> files = new ArrayList<>();
         for (SpatialiteMap spatialiteMap : spatialiteMaps) {
+            if (mSpatialiteMaps2TablesMap.containsKey(spatialiteMap)) {
+                // already connected
+                continue;
+            }
             HashMap<String, SpatialiteMap> tmpMaps = db2Title2Maps.get(spatialiteMap.databasePath);
             if (tmpMaps == null) {
                 tmpMaps = new HashMap<>();
                 db2Title2Maps.put(spatialiteMap.databasePath, tmpMaps);
+                File file = new File(spatialiteMap.databasePath);
+                if (file.exists() && file.isFile()) files.add(file);
             }
             tmpMaps.put(spatialiteMap.tableName, spatialiteMap);
         }
@@ -302,8 +325,10 @@ public enum SpatialiteSourcesManager {
          */
         boolean foundTables = false;
 
+        // unchanged databases come from the catalog and are opened on first use
+        LinkedHashMap<String, SpatialiteDatabaseHandler> handlers = mCatalog.getDatabaseHandlers(files);
         for (Map.Entry<String, HashMap<String, SpatialiteMap>> entry : db2Title2Maps.entrySet()) {
-            SpatialiteDatabaseHandler sdbHandler = getDatabaseHandlerForFile(new File(entry.getKey()));
+            SpatialiteDatabaseHandler sdbHandler = handlers.get(new File(entry.getKey()).getAbsolutePath());
             if (sdbHandler != null) {
                 HashMap<String, SpatialiteMap> maps = entry.getValue();
 
@@ -23,6 +23,8 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.features.Feature;
@@ -47,6 +49,37 @@ import jsqlite.Stmt;
 @SuppressWarnings("nls")
 public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
 
+    private static final ConcurrentHashMap<String, AtomicLong> editRevisionsMap = new ConcurrentHashMap<>();
+
+    /**
+     * Get the edit revision of a table, which is incremented every time features are
+     * added, updated or deleted through this class.
+     *
+     * @param databasePath the path of the database.
+     * @param tableName    the name of the table.
+     * @return the revision, 0 if the table was never edited in this session.
+     */
+    public static long getEditRevision(String databasePath, String tableName) {
+        return getEditRevisionCounter(databasePath, tableName).get();
+    }
+
+    private static void bumpEditRevision(String databasePath, String tableName) {
+        getEditRevisionCounter(databasePath, tableName).incrementAndGet();
+    }
+
+    private static AtomicLong getEditRevisionCounter(String databasePath, String tableName) {
+        String key = databasePath + "#" + tableName;
+        AtomicLong counter = editRevisionsMap.get(key);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = editRevisionsMap.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
     /**
      * Collects the fields of a given table.
      * <p/>
@@ -216,6 +249,7 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
 
         String updateQuery = sbIn.toString();
         database.exec(updateQuery, null);
+        bumpEditRevision(databasePath, tableName);
     }
 
     /**
@@ -304,6 +338,7 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
         String insertQuery = sbIn.toString();
 
         database.exec(insertQuery, null);
+        bumpEditRevision(spatialVectorTable.getDatabasePath(), tableName);
     }
 
     protected static void createImageField(SpatialVectorTable table) {
@@ -388,6 +423,7 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
 
         String updateQuery = sbIn.toString();
         database.exec(updateQuery, null);
+        bumpEditRevision(feature.getDatabasePath(), tableName);
 
         //SpatialVectorTable table = SpatialiteSourcesManager.INSTANCE.getTableFromFeature(feature);
         //createImageField(table);
@@ -455,6 +491,7 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
         sbIn.append(id);
         String insertQuery = sbIn.toString();
         database.exec(insertQuery, null);
+        bumpEditRevision(spatialVectorTable.getDatabasePath(), tableName);
     }
 
     /**
@@ -478,12 +515,14 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
         sbIn.append("Length(").append(geomName).append(")");
         sbIn.append(" from \"").append(tableName);
         sbIn.append("\" where ");
-        sbIn.append(SpatialiteUtilities.SPATIALTABLE_ID_FIELD).append(" = ").append(id);
+        sbIn.append(SpatialiteUtilities.SPATIALTABLE_ID_FIELD).append(" = ?");
 
+        // called for every selected feature, so the statement is reused
         String selectQuery = sbIn.toString();
         Stmt statement = null;
         try {
-            statement = database.prepare(selectQuery);
+            statement = databaseHandler.acquireStatement(selectQuery);
+            statement.bind(1, id);
             if (statement.step()) {
                 double area = statement.column_double(0);
                 double length = statement.column_double(1);
@@ -496,9 +535,7 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
                             + "]", e_stmt
             );
         } finally {
-            if (statement != null) {
-                statement.close();
-            }
+            databaseHandler.releaseStatement(selectQuery, statement);
         }
         return null;
     }
@@ -19,6 +19,7 @@
 package eu.geopaparazzi.spatialite.database.spatial.core.daos;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.AbstractSpatialTable;
 import jsqlite.*;
 
@@ -50,6 +51,65 @@ public class SPL_Rasterlite {
         return null;
     }
 
+    /**
+     * Build the parameterized query of the rasterlite2 tiles of a table, with place holders for the
+     * [west,south,east,north] bounds in wgs84.
+     * <p/>
+     * The query is the one of {@link #rl2_GetMapImageFromRasterTile(Database, String, String, double[], int)},
+     * so that it can be prepared once and used for all the tiles.
+     *
+     * @param rasterTable the table to use.
+     * @param tileSize    default 256 [Tile.TILE_SIZE].
+     * @return the query.
+     */
+    public static String buildRasterTileInBoundsStatement(AbstractSpatialTable rasterTable, int tileSize) {
+        String destSrid = rasterTable.getSrid();
+        boolean doTransform = !destSrid.equals("4326");
+        StringBuilder qSb = new StringBuilder();
+        qSb.append("SELECT RL2_GetMapImageFromRaster('");
+        qSb.append(rasterTable.getTableName());
+        qSb.append("',");
+        if (doTransform) {
+            qSb.append("ST_Transform(BuildMBR(?,?,?,?,4326),");
+            qSb.append(destSrid);
+            qSb.append(")");
+        } else {
+            qSb.append("BuildMBR(?,?,?,?)");
+        }
+        qSb.append(",");
+        qSb.append(Integer.toString(tileSize));
+        qSb.append(",");
+        qSb.append(Integer.toString(tileSize));
+        qSb.append(",'default','image/jpeg','#ffffff',0,80,1)");
+        return qSb.toString();
+    }
+
+    /**
+     * Retrieve rasterlite2 tile of a given bound [4326,wsg84] through a cached prepared statement.
+     *
+     * @param databaseHandler the handler of the database.
+     * @param tileStatement   the query built by {@link #buildRasterTileInBoundsStatement(AbstractSpatialTable, int)}.
+     * @param tileBounds      [west,south,east,north] [minx, miny, maxx, maxy] bounds.
+     * @return the image data as byte[]
+     */
+    public static byte[] getRasterTileInBounds(SpatialiteDatabaseHandler databaseHandler, String tileStatement, double[] tileBounds) {
+        Stmt stmt = null;
+        try {
+            stmt = databaseHandler.acquireStatement(tileStatement);
+            for (int i = 0; i < 4; i++) {
+                stmt.bind(i + 1, tileBounds[i]);
+            }
+            if (stmt.step()) {
+                return stmt.column_bytes(0);
+            }
+        } catch (jsqlite.Exception e_stmt) {
+            GPLog.error("SPL_Rasterlite", "getRasterTileInBounds sql[" + tileStatement + "]", e_stmt);
+        } finally {
+            databaseHandler.releaseStatement(tileStatement, stmt);
+        }
+        return null;
+    }
+
     /**
      * Retrieve rasterlite2 tile of a given bound [4326,wsg84] with the given size.
      * <p/>
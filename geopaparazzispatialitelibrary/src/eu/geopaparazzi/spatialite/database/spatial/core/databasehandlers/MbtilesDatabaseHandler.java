@@ -264,6 +264,37 @@ public class MbtilesDatabaseHandler extends AbstractSpatialDatabaseHandler {
         }
     }
 
+    /**
+     * Convert a Tile Bitmap to the image-data stored in this mbtiles Database.
+     * <p/>
+     * <p>Thread safe, used to encode tiles in parallel before a batch insert.</p>
+     *
+     * @param tile_bitmap the Bitmap to convert. [Will be converted to JPG or PNG depending on metdata setting]
+     * @return the image-data.
+     */
+    public byte[] getTileData(Bitmap tile_bitmap) {
+        return mbtilesSplitter.getTileData(tile_bitmap);
+    }
+
+    /**
+     * Insert a batch of encoded tiles in one transaction.
+     * <p/>
+     * <p>Tiles that already exist are skipped.</p>
+     *
+     * @param zxy_osm_list   zoom_level, tile_column and tile_row [osm notation] of each tile
+     * @param tile_data_list the image-data of each tile [see {@link #getTileData(Bitmap)}]
+     * @param blank_id_list  the 'ff-ee-dd.rgb' tile_id of each tile if blank, otherwise empty
+     * @return the amount of inserted tiles, -1 on error.
+     */
+    public int insertTiles(List<int[]> zxy_osm_list, List<byte[]> tile_data_list, List<String> blank_id_list) {
+        try {
+            return mbtilesSplitter.insertTiles(zxy_osm_list, tile_data_list, blank_id_list);
+        } catch (IOException e) {
+            GPLog.error(this, null, e);
+            return -1;
+        }
+    }
+
     public void open() {
         if (mbtilesSplitter.getmbtiles() == null) {
             mbtilesSplitter.open(true, ""); // "" : default value will be used '1.1'
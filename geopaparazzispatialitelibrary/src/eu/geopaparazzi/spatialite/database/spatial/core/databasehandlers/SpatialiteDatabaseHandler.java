@@ -25,6 +25,7 @@ import android.graphics.Paint.Join;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -70,6 +71,10 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
     private String uniqueDbName4DataProperties = "";
 
     private Database dbJava;
+    /**
+     * The statements of the open database, <code>null</code> if the database could not be opened.
+     */
+    private volatile StatementsCache statementsCache;
     private List<SpatialVectorTable> vectorTableList;
     private List<SpatialRasterTable> rasterTableList;
 
@@ -82,6 +87,10 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
     private HashMap<String, String> spatialVectorMapErrors = new HashMap<String, String>();
 
     private volatile boolean isOpen = false;
+    /**
+     * If <code>true</code>, the tables are known and the connection is opened on first use.
+     */
+    private volatile boolean isOpenPending = false;
 
     /**
      * Constructor.
@@ -94,6 +103,28 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
         open();
     }
 
+    /**
+     * Constructor for a database that has already been checked and whose tables are known.
+     * <p/>
+     * <p>The database is not checked again and the connection is opened only on first use.</p>
+     *
+     * @param dbPath       the path to the database this handler connects to.
+     * @param databaseType the type of the database.
+     * @param vectorTables the vector tables of the database.
+     * @param rasterTables the raster tables of the database.
+     * @throws IOException if something goes wrong.
+     */
+    public SpatialiteDatabaseHandler(String dbPath, SpatialiteDatabaseType databaseType, List<SpatialVectorTable> vectorTables,
+                                     List<SpatialRasterTable> rasterTables) throws IOException {
+        super(dbPath);
+        uniqueDbName4DataProperties = databasePath;
+        this.databaseType = databaseType;
+        this.vectorTableList = vectorTables;
+        this.rasterTableList = rasterTables;
+        isDatabaseValid = true;
+        isOpenPending = true;
+    }
+
     @Override
     public boolean isOpen() {
         return isOpen;
@@ -103,17 +134,7 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
     public void open() {
         try {
             uniqueDbName4DataProperties = databasePath;
-            dbJava = new jsqlite.Database();
-            try {
-                dbJava.open(databasePath, jsqlite.Constants.SQLITE_OPEN_READWRITE | jsqlite.Constants.SQLITE_OPEN_CREATE);
-                isOpen = true;
-                isDatabaseValid = true;
-            } catch (Exception e) {
-                GPLog.error(this, "Database marked as invalid: " + databasePath, e);
-                isDatabaseValid = false;
-                isOpen = false;
-                GPLog.androidLog(4, "SpatialiteDatabaseHandler[" + databaseFile.getAbsolutePath() + "].open has failed", e);
-            }
+            openConnection();
             if (isValid()) {
                 // check database and collect the views list
                 try {
@@ -150,6 +171,57 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
         }
     }
 
+    private void openConnection() {
+        dbJava = new jsqlite.Database();
+        try {
+            dbJava.open(databasePath, jsqlite.Constants.SQLITE_OPEN_READWRITE | jsqlite.Constants.SQLITE_OPEN_CREATE);
+            statementsCache = new StatementsCache(dbJava);
+            isOpen = true;
+            isDatabaseValid = true;
+        } catch (Exception e) {
+            GPLog.error(this, "Database marked as invalid: " + databasePath, e);
+            isDatabaseValid = false;
+            isOpen = false;
+            GPLog.androidLog(4, "SpatialiteDatabaseHandler[" + databaseFile.getAbsolutePath() + "].open has failed", e);
+        }
+    }
+
+    /**
+     * Open the connection of a handler created with known tables, if not done yet.
+     * <p/>
+     * <p>Unlike {@link #isOpen()}, which only reports the state, this opens the pending connection.</p>
+     *
+     * @return <code>true</code> if the database is open, <code>false</code> if it has been closed
+     * or the lazy open failed.
+     */
+    public boolean ensureOpen() {
+        if (isOpenPending) {
+            synchronized (this) {
+                if (isOpenPending) {
+                    openConnection();
+                    isOpenPending = false;
+                    if (!isOpen) {
+                        GPLog.addLogEntry(this, "The lazy open of the database failed: " + databasePath);
+                    }
+                }
+            }
+        }
+        return isOpen;
+    }
+
+    private void checkOpen() throws Exception {
+        if (!ensureOpen()) {
+            throw new Exception("The database is not open: " + databasePath);
+        }
+    }
+
+    /**
+     * @return the type of the database.
+     */
+    public SpatialiteDatabaseType getDatabaseType() {
+        return databaseType;
+    }
+
     /**
      * Is the database file considered valid?
      * <p/>
@@ -168,6 +240,7 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
     @Override
     public List<SpatialVectorTable> getSpatialVectorTables(boolean forceRead) throws Exception {
         if (vectorTableList == null || forceRead) {
+            checkOpen();
             vectorTableList = new ArrayList<SpatialVectorTable>();
             checkAndCollectTables();
         }
@@ -177,6 +250,7 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
     @Override
     public List<SpatialRasterTable> getSpatialRasterTables(boolean forceRead) throws Exception {
         if (rasterTableList == null || forceRead) {
+            checkOpen();
             rasterTableList = new ArrayList<SpatialRasterTable>();
             checkAndCollectTables();
         }
@@ -257,15 +331,16 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      */
     public List<byte[]> getWKBFromTableInBounds(String destSrid, SpatialVectorTable table, double n, double s, double e, double w) {
         List<byte[]> list = new ArrayList<byte[]>();
-        String query = SpatialiteUtilities.buildGeometriesInBoundsQuery(destSrid, false, table, n, s, e, w);
+        String query = SpatialiteUtilities.buildGeometriesInBoundsStatement(destSrid, false, table);
         try {
-            Stmt stmt = dbJava.prepare(query);
+            Stmt stmt = acquireStatement(query);
             try {
+                SpatialiteUtilities.bindGeometriesInBoundsStatement(stmt, n, s, e, w);
                 while (stmt.step()) {
                     list.add(stmt.column_bytes(0));
                 }
             } finally {
-                stmt.close();
+                releaseStatement(query, stmt);
             }
             return list;
         } catch (Exception ex) {
@@ -276,14 +351,20 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
 
     @Override
     public byte[] getRasterTile(String query) {
+        StatementsCache cache = ensureOpen() ? statementsCache : null;
+        if (cache == null) {
+            // the database could not be opened or has been closed
+            return null;
+        }
         try {
-            Stmt stmt = dbJava.prepare(query);
+            // the inlined query is not cached, but counted as in use for close
+            Stmt stmt = cache.acquireUncached(query);
             try {
                 if (stmt.step()) {
                     return stmt.column_bytes(0);
                 }
             } finally {
-                stmt.close();
+                cache.discard(stmt);
             }
         } catch (Exception ex) {
             GPLog.error(this, null, ex);
@@ -291,6 +372,74 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
         return null;
     }
 
+    /**
+     * Fetch a raster tile through a cached prepared statement.
+     *
+     * @param tileQuery the tile query, with place holders for zoom, column and row.
+     * @param zoom      the zoom level.
+     * @param column    the tile column.
+     * @param row       the tile row.
+     * @return the tile image bytes or <code>null</code>, if the tile doesn't exist.
+     */
+    public byte[] getRasterTile(String tileQuery, int zoom, int column, int row) {
+        Stmt stmt = null;
+        try {
+            stmt = acquireStatement(tileQuery);
+            stmt.bind(1, zoom);
+            stmt.bind(2, column);
+            stmt.bind(3, row);
+            if (stmt.step()) {
+                return stmt.column_bytes(0);
+            }
+        } catch (Exception ex) {
+            GPLog.error(this, "getRasterTile sql[" + tileQuery + "]", ex);
+        } finally {
+            releaseStatement(tileQuery, stmt);
+        }
+        return null;
+    }
+
+    /**
+     * Fetch all the raster tiles of a range in a single query.
+     *
+     * @param rangeQuery the query built by {@link SpatialiteUtilities#buildRasterTilesInRangeQuery(String)}.
+     * @param zoom       the zoom level.
+     * @param minColumn  the first tile column.
+     * @param minRow     the first tile row.
+     * @param maxColumn  the last tile column.
+     * @param maxRow     the last tile row.
+     * @param tiles      the array to fill with the tile image bytes, row by row, with <code>null</code> for the
+     *                   missing tiles. It needs to hold the whole range.
+     * @return the number of tiles found or -1, if the query failed.
+     */
+    public int getRasterTilesInRange(String rangeQuery, int zoom, int minColumn, int minRow, int maxColumn, int maxRow,
+                                     byte[][] tiles) {
+        Arrays.fill(tiles, null);
+        int width = maxColumn - minColumn + 1;
+        int count = 0;
+        Stmt stmt = null;
+        try {
+            stmt = acquireStatement(rangeQuery);
+            stmt.bind(1, zoom);
+            stmt.bind(2, minColumn);
+            stmt.bind(3, maxColumn);
+            stmt.bind(4, minRow);
+            stmt.bind(5, maxRow);
+            while (stmt.step()) {
+                int column = stmt.column_int(0);
+                int row = stmt.column_int(1);
+                tiles[(row - minRow) * width + column - minColumn] = stmt.column_bytes(2);
+                count++;
+            }
+        } catch (Exception ex) {
+            GPLog.error(this, "getRasterTilesInRange sql[" + rangeQuery + "]", ex);
+            count = -1;
+        } finally {
+            releaseStatement(rangeQuery, stmt);
+        }
+        return count;
+    }
+
     /**
      * Get the {@link GeometryIterator} of a table in a given bound.
      *
@@ -304,15 +453,69 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      */
     public GeometryIterator getGeometryIteratorInBounds(String destSrid, SpatialVectorTable table, double n, double s, double e,
                                                         double w) {
-        String query = SpatialiteUtilities.buildGeometriesInBoundsQuery(destSrid, false, table, n, s, e, w);
+        ensureOpen();
+        String query = SpatialiteUtilities.buildGeometriesInBoundsStatement(destSrid, false, table);
         // GPLog.androidLog(-1,"GeopaparazziOverlay.getGeometryIteratorInBounds query["+query+"]");
-        return new GeometryIterator(dbJava, query);
+        // without statements, as for a database that could not be opened, the iterator is empty
+        return new GeometryIterator(statementsCache, query, n, s, e, w);
+    }
+
+    /**
+     * Get a cached prepared statement of this database.
+     * <p/>
+     * The statement has to be given back through {@link #releaseStatement(String, Stmt)}.
+     *
+     * @param query the parameterized query.
+     * @return the statement.
+     * @throws Exception if the database is not open or the statement can't be prepared.
+     */
+    public Stmt acquireStatement(String query) throws Exception {
+        checkOpen();
+        StatementsCache cache = statementsCache;
+        if (cache == null) {
+            throw new Exception("The database is not open: " + databasePath);
+        }
+        return cache.acquire(query);
+    }
+
+    /**
+     * Give back a statement got through {@link #acquireStatement(String)}.
+     *
+     * @param query the parameterized query.
+     * @param stmt  the statement.
+     */
+    public void releaseStatement(String query, Stmt stmt) {
+        if (stmt == null) {
+            return;
+        }
+        StatementsCache cache = statementsCache;
+        if (cache != null) {
+            cache.release(query, stmt);
+        } else {
+            try {
+                stmt.close();
+            } catch (Exception e) {
+                GPLog.error(this, "releaseStatement close failed for sql[" + query + "]", e);
+            }
+        }
     }
 
+    /**
+     * Close the database.
+     * <p/>
+     * <p>The statements in use are waited for, see {@link StatementsCache#close()}.</p>
+     *
+     * @throws Exception if something goes wrong.
+     */
     public void close() throws Exception {
+        // a closed handler is not opened lazily anymore
+        isOpenPending = false;
         if (isOpen) {
             isOpen = false;
-            if (dbJava != null) {
+            if (statementsCache != null) {
+                // closes the database once the statements in use are back
+                statementsCache.close();
+            } else if (dbJava != null) {
                 dbJava.close();
             }
         }
@@ -333,9 +536,10 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      */
     public void intersectionToStringBBOX(String boundsSrid, SpatialVectorTable spatialTable, double n, double s, double e,
                                          double w, StringBuilder resultStringBuilder, String indentStr) throws Exception {
-        String query = getIntersectionQueryBBOX(boundsSrid, spatialTable, n, s, e, w);
-        Stmt stmt = dbJava.prepare(query);
+        String query = getIntersectionStatementBBOX(boundsSrid, spatialTable);
+        Stmt stmt = acquireStatement(query);
         try {
+            SpatialiteUtilities.bindBboxStatement(stmt, n, s, e, w);
             while (stmt.step()) {
                 int column_count = stmt.column_count();
                 for (int i = 0; i < column_count; i++) {
@@ -346,7 +550,7 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
                 resultStringBuilder.append("\n");
             }
         } finally {
-            stmt.close();
+            releaseStatement(query, stmt);
         }
     }
 
@@ -366,6 +570,25 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      */
     public static String getIntersectionQueryBBOX(String boundsSrid, SpatialVectorTable spatialTable, double n, double s,
                                                   double e, double w) {
+        return getIntersectionQueryBBOX(boundsSrid, spatialTable, String.valueOf(n), String.valueOf(s), String.valueOf(e),
+                String.valueOf(w));
+    }
+
+    /**
+     * Get the parameterized query to run for a bounding box intersection.
+     * <p/>
+     * <p>The bounds are bound with {@link SpatialiteUtilities#bindBboxStatement(Stmt, double, double, double, double)}.
+     *
+     * @param boundsSrid   the srid of the bounds requested.
+     * @param spatialTable the {@link SpatialVectorTable} to query.
+     * @return the query to run to get all fields.
+     */
+    public static String getIntersectionStatementBBOX(String boundsSrid, SpatialVectorTable spatialTable) {
+        return getIntersectionQueryBBOX(boundsSrid, spatialTable, "?", "?", "?", "?");
+    }
+
+    private static String getIntersectionQueryBBOX(String boundsSrid, SpatialVectorTable spatialTable, String n, String s,
+                                                   String e, String w) {
         boolean doTransform = false;
         String fieldNamesList = SpatialiteUtilities.SPATIALTABLE_ID_FIELD;
         // List of non-blob fields
@@ -755,6 +978,11 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      * </ul>
      */
     private void checkAndCollectTables() throws Exception {
+        if (spatialVectorMap.isEmpty() && databaseType != null) {
+            // handlers created from known tables have not collected the views list yet
+            databaseType = DatabaseCreationAndProperties.checkDatabaseTypeAndValidity(dbJava, spatialVectorMap,
+                    spatialVectorMapErrors);
+        }
         switch (databaseType) {
             case GEOPACKAGE: {
                 // GeoPackage Files [gpkg]
@@ -808,6 +1036,7 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      * @throws Exception if something goes wrong.
      */
     public void updateStyle(Style style) throws Exception {
+        checkOpen();
         GeopaparazziDatabaseProperties.updateStyle(dbJava, style);
     }
 
@@ -817,6 +1046,7 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      * @throws Exception if something goes wrong.
      */
     public void resetStyleTable() throws Exception {
+        checkOpen();
         deleteStyleTable(dbJava);
         createPropertiesTable(dbJava);
         for (SpatialVectorTable spatialTable : vectorTableList) {
@@ -831,6 +1061,7 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      * @return the spatialite database reference.
      */
     public Database getDatabase() {
+        ensureOpen();
         return dbJava;
     }
 
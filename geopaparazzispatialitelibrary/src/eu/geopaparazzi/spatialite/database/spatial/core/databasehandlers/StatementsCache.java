@@ -0,0 +1,254 @@
+/*
+* Geopaparazzi - Digital field mapping on Android based devices
+* Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import eu.geopaparazzi.library.database.GPLog;
+import jsqlite.Database;
+import jsqlite.Exception;
+import jsqlite.Stmt;
+
+/**
+ * A cache of prepared statements of an open {@link Database}.
+ * <p/>
+ * Statements are keyed by their parameterized sql. A statement is taken out of the cache
+ * with {@link #acquire(String)}, so that it is never shared between threads, and given back
+ * with {@link #release(String, Stmt)}, which resets it for the next use instead of closing it.
+ * The least recently used statements are closed when the cache is full.
+ * <p/>
+ * The cache owns the closing of the database, see {@link #close()}, so that the database
+ * is never closed while one of its statements is in use.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class StatementsCache {
+
+    private static final int MAX_STATEMENTS = 32;
+    /**
+     * The max time {@link #close()} waits for the statements in use to be given back.
+     */
+    private static final long CLOSE_WAIT_MILLIS = 2000;
+
+    private final Database database;
+    private boolean isClosed = false;
+    /**
+     * The statements acquired and not yet released, guarded by the idle statements.
+     */
+    private int inUseCount = 0;
+    private boolean isDatabaseClosed = false;
+
+    private final LinkedHashMap<String, Stmt> idleStatements = new LinkedHashMap<String, Stmt>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Stmt> eldest) {
+            if (size() > MAX_STATEMENTS) {
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param database the open database the statements are prepared on.
+     */
+    public StatementsCache(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Get a prepared statement for the given sql.
+     * <p/>
+     * The statement is reused if available, else prepared. It has to be given back
+     * through {@link #release(String, Stmt)}.
+     *
+     * @param sql the parameterized sql.
+     * @return the statement, ready to be bound.
+     * @throws Exception if the cache has been closed or the statement can't be prepared.
+     */
+    public Stmt acquire(String sql) throws Exception {
+        synchronized (idleStatements) {
+            if (isClosed) {
+                throw new Exception("The statements cache has been closed.");
+            }
+            inUseCount++;
+            Stmt stmt = idleStatements.remove(sql);
+            if (stmt != null) {
+                return stmt;
+            }
+        }
+        boolean prepared = false;
+        try {
+            Stmt stmt = database.prepare(sql);
+            prepared = true;
+            return stmt;
+        } finally {
+            if (!prepared) {
+                synchronized (idleStatements) {
+                    released();
+                }
+            }
+        }
+    }
+
+    /**
+     * Give back a statement got through {@link #acquire(String)}.
+     *
+     * @param sql  the parameterized sql of the statement.
+     * @param stmt the statement.
+     */
+    public void release(String sql, Stmt stmt) {
+        if (stmt == null) {
+            return;
+        }
+        boolean isReusable = true;
+        try {
+            stmt.reset();
+            stmt.clear_bindings();
+        } catch (Exception e) {
+            // a broken statement is not kept
+            GPLog.error(this, "StatementsCache.release reset failed for sql[" + sql + "]", e);
+            isReusable = false;
+        }
+        synchronized (idleStatements) {
+            if (!isReusable || isClosed || idleStatements.containsKey(sql)) {
+                closeQuietly(stmt);
+            } else {
+                idleStatements.put(sql, stmt);
+            }
+            released();
+        }
+    }
+
+    /**
+     * Prepare a statement for a sql that is not worth caching, as a query with inlined values.
+     * <p/>
+     * The statement has to be given back through {@link #discard(Stmt)}.
+     *
+     * @param sql the sql.
+     * @return the statement.
+     * @throws Exception if the cache has been closed or the statement can't be prepared.
+     */
+    public Stmt acquireUncached(String sql) throws Exception {
+        synchronized (idleStatements) {
+            if (isClosed) {
+                throw new Exception("The statements cache has been closed.");
+            }
+            inUseCount++;
+        }
+        boolean prepared = false;
+        try {
+            Stmt stmt = database.prepare(sql);
+            prepared = true;
+            return stmt;
+        } finally {
+            if (!prepared) {
+                synchronized (idleStatements) {
+                    released();
+                }
+            }
+        }
+    }
+
+    /**
+     * Close a statement got through {@link #acquireUncached(String)}.
+     *
+     * @param stmt the statement.
+     */
+    public void discard(Stmt stmt) {
+        if (stmt == null) {
+            return;
+        }
+        synchronized (idleStatements) {
+            closeQuietly(stmt);
+            released();
+        }
+    }
+
+    /**
+     * Close all the cached statements and then the database.
+     * <p/>
+     * No statement can be acquired afterwards. The statements in use are waited for, at most
+     * {@link #CLOSE_WAIT_MILLIS}. If some are still in use after that, the database is closed
+     * when the last one is released.
+     */
+    public void close() {
+        synchronized (idleStatements) {
+            isClosed = true;
+            for (Stmt stmt : idleStatements.values()) {
+                closeQuietly(stmt);
+            }
+            idleStatements.clear();
+
+            long deadline = System.currentTimeMillis() + CLOSE_WAIT_MILLIS;
+            while (inUseCount > 0) {
+                long waitMillis = deadline - System.currentTimeMillis();
+                if (waitMillis <= 0) {
+                    GPLog.addLogEntry(this, inUseCount + " statements still in use, the database is closed when they are released.");
+                    return;
+                }
+                try {
+                    idleStatements.wait(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            closeDatabase();
+        }
+    }
+
+    /**
+     * Must be called holding the idle statements lock.
+     */
+    private void released() {
+        inUseCount--;
+        if (isClosed) {
+            if (inUseCount == 0) {
+                closeDatabase();
+            }
+            idleStatements.notifyAll();
+        }
+    }
+
+    /**
+     * Must be called holding the idle statements lock.
+     */
+    private void closeDatabase() {
+        if (isDatabaseClosed) {
+            return;
+        }
+        isDatabaseClosed = true;
+        try {
+            database.close();
+        } catch (Exception e) {
+            GPLog.error(this, "StatementsCache.close of the database failed", e);
+        }
+    }
+
+    private static void closeQuietly(Stmt stmt) {
+        try {
+            stmt.close();
+        } catch (Exception e) {
+            // ignore
+        }
+    }
+}
@@ -23,6 +23,7 @@ import com.vividsolutions.jts.io.WKBReader;
 import java.util.Iterator;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.StatementsCache;
 import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
 import jsqlite.Database;
 import jsqlite.Exception;
@@ -37,6 +38,8 @@ import jsqlite.Stmt;
 public class GeometryIterator implements Iterator<Geometry> {
     private WKBReader wkbReader = new WKBReader();
     private Stmt stmt;
+    private StatementsCache statementsCache;
+    private String query;
     private String labelText = "";
     private String themeFieldValue;
 
@@ -120,6 +123,38 @@ public class GeometryIterator implements Iterator<Geometry> {
         }
     }
 
+    /**
+     * Constructor for a statement taken from a {@link StatementsCache}.
+     * <p>
+     * The statement is given back to the cache on {@link #close()}.
+     *
+     * @param statementsCache the cache to take the statement from, if <code>null</code>, as for a database that
+     *                        could not be opened, the iterator is empty.
+     * @param query           the parameterized query, as built by
+     *                        {@link SpatialiteUtilities#buildGeometriesInBoundsStatement(String, boolean, eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable)}.
+     * @param n               north bound.
+     * @param s               south bound.
+     * @param e               east bound.
+     * @param w               west bound.
+     */
+    public GeometryIterator(StatementsCache statementsCache, String query, double n, double s, double e, double w) {
+        this.statementsCache = statementsCache;
+        this.query = query;
+        if (statementsCache == null) {
+            return;
+        }
+        try {
+            stmt = statementsCache.acquire(query);
+            SpatialiteUtilities.bindGeometriesInBoundsStatement(stmt, n, s, e, w);
+        } catch (Exception e1) {
+            GPLog.error(this, "GeometryIterator.creation sql[" + query + "]", e1);
+            if (stmt != null) {
+                statementsCache.release(query, stmt);
+                stmt = null;
+            }
+        }
+    }
+
     @Override
     public boolean hasNext() {
         if (stmt == null) {
@@ -150,6 +185,28 @@ public class GeometryIterator implements Iterator<Geometry> {
         return null;
     }
 
+    /**
+     * Get the current geometry as well known binary, without parsing it.
+     * <p>
+     * To be used instead of {@link #next()} after {@link #hasNext()}.
+     *
+     * @return the geometry bytes or <code>null</code>.
+     */
+    public byte[] nextWkb() {
+        if (stmt == null) {
+            GPLog.androidLog(4, "GeometryIterator.nextWkb() [stmt=null]");
+            return null;
+        }
+        try {
+            byte[] geomBytes = stmt.column_bytes(0);
+            setLabelAndThemeText(stmt);
+            return geomBytes;
+        } catch (java.lang.Exception e) {
+            GPLog.error(this, "GeometryIterator.nextWkb()[column_bytes failed]", e);
+        }
+        return null;
+    }
+
     @Override
     public void remove() {
         throw new UnsupportedOperationException();
@@ -171,7 +228,13 @@ public class GeometryIterator implements Iterator<Geometry> {
      * @throws Exception if something goes wrong.
      */
     public void close() throws Exception {
-        if (stmt != null)
-            stmt.close();
+        if (stmt != null) {
+            if (statementsCache != null) {
+                statementsCache.release(query, stmt);
+            } else {
+                stmt.close();
+            }
+            stmt = null;
+        }
     }
 }
@@ -0,0 +1,676 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.mbtiles;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.gpx.parser.GpxParser;
+import eu.geopaparazzi.library.gpx.parser.RoutePoint;
+import eu.geopaparazzi.library.gpx.parser.TrackPoint;
+import eu.geopaparazzi.library.routing.osmbonuspack.GeoPoint;
+import eu.geopaparazzi.library.routing.osmbonuspack.Road;
+import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.MbtilesDatabaseHandler;
+
+/**
+ * Fills an mbtiles database with the tiles of a corridor around one or more routes.
+ * <p/>
+ * <p>The routes (GPX tracks and routes or the {@link Road#mRouteHigh} of a routing result) are
+ * buffered by a distance in meters and, for each zoom level, only the tiles that intersect the
+ * buffer are requested. These are usually far fewer than the tiles of the bounding box used by
+ * the request bounds of {@link MBtilesAsync}.</p>
+ * <p>Tiles that already exist in the database are skipped. The others are fetched and encoded in
+ * parallel from an {@link ITileSource} and inserted in batches, one transaction per batch.</p>
+ * <p>This is the packaging engine only, the callers have to run {@link #build} in background and
+ * offer {@link #cancel()}, no menu action uses it yet.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class MBTilesCorridorPackager {
+
+    private static final double EARTH_CIRCUMFERENCE = 40075016.686;
+    private static final double LATITUDE_MAX = 85.05112877980659;
+    private static final int BATCH_SIZE = 32;
+    private static final int DEFAULT_THREADS = 4;
+    /**
+     * Stop when the source returns nothing for so many tiles in a row, as done by {@link MBtilesAsync}.
+     */
+    private static final int MAX_FAILURES_IN_A_ROW = 20;
+
+    /**
+     * A source of tile images, as a tile server or a renderer.
+     * <p/>
+     * <p>Called concurrently by the workers of the packager.</p>
+     */
+    public interface ITileSource {
+        /**
+         * Get the image of a tile.
+         *
+         * @param zoom  the zoom level.
+         * @param x     the tile column.
+         * @param y_osm the tile row in osm notation.
+         * @return the image or <code>null</code> if it is not available.
+         * @throws Exception if something goes wrong.
+         */
+        Bitmap getTile(int zoom, int x, int y_osm) throws Exception;
+    }
+
+    /**
+     * Listener of the packaging progress.
+     */
+    public interface IProgressListener {
+        /**
+         * Called after each batch of tiles.
+         *
+         * @param done  the number of tiles processed.
+         * @param total the number of tiles to process.
+         */
+        void onProgress(int done, int total);
+    }
+
+    /**
+     * A tile source that downloads from a tile server.
+     * <p/>
+     * <p>The url uses the placeholders of the mbtiles requests: ZZZ, XXX and YYY for zoom, column and row and
+     * optionally SSS for the server number.</p>
+     */
+    public static class UrlTileSource implements ITileSource {
+        private static final int TIMEOUT = 10000;
+        private final String urlTemplate;
+        private final boolean isTms;
+        private final AtomicInteger serverCounter = new AtomicInteger();
+
+        /**
+         * Constructor.
+         *
+         * @param urlTemplate the url with the placeholders.
+         * @param yType       the row notation of the server, 'osm' or 'tms'.
+         */
+        public UrlTileSource(String urlTemplate, String yType) {
+            this.urlTemplate = urlTemplate;
+            this.isTms = "tms".equals(yType);
+        }
+
+        @Override
+        public Bitmap getTile(int zoom, int x, int y_osm) throws Exception {
+            int y = y_osm;
+            if (isTms) {
+                y = MBTilesDroidSpitter.googleTile2TmsTile(x, y_osm, zoom)[1];
+            }
+            String url = urlTemplate;
+            if (url.contains("SSS")) {
+                // alternate between the servers 1 and 2, as the mbtiles requests do
+                url = url.replaceFirst("SSS", String.valueOf(serverCounter.getAndIncrement() % 2 + 1));
+            }
+            url = url.replaceFirst("ZZZ", String.valueOf(zoom));
+            url = url.replaceFirst("XXX", String.valueOf(x));
+            url = url.replaceFirst("YYY", String.valueOf(y));
+
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            try {
+                connection.setConnectTimeout(TIMEOUT);
+                connection.setReadTimeout(TIMEOUT);
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    return null;
+                }
+                InputStream inputStream = connection.getInputStream();
+                try {
+                    return BitmapFactory.decodeStream(inputStream);
+                } finally {
+                    inputStream.close();
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * The result of a packaging.
+     */
+    public static class Result {
+        /**
+         * The number of tiles of the corridor.
+         */
+        public int corridorTiles;
+        /**
+         * The number of tiles of the bounding box of the corridor, for comparison.
+         */
+        public long boundingBoxTiles;
+        /**
+         * The number of tiles that were already in the database.
+         */
+        public int existingTiles;
+        /**
+         * The number of tiles inserted.
+         */
+        public int insertedTiles;
+        /**
+         * The number of tiles that could not be fetched, the ones skipped because of a cancel are not counted.
+         */
+        public int failedTiles;
+        /**
+         * True if the packaging was cancelled or stopped because of errors.
+         */
+        public boolean interrupted;
+        /**
+         * The time taken in milliseconds.
+         */
+        public long elapsedMillis;
+
+        @Override
+        public String toString() {
+            return "corridor tiles: " + corridorTiles + " (bounding box: " + boundingBoxTiles + "), existing: "
+                    + existingTiles + ", inserted: " + insertedTiles + ", failed: " + failedTiles
+                    + (interrupted ? ", interrupted" : "") + " in " + elapsedMillis + " ms";
+        }
+    }
+
+    /**
+     * A route segment in normalized mercator coordinates [0, 1], with the buffer distance in the same units.
+     */
+    private static class Segment {
+        final double x1, y1, x2, y2, buffer;
+        final double minX, minY, maxX, maxY;
+
+        Segment(double x1, double y1, double x2, double y2, double buffer) {
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+            this.buffer = buffer;
+            minX = Math.min(x1, x2) - buffer;
+            minY = Math.min(y1, y2) - buffer;
+            maxX = Math.max(x1, x2) + buffer;
+            maxY = Math.max(y1, y2) + buffer;
+        }
+    }
+
+    /**
+     * An encoded tile, ready to be inserted.
+     */
+    private static class EncodedTile {
+        int[] zxy_osm;
+        byte[] data;
+        String blankId;
+    }
+
+    /**
+     * Returned by the fetch tasks that didn't run because of a cancel, they are not failures.
+     */
+    private static final EncodedTile SKIPPED = new EncodedTile();
+
+    private final MbtilesDatabaseHandler mbtilesHandler;
+    private final ITileSource tileSource;
+    private int threads = DEFAULT_THREADS;
+    private volatile boolean isCancelled = false;
+
+    /**
+     * Constructor.
+     *
+     * @param mbtilesHandler the database to fill.
+     * @param tileSource     the source of the tiles.
+     */
+    public MBTilesCorridorPackager(MbtilesDatabaseHandler mbtilesHandler, ITileSource tileSource) {
+        this.mbtilesHandler = mbtilesHandler;
+        this.tileSource = tileSource;
+    }
+
+    /**
+     * @param threads the number of tiles fetched in parallel.
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Stop the packaging, the tiles inserted so far are kept.
+     * <p/>
+     * <p>A packager cancelled before {@link #build} runs builds nothing. Once cancelled it stays
+     * so, a new packager is needed to package again.</p>
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    /**
+     * Fill the database with the tiles of the corridor of some routes.
+     * <p/>
+     * <p>Blocks until done, to be called from a background thread.</p>
+     *
+     * @param routes       the routes, as lists of lon/lat coordinates.
+     * @param bufferMeters the half width of the corridor in meters.
+     * @param minZoom      the minimum zoom level.
+     * @param maxZoom      the maximum zoom level.
+     * @param listener     an optional progress listener or <code>null</code>.
+     * @return the result.
+     */
+    public Result build(List<List<Coordinate>> routes, double bufferMeters, int minZoom, int maxZoom,
+                        IProgressListener listener) {
+        long start = System.currentTimeMillis();
+        Result result = new Result();
+        List<int[]> tiles = getCorridorTiles(routes, bufferMeters, minZoom, maxZoom);
+        result.corridorTiles = tiles.size();
+        result.boundingBoxTiles = countBoundingBoxTiles(routes, bufferMeters, minZoom, maxZoom);
+
+        tiles = removeExistingTiles(tiles);
+        result.existingTiles = result.corridorTiles - tiles.size();
+        if (GPLog.LOG)
+            GPLog.addLogEntry(this, "Corridor of " + result.corridorTiles + " tiles instead of "
+                    + result.boundingBoxTiles + ", " + tiles.size() + " to fetch");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CompletionService<EncodedTile> completionService = new ExecutorCompletionService<>(executor);
+            int maxInFlight = threads * 4;
+            int submitted = 0;
+            int completed = 0;
+            int failuresInARow = 0;
+            List<int[]> batchTiles = new ArrayList<>(BATCH_SIZE);
+            List<byte[]> batchData = new ArrayList<>(BATCH_SIZE);
+            List<String> batchBlankIds = new ArrayList<>(BATCH_SIZE);
+            while (completed < submitted || submitted < tiles.size()) {
+                while (!isCancelled && submitted < tiles.size() && submitted - completed < maxInFlight) {
+                    completionService.submit(createFetchTask(tiles.get(submitted)));
+                    submitted++;
+                }
+                if (completed == submitted) {
+                    // cancelled
+                    break;
+                }
+
+                EncodedTile encodedTile = null;
+                try {
+                    encodedTile = completionService.take().get();
+                } catch (java.lang.Exception e) {
+                    GPLog.error(this, null, e);
+                }
+                completed++;
+                if (encodedTile == SKIPPED) {
+                    // not fetched because of a cancel
+                } else if (encodedTile == null) {
+                    result.failedTiles++;
+                    if (++failuresInARow > MAX_FAILURES_IN_A_ROW && !isCancelled) {
+                        GPLog.addLogEntry(this, "The tile source returns nothing, stopping.");
+                        isCancelled = true;
+                    }
+                } else {
+                    failuresInARow = 0;
+                    batchTiles.add(encodedTile.zxy_osm);
+                    batchData.add(encodedTile.data);
+                    batchBlankIds.add(encodedTile.blankId);
+                }
+
+                if (batchTiles.size() >= BATCH_SIZE || (completed == submitted && batchTiles.size() > 0)) {
+                    int inserted = mbtilesHandler.insertTiles(batchTiles, batchData, batchBlankIds);
+                    if (inserted > 0) {
+                        result.insertedTiles += inserted;
+                    }
+                    batchTiles.clear();
+                    batchData.clear();
+                    batchBlankIds.clear();
+                    if (listener != null) {
+                        listener.onProgress(completed + result.existingTiles, result.corridorTiles);
+                    }
+                }
+            }
+            result.interrupted = isCancelled;
+        } finally {
+            executor.shutdownNow();
+        }
+        result.elapsedMillis = System.currentTimeMillis() - start;
+        if (GPLog.LOG)
+            GPLog.addLogEntry(this, "Packaged " + mbtilesHandler.getName() + ": " + result);
+        return result;
+    }
+
+    private Callable<EncodedTile> createFetchTask(final int[] zxy_osm) {
+        return new Callable<EncodedTile>() {
+            @Override
+            public EncodedTile call() throws java.lang.Exception {
+                if (isCancelled) {
+                    return SKIPPED;
+                }
+                Bitmap bitmap;
+                try {
+                    bitmap = tileSource.getTile(zxy_osm[0], zxy_osm[1], zxy_osm[2]);
+                } catch (java.lang.Exception e) {
+                    GPLog.error(this, "Unable to fetch tile " + zxy_osm[0] + "/" + zxy_osm[1] + "/" + zxy_osm[2], e);
+                    return null;
+                }
+                if (bitmap == null) {
+                    return null;
+                }
+                try {
+                    EncodedTile encodedTile = new EncodedTile();
+                    encodedTile.zxy_osm = zxy_osm;
+                    encodedTile.blankId = MBTilesDroidSpitter.get_pixel_rgb_toString(bitmap, 1);
+                    encodedTile.data = mbtilesHandler.getTileData(bitmap);
+                    return encodedTile;
+                } finally {
+                    bitmap.recycle();
+                }
+            }
+        };
+    }
+
+    private List<int[]> removeExistingTiles(List<int[]> tiles) {
+        // the extent of the tiles per zoom level: min x, min y, max x, max y
+        Map<Integer, int[]> zoomExtents = new HashMap<>();
+        for (int[] tile : tiles) {
+            int[] extent = zoomExtents.get(tile[0]);
+            if (extent == null) {
+                zoomExtents.put(tile[0], new int[]{tile[1], tile[2], tile[1], tile[2]});
+            } else {
+                extent[0] = Math.min(extent[0], tile[1]);
+                extent[1] = Math.min(extent[1], tile[2]);
+                extent[2] = Math.max(extent[2], tile[1]);
+                extent[3] = Math.max(extent[3], tile[2]);
+            }
+        }
+
+        Set<Long> existing = new HashSet<>();
+        for (Map.Entry<Integer, int[]> zoomExtent : zoomExtents.entrySet()) {
+            int zoom = zoomExtent.getKey();
+            int[] extent = zoomExtent.getValue();
+            // minx, miny, maxx, maxy of the upper left and lower right tiles
+            double[] upperLeft = MBTilesDroidSpitter.tileLatLonBounds(extent[0], extent[1], zoom, 256);
+            double[] lowerRight = MBTilesDroidSpitter.tileLatLonBounds(extent[2], extent[3], zoom, 256);
+            double[] requestBounds = new double[]{upperLeft[0], lowerRight[1], lowerRight[2], upperLeft[3]};
+            List<String> tileIds = mbtilesHandler.buildRequestList(requestBounds, zoom, "exists", "", "");
+            for (String tileId : tileIds) {
+                int[] zxy_osm = MBTilesDroidSpitter.get_zxy_from_tile_id(tileId);
+                if (zxy_osm != null) {
+                    existing.add(getTileKey(zxy_osm[0], zxy_osm[1], zxy_osm[2]));
+                }
+            }
+        }
+        if (existing.size() == 0) {
+            return tiles;
+        }
+        List<int[]> missing = new ArrayList<>(tiles.size());
+        for (int[] tile : tiles) {
+            if (!existing.contains(getTileKey(tile[0], tile[1], tile[2]))) {
+                missing.add(tile);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Compute the tiles that intersect the corridor of some routes.
+     * <p/>
+     * <p>The tiles are found descending the tile pyramid from the zoom level 0, keeping only the
+     * segments near each tile, so each tile is listed once even where routes overlap or turn back.</p>
+     *
+     * @param routes       the routes, as lists of lon/lat coordinates.
+     * @param bufferMeters the half width of the corridor in meters.
+     * @param minZoom      the minimum zoom level.
+     * @param maxZoom      the maximum zoom level.
+     * @return the tiles as zoom, x and y in osm notation, sorted by zoom level.
+     */
+    public static List<int[]> getCorridorTiles(List<List<Coordinate>> routes, double bufferMeters, int minZoom,
+                                               int maxZoom) {
+        List<Segment> segments = toSegments(routes, bufferMeters);
+        List<List<int[]>> tilesPerZoom = new ArrayList<>();
+        for (int zoom = 0; zoom <= maxZoom; zoom++) {
+            tilesPerZoom.add(new ArrayList<int[]>());
+        }
+        if (segments.size() > 0) {
+            collectTiles(0, 0, 0, segments, minZoom, maxZoom, tilesPerZoom);
+        }
+        List<int[]> tiles = new ArrayList<>();
+        for (List<int[]> zoomTiles : tilesPerZoom) {
+            tiles.addAll(zoomTiles);
+        }
+        return tiles;
+    }
+
+    /**
+     * Count the tiles of the bounding box of the corridor of some routes.
+     *
+     * @param routes       the routes, as lists of lon/lat coordinates.
+     * @param bufferMeters the half width of the corridor in meters.
+     * @param minZoom      the minimum zoom level.
+     * @param maxZoom      the maximum zoom level.
+     * @return the number of tiles.
+     */
+    public static long countBoundingBoxTiles(List<List<Coordinate>> routes, double bufferMeters, int minZoom,
+                                             int maxZoom) {
+        List<Segment> segments = toSegments(routes, bufferMeters);
+        if (segments.size() == 0) {
+            return 0;
+        }
+        double minX = 1, minY = 1, maxX = 0, maxY = 0;
+        for (Segment segment : segments) {
+            minX = Math.min(minX, segment.minX);
+            minY = Math.min(minY, segment.minY);
+            maxX = Math.max(maxX, segment.maxX);
+            maxY = Math.max(maxY, segment.maxY);
+        }
+        long count = 0;
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            long tilesCount = 1L << zoom;
+            long columns = toTile(maxX, tilesCount) - toTile(minX, tilesCount) + 1;
+            long rows = toTile(maxY, tilesCount) - toTile(minY, tilesCount) + 1;
+            count += columns * rows;
+        }
+        return count;
+    }
+
+    /**
+     * Get the route of a routing result.
+     *
+     * @param road the routing result.
+     * @return the route as a list of lon/lat coordinates.
+     */
+    public static List<Coordinate> getRoute(Road road) {
+        List<Coordinate> route = new ArrayList<>(road.mRouteHigh.size());
+        for (GeoPoint geoPoint : road.mRouteHigh) {
+            route.add(new Coordinate(geoPoint.getLongitude(), geoPoint.getLatitude()));
+        }
+        return route;
+    }
+
+    /**
+     * Get the tracks and routes of a parsed gpx file.
+     *
+     * @param gpxParser the parser, after {@link GpxParser#parse()}.
+     * @return the routes as lists of lon/lat coordinates.
+     */
+    public static List<List<Coordinate>> getRoutes(GpxParser gpxParser) {
+        List<List<Coordinate>> routes = new ArrayList<>();
+        List<GpxParser.TrackSegment> tracks = gpxParser.getTracks();
+        if (tracks != null) {
+            for (GpxParser.TrackSegment track : tracks) {
+                List<Coordinate> route = new ArrayList<>();
+                for (TrackPoint point : track.getPoints()) {
+                    route.add(new Coordinate(point.getLongitude(), point.getLatitude()));
+                }
+                routes.add(route);
+            }
+        }
+        List<GpxParser.Route> gpxRoutes = gpxParser.getRoutes();
+        if (gpxRoutes != null) {
+            for (GpxParser.Route gpxRoute : gpxRoutes) {
+                List<Coordinate> route = new ArrayList<>();
+                for (RoutePoint point : gpxRoute.getPoints()) {
+                    route.add(new Coordinate(point.getLongitude(), point.getLatitude()));
+                }
+                routes.add(route);
+            }
+        }
+        return routes;
+    }
+
+    private static void collectTiles(int zoom, int x, int y, List<Segment> segments, int minZoom, int maxZoom,
+                                     List<List<int[]>> tilesPerZoom) {
+        double size = 1.0 / (1L << zoom);
+        double minX = x * size;
+        double minY = y * size;
+        double maxX = minX + size;
+        double maxY = minY + size;
+
+        List<Segment> nearSegments = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.maxX < minX || segment.minX > maxX || segment.maxY < minY || segment.minY > maxY) {
+                continue;
+            }
+            if (distance(segment, minX, minY, maxX, maxY) <= segment.buffer) {
+                nearSegments.add(segment);
+            }
+        }
+        if (nearSegments.size() == 0) {
+            return;
+        }
+
+        if (zoom >= minZoom) {
+            tilesPerZoom.get(zoom).add(new int[]{zoom, x, y});
+        }
+        if (zoom < maxZoom) {
+            for (int dy = 0; dy < 2; dy++) {
+                for (int dx = 0; dx < 2; dx++) {
+                    collectTiles(zoom + 1, 2 * x + dx, 2 * y + dy, nearSegments, minZoom, maxZoom, tilesPerZoom);
+                }
+            }
+        }
+    }
+
+    private static List<Segment> toSegments(List<List<Coordinate>> routes, double bufferMeters) {
+        List<Segment> segments = new ArrayList<>();
+        for (List<Coordinate> route : routes) {
+            if (route.size() == 1) {
+                // a single point, buffered into a square
+                segments.add(toSegment(route.get(0), route.get(0), bufferMeters));
+            }
+            for (int i = 0; i < route.size() - 1; i++) {
+                segments.add(toSegment(route.get(i), route.get(i + 1), bufferMeters));
+            }
+        }
+        return segments;
+    }
+
+    private static Segment toSegment(Coordinate c1, Coordinate c2, double bufferMeters) {
+        double latitude = Math.max(-LATITUDE_MAX, Math.min(LATITUDE_MAX, (c1.y + c2.y) / 2.0));
+        // the mercator scale grows with the latitude
+        double buffer = bufferMeters / (EARTH_CIRCUMFERENCE * Math.cos(Math.toRadians(latitude)));
+        return new Segment(toMercatorX(c1.x), toMercatorY(c1.y), toMercatorX(c2.x), toMercatorY(c2.y), buffer);
+    }
+
+    private static double toMercatorX(double longitude) {
+        return (longitude + 180.0) / 360.0;
+    }
+
+    private static double toMercatorY(double latitude) {
+        double sinLatitude = Math.sin(Math.toRadians(Math.max(-LATITUDE_MAX, Math.min(LATITUDE_MAX, latitude))));
+        return 0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) / (4 * Math.PI);
+    }
+
+    private static long toTile(double value, long tilesCount) {
+        return Math.max(0, Math.min(tilesCount - 1, (long) (value * tilesCount)));
+    }
+
+    private static long getTileKey(int zoom, int x, int y) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+
+    /**
+     * Distance between a segment and a rectangle, 0 if they intersect.
+     */
+    private static double distance(Segment s, double minX, double minY, double maxX, double maxY) {
+        if (intersects(s, minX, minY, maxX, maxY)) {
+            return 0;
+        }
+        double d = Math.min(pointToRectangle(s.x1, s.y1, minX, minY, maxX, maxY),
+                pointToRectangle(s.x2, s.y2, minX, minY, maxX, maxY));
+        d = Math.min(d, pointToSegment(minX, minY, s));
+        d = Math.min(d, pointToSegment(maxX, minY, s));
+        d = Math.min(d, pointToSegment(minX, maxY, s));
+        d = Math.min(d, pointToSegment(maxX, maxY, s));
+        return d;
+    }
+
+    /**
+     * Liang-Barsky clipping of the segment against the rectangle.
+     */
+    private static boolean intersects(Segment s, double minX, double minY, double maxX, double maxY) {
+        double dx = s.x2 - s.x1;
+        double dy = s.y2 - s.y1;
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {s.x1 - minX, maxX - s.x1, s.y1 - minY, maxY - s.y1};
+        double t0 = 0;
+        double t1 = 1;
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return false;
+                }
+            } else {
+                double t = q[i] / p[i];
+                if (p[i] < 0) {
+                    t0 = Math.max(t0, t);
+                } else {
+                    t1 = Math.min(t1, t);
+                }
+                if (t0 > t1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static double pointToRectangle(double x, double y, double minX, double minY, double maxX, double maxY) {
+        double dx = Math.max(0, Math.max(minX - x, x - maxX));
+        double dy = Math.max(0, Math.max(minY - y, y - maxY));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static double pointToSegment(double x, double y, Segment s) {
+        double dx = s.x2 - s.x1;
+        double dy = s.y2 - s.y1;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = 0;
+        if (lengthSquared > 0) {
+            t = Math.max(0, Math.min(1, ((x - s.x1) * dx + (y - s.y1) * dy) / lengthSquared));
+        }
+        double px = s.x1 + t * dx - x;
+        double py = s.y1 + t * dy - y;
+        return Math.sqrt(px * px + py * py);
+    }
+}
@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Formatter;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
@@ -294,15 +295,8 @@ public class MBTilesDroidSpitter {
         // i_parm=1: 'ff-ee-dd.rgb' [to be used as tile_id], blank if image is not Blank (all pixels
         // use one RGB value)
         String s_tile_id = get_pixel_rgb_toString(tile_bitmap, 1);
-        ByteArrayOutputStream ba_stream = new ByteArrayOutputStream();
         try {
-            if (this.mbtiles_metadata.get("format") == "png") { // 'png' should be avoided, can
-                // create very big databases
-                tile_bitmap.compress(Bitmap.CompressFormat.PNG, 100, ba_stream);
-            } else { // 'jpg' should be used where possible
-                tile_bitmap.compress(Bitmap.CompressFormat.JPEG, 75, ba_stream);
-            }
-            byte[] ba_tile_data = ba_stream.toByteArray();
+            byte[] ba_tile_data = getTileData(tile_bitmap);
             i_rc = insertTile(s_tile_id, i_x, i_y_osm, i_z, ba_tile_data, i_force_unique);
         } catch (Exception e) {
             i_rc = 1;
@@ -313,6 +307,122 @@ public class MBTilesDroidSpitter {
     }
     // -----------------------------------------------
 
+    /**
+     * Function to convert a Tile Bitmap to the image-data stored in the mbtiles Database
+     * - thread safe, can be called by parallel workers before a batch insert
+     *
+     * @param tile_bitmap the Bitmap to extract image-data extracted from. [Will be converted to JPG or PNG depending on metdata setting]
+     * @return the image-data
+     */
+    public byte[] getTileData(Bitmap tile_bitmap) {
+        ByteArrayOutputStream ba_stream = new ByteArrayOutputStream();
+        if (this.mbtiles_metadata.get("format") == "png") { // 'png' should be avoided, can
+            // create very big databases
+            tile_bitmap.compress(Bitmap.CompressFormat.PNG, 100, ba_stream);
+        } else { // 'jpg' should be used where possible
+            tile_bitmap.compress(Bitmap.CompressFormat.JPEG, 75, ba_stream);
+        }
+        return ba_stream.toByteArray();
+    }
+    // -----------------------------------------------
+
+    /**
+     * Function to insert a batch of Tile byte-data to the mbtiles Database in one transaction
+     * - zxy_osm values must be in Open-Street-Map 'Slippy Map' notation [will be converted to 'tms' notation if needed]
+     * - tiles that allready exist are skipped
+     * - blank images [i.e. all pixels have the same RGB] will only be saved once in the 'images' table
+     * - the bounds and min/max zoom of the metadata are checked once per batch
+     *
+     * @param zxy_osm_list   zoom_level, tile_column and tile_row [osm notation] of each tile
+     * @param tile_data_list the image-data of each tile [see getTileData]
+     * @param blank_id_list  the 'ff-ee-dd.rgb' tile_id of each tile if blank, otherwise empty [see get_pixel_rgb_toString]
+     * @return the amount of inserted tiles, -1 if this mbtiles file is invalid or closed
+     * @throws IOException if the transaction fails.
+     */
+    public int insertTiles(List<int[]> zxy_osm_list, List<byte[]> tile_data_list, List<String> blank_id_list)
+            throws IOException {
+        if (!isValid() || !db_mbtiles.isOpen()) {
+            return -1;
+        }
+        int i_inserted = 0;
+        // per zoom_level: min x, min y_osm, max x, max y_osm of the inserted tiles
+        HashMap<Integer, int[]> batch_bounds = new HashMap<Integer, int[]>();
+        HashSet<String> blank_ids_inserted = new HashSet<String>();
+        db_lock.writeLock().lock();
+        db_mbtiles.beginTransaction();
+        try {
+            for (int i = 0; i < zxy_osm_list.size(); i++) {
+                int[] zxy_osm = zxy_osm_list.get(i);
+                int i_z = zxy_osm[0];
+                int i_x = zxy_osm[1];
+                int i_y_osm = zxy_osm[2];
+                int i_y = i_y_osm;
+                if (s_tile_row_type.equals("tms")) {
+                    i_y = MBTilesDroidSpitter.googleTile2TmsTile(i_x, i_y_osm, i_z)[1];
+                }
+                long l_row_id;
+                if (i_type_tiles == 1) { // 'tiles' is a view
+                    String s_tile_id = blank_id_list.get(i);
+                    boolean b_unique = true;
+                    if (s_tile_id.equals("")) {
+                        s_tile_id = get_tile_id_from_zxy(i_z, i_x, i_y_osm);
+                    } else {
+                        b_unique = !blank_ids_inserted.contains(s_tile_id) && search_blank_image(s_tile_id);
+                    }
+                    if (b_unique) {
+                        ContentValues image_values = new ContentValues();
+                        image_values.put("tile_data", tile_data_list.get(i));
+                        image_values.put("tile_id", s_tile_id);
+                        db_mbtiles.insertWithOnConflict("images", null, image_values, SQLiteDatabase.CONFLICT_IGNORE);
+                        blank_ids_inserted.add(s_tile_id);
+                    }
+                    ContentValues map_values = new ContentValues();
+                    map_values.put("zoom_level", i_z);
+                    map_values.put("tile_column", i_x);
+                    map_values.put("tile_row", i_y);
+                    map_values.put("tile_id", s_tile_id);
+                    if (b_grid_id)
+                        map_values.put("grid_id", "");
+                    l_row_id = db_mbtiles.insertWithOnConflict("map", null, map_values, SQLiteDatabase.CONFLICT_IGNORE);
+                } else { // 'tiles' is a table
+                    ContentValues tiles_values = new ContentValues();
+                    tiles_values.put("zoom_level", i_z);
+                    tiles_values.put("tile_column", i_x);
+                    tiles_values.put("tile_row", i_y);
+                    tiles_values.put("tile_data", tile_data_list.get(i));
+                    l_row_id = db_mbtiles.insertWithOnConflict("tiles", null, tiles_values, SQLiteDatabase.CONFLICT_IGNORE);
+                }
+                if (l_row_id != -1) {
+                    i_inserted++;
+                    int[] zoom_bounds = batch_bounds.get(i_z);
+                    if (zoom_bounds == null) {
+                        batch_bounds.put(i_z, new int[]{i_x, i_y_osm, i_x, i_y_osm});
+                    } else {
+                        zoom_bounds[0] = Math.min(zoom_bounds[0], i_x);
+                        zoom_bounds[1] = Math.min(zoom_bounds[1], i_y_osm);
+                        zoom_bounds[2] = Math.max(zoom_bounds[2], i_x);
+                        zoom_bounds[3] = Math.max(zoom_bounds[3], i_y_osm);
+                    }
+                }
+            }
+            db_mbtiles.setTransactionSuccessful();
+        } catch (Exception e) {
+            throw new IOException("MBTilesDroidSpitter:insertTiles error[" + e.getLocalizedMessage() + "]");
+        } finally {
+            db_mbtiles.endTransaction();
+            db_lock.writeLock().unlock();
+        }
+        // the corner tiles of each zoom_level cover the extent of the batch
+        for (Map.Entry<Integer, int[]> zoom_bounds : batch_bounds.entrySet()) {
+            int i_z = zoom_bounds.getKey();
+            int[] bounds = zoom_bounds.getValue();
+            checkBounds(bounds[0], bounds[1], i_z, 1);
+            checkBounds(bounds[2], bounds[3], i_z, 1);
+        }
+        return i_inserted;
+    }
+    // -----------------------------------------------
+
     /**
      * Function to insert a new Tile byte-data to the mbtiles Database
      * - i_y_osm must be in is Open-Street-Map 'Slippy Map' notation [will be converted to 'tms' notation if needed]
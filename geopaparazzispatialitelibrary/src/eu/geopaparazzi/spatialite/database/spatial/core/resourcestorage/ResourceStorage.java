@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.images.ThumbnailCache;
 import eu.geopaparazzi.spatialite.database.spatial.SpatialiteSourcesManager;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
 import jsqlite.Callback;
@@ -55,20 +56,40 @@ public class ResourceStorage {
     }
 
     public List<ExternalResource> getExternalResources(long rowIdFk, AbstractResource.ResourceType type) {
+        return getExternalResources(rowIdFk, type, 0, -1);
+    }
+
+    /**
+     * Get a page of the external resources of a feature.
+     *
+     * @param rowIdFk the row id of the feature.
+     * @param type    the type of the resources.
+     * @param offset  the number of resources to skip.
+     * @param limit   the maximum number of resources to return, -1 for all.
+     * @return the resources, ordered by id.
+     */
+    public List<ExternalResource> getExternalResources(long rowIdFk, AbstractResource.ResourceType type, int offset, int limit) {
         StringBuffer buffer = new StringBuffer();
         buffer.append("SELECT ");
         buffer.append(ID_FIELD).append(", ").append(RESPATH_FIELD).append(", ").append(RESNAME_FIELD);
         buffer.append(" FROM ").append(AUX_TABLE_NAME);
         buffer.append(" WHERE ");
-        buffer.append(RESTABLE_FIELD).append("='").append(this.tableName).append("' AND ");
-        buffer.append(ROWFK_FIELD).append("=").append(rowIdFk).append(" AND ");
-        buffer.append(RESTYPE_FIELD).append("='").append(type.toString()).append("'");
+        buffer.append(RESTABLE_FIELD).append("=? AND ");
+        buffer.append(ROWFK_FIELD).append("=? AND ");
+        buffer.append(RESTYPE_FIELD).append("=?");
+        buffer.append(" ORDER BY ").append(ID_FIELD);
+        buffer.append(" LIMIT ? OFFSET ?");
 
         String sqlCommand = buffer.toString();
         Stmt statement = null;
         ArrayList<ExternalResource> result = new ArrayList<ExternalResource>();
         try {
             statement = database.prepare(sqlCommand);
+            statement.bind(1, this.tableName);
+            statement.bind(2, rowIdFk);
+            statement.bind(3, type.toString());
+            statement.bind(4, limit);
+            statement.bind(5, offset);
             while (statement.step()) {
                 long id = statement.column_long(0);
                 String path = statement.column_string(1);
@@ -207,6 +228,141 @@ public class ResourceStorage {
         return result;
     }
 
+    /**
+     * Get a page of the blob resources of a feature, without their blobs and thumbnails.
+     * <p/>
+     * The thumbnails are read on demand through {@link #getBlobThumbnail(long)}, so that
+     * features with many resources can be browsed without loading them all.
+     *
+     * @param rowIdFk the row id of the feature.
+     * @param type    the type of the resources.
+     * @param offset  the number of resources to skip.
+     * @param limit   the maximum number of resources to return.
+     * @return the resources, ordered by id.
+     */
+    public List<BlobResource> getBlobResourcesPage(long rowIdFk, BlobResource.ResourceType type, int offset, int limit) {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("SELECT ");
+        buffer.append(ID_FIELD).append(", ").append(RESNAME_FIELD);
+        buffer.append(" FROM ").append(AUX_TABLE_NAME);
+        buffer.append(" WHERE ");
+        buffer.append(RESTABLE_FIELD).append("=? AND ");
+        buffer.append(ROWFK_FIELD).append("=? AND ");
+        buffer.append(RESTYPE_FIELD).append("=?");
+        buffer.append(" ORDER BY ").append(ID_FIELD);
+        buffer.append(" LIMIT ? OFFSET ?");
+
+        String sqlCommand = buffer.toString();
+        Stmt statement = null;
+        ArrayList<BlobResource> result = new ArrayList<BlobResource>();
+        try {
+            statement = database.prepare(sqlCommand);
+            statement.bind(1, this.tableName);
+            statement.bind(2, rowIdFk);
+            statement.bind(3, type.toString());
+            statement.bind(4, limit);
+            statement.bind(5, offset);
+            while (statement.step()) {
+                long id = statement.column_long(0);
+                String name = statement.column_string(1);
+                result.add(new BlobResource(id, null, name, type));
+            }
+        } catch (Exception e) {
+            GPLog.error("DAO" +
+                            "SPATIALITE",
+                    "Error in getBlobResourcesPage sql[" + sqlCommand + "] db[" + database.getFilename() + "]", e);
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Count the resources of a feature.
+     *
+     * @param rowIdFk the row id of the feature.
+     * @param type    the type of the resources.
+     * @return the number of resources.
+     */
+    public int getResourcesCount(long rowIdFk, AbstractResource.ResourceType type) {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("SELECT count(*)");
+        buffer.append(" FROM ").append(AUX_TABLE_NAME);
+        buffer.append(" WHERE ");
+        buffer.append(RESTABLE_FIELD).append("=? AND ");
+        buffer.append(ROWFK_FIELD).append("=? AND ");
+        buffer.append(RESTYPE_FIELD).append("=?");
+
+        String sqlCommand = buffer.toString();
+        Stmt statement = null;
+        try {
+            statement = database.prepare(sqlCommand);
+            statement.bind(1, this.tableName);
+            statement.bind(2, rowIdFk);
+            statement.bind(3, type.toString());
+            if (statement.step()) {
+                return statement.column_int(0);
+            }
+        } catch (Exception e) {
+            GPLog.error("DAO" +
+                            "SPATIALITE",
+                    "Error in getResourcesCount sql[" + sqlCommand + "] db[" + database.getFilename() + "]", e);
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Get the thumbnail of a blob resource.
+     *
+     * @param id the id of the resource.
+     * @return the thumbnail data or <code>null</code>.
+     */
+    public byte[] getBlobThumbnail(long id) {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("SELECT ");
+        buffer.append(RESBLOBTHUMB_FIELD);
+        buffer.append(" FROM ").append(AUX_TABLE_NAME);
+        buffer.append(" WHERE ");
+        buffer.append(ID_FIELD).append("=?");
+
+        String sqlCommand = buffer.toString();
+        Stmt statement = null;
+        try {
+            statement = database.prepare(sqlCommand);
+            statement.bind(1, id);
+            if (statement.step()) {
+                return statement.column_bytes(0);
+            }
+        } catch (Exception e) {
+            GPLog.error("DAO" +
+                            "SPATIALITE",
+                    "Error in getBlobThumbnail sql[" + sqlCommand + "] db[" + database.getFilename() + "]", e);
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+
+        return null;
+    }
+
 
     public BlobResource getBlobResource(long id) {
         StringBuffer buffer = new StringBuffer();
@@ -344,6 +500,15 @@ public class ResourceStorage {
                 } catch (Exception e) {}
             }
         }
+        ThumbnailCache.getInstance().invalidate(getThumbnailKey(rowId));
+    }
+
+    /**
+     * @param resourceId the id of a resource of this storage.
+     * @return the key of the resource thumbnail in the {@link ThumbnailCache}.
+     */
+    public String getThumbnailKey(long resourceId) {
+        return ThumbnailCache.getResourceKey(getDbFile(), this.tableName, resourceId);
     }
 
     public void deleteResource(AbstractResource resource) {
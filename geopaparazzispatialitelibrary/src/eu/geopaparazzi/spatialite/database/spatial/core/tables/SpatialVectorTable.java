@@ -20,6 +20,8 @@ package eu.geopaparazzi.spatialite.database.spatial.core.tables;
 import android.graphics.DashPathEffect;
 import android.graphics.Paint;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -70,8 +72,9 @@ public class SpatialVectorTable extends AbstractSpatialTable implements Serializ
      */
     private HashMap<String, String> fields_list_non_vector = null;
 
-    private HashMap<String, Paint> fillPaints = new HashMap<String, Paint>();
-    private HashMap<String, Paint> strokePaints = new HashMap<String, Paint>();
+    // paints are not serializable, they are recreated on demand
+    private transient HashMap<String, Paint> fillPaints = new HashMap<String, Paint>();
+    private transient HashMap<String, Paint> strokePaints = new HashMap<String, Paint>();
 
     // only non-geometry fields [name]
     private List<String> labelList = null;
@@ -115,6 +118,12 @@ public class SpatialVectorTable extends AbstractSpatialTable implements Serializ
     }
 
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        fillPaints = new HashMap<String, Paint>();
+        strokePaints = new HashMap<String, Paint>();
+    }
+
     /**
      * Create a unique names for the table based on db path/name, table and geometry.
      */
@@ -24,6 +24,8 @@ import com.vividsolutions.jts.io.WKBReader;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.util.types.EDataType;
@@ -58,6 +60,13 @@ public class SpatialiteUtilities {
 
     public static final String DUMMY = "dummy";
 
+    /**
+     * The standard tile query, with place holders for zoom, column and row.
+     */
+    private static final Pattern TILE_QUERY_PATTERN = Pattern.compile(
+            "^\\s*select\\s+(.+?)\\s+from\\s+(.+?)\\s+where\\s+zoom_level\\s*=\\s*\\?\\s+and\\s+tile_column\\s*=\\s*\\?"
+                    + "\\s+and\\s+tile_row\\s*=\\s*\\?\\s*;?\\s*$", Pattern.CASE_INSENSITIVE);
+
     /**
      * Checks if a field needs to be ignored.
      *
@@ -137,6 +146,70 @@ public class SpatialiteUtilities {
      */
     public static String buildGeometriesInBoundsQuery(String destSrid, boolean withRowId, SpatialVectorTable table, double n,
                                                       double s, double e, double w) {
+        return buildGeometriesInBoundsQuery(destSrid, withRowId, table, String.valueOf(n), String.valueOf(s),
+                String.valueOf(e), String.valueOf(w));
+    }
+
+    /**
+     * Build a parameterized query to retrieve geometries from a table in a given bound.
+     * <p>
+     * <p>The bounds are bound with {@link #bindGeometriesInBoundsStatement(Stmt, double, double, double, double)}.
+     *
+     * @param destSrid  the destination srid.
+     * @param withRowId if <code>true</code>, the ROWID is added in position 0 of the query.
+     * @param table     the table to use.
+     * @return the query.
+     */
+    public static String buildGeometriesInBoundsStatement(String destSrid, boolean withRowId, SpatialVectorTable table) {
+        return buildGeometriesInBoundsQuery(destSrid, withRowId, table, "?", "?", "?", "?");
+    }
+
+    /**
+     * Bind the bounds to a statement prepared from {@link #buildGeometriesInBoundsStatement(String, boolean, SpatialVectorTable)}.
+     *
+     * @param stmt the statement.
+     * @param n    north bound.
+     * @param s    south bound.
+     * @param e    east bound.
+     * @param w    west bound.
+     * @throws jsqlite.Exception if something goes wrong.
+     */
+    public static void bindGeometriesInBoundsStatement(Stmt stmt, double n, double s, double e, double w) throws jsqlite.Exception {
+        // the mbr is used twice, in the intersection and in the spatial index search
+        for (int i = 0; i < 2; i++) {
+            int offset = i * 4;
+            stmt.bind(offset + 1, w);
+            stmt.bind(offset + 2, n);
+            stmt.bind(offset + 3, e);
+            stmt.bind(offset + 4, s);
+        }
+    }
+
+    /**
+     * Build the query of all the tiles of a zoom level in a range of columns and rows, from a single tile query.
+     * <p/>
+     * The returned query has place holders for zoom, min column, max column, min row and max row and
+     * returns the tile column, the tile row and the tile image.
+     *
+     * @param tileQuery the tile query, as given by the raster table.
+     * @return the range query or <code>null</code>, if the tile query is not in the standard form.
+     */
+    public static String buildRasterTilesInRangeQuery(String tileQuery) {
+        Matcher matcher = TILE_QUERY_PATTERN.matcher(tileQuery);
+        if (!matcher.matches()) {
+            return null;
+        }
+        StringBuilder qSb = new StringBuilder();
+        qSb.append("select tile_column, tile_row, ");
+        qSb.append(matcher.group(1));
+        qSb.append(" from ");
+        qSb.append(matcher.group(2));
+        qSb.append(" where zoom_level = ? AND tile_column BETWEEN ? AND ? AND tile_row BETWEEN ? AND ?");
+        return qSb.toString();
+    }
+
+    private static String buildGeometriesInBoundsQuery(String destSrid, boolean withRowId, SpatialVectorTable table, String n,
+                                                       String s, String e, String w) {
         boolean doTransform = false;
         if (!table.getSrid().equals(destSrid)) {
             doTransform = true;
@@ -231,7 +304,60 @@ public class SpatialiteUtilities {
      */
     public static String getBboxIntersectingFeaturesQuery(String boundsSrid, SpatialVectorTable spatialTable, double n,
                                                           double s, double e, double w) {
-        String query = null;
+        return getBboxIntersectingFeaturesQuery(boundsSrid, spatialTable, String.valueOf(n), String.valueOf(s),
+                String.valueOf(e), String.valueOf(w));
+    }
+
+    /**
+     * Get the parameterized query to run for a bounding box intersection to retrieve features.
+     * <p>
+     * <p>The bounds are bound with {@link #bindBboxStatement(Stmt, double, double, double, double)}.
+     *
+     * @param boundsSrid   the srid of the bounds requested.
+     * @param spatialTable the {@link SpatialVectorTable} to query.
+     * @return the query to run to get all fields.
+     * @see #getBboxIntersectingFeaturesQuery(String, SpatialVectorTable, double, double, double, double)
+     */
+    public static String getBboxIntersectingFeaturesStatement(String boundsSrid, SpatialVectorTable spatialTable) {
+        return getBboxIntersectingFeaturesQuery(boundsSrid, spatialTable, "?", "?", "?", "?");
+    }
+
+    /**
+     * Bind the bounds to a statement that contains a single <code>BuildMBR(w, s, e, n)</code>.
+     *
+     * @param stmt the statement.
+     * @param n    north bound.
+     * @param s    south bound.
+     * @param e    east bound.
+     * @param w    west bound.
+     * @throws jsqlite.Exception if something goes wrong.
+     */
+    public static void bindBboxStatement(Stmt stmt, double n, double s, double e, double w) throws jsqlite.Exception {
+        stmt.bind(1, w);
+        stmt.bind(2, s);
+        stmt.bind(3, e);
+        stmt.bind(4, n);
+    }
+
+    /**
+     * Get the query to retrieve all the features of a table.
+     * <p>
+     * <p>This assures that the first element of the query is
+     * the id field for the record as defined in {@link SpatialiteUtilities#SPATIALTABLE_ID_FIELD}
+     * and the last one the geometry.
+     *
+     * @param resultSrid   the requested srid.
+     * @param spatialTable the {@link SpatialVectorTable} to query.
+     * @return the query to run to get all features.
+     */
+    public static String getAllFeaturesQuery(String resultSrid, SpatialVectorTable spatialTable) {
+        StringBuilder sbQ = new StringBuilder();
+        appendFeaturesSelect(sbQ, resultSrid, spatialTable);
+        sbQ.append(";");
+        return sbQ.toString();
+    }
+
+    private static void appendFeaturesSelect(StringBuilder sbQ, String resultSrid, SpatialVectorTable spatialTable) {
         boolean doTransform = false;
         String fieldNamesList = SpatialiteUtilities.SPATIALTABLE_ID_FIELD;
         // List of non-blob fields
@@ -240,10 +366,9 @@ public class SpatialiteUtilities {
             if (!ignore)
                 fieldNamesList += "," + field;
         }
-        if (!spatialTable.getSrid().equals(boundsSrid)) {
+        if (!spatialTable.getSrid().equals(resultSrid)) {
             doTransform = true;
         }
-        StringBuilder sbQ = new StringBuilder();
         sbQ.append("SELECT ");
         sbQ.append(fieldNamesList);
         sbQ.append(",ST_AsBinary(CastToXY(");
@@ -252,12 +377,20 @@ public class SpatialiteUtilities {
         sbQ.append(spatialTable.getGeomName());
         if (doTransform) {
             sbQ.append(",");
-            sbQ.append(boundsSrid);
+            sbQ.append(resultSrid);
             sbQ.append(")");
         }
         sbQ.append("))");
-        sbQ.append(" FROM \"").append(spatialTable.getTableName());
-        sbQ.append("\" WHERE ST_Intersects(");
+        sbQ.append(" FROM \"").append(spatialTable.getTableName()).append("\"");
+    }
+
+    private static String getBboxIntersectingFeaturesQuery(String boundsSrid, SpatialVectorTable spatialTable, String n,
+                                                           String s, String e, String w) {
+        String query = null;
+        boolean doTransform = !spatialTable.getSrid().equals(boundsSrid);
+        StringBuilder sbQ = new StringBuilder();
+        appendFeaturesSelect(sbQ, boundsSrid, spatialTable);
+        sbQ.append(" WHERE ST_Intersects(");
         if (doTransform)
             sbQ.append("ST_Transform(");
         sbQ.append("BuildMBR(");
@@ -0,0 +1,175 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.mbtiles;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the tiles math of the corridor packager.
+ * <p/>
+ * <p>The routes are built on the centers of the tiles of {@link #ZOOM}, so that the expected
+ * tiles are known.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class MBTilesCorridorPackagerTest {
+    private static final int ZOOM = 12;
+    private static final int X = 2173;
+    private static final int Y = 1458;
+    private static final double EARTH_CIRCUMFERENCE = 40075016.686;
+    /**
+     * A buffer far smaller than a tile.
+     */
+    private static final double SMALL_BUFFER = 10;
+
+    @Test
+    public void testStraightRoute() {
+        // five tiles in a row
+        List<List<Coordinate>> routes = routes(route(center(X, Y), center(X + 4, Y)));
+
+        List<int[]> tiles = MBTilesCorridorPackager.getCorridorTiles(routes, SMALL_BUFFER, ZOOM, ZOOM);
+
+        assertTiles(tiles, new int[][]{{X, Y}, {X + 1, Y}, {X + 2, Y}, {X + 3, Y}, {X + 4, Y}});
+        assertEquals(5, MBTilesCorridorPackager.countBoundingBoxTiles(routes, SMALL_BUFFER, ZOOM, ZOOM));
+    }
+
+    @Test
+    public void testTurningRoute() {
+        // an L of seven tiles in a bounding box of sixteen
+        List<List<Coordinate>> routes = routes(route(center(X, Y), center(X + 3, Y), center(X + 3, Y + 3)));
+
+        List<int[]> tiles = MBTilesCorridorPackager.getCorridorTiles(routes, SMALL_BUFFER, ZOOM, ZOOM);
+
+        assertTiles(tiles, new int[][]{{X, Y}, {X + 1, Y}, {X + 2, Y}, {X + 3, Y}, {X + 3, Y + 1},
+                {X + 3, Y + 2}, {X + 3, Y + 3}});
+        assertEquals(16, MBTilesCorridorPackager.countBoundingBoxTiles(routes, SMALL_BUFFER, ZOOM, ZOOM));
+    }
+
+    @Test
+    public void testBuffer() {
+        // 1.2 tiles around the center of a tile reach the 8 tiles around it, but not the next ones
+        Coordinate center = center(X, Y);
+        double tileMeters = EARTH_CIRCUMFERENCE * Math.cos(Math.toRadians(center.y)) / (1 << ZOOM);
+        List<List<Coordinate>> routes = routes(route(center));
+
+        List<int[]> tiles = MBTilesCorridorPackager.getCorridorTiles(routes, 1.2 * tileMeters, ZOOM, ZOOM);
+
+        List<int[]> expected = new ArrayList<>();
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                expected.add(new int[]{X + dx, Y + dy});
+            }
+        }
+        assertTiles(tiles, expected.toArray(new int[0][]));
+    }
+
+    @Test
+    public void testOverlappingRoutes() {
+        List<Coordinate> route = route(center(X, Y), center(X + 4, Y));
+        List<Coordinate> overlapping = route(center(X + 2, Y), center(X + 6, Y));
+        List<List<Coordinate>> routes = routes(route, route, overlapping);
+
+        List<int[]> tiles = MBTilesCorridorPackager.getCorridorTiles(routes, SMALL_BUFFER, ZOOM, ZOOM);
+
+        assertTiles(tiles, new int[][]{{X, Y}, {X + 1, Y}, {X + 2, Y}, {X + 3, Y}, {X + 4, Y}, {X + 5, Y},
+                {X + 6, Y}});
+    }
+
+    @Test
+    public void testDoubledBackRoute() {
+        List<List<Coordinate>> routes = routes(route(center(X, Y), center(X + 4, Y), center(X + 1, Y),
+                center(X + 4, Y)));
+
+        List<int[]> tiles = MBTilesCorridorPackager.getCorridorTiles(routes, SMALL_BUFFER, ZOOM, ZOOM);
+
+        assertTiles(tiles, new int[][]{{X, Y}, {X + 1, Y}, {X + 2, Y}, {X + 3, Y}, {X + 4, Y}});
+    }
+
+    @Test
+    public void testZoomLevels() {
+        List<List<Coordinate>> routes = routes(route(center(X, Y), center(X + 4, Y)));
+
+        List<int[]> tiles = MBTilesCorridorPackager.getCorridorTiles(routes, SMALL_BUFFER, ZOOM - 2, ZOOM);
+
+        // sorted by zoom level, the lower levels holding the parents of the route tiles
+        int previousZoom = ZOOM - 2;
+        Set<String> keys = new HashSet<>();
+        for (int[] tile : tiles) {
+            assertTrue(tile[0] >= previousZoom);
+            previousZoom = tile[0];
+            assertTrue(keys.add(Arrays.toString(tile)));
+            int shift = ZOOM - tile[0];
+            assertTrue(tile[1] >= X >> shift && tile[1] <= (X + 4) >> shift);
+            assertEquals(Y >> shift, tile[2]);
+        }
+        long boundingBoxTiles = MBTilesCorridorPackager.countBoundingBoxTiles(routes, SMALL_BUFFER, ZOOM - 2, ZOOM);
+        assertEquals(boundingBoxTiles, tiles.size());
+    }
+
+    @Test
+    public void testNoRoutes() {
+        List<List<Coordinate>> routes = new ArrayList<>();
+
+        assertEquals(0, MBTilesCorridorPackager.getCorridorTiles(routes, SMALL_BUFFER, 0, ZOOM).size());
+        assertEquals(0, MBTilesCorridorPackager.countBoundingBoxTiles(routes, SMALL_BUFFER, 0, ZOOM));
+    }
+
+    /**
+     * Check that the tiles of {@link #ZOOM} are exactly the expected ones, each once.
+     */
+    private static void assertTiles(List<int[]> tiles, int[][] expected) {
+        Set<String> tileKeys = new HashSet<>();
+        for (int[] tile : tiles) {
+            assertEquals(ZOOM, tile[0]);
+            assertTrue("Duplicated tile " + Arrays.toString(tile), tileKeys.add(tile[1] + "/" + tile[2]));
+        }
+        Set<String> expectedKeys = new HashSet<>();
+        for (int[] tile : expected) {
+            expectedKeys.add(tile[0] + "/" + tile[1]);
+        }
+        assertEquals(expectedKeys, tileKeys);
+    }
+
+    private static Coordinate center(int x, int y) {
+        double tilesCount = 1 << ZOOM;
+        double longitude = (x + 0.5) / tilesCount * 360.0 - 180.0;
+        double latitude = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * (y + 0.5) / tilesCount))));
+        return new Coordinate(longitude, latitude);
+    }
+
+    private static List<Coordinate> route(Coordinate... coordinates) {
+        return new ArrayList<>(Arrays.asList(coordinates));
+    }
+
+    @SafeVarargs
+    private static List<List<Coordinate>> routes(List<Coordinate>... routes) {
+        return new ArrayList<>(Arrays.asList(routes));
+    }
+}
@@ -20,8 +20,6 @@ package eu.geopaparazzi.plugins.defaultexports;
 import android.content.Context;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.Date;
 import java.util.List;
 
@@ -42,6 +40,8 @@ import eu.geopaparazzi.library.util.TimeUtilities;
 public class ExportImagesMenuEntry extends MenuEntry {
 
 
+    private static final String EXPORT_FOLDER_PREFIX = "geopaparazzi_images_";
+
     private Context serviceContext;
 
     public ExportImagesMenuEntry(Context context) {
@@ -62,10 +62,18 @@ public class ExportImagesMenuEntry extends MenuEntry {
     private void exportImages(final Context context) {
         try {
             File sdcardDir = ResourcesManager.getInstance(GeopaparazziApplication.getInstance()).getMainStorageDir();
-            final File outFolder = new File(sdcardDir, "geopaparazzi_images_" + TimeUtilities.INSTANCE.TIMESTAMPFORMATTER_LOCAL.format(new Date()));
-            if (!outFolder.mkdir()) {
-                GPDialogs.warningDialog(context, context.getString(eu.geopaparazzi.core.R.string.export_img_unable_to_create_folder) + outFolder, null);
-                return;
+            final String databasePath = GeopaparazziApplication.getInstance().getDatabase().getPath();
+            // resume an interrupted export of the same project, if there is one
+            File unfinishedFolder = ImagesExporter.findUnfinishedExport(sdcardDir, EXPORT_FOLDER_PREFIX, databasePath);
+            final File outFolder;
+            if (unfinishedFolder != null) {
+                outFolder = unfinishedFolder;
+            } else {
+                outFolder = new File(sdcardDir, EXPORT_FOLDER_PREFIX + TimeUtilities.INSTANCE.TIMESTAMPFORMATTER_LOCAL.format(new Date()));
+                if (!outFolder.mkdir()) {
+                    GPDialogs.warningDialog(context, context.getString(eu.geopaparazzi.core.R.string.export_img_unable_to_create_folder) + outFolder, null);
+                    return;
+                }
             }
             final List<Image> imagesList = DaoImages.getImagesList(false, false);
             if (imagesList.size() == 0) {
@@ -74,24 +82,18 @@ public class ExportImagesMenuEntry extends MenuEntry {
             }
 
 
-            final DaoImages imageHelper = new DaoImages();
             StringAsyncTask exportImagesTask = new StringAsyncTask(context) {
                 protected String doBackgroundWork() {
                     try {
-                        for (int i = 0; i < imagesList.size(); i++) {
-                            Image image = imagesList.get(i);
-                            try {
-                                byte[] imageData = imageHelper.getImageData(image.getId());
-                                File imageFile = new File(outFolder, image.getName());
-
-                                FileOutputStream fos = new FileOutputStream(imageFile);
-                                fos.write(imageData);
-                                fos.close();
-                            } catch (IOException e) {
-                                GPLog.error(this, "For file: " + image.getName(), e);
-                            } finally {
-                                publishProgress(i);
+                        ImagesExporter exporter = new ImagesExporter(outFolder, databasePath, ImagesExporter.ORIGINAL_SIZE);
+                        int failed = exporter.export(imagesList, new ImagesExporter.IProgressListener() {
+                            @Override
+                            public void onProgress(int handledCount) {
+                                publishProgress(handledCount);
                             }
+                        });
+                        if (failed > 0) {
+                            return "ERROR: " + failed + "/" + imagesList.size();
                         }
                     } catch (Exception e) {
                         return "ERROR: " + e.getLocalizedMessage();
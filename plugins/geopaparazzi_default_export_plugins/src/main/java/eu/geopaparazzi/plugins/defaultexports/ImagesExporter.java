@@ -0,0 +1,372 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.plugins.defaultexports;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.geopaparazzi.core.database.DaoImages;
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.Image;
+import eu.geopaparazzi.library.images.ImageUtilities;
+
+/**
+ * Exporter of the project images to a folder.
+ * <p/>
+ * Image data are read from the database by the calling thread only, in chunks, and handed
+ * to a small pool of threads that write the files. At most {@link #MAX_PENDING_IMAGES}
+ * images are held in memory, the reading waits for the writers when they are behind.
+ * Every written image is recorded in a manifest inside the output folder, together
+ * with the path of the project database, so that an interrupted export of the same
+ * project can be resumed. The manifest is removed once all images have been exported.
+ * <p/>
+ * Images sharing the same name get their id appended, so that they don't overwrite
+ * each other.
+ * <p/>
+ * Optionally images are downscaled to a maximum size while exporting.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ImagesExporter {
+
+    /**
+     * The name of the manifest file of an unfinished export.
+     */
+    public static final String MANIFEST_NAME = "export_manifest.txt";
+
+    /**
+     * Max size to use to keep the original images.
+     */
+    public static final int ORIGINAL_SIZE = -1;
+
+    private static final int IO_THREADS = 3;
+    /**
+     * The max number of read images waiting to be or being written.
+     */
+    private static final int MAX_PENDING_IMAGES = IO_THREADS * 2;
+    private static final int JPEG_QUALITY = 90;
+    private static final String PART_EXTENSION = ".part";
+    private static final String DATABASE_PREFIX = "database:";
+
+    /**
+     * Listener for the export progress.
+     */
+    public interface IProgressListener {
+        /**
+         * Called every time an image has been handled, from any thread.
+         *
+         * @param handledCount the number of images handled so far, including those exported in a previous run.
+         */
+        void onProgress(int handledCount);
+    }
+
+    private final File outFolder;
+    private final String databasePath;
+    private final int maxSize;
+    private final DaoImages daoImages = new DaoImages();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private Writer manifestWriter;
+
+    /**
+     * Constructor.
+     *
+     * @param outFolder    the folder to export to. If it contains a manifest, the export is resumed.
+     * @param databasePath the path of the project database the images are exported from.
+     * @param maxSize      the max width and height of the exported images or {@link #ORIGINAL_SIZE}.
+     */
+    public ImagesExporter(File outFolder, String databasePath, int maxSize) {
+        this.outFolder = outFolder;
+        this.databasePath = databasePath;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Find the most recent export folder of a project database that has not been completed.
+     *
+     * @param parentFolder the folder containing the exports.
+     * @param prefix       the prefix of the export folders names.
+     * @param databasePath the path of the project database.
+     * @return the folder to resume or <code>null</code>.
+     */
+    public static File findUnfinishedExport(File parentFolder, String prefix, String databasePath) {
+        File[] files = parentFolder.listFiles();
+        if (files == null) {
+            return null;
+        }
+        File unfinished = null;
+        for (File file : files) {
+            if (file.isDirectory() && file.getName().startsWith(prefix)) {
+                File manifestFile = new File(file, MANIFEST_NAME);
+                if (!manifestFile.exists() || !databasePath.equals(readManifestDatabase(manifestFile))) {
+                    continue;
+                }
+                if (unfinished == null || file.lastModified() > unfinished.lastModified()) {
+                    unfinished = file;
+                }
+            }
+        }
+        return unfinished;
+    }
+
+    /**
+     * Export the images.
+     *
+     * @param images   the images to export.
+     * @param listener an optional progress listener.
+     * @return the number of images that could not be exported.
+     * @throws Exception if the export can't be run.
+     */
+    public int export(List<Image> images, final IProgressListener listener) throws Exception {
+        File manifestFile = new File(outFolder, MANIFEST_NAME);
+        Set<Long> exportedIds = readManifest(manifestFile);
+        boolean isNewManifest = !manifestFile.exists() || manifestFile.length() == 0;
+        manifestWriter = new FileWriter(manifestFile, true);
+        if (isNewManifest) {
+            manifestWriter.write(DATABASE_PREFIX + databasePath + "\n");
+            manifestWriter.flush();
+        }
+
+        Map<Long, String> namesMap = getUniqueNames(images);
+        final AtomicInteger handledCount = new AtomicInteger();
+        failedCount.set(0);
+        final Semaphore pendingImages = new Semaphore(MAX_PENDING_IMAGES);
+        ExecutorService ioPool = Executors.newFixedThreadPool(IO_THREADS);
+        try {
+            for (final Image image : images) {
+                if (exportedIds.contains(image.getId())) {
+                    fireProgress(listener, handledCount.incrementAndGet());
+                    continue;
+                }
+
+                final String name = namesMap.get(image.getId());
+                // the database is read on this thread only
+                pendingImages.acquire();
+                final byte[] imageData;
+                try {
+                    imageData = readImageData(image);
+                } catch (Throwable e) {
+                    pendingImages.release();
+                    GPLog.error(this, "For file: " + name, e);
+                    failedCount.incrementAndGet();
+                    fireProgress(listener, handledCount.incrementAndGet());
+                    continue;
+                }
+                ioPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            writeImage(image, name, imageData);
+                        } catch (Throwable e) {
+                            GPLog.error(ImagesExporter.this, "For file: " + name, e);
+                            failedCount.incrementAndGet();
+                        } finally {
+                            pendingImages.release();
+                            fireProgress(listener, handledCount.incrementAndGet());
+                        }
+                    }
+                });
+            }
+        } finally {
+            ioPool.shutdown();
+            ioPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            manifestWriter.close();
+        }
+
+        int failed = failedCount.get();
+        if (failed == 0 && !manifestFile.delete()) {
+            GPLog.addLogEntry(this, "Unable to remove export manifest: " + manifestFile);
+        }
+        return failed;
+    }
+
+    /**
+     * Get the names of the exported files, appending the id to the names shared by more images.
+     * <p/>
+     * The names depend only on the images, so that a resumed export uses the same names.
+     */
+    private static Map<Long, String> getUniqueNames(List<Image> images) {
+        Map<String, Integer> namesCountMap = new HashMap<>();
+        for (Image image : images) {
+            String key = image.getName().toLowerCase();
+            Integer count = namesCountMap.get(key);
+            namesCountMap.put(key, count == null ? 1 : count + 1);
+        }
+        Map<Long, String> namesMap = new HashMap<>();
+        for (Image image : images) {
+            String name = image.getName();
+            if (namesCountMap.get(name.toLowerCase()) > 1) {
+                int dotIndex = name.lastIndexOf('.');
+                if (dotIndex > 0) {
+                    name = name.substring(0, dotIndex) + "_" + image.getId() + name.substring(dotIndex);
+                } else {
+                    name = name + "_" + image.getId();
+                }
+            }
+            namesMap.put(image.getId(), name);
+        }
+        return namesMap;
+    }
+
+    private void writeImage(Image image, String name, byte[] imageData) throws IOException {
+        File imageFile = new File(outFolder, name);
+        // written aside and renamed, so that an interrupted write is never taken as exported
+        File partFile = new File(outFolder, name + PART_EXTENSION);
+        OutputStream outputStream = new FileOutputStream(partFile);
+        try {
+            if (maxSize > 0) {
+                writeScaled(imageData, name, outputStream);
+            } else {
+                outputStream.write(imageData);
+            }
+        } finally {
+            outputStream.close();
+        }
+        if (!partFile.renameTo(imageFile)) {
+            throw new IOException("Unable to rename " + partFile + " to " + imageFile);
+        }
+
+        synchronized (this) {
+            manifestWriter.write(image.getId() + "\n");
+            manifestWriter.flush();
+        }
+    }
+
+    /**
+     * Read the data of an image, in chunks, so that no cursor window holds the whole image.
+     */
+    private byte[] readImageData(Image image) throws IOException {
+        InputStream inputStream = daoImages.getImageDataStream(image.getId());
+        if (inputStream == null) {
+            throw new IOException("No image data found for image: " + image.getId());
+        }
+        try {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                bout.write(buffer, 0, read);
+            }
+            return bout.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void writeScaled(byte[] imageData, String name, OutputStream outputStream) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(imageData, 0, imageData.length, options);
+        if (options.outWidth <= maxSize && options.outHeight <= maxSize) {
+            outputStream.write(imageData);
+            return;
+        }
+
+        options.inSampleSize = ImageUtilities.calculateInSampleSize(options, maxSize, maxSize);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(imageData, 0, imageData.length, options);
+        if (bitmap == null) {
+            throw new IOException("Unable to decode image: " + name);
+        }
+        try {
+            float scale = Math.min((float) maxSize / bitmap.getWidth(), (float) maxSize / bitmap.getHeight());
+            if (scale < 1f) {
+                int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+                int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+                if (scaled != bitmap) {
+                    bitmap.recycle();
+                    bitmap = scaled;
+                }
+            }
+            Bitmap.CompressFormat format = name.toLowerCase().endsWith(".png") ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+            bitmap.compress(format, JPEG_QUALITY, outputStream);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    private static String readManifestDatabase(File manifestFile) {
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(manifestFile));
+            try {
+                String line = reader.readLine();
+                if (line != null && line.startsWith(DATABASE_PREFIX)) {
+                    return line.substring(DATABASE_PREFIX.length()).trim();
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            GPLog.error("IMAGESEXPORTER", "Unable to read export manifest: " + manifestFile, e);
+        }
+        return null;
+    }
+
+    private static Set<Long> readManifest(File manifestFile) throws IOException {
+        Set<Long> ids = new HashSet<>();
+        if (!manifestFile.exists()) {
+            return ids;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(manifestFile));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith(DATABASE_PREFIX)) {
+                    continue;
+                }
+                try {
+                    ids.add(Long.parseLong(line));
+                } catch (NumberFormatException e) {
+                    // a line truncated by an interruption, the image is exported again
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return ids;
+    }
+
+    private static void fireProgress(IProgressListener listener, int handledCount) {
+        if (listener != null) {
+            listener.onProgress(handledCount);
+        }
+    }
+}
@@ -45,6 +45,7 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -70,8 +71,18 @@ public class PdfExportDialogFragment extends DialogFragment {
     public static final String NODATA = "NODATA";
     public static final String PDF_PATH = "exportPath";
     public static final String INTERRUPTED = "INTERRUPTED";
+    /**
+     * The resolution of the images embedded in the pdf.
+     */
+    public static final int IMAGES_DPI = 150;
+    /**
+     * The number of notes whose images are prepared ahead.
+     */
+    private static final int PREFETCH_NOTES = 3;
     private ProgressBar progressBar;
     private String exportPath;
+    private PdfImagesProvider imagesProvider;
+    private final DaoImages daoImages = new DaoImages();
 
     private boolean isInterrupted = false;
     private AlertDialog alertDialog;
@@ -139,12 +150,14 @@ public class PdfExportDialogFragment extends DialogFragment {
         new AsyncTask<String, Void, String>() {
             protected String doInBackground(String... params) {
                 File pdfOutputFile = null;
+                PdfExportReport report = new PdfExportReport();
                 try {
-                    boolean hasAtLeastOne = false;
                     /*
                      * get notes
                      */
+                    long start = report.start();
                     List<Note> notesList = DaoNotes.getNotesList(null, false);
+                    report.stageDone(PdfExportReport.STAGE_NOTES, start);
                     if (notesList.size() == 0) {
                         return NODATA;
                     }
@@ -160,7 +173,7 @@ public class PdfExportDialogFragment extends DialogFragment {
                     // TODO export list to pdf
                     Document document = new Document();
                     document.setMargins(36, 36, 36, 36);
-                    PdfWriter.getInstance(document, new FileOutputStream(pdfOutputFile));
+                    PdfWriter writer = PdfWriter.getInstance(document, new FileOutputStream(pdfOutputFile));
                     document.open();
 
                     document.addTitle("Geopaparazzi PDF Export");
@@ -169,12 +182,40 @@ public class PdfExportDialogFragment extends DialogFragment {
                     document.addAuthor("Geopaparazzi User");
                     document.addCreator("Geopaparazzi - http://www.geopaparazzi.eu");
 
-                    int index = 1;
-                    for (Note note : notesList) {
-                        processNote(document, note, index++);
+                    // images are shown in the value column of a 90% wide two columns table
+                    float imagesDisplayWidth = (document.right() - document.left()) * 0.9f / 2f;
+                    imagesProvider = new PdfImagesProvider(imagesDisplayWidth, IMAGES_DPI, report);
+
+                    for (int i = 0; i < notesList.size(); i++) {
+                        if (isInterrupted) {
+                            try {
+                                document.close();
+                            } catch (Exception e) {
+                                // a document without pages can't be closed, it is removed anyway
+                            }
+                            pdfOutputFile.delete();
+                            return INTERRUPTED;
+                        }
+                        // prepare the images of the next notes while this one is laid out
+                        List<String> nextImageIds = new ArrayList<>();
+                        for (int j = i; j < Math.min(i + PREFETCH_NOTES, notesList.size()); j++) {
+                            List<String> imageIds = notesList.get(j).getImageIds();
+                            if (imageIds != null) {
+                                nextImageIds.addAll(imageIds);
+                            }
+                        }
+                        imagesProvider.prefetch(nextImageIds);
+
+                        start = report.start();
+                        processNote(document, notesList.get(i), i + 1);
+                        // the pages of the note reach the file before the next one is laid out
+                        writer.flush();
+                        report.stageDone(PdfExportReport.STAGE_PAGES, start);
+                        report.noteDone();
                     }
 
                     document.close();
+                    GPLog.addLogEntry(this, report.toString());
 
                     return pdfOutputFile.getAbsolutePath();
                 } catch (Exception e) {
@@ -185,6 +226,10 @@ public class PdfExportDialogFragment extends DialogFragment {
                     GPLog.error(this, e.getLocalizedMessage(), e);
                     e.printStackTrace();
                     return ""; //$NON-NLS-1$
+                } finally {
+                    if (imagesProvider != null) {
+                        imagesProvider.dispose();
+                    }
                 }
             }
 
@@ -213,7 +258,6 @@ public class PdfExportDialogFragment extends DialogFragment {
         String name = Utilities.makeXmlSafe(note.getName());
         String form = note.getForm();
 
-        DaoImages daoImages = new DaoImages();
         if (form != null && form.length() > 0) {
             JSONObject sectionObject = new JSONObject(form);
             if (!sectionObject.has(FormUtilities.ATTR_SECTIONNAME)) {
@@ -270,75 +314,21 @@ public class PdfExportDialogFragment extends DialogFragment {
                         }
                         String[] imageIdsSplit = value.split(Note.IMAGES_SEPARATOR);
                         for (String imageId : imageIdsSplit) {
-                            Image image = daoImages.getImage(Long.parseLong(imageId));
-                            String imgName = image.getName();
-                            byte[] imageData = daoImages.getImageData(Long.parseLong(imageId));
-                            com.itextpdf.text.Image itextImage = com.itextpdf.text.Image.getInstance(imageData);
-                            Paragraph caption = new Paragraph(imgName);
-                            caption.setAlignment(Element.ALIGN_CENTER);
-
-                            PdfPCell keyCell = new PdfPCell(new Phrase(label));
-                            keyCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                            keyCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-                            keyCell.setPadding(10);
-                            currentTable.addCell(keyCell);
-                            PdfPCell valueCell = new PdfPCell();
-                            valueCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                            valueCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-                            valueCell.setPadding(10);
-                            valueCell.addElement(itextImage);
-                            valueCell.addElement(caption);
-                            currentTable.addCell(valueCell);
+                            addImageToTableRow(currentTable, label, Long.parseLong(imageId));
                         }
                     } else if (type.equals(FormUtilities.TYPE_MAP)) {
                         if (value.trim().length() == 0) {
                             continue;
                         }
                         String imageId = value.trim();
-                        Image image = daoImages.getImage(Long.parseLong(imageId));
-                        String imgName = image.getName();
-                        byte[] imageData = daoImages.getImageData(Long.parseLong(imageId));
-                        com.itextpdf.text.Image itextImage = com.itextpdf.text.Image.getInstance(imageData);
-                        Paragraph caption = new Paragraph(imgName);
-                        caption.setAlignment(Element.ALIGN_CENTER);
-
-                        PdfPCell keyCell = new PdfPCell(new Phrase(label));
-                        keyCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                        keyCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-                        keyCell.setPadding(10);
-                        currentTable.addCell(keyCell);
-                        PdfPCell valueCell = new PdfPCell();
-                        valueCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                        valueCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-                        valueCell.setPadding(10);
-                        valueCell.addElement(itextImage);
-                        valueCell.addElement(caption);
-                        currentTable.addCell(valueCell);
+                        addImageToTableRow(currentTable, label, Long.parseLong(imageId));
                     } else if (type.equals(FormUtilities.TYPE_SKETCH)) {
                         if (value.trim().length() == 0) {
                             continue;
                         }
                         String[] imageIdsSplit = value.split(Note.IMAGES_SEPARATOR);
                         for (String imageId : imageIdsSplit) {
-                            Image image = daoImages.getImage(Long.parseLong(imageId));
-                            String imgName = image.getName();
-                            byte[] imageData = daoImages.getImageData(Long.parseLong(imageId));
-                            com.itextpdf.text.Image itextImage = com.itextpdf.text.Image.getInstance(imageData);
-                            Paragraph caption = new Paragraph(imgName);
-                            caption.setAlignment(Element.ALIGN_CENTER);
-
-                            PdfPCell keyCell = new PdfPCell(new Phrase(label));
-                            keyCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                            keyCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-                            keyCell.setPadding(10);
-                            currentTable.addCell(keyCell);
-                            PdfPCell valueCell = new PdfPCell();
-                            valueCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                            valueCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-                            valueCell.setPadding(10);
-                            valueCell.addElement(itextImage);
-                            valueCell.addElement(caption);
-                            currentTable.addCell(valueCell);
+                            addImageToTableRow(currentTable, label, Long.parseLong(imageId));
                         }
                     } else {
                         addKeyValueToTableRow(currentTable, label, value);
@@ -354,6 +344,29 @@ public class PdfExportDialogFragment extends DialogFragment {
 
     }
 
+    private void addImageToTableRow(PdfPTable table, String label, long imageId) throws Exception {
+        Image image = daoImages.getImage(imageId);
+        com.itextpdf.text.Image itextImage = imagesProvider.getImage(imageId);
+        if (image == null || itextImage == null) {
+            return;
+        }
+        Paragraph caption = new Paragraph(image.getName());
+        caption.setAlignment(Element.ALIGN_CENTER);
+
+        PdfPCell keyCell = new PdfPCell(new Phrase(label));
+        keyCell.setHorizontalAlignment(Element.ALIGN_CENTER);
+        keyCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
+        keyCell.setPadding(10);
+        table.addCell(keyCell);
+        PdfPCell valueCell = new PdfPCell();
+        valueCell.setHorizontalAlignment(Element.ALIGN_CENTER);
+        valueCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
+        valueCell.setPadding(10);
+        valueCell.addElement(itextImage);
+        valueCell.addElement(caption);
+        table.addCell(valueCell);
+    }
+
     private void addKeyValueToTableRow(PdfPTable table, String key, String value) {
         PdfPCell keyCell = new PdfPCell(new Phrase(key));
         keyCell.setHorizontalAlignment(Element.ALIGN_CENTER);
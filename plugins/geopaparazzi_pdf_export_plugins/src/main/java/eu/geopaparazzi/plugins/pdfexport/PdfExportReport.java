@@ -0,0 +1,115 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.plugins.pdfexport;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Time and memory report of the stages of a pdf export.
+ * <p/>
+ * Stage times are summed up, so the same stage can be timed several times,
+ * also from different threads.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class PdfExportReport {
+
+    /**
+     * Stage of the notes reading.
+     */
+    public static final String STAGE_NOTES = "read notes";
+    /**
+     * Stage of the images reading and downsampling, summed over the worker threads.
+     */
+    public static final String STAGE_IMAGES = "prepare images";
+    /**
+     * Stage of the waiting for images not ready yet.
+     */
+    public static final String STAGE_IMAGES_WAIT = "wait for images";
+    /**
+     * Stage of the layout and writing of the pages.
+     */
+    public static final String STAGE_PAGES = "write pages";
+
+    private final Map<String, Long> stageMillis = new LinkedHashMap<>();
+    private final Map<String, Long> stageMaxUsedMemory = new LinkedHashMap<>();
+    private final long startMillis = System.currentTimeMillis();
+    private int notesCount = 0;
+    private int imagesCount = 0;
+    private int reusedImagesCount = 0;
+
+    /**
+     * @return the current time, to be passed to {@link #stageDone(String, long)}.
+     */
+    public long start() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Add the time elapsed since a start to a stage and sample the memory use.
+     *
+     * @param stage       the stage.
+     * @param startMillis the time returned by {@link #start()}.
+     */
+    public synchronized void stageDone(String stage, long startMillis) {
+        long elapsed = System.currentTimeMillis() - startMillis;
+        Long previous = stageMillis.get(stage);
+        stageMillis.put(stage, previous == null ? elapsed : previous + elapsed);
+
+        Runtime runtime = Runtime.getRuntime();
+        long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+        Long previousMax = stageMaxUsedMemory.get(stage);
+        if (previousMax == null || usedMemory > previousMax) {
+            stageMaxUsedMemory.put(stage, usedMemory);
+        }
+    }
+
+    public synchronized void noteDone() {
+        notesCount++;
+    }
+
+    /**
+     * @param reused <code>true</code> if the image had already been embedded and has been reused.
+     */
+    public synchronized void imageDone(boolean reused) {
+        imagesCount++;
+        if (reused) {
+            reusedImagesCount++;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("PDF export of ").append(notesCount).append(" notes and ").append(imagesCount);
+        sb.append(" images (").append(reusedImagesCount).append(" reused) in ");
+        sb.append(System.currentTimeMillis() - startMillis).append(" ms");
+        for (Map.Entry<String, Long> entry : stageMillis.entrySet()) {
+            String stage = entry.getKey();
+            sb.append("\n\t").append(stage).append(": ").append(entry.getValue()).append(" ms");
+            Long maxUsedMemory = stageMaxUsedMemory.get(stage);
+            if (maxUsedMemory != null) {
+                sb.append(", max used memory ").append(maxUsedMemory / (1024 * 1024)).append(" MB");
+            }
+        }
+        sb.append("\n\tmax memory: ").append(Runtime.getRuntime().maxMemory() / (1024 * 1024)).append(" MB");
+        return sb.toString();
+    }
+}
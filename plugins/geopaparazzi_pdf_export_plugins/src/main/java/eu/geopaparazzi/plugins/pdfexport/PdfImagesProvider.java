@@ -0,0 +1,259 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.plugins.pdfexport;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.itextpdf.text.Image;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import eu.geopaparazzi.core.database.DaoImages;
+import eu.geopaparazzi.library.images.ImageUtilities;
+
+/**
+ * Provider of the images to embed in the pdf export.
+ * <p/>
+ * Images are read and downsampled to the target resolution by a small pool of
+ * worker threads, ahead of their use through {@link #prefetch(List)}. The number
+ * of prepared images waiting to be used is bounded and images that are not going
+ * to be used soon anymore are dropped. Recently embedded images are
+ * kept, so that an image used more than once, also with different ids but same
+ * content, is written to the pdf only once.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class PdfImagesProvider {
+
+    /**
+     * Dpi value to use to embed the original images.
+     */
+    public static final int ORIGINAL_DPI = -1;
+
+    private static final int WORKER_THREADS = 2;
+    private static final int MAX_PENDING_IMAGES = 6;
+    private static final int MAX_EMBEDDED_IMAGES = 16;
+    private static final int JPEG_QUALITY = 85;
+
+    private final int targetWidth;
+    private final PdfExportReport report;
+    private final DaoImages daoImages = new DaoImages();
+    private final ExecutorService workers = Executors.newFixedThreadPool(WORKER_THREADS);
+
+    private final LinkedHashMap<Long, Future<PreparedImage>> pendingImages = new LinkedHashMap<>();
+    private final LinkedHashMap<Long, Image> embeddedImagesById = new LinkedHashMap<Long, Image>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Image> eldest) {
+            return size() > MAX_EMBEDDED_IMAGES;
+        }
+    };
+    private final LinkedHashMap<String, Image> embeddedImagesByContent = new LinkedHashMap<String, Image>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+            return size() > MAX_EMBEDDED_IMAGES;
+        }
+    };
+
+    private static class PreparedImage {
+        String contentKey;
+        byte[] data;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param displayWidth the width in points at which images are shown in the pdf.
+     * @param dpi          the resolution to downsample the images to or {@link #ORIGINAL_DPI}.
+     * @param report       the report to add the stage times to.
+     */
+    public PdfImagesProvider(float displayWidth, int dpi, PdfExportReport report) {
+        this.report = report;
+        if (dpi > 0) {
+            targetWidth = Math.round(displayWidth / 72f * dpi);
+        } else {
+            targetWidth = -1;
+        }
+    }
+
+    /**
+     * Start preparing the images that will be needed soon.
+     * <p/>
+     * Pending images that are not in the given ones, as the images of notes that did not
+     * use them, are dropped. Images beyond the max number of pending images are ignored
+     * and prepared when asked for.
+     *
+     * @param imageIds the ids of all the images needed soon, in order of use.
+     */
+    public synchronized void prefetch(List<String> imageIds) {
+        Set<Long> neededIds = new LinkedHashSet<>();
+        for (String imageIdStr : imageIds) {
+            imageIdStr = imageIdStr.trim();
+            if (imageIdStr.length() > 0) {
+                neededIds.add(Long.parseLong(imageIdStr));
+            }
+        }
+
+        Iterator<Map.Entry<Long, Future<PreparedImage>>> iterator = pendingImages.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Future<PreparedImage>> entry = iterator.next();
+            if (!neededIds.contains(entry.getKey())) {
+                entry.getValue().cancel(true);
+                iterator.remove();
+            }
+        }
+
+        for (Long imageId : neededIds) {
+            if (pendingImages.size() >= MAX_PENDING_IMAGES) {
+                return;
+            }
+            if (!pendingImages.containsKey(imageId) && !embeddedImagesById.containsKey(imageId)) {
+                pendingImages.put(imageId, submit(imageId));
+            }
+        }
+    }
+
+    /**
+     * Get the pdf image for an image id.
+     *
+     * @param imageId the image id.
+     * @return the image or <code>null</code> if it has no data.
+     * @throws Exception if something goes wrong.
+     */
+    public Image getImage(long imageId) throws Exception {
+        Future<PreparedImage> future;
+        synchronized (this) {
+            Image image = embeddedImagesById.get(imageId);
+            if (image != null) {
+                report.imageDone(true);
+                return image;
+            }
+            future = pendingImages.remove(imageId);
+            if (future == null) {
+                future = submit(imageId);
+            }
+        }
+
+        long start = report.start();
+        PreparedImage preparedImage = future.get();
+        report.stageDone(PdfExportReport.STAGE_IMAGES_WAIT, start);
+        if (preparedImage == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            Image image = embeddedImagesByContent.get(preparedImage.contentKey);
+            boolean reused = image != null;
+            if (!reused) {
+                image = Image.getInstance(preparedImage.data);
+                embeddedImagesByContent.put(preparedImage.contentKey, image);
+            }
+            embeddedImagesById.put(imageId, image);
+            report.imageDone(reused);
+            return image;
+        }
+    }
+
+    /**
+     * Stop the workers.
+     */
+    public void dispose() {
+        workers.shutdownNow();
+        synchronized (this) {
+            pendingImages.clear();
+            embeddedImagesById.clear();
+            embeddedImagesByContent.clear();
+        }
+    }
+
+    private Future<PreparedImage> submit(final long imageId) {
+        return workers.submit(new Callable<PreparedImage>() {
+            @Override
+            public PreparedImage call() throws Exception {
+                long start = report.start();
+                try {
+                    return prepare(imageId);
+                } finally {
+                    report.stageDone(PdfExportReport.STAGE_IMAGES, start);
+                }
+            }
+        });
+    }
+
+    private PreparedImage prepare(long imageId) throws Exception {
+        byte[] imageData = daoImages.getImageData(imageId);
+        if (imageData == null) {
+            return null;
+        }
+        PreparedImage preparedImage = new PreparedImage();
+        CRC32 crc = new CRC32();
+        crc.update(imageData);
+        preparedImage.contentKey = imageData.length + "_" + crc.getValue();
+        preparedImage.data = imageData;
+        if (targetWidth <= 0) {
+            return preparedImage;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(imageData, 0, imageData.length, options);
+        if (options.outWidth <= targetWidth) {
+            return preparedImage;
+        }
+        // the height is not limiting, the width is what the table cell imposes
+        options.inSampleSize = ImageUtilities.calculateInSampleSize(options, targetWidth, 1);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(imageData, 0, imageData.length, options);
+        if (bitmap == null) {
+            return preparedImage;
+        }
+        try {
+            if (bitmap.getWidth() > targetWidth) {
+                int height = Math.max(1, Math.round((float) bitmap.getHeight() * targetWidth / bitmap.getWidth()));
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap, targetWidth, height, true);
+                if (scaled != bitmap) {
+                    bitmap.recycle();
+                    bitmap = scaled;
+                }
+            }
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            if (bitmap.hasAlpha()) {
+                // sketches and maps keep their transparency
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, bout);
+            } else {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, bout);
+            }
+            preparedImage.data = bout.toByteArray();
+        } finally {
+            bitmap.recycle();
+        }
+        return preparedImage;
+    }
+}